@@ -0,0 +1,75 @@
+package com.ddnconsulting.fileprocessor.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.ddnconsulting.fileprocessor.core.FileClassifier;
+import com.ddnconsulting.fileprocessor.core.FileContext;
+import com.ddnconsulting.fileprocessor.core.FilesProbeClassifier;
+import com.ddnconsulting.fileprocessor.core.MagicFileClassifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Classifier throughput over a mix of files, some classified by extension and some by contents.  Run with -t to see
+ * how a classifier behaves with several walker threads.
+ *
+ * @author Dan Nathanson
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClassifierBenchmark {
+
+    @Param({"magic", "probe"})
+    public String classifierName;
+
+    private Path root;
+    private FileContext[] contexts;
+    private FileClassifier classifier;
+
+    @Setup(Level.Trial)
+    public void createFiles() throws IOException {
+        root = Fixtures.createTree(500);
+        List<FileContext> list = Fixtures.contexts(root);
+        contexts = list.toArray(new FileContext[list.size()]);
+        classifier = "magic".equals(classifierName) ? new MagicFileClassifier() : new FilesProbeClassifier();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        Fixtures.delete(root);
+    }
+
+    /**
+     * Each thread works through the files in turn.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    public String getType(Cursor cursor) {
+        FileContext context = contexts[cursor.next];
+        cursor.next = (cursor.next + 1) % contexts.length;
+        return classifier.getType(context);
+    }
+}
@@ -0,0 +1,93 @@
+package com.ddnconsulting.fileprocessor.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.ddnconsulting.fileprocessor.core.ExecutorLanes;
+import com.ddnconsulting.fileprocessor.core.FileContext;
+import com.ddnconsulting.fileprocessor.core.FileWorkerRunner;
+import com.ddnconsulting.fileprocessor.core.ScanJob;
+import com.ddnconsulting.fileprocessor.resultshandlers.ResultsHandler;
+import com.ddnconsulting.fileprocessor.workers.FileSizeWorker;
+import com.ddnconsulting.fileprocessor.workers.FileWorker;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.env.StandardEnvironment;
+
+
+/**
+ * Overhead of running workers: a FileWorkerRunner called directly, and a batch of runners dispatched through a
+ * ScanJob to a lane's thread pool and waited for.  The worker (FileSizeWorker on a context with attributes) does
+ * almost nothing, so what's measured is the machinery around it.
+ *
+ * @author Dan Nathanson
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DispatchBenchmark {
+    private static final int BATCH_SIZE = 1000;
+
+    private Path root;
+    private FileContext context;
+    private List<FileWorker> workers;
+    private ResultsHandler discardingHandler;
+    private ExecutorLanes lanes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Fixtures.createTree(1);
+        context = Fixtures.contexts(root).get(0);
+        workers = Arrays.<FileWorker>asList(new FileSizeWorker());
+        discardingHandler = new ResultsHandler() {
+            @Override
+            public void handleResults(FileWorkerResults results) {
+                // discard
+            }
+        };
+        lanes = new ExecutorLanes(new StandardEnvironment(), 3, 10000, 5000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        lanes.shutdownNow();
+        Fixtures.delete(root);
+    }
+
+    @Benchmark
+    public List<FileWorkerResults> runnerCall() throws Exception {
+        return new FileWorkerRunner(workers, context, discardingHandler).call();
+    }
+
+    /**
+     * Time per task to dispatch a batch and wait for it to finish.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public boolean scanJobDispatch() throws InterruptedException {
+        ScanJob scanJob = new ScanJob(lanes);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            scanJob.submit(new FileWorkerRunner(workers, context, discardingHandler));
+        }
+        scanJob.walkCompleted();
+        return scanJob.awaitCompletion();
+    }
+}
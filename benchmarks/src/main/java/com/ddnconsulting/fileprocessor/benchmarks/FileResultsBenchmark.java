@@ -0,0 +1,90 @@
+package com.ddnconsulting.fileprocessor.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.ddnconsulting.fileprocessor.resultshandlers.FileResultsHandler;
+import com.ddnconsulting.fileprocessor.workers.FileSizeWorker.FileSizeResults;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Records per second written by FileResultsHandler, a batch at a time as AsyncResultsHandler passes them, in each
+ * format with and without compression.  Files are rotated at 64 MB and deleted after each iteration.
+ *
+ * @author Dan Nathanson
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileResultsBenchmark {
+    private static final int BATCH_SIZE = 256;
+
+    @Param({"NDJSON", "SMILE", "CBOR"})
+    public FileResultsHandler.Format format;
+
+    @Param({"false", "true"})
+    public boolean gzip;
+
+    private Path directory;
+    private FileResultsHandler handler;
+    private List<FileWorkerResults> batch;
+
+    @Setup(Level.Trial)
+    public void createBatch() throws IOException {
+        directory = Files.createTempDirectory("results-benchmark");
+        batch = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            FileSizeResults results = new FileSizeResults();
+            results.setSuccess(true);
+            results.setFilename("/data/projects/example/src/main/java/Generated" + i + ".java");
+            results.setSize(1000 + i);
+            batch.add(results);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void createHandler() {
+        handler = new FileResultsHandler(directory, "results", format, 64L * 1024 * 1024, gzip);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteFiles() throws IOException {
+        handler.close();
+        for (Path file : handler.getFiles()) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDirectory() throws IOException {
+        Fixtures.delete(directory);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void writeBatch() {
+        handler.handleBatch(batch);
+    }
+}
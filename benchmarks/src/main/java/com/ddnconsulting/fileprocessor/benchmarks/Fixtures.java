@@ -0,0 +1,115 @@
+package com.ddnconsulting.fileprocessor.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.ddnconsulting.fileprocessor.core.FileContext;
+
+
+/**
+ * Generates synthetic files for the benchmarks in a temporary directory, so they run anywhere, offline, against the
+ * same data every time (the random content is seeded).
+ *
+ * @author Dan Nathanson
+ */
+final class Fixtures {
+    private static final byte[] PNG_HEADER = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n',
+                                              0, 0, 0, 0x0d, 'I', 'H', 'D', 'R'};
+    private static final byte[] XML = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<root><child/></root>\n")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private Fixtures() {
+    }
+
+    /**
+     * Creates a flat directory of files of mixed type, cycling through: PNG and XML without extensions (so they need
+     * their contents read to be classified), plain text, a JAR and random binary.
+     */
+    static Path createTree(int fileCount) throws IOException {
+        Path root = Files.createTempDirectory("fileprocessor-bench");
+        Random random = new Random(42);
+        for (int i = 0; i < fileCount; i++) {
+            switch (i % 5) {
+                case 0:
+                    Files.write(root.resolve("image-" + i), withPadding(PNG_HEADER, 2048, random));
+                    break;
+                case 1:
+                    Files.write(root.resolve("document-" + i), XML);
+                    break;
+                case 2:
+                    Files.write(root.resolve("notes-" + i + ".txt"),
+                                ("Some notes, file " + i + "\n").getBytes(StandardCharsets.UTF_8));
+                    break;
+                case 3:
+                    createJar(root.resolve("library-" + i + ".jar"), 20);
+                    break;
+                default:
+                    Files.write(root.resolve("data-" + i + ".bin"), withPadding(new byte[0], 16 * 1024, random));
+                    break;
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Returns contexts for all files in directory, with attributes already read (as the walk does).
+     */
+    static List<FileContext> contexts(Path directory) throws IOException {
+        List<FileContext> contexts = new ArrayList<>();
+        for (Path file : Files.newDirectoryStream(directory)) {
+            contexts.add(new FileContext(file, Files.readAttributes(file, BasicFileAttributes.class,
+                                                                    LinkOption.NOFOLLOW_LINKS)));
+        }
+        return contexts;
+    }
+
+    /**
+     * Writes a JAR holding entryCount small class-like entries.
+     */
+    static void createJar(Path file, int entryCount) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file);
+             ZipOutputStream zip = new ZipOutputStream(out)) {
+            zip.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            zip.write("Manifest-Version: 1.0\n".getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < entryCount; i++) {
+                zip.putNextEntry(new ZipEntry("com/example/Generated" + i + ".class"));
+                zip.write(new byte[] {(byte) 0xca, (byte) 0xfe, (byte) 0xba, (byte) 0xbe, 0, 0, 0, 51});
+            }
+        }
+    }
+
+    static void delete(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static byte[] withPadding(byte[] header, int size, Random random) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        System.arraycopy(header, 0, bytes, 0, header.length);
+        return bytes;
+    }
+}
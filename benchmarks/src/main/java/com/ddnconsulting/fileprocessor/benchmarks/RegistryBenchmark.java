@@ -0,0 +1,98 @@
+package com.ddnconsulting.fileprocessor.benchmarks;
+
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.ddnconsulting.fileprocessor.core.FileWorkerRegistry;
+import com.ddnconsulting.fileprocessor.workers.DirectoryLister;
+import com.ddnconsulting.fileprocessor.workers.FileSizeWorker;
+import com.ddnconsulting.fileprocessor.workers.FileWorker;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import com.ddnconsulting.fileprocessor.workers.JarFileContentsLister;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * FileWorkerRegistry.getWorkers, which runs once per file per operation.  Types are built at run time (as they are
+ * when they come from a classifier) so lookups can't benefit from string identity.
+ *
+ * @author Dan Nathanson
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistryBenchmark {
+    private FileWorkerRegistry registry;
+    private String textType;
+    private String jarType;
+    private String sizeOperation;
+    private String dirOperation;
+
+    @Setup(Level.Trial)
+    public void createRegistry() {
+        registry = new FileWorkerRegistry();
+        registry.registerWorker(new FileSizeWorker());
+        registry.registerWorker(new DirectoryLister());
+        registry.registerWorker(new JarFileContentsLister());
+        registry.registerWorker(new LegacyWorker());
+
+        textType = new StringBuilder("text/").append("plain").toString();
+        jarType = new StringBuilder("application/").append("java-archive").toString();
+        sizeOperation = new StringBuilder("size").append("of").toString();
+        dirOperation = new StringBuilder("d").append("ir").toString();
+    }
+
+    /**
+     * Lookup that finds workers.
+     */
+    @Benchmark
+    public Set<FileWorker> hit() {
+        return registry.getWorkers(dirOperation, jarType);
+    }
+
+    /**
+     * Lookup that finds no workers.
+     */
+    @Benchmark
+    public Set<FileWorker> miss() {
+        return registry.getWorkers(dirOperation, textType);
+    }
+
+    /**
+     * Lookup for a file the classifier couldn't type.
+     */
+    @Benchmark
+    public Set<FileWorker> unknownType() {
+        return registry.getWorkers(sizeOperation, null);
+    }
+
+
+    /**
+     * Worker without a mapping, matched with canHandle.
+     */
+    public static final class LegacyWorker implements FileWorker {
+        @Override
+        public FileWorkerResults handle(Path filePath) {
+            return null;
+        }
+
+        @Override
+        public boolean canHandle(String operation, String type) {
+            return "checksum".equalsIgnoreCase(operation);
+        }
+    }
+}
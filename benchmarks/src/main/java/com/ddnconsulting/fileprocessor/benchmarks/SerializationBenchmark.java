@@ -0,0 +1,100 @@
+package com.ddnconsulting.fileprocessor.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.ddnconsulting.fileprocessor.resultshandlers.LoggingResultsHandler;
+import com.ddnconsulting.fileprocessor.resultshandlers.ResultsCodec;
+import com.ddnconsulting.fileprocessor.workers.DirectoryLister.DirectoryEntry;
+import com.ddnconsulting.fileprocessor.workers.DirectoryLister.DirectoryListResults;
+import com.ddnconsulting.fileprocessor.workers.DirectoryLister.FileType;
+import com.ddnconsulting.fileprocessor.workers.FileSizeWorker.FileSizeResults;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import com.ddnconsulting.fileprocessor.workers.JarFileContentsLister.JarContentsResults;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * JSON serialization of each built-in results type: through LoggingResultsHandler (the logger is turned down in
+ * logback.xml, so what's left is building the indented JSON string) and through ResultsCodec.
+ *
+ * @author Dan Nathanson
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"size", "directory", "jar"})
+    public String resultsType;
+
+    private FileWorkerResults results;
+    private LoggingResultsHandler loggingHandler;
+    private ResultsCodec codec;
+
+    @Setup(Level.Trial)
+    public void createResults() {
+        loggingHandler = new LoggingResultsHandler();
+        codec = new ResultsCodec();
+        switch (resultsType) {
+            case "size":
+                FileSizeResults size = new FileSizeResults();
+                size.setSuccess(true);
+                size.setFilename("/data/projects/example/src/main/java/Example.java");
+                size.setSize(12345);
+                results = size;
+                break;
+            case "directory":
+                DirectoryListResults directory = new DirectoryListResults();
+                directory.setSuccess(true);
+                directory.setFilename("/data/projects/example/src/main/java");
+                List<DirectoryEntry> entries = new ArrayList<>();
+                for (int i = 0; i < 50; i++) {
+                    DirectoryEntry entry = new DirectoryEntry();
+                    entry.setFilename("Generated" + i + ".java");
+                    entry.setType(i % 10 == 0 ? FileType.DIRECTORY : FileType.FILE);
+                    entries.add(entry);
+                }
+                directory.setEntries(entries);
+                results = directory;
+                break;
+            default:
+                JarContentsResults jar = new JarContentsResults();
+                jar.setSuccess(true);
+                jar.setFilename("/data/projects/example/lib/example.jar");
+                List<String> files = new ArrayList<>();
+                for (int i = 0; i < 200; i++) {
+                    files.add("com/example/generated/Generated" + i + ".class");
+                }
+                jar.setFiles(files);
+                results = jar;
+                break;
+        }
+    }
+
+    @Benchmark
+    public void loggingHandler() {
+        loggingHandler.handleResults(results);
+    }
+
+    @Benchmark
+    public byte[] codec() throws IOException {
+        return codec.encode(results);
+    }
+}
@@ -1,25 +1,47 @@
 package com.ddnconsulting.fileprocessor;
 
+import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.Map;
 
+import javax.jms.ConnectionFactory;
+
 import com.ddnconsulting.fileprocessor.core.FileClassifier;
 import com.ddnconsulting.fileprocessor.core.FileProcessor;
 import com.ddnconsulting.fileprocessor.core.FileWorkerRegistry;
-import com.ddnconsulting.fileprocessor.core.FilesProbeClassifier;
+import com.ddnconsulting.fileprocessor.core.MagicFileClassifier;
+import com.ddnconsulting.fileprocessor.core.ScanMetrics;
+import com.ddnconsulting.fileprocessor.hash.ContentHasher;
+import com.ddnconsulting.fileprocessor.resultshandlers.AsyncResultsHandler;
+import com.ddnconsulting.fileprocessor.resultshandlers.DirectorySizeRollupHandler;
+import com.ddnconsulting.fileprocessor.resultshandlers.FileResultsHandler;
+import com.ddnconsulting.fileprocessor.resultshandlers.JmsResultsHandler;
 import com.ddnconsulting.fileprocessor.resultshandlers.LoggingResultsHandler;
+import com.ddnconsulting.fileprocessor.resultshandlers.OverflowPolicy;
+import com.ddnconsulting.fileprocessor.resultshandlers.ResultsCodec;
 import com.ddnconsulting.fileprocessor.resultshandlers.ResultsHandler;
+import com.ddnconsulting.fileprocessor.resultshandlers.RoutingResultsHandler;
 import com.ddnconsulting.fileprocessor.workers.DirectoryLister;
+import com.ddnconsulting.fileprocessor.workers.DuplicateFinder;
 import com.ddnconsulting.fileprocessor.workers.FileSizeWorker;
 import com.ddnconsulting.fileprocessor.workers.FileWorker;
+import com.ddnconsulting.fileprocessor.workers.HashWorker;
 import com.ddnconsulting.fileprocessor.workers.JarFileContentsLister;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.activemq.ActiveMQConnectionFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+import org.springframework.jms.connection.CachingConnectionFactory;
+import org.springframework.jmx.export.MBeanExporter;
+import org.springframework.jmx.support.RegistrationPolicy;
 
 /**
  * Main application using Spring Boot.  Replacement for application context XML file.  Useful for little POCs like this.
@@ -28,6 +50,75 @@ import org.springframework.context.annotation.Bean;
 public class Application
 {
     private static final Logger LOG = LoggerFactory.getLogger(Application.class);
+    private static final String SCAN_METRICS_NAME = "com.ddnconsulting.fileprocessor:type=ScanMetrics";
+
+    // Where results go: "log", "file" or "jms"
+    @Value("${results.output}")
+    private String resultsOutput;
+    @Value("${results.file.directory}")
+    private String resultsFileDirectory;
+    @Value("${results.file.prefix}")
+    private String resultsFilePrefix;
+    @Value("${results.file.format}")
+    private FileResultsHandler.Format resultsFileFormat;
+    @Value("${results.file.rotate.mb}")
+    private long resultsFileRotateMb;
+    @Value("${results.file.gzip}")
+    private boolean resultsFileGzip;
+
+    // Broker results are sent to with results.output=jms
+    @Value("${jms.broker.url}")
+    private String brokerUrl;
+    @Value("${jms.producer.window.kb}")
+    private int producerWindowKb;
+    @Value("${jms.results.queue}")
+    private String resultsQueue;
+    @Value("${jms.results.batch}")
+    private int jmsBatchSize;
+
+    // Directory size totals from "sizeof" results
+    @Value("${results.rollup}")
+    private boolean rollup;
+    @Value("${results.rollup.depth}")
+    private int rollupDepth;
+    @Value("${results.rollup.top}")
+    private int rollupTop;
+    @Value("${results.rollup.files}")
+    private boolean rollupFiles;
+
+    // Named routes are read from here: results.route.<name>.match and results.route.<name>.output
+    @Autowired
+    private Environment environment;
+
+    // Most entries in one result of a directory listing
+    @Value("${dir.list.chunk}")
+    private int dirListChunk;
+
+    // Whether JAR listings include each entry's sizes, CRC and compression method
+    @Value("${jar.list.details}")
+    private boolean jarListDetails;
+
+    // Files bigger than hash.parallel.threshold.mb are hashed in hash.chunk.mb ranges on hash.parallelism threads
+    @Value("${hash.parallel.threshold.mb}")
+    private long hashParallelThresholdMb;
+    @Value("${hash.chunk.mb}")
+    private int hashChunkMb;
+    @Value("${hash.parallelism}")
+    private int hashParallelism;
+
+    // Bytes hashed from each end of a file before hashing it all, and size of the smallest files compared
+    @Value("${dupes.partial.kb}")
+    private int dupesPartialKb;
+    @Value("${dupes.min.size}")
+    private long dupesMinSize;
+
+    // Queue between worker threads and results handling
+    @Value("${results.async.capacity}")
+    private int asyncCapacity;
+    @Value("${results.async.batch}")
+    private int asyncBatchSize;
+    @Value("${results.async.overflow}")
+    private OverflowPolicy asyncOverflowPolicy;
 
     /*
      * Common Jackson object mapper for JSON serialization/deserialization
@@ -40,6 +131,15 @@ public class Application
     }
 
 
+    /*
+     * Serializes results so they can be read back as objects (incremental index, etc.)
+     */
+    @Bean
+    ResultsCodec resultsCodec() {
+        return new ResultsCodec();
+    }
+
+
     @Bean
     FileWorkerRegistry fileWorkerRegistry() {
         return new FileWorkerRegistry();
@@ -47,12 +147,85 @@ public class Application
 
     @Bean
     FileClassifier fileClassifier() {
-        return new FilesProbeClassifier();
+        return new MagicFileClassifier();
     }
 
+    /*
+     * Counts and timings for every scan.  Exported over JMX (as a standard MBean) and logged with scan progress.
+     */
+    @Bean
+    ScanMetrics scanMetrics() {
+        return new ScanMetrics(fileClassifier());
+    }
+
+    /*
+     * Exports the metrics to the platform MBean server, for jconsole, etc.  Replaces any already there (tests start
+     * more than one context in a JVM).
+     */
+    @Bean
+    MBeanExporter mbeanExporter() {
+        MBeanExporter exporter = new MBeanExporter();
+        exporter.setBeans(Collections.<String, Object>singletonMap(SCAN_METRICS_NAME, scanMetrics()));
+        exporter.setRegistrationPolicy(RegistrationPolicy.REPLACE_EXISTING);
+        return exporter;
+    }
+
+    /*
+     * Results are handled on a thread of their own, in batches, so worker threads don't wait on logging or writing.
+     * With results.routes set, each route gets an output, queue and thread of its own.
+     */
     @Bean
     ResultsHandler reportHandler() {
-        return new LoggingResultsHandler();
+        ResultsHandler defaultOutput = createAsyncOutput(resultsOutput, resultsFilePrefix);
+        String routes = environment.getProperty("results.routes", "").trim();
+        if (routes.isEmpty()) {
+            return defaultOutput;
+        }
+
+        RoutingResultsHandler router = new RoutingResultsHandler(defaultOutput);
+        for (String route : routes.split("\\s*,\\s*")) {
+            String match = environment.getRequiredProperty("results.route." + route + ".match");
+            String output = environment.getProperty("results.route." + route + ".output", resultsOutput);
+            ResultsHandler handler = createAsyncOutput(output, route);
+            for (String key : match.trim().split("\\s*,\\s*")) {
+                router.addRoute(key, handler);
+            }
+            LOG.info("Results from/of " + match + " routed to " + output + " (route " + route + ")");
+        }
+        return router;
+    }
+
+    /*
+     * Output of the given kind ("log", "file" or "jms"), behind its own queue.  Files are named with prefix.
+     */
+    private ResultsHandler createAsyncOutput(String kind, String prefix) {
+        ResultsHandler output;
+        if ("jms".equalsIgnoreCase(kind)) {
+            output = new JmsResultsHandler(jmsConnectionFactory(), resultsQueue, resultsCodec(), jmsBatchSize);
+        }
+        else if ("file".equalsIgnoreCase(kind)) {
+            output = new FileResultsHandler(Paths.get(resultsFileDirectory), prefix, resultsFileFormat,
+                                            resultsFileRotateMb * 1024L * 1024L, resultsFileGzip);
+        }
+        else {
+            output = new LoggingResultsHandler();
+        }
+        if (rollup) {
+            output = new DirectorySizeRollupHandler(output, rollupDepth, rollupTop, rollupFiles);
+        }
+        return new AsyncResultsHandler(output, asyncCapacity, asyncBatchSize, asyncOverflowPolicy, resultsCodec());
+    }
+
+    /*
+     * Connections to the JMS broker.  Sends are async, with at most producer.window.kb unacknowledged by the broker,
+     * and the session and producer are cached so each send doesn't open a new connection.
+     */
+    @Bean
+    ConnectionFactory jmsConnectionFactory() {
+        ActiveMQConnectionFactory activeMQConnectionFactory = new ActiveMQConnectionFactory(brokerUrl);
+        activeMQConnectionFactory.setUseAsyncSend(true);
+        activeMQConnectionFactory.setProducerWindowSize(producerWindowKb * 1024);
+        return new CachingConnectionFactory(activeMQConnectionFactory);
     }
 
     @Bean
@@ -60,14 +233,47 @@ public class Application
         return new FileSizeWorker();
     }
 
+    /*
+     * Lists archives from their central directory, with each entry's sizes, CRC and method if jar.list.details is set
+     */
     @Bean
     JarFileContentsLister jarFileContentsLister() {
-        return new JarFileContentsLister();
+        JarFileContentsLister lister = new JarFileContentsLister();
+        lister.setDetails(jarListDetails);
+        return lister;
     }
 
+    /*
+     * Hashes file contents for "hash" and "dupes", big files in ranges in parallel.  Closed (stopping its threads)
+     * with the context.
+     */
+    @Bean
+    ContentHasher contentHasher() {
+        return new ContentHasher(hashParallelThresholdMb * 1024 * 1024, hashChunkMb * 1024 * 1024, hashParallelism);
+    }
+
+    @Bean
+    HashWorker hashWorker() {
+        return new HashWorker(contentHasher());
+    }
+
+    /*
+     * Finds files with the same contents, hashing only the ends of files the same size as another, and all of those
+     * whose ends match
+     */
+    @Bean
+    DuplicateFinder duplicateFinder() {
+        return new DuplicateFinder(contentHasher(), dupesPartialKb * 1024, dupesMinSize);
+    }
+
+    /*
+     * Lists directories from the walk's own enumeration, dir.list.chunk entries to a result
+     */
     @Bean
     DirectoryLister directoryLister() {
-        return new DirectoryLister();
+        DirectoryLister lister = new DirectoryLister();
+        lister.setChunkSize(dirListChunk);
+        return lister;
     }
 
     /*
@@ -0,0 +1,263 @@
+package com.ddnconsulting.fileprocessor.archive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipException;
+
+import com.ddnconsulting.fileprocessor.core.FileContent;
+
+
+/**
+ * Lists a ZIP (or JAR) archive from its central directory, the index at the end of the archive, without reading or
+ * inflating any of the entries.  Only the end of central directory record (found by searching back from the end of
+ * the file past any archive comment) and the central directory itself are read, through the file's shared
+ * {@link FileContent} (mapped or positioned reads), so listing a 200 MB archive reads a few hundred KB.
+ *
+ * ZIP64 archives (more than 65535 entries, or entries or offsets past 4 GB) are understood, as are archives with data
+ * before them (self-extracting archives, executable jars with a launch script): offsets are corrected by the
+ * difference between where the central directory is said to be and where it actually ends.
+ *
+ * Damaged archives (no end record, central directory not where the end record says, bad record signatures) and
+ * archives split over several disks cause a {@link ZipException}; callers can fall back to reading the entries'
+ * local headers in order with a ZipInputStream.
+ *
+ * Entry names are decoded as UTF-8, like ZipInputStream does.
+ *
+ * @author Dan Nathanson
+ */
+public class ZipCentralDirectory {
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_EOCD_SIZE = 56;
+    private static final int HEADER_SIGNATURE = 0x02014b50;
+    private static final int HEADER_SIZE = 46;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long MAGIC32 = 0xffffffffL;
+    private static final int MAGIC16 = 0xffff;
+    private static final Charset NAME_CHARSET = StandardCharsets.UTF_8;
+
+    private final List<ZipEntryRecord> entries;
+    private final boolean zip64;
+    private final long offset;
+
+    private ZipCentralDirectory(List<ZipEntryRecord> entries, boolean zip64, long offset) {
+        this.entries = Collections.unmodifiableList(entries);
+        this.zip64 = zip64;
+        this.offset = offset;
+    }
+
+    /**
+     * Reads central directory of archive.
+     *
+     * @throws ZipException if content isn't a ZIP archive, or is damaged
+     * @throws IOException if content can't be read
+     */
+    public static ZipCentralDirectory read(FileContent content) throws IOException {
+        long size = content.size();
+        if (size < EOCD_SIZE) {
+            throw new ZipException("Too small to be a ZIP archive: " + size + " bytes");
+        }
+
+        // End record is at the end, followed only by the archive comment
+        int tailSize = (int) Math.min(size, EOCD_SIZE + MAX_COMMENT_SIZE + ZIP64_LOCATOR_SIZE);
+        long tailStart = size - tailSize;
+        ByteBuffer tail = read(content, tailStart, tailSize);
+        int eocd = findEndRecord(tail);
+        if (eocd < 0) {
+            throw new ZipException("No end of central directory record");
+        }
+
+        int disk = tail.getShort(eocd + 4) & MAGIC16;
+        int centralDisk = tail.getShort(eocd + 6) & MAGIC16;
+        long count = tail.getShort(eocd + 10) & MAGIC16;
+        long centralSize = tail.getInt(eocd + 12) & MAGIC32;
+        long centralOffset = tail.getInt(eocd + 16) & MAGIC32;
+        long endPosition = tailStart + eocd;
+        boolean zip64 = false;
+
+        int locator = eocd - ZIP64_LOCATOR_SIZE;
+        if (locator >= 0 && tail.getInt(locator) == ZIP64_LOCATOR_SIGNATURE) {
+            zip64 = true;
+            long recordOffset = tail.getLong(locator + 8);
+            // Record is where the locator says, unless there is data before the archive, in which case it should be
+            // directly before the locator
+            long recordPosition = recordOffset;
+            ByteBuffer record = recordOffset + ZIP64_EOCD_SIZE <= size ? read(content, recordOffset, ZIP64_EOCD_SIZE)
+                                                                       : null;
+            if (record == null || record.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+                recordPosition = tailStart + locator - ZIP64_EOCD_SIZE;
+                record = read(content, recordPosition, ZIP64_EOCD_SIZE);
+            }
+            if (record.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+                throw new ZipException("Bad ZIP64 end of central directory record signature");
+            }
+            disk = record.getInt(16);
+            centralDisk = record.getInt(20);
+            count = record.getLong(32);
+            centralSize = record.getLong(40);
+            centralOffset = record.getLong(48);
+            endPosition = recordPosition;
+        }
+
+        if (disk != 0 || centralDisk != 0) {
+            throw new ZipException("Archives split over several disks are not supported");
+        }
+        long bias = endPosition - centralSize - centralOffset;
+        if (bias < 0 || centralSize > Integer.MAX_VALUE) {
+            throw new ZipException("Central directory out of place: offset " + centralOffset + ", size " + centralSize);
+        }
+
+        ByteBuffer central = read(content, centralOffset + bias, (int) centralSize);
+        return new ZipCentralDirectory(readEntries(central, count, bias), zip64, bias);
+    }
+
+    /**
+     * Returns position of the end record in tail, or -1.  Searches back from the end, so a comment that happens to
+     * contain the signature only fools it if the comment length also matches.
+     */
+    private static int findEndRecord(ByteBuffer tail) {
+        for (int position = tail.limit() - EOCD_SIZE; position >= 0; position--) {
+            if (tail.getInt(position) == EOCD_SIGNATURE &&
+                position + EOCD_SIZE + (tail.getShort(position + 20) & MAGIC16) == tail.limit()) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    private static List<ZipEntryRecord> readEntries(ByteBuffer central, long count, long bias) throws ZipException {
+        List<ZipEntryRecord> entries = new ArrayList<>((int) Math.min(count, 1 << 16));
+        byte[] name = new byte[256];
+        int position = 0;
+        while (position + HEADER_SIZE <= central.limit()) {
+            if (central.getInt(position) != HEADER_SIGNATURE) {
+                throw new ZipException("Bad central directory header signature at " + position);
+            }
+            int flags = central.getShort(position + 8) & MAGIC16;
+            int method = central.getShort(position + 10) & MAGIC16;
+            long crc = central.getInt(position + 16) & MAGIC32;
+            long compressedSize = central.getInt(position + 20) & MAGIC32;
+            long size = central.getInt(position + 24) & MAGIC32;
+            int nameLength = central.getShort(position + 28) & MAGIC16;
+            int extraLength = central.getShort(position + 30) & MAGIC16;
+            int commentLength = central.getShort(position + 32) & MAGIC16;
+            long localOffset = central.getInt(position + 42) & MAGIC32;
+            int next = position + HEADER_SIZE + nameLength + extraLength + commentLength;
+            if (next > central.limit()) {
+                throw new ZipException("Central directory header at " + position + " runs past the end");
+            }
+
+            if (nameLength > name.length) {
+                name = new byte[Math.max(nameLength, name.length * 2)];
+            }
+            ByteBuffer view = central.duplicate();
+            view.position(position + HEADER_SIZE);
+            view.get(name, 0, nameLength);
+
+            if (size == MAGIC32 || compressedSize == MAGIC32 || localOffset == MAGIC32) {
+                // Real values are in the ZIP64 extra field, in this order, for those that didn't fit
+                int extra = findExtra(central, position + HEADER_SIZE + nameLength, extraLength, ZIP64_EXTRA_ID);
+                if (extra >= 0) {
+                    int dataSize = central.getShort(extra + 2) & MAGIC16;
+                    int field = extra + 4;
+                    int end = field + dataSize;
+                    if (size == MAGIC32 && field + 8 <= end) {
+                        size = central.getLong(field);
+                        field += 8;
+                    }
+                    if (compressedSize == MAGIC32 && field + 8 <= end) {
+                        compressedSize = central.getLong(field);
+                        field += 8;
+                    }
+                    if (localOffset == MAGIC32 && field + 8 <= end) {
+                        localOffset = central.getLong(field);
+                    }
+                }
+            }
+
+            entries.add(new ZipEntryRecord(new String(name, 0, nameLength, NAME_CHARSET), method, flags, crc,
+                                           compressedSize, size, localOffset + bias));
+            position = next;
+        }
+        // Some archivers write the 16-bit count modulo 65536 rather than ZIP64 records
+        if (entries.size() != count && (entries.size() & MAGIC16) != (count & MAGIC16)) {
+            throw new ZipException("Central directory has " + entries.size() + " entries, end record says " + count);
+        }
+        return entries;
+    }
+
+    /**
+     * Returns position of the extra field with id in the extra data at start, or -1.
+     */
+    private static int findExtra(ByteBuffer central, int start, int length, int id) {
+        int position = start;
+        int end = start + length;
+        while (position + 4 <= end) {
+            int fieldId = central.getShort(position) & MAGIC16;
+            int fieldSize = central.getShort(position + 2) & MAGIC16;
+            if (fieldId == id) {
+                return position + 4 + fieldSize <= end ? position : -1;
+            }
+            position += 4 + fieldSize;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns little-endian buffer holding length bytes of content from position.  A view of the content's buffer if
+     * it has one, so nothing is copied.
+     */
+    private static ByteBuffer read(FileContent content, long position, int length) throws IOException {
+        if (position < 0 || position + length > content.size()) {
+            throw new ZipException("Record at " + position + " runs past the end of the file");
+        }
+        ByteBuffer buffer;
+        if (content.isBuffered()) {
+            buffer = content.getBuffer();
+            buffer.position((int) position);
+            buffer.limit((int) position + length);
+            buffer = buffer.slice();
+        }
+        else {
+            buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (content.read(buffer, position + buffer.position()) < 0) {
+                    throw new ZipException("Unexpected end of file");
+                }
+            }
+            buffer.flip();
+        }
+        return buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Entries, in central directory order.
+     */
+    public List<ZipEntryRecord> getEntries() {
+        return entries;
+    }
+
+    /**
+     * True if the archive has ZIP64 end records.
+     */
+    public boolean isZip64() {
+        return zip64;
+    }
+
+    /**
+     * Position in the file the archive starts at: the size of any data in front of it.
+     */
+    public long getOffset() {
+        return offset;
+    }
+}
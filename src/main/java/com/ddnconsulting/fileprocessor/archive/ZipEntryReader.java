@@ -0,0 +1,212 @@
+package com.ddnconsulting.fileprocessor.archive;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import com.ddnconsulting.fileprocessor.core.FileContent;
+import com.google.common.io.ByteStreams;
+
+
+/**
+ * Reads the contents of a single entry of a ZIP (or JAR) archive, found through the archive's
+ * {@link ZipCentralDirectory}, straight from the archive's {@link FileContent}: the entry's local header is read to
+ * find where its data starts and only that entry's data is read (and inflated).  Nothing is extracted to disk.
+ *
+ * The sizes in the central directory are trusted only as limits: an entry that inflates to more than its stated size
+ * (as entries of zip bombs do) causes a {@link ZipException} as soon as it goes past it, so no more than the stated
+ * size is ever inflated.
+ *
+ * Only stored and deflated entries can be read.  Encrypted entries, and other compression methods, cause a
+ * ZipException.
+ *
+ * @author Dan Nathanson
+ */
+public final class ZipEntryReader {
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+
+    private ZipEntryReader() {
+    }
+
+    /**
+     * Returns stream of entry's uncompressed contents.  Closing the stream does not close archive.
+     *
+     * @throws ZipException if entry can't be read (damaged, encrypted or compressed some other way)
+     */
+    public static InputStream open(FileContent archive, ZipEntryRecord record) throws IOException {
+        checkReadable(record);
+        InputStream data = archive.newInputStream();
+        ByteStreams.skipFully(data, dataPosition(archive, record));
+        data = ByteStreams.limit(data, record.getCompressedSize());
+        if (record.getMethod() == ZipEntry.DEFLATED) {
+            data = new EntryInflaterInputStream(data);
+        }
+        return new SizeCheckingInputStream(data, record);
+    }
+
+    /**
+     * Reads whole entry.  For stored entries of an archive held in a buffer, returns a view of the archive's buffer, so
+     * nothing is copied.
+     *
+     * @throws ZipException if entry can't be read, or is too big to fit in a buffer
+     */
+    public static ByteBuffer read(FileContent archive, ZipEntryRecord record) throws IOException {
+        checkReadable(record);
+        if (record.getSize() > MAX_BUFFER_SIZE) {
+            throw new ZipException("Entry [" + record.getName() + "] is too large to read into memory: " +
+                                   record.getSize() + " bytes");
+        }
+        int size = (int) record.getSize();
+        if (record.getMethod() == ZipEntry.STORED && archive.isBuffered()) {
+            int position = (int) dataPosition(archive, record);
+            ByteBuffer buffer = archive.getBuffer();
+            buffer.position(position);
+            buffer.limit(position + size);
+            return buffer.slice();
+        }
+
+        byte[] bytes = new byte[size];
+        try (InputStream in = open(archive, record)) {
+            ByteStreams.readFully(in, bytes);
+            if (in.read() >= 0) {
+                throw new ZipException("Entry [" + record.getName() + "] is longer than its stated size");
+            }
+        }
+        catch (EOFException e) {
+            throw new ZipException("Entry [" + record.getName() + "] is shorter than its stated size");
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static void checkReadable(ZipEntryRecord record) throws ZipException {
+        if (record.isEncrypted()) {
+            throw new ZipException("Entry [" + record.getName() + "] is encrypted");
+        }
+        if (record.getMethod() != ZipEntry.STORED && record.getMethod() != ZipEntry.DEFLATED) {
+            throw new ZipException("Entry [" + record.getName() + "] uses unsupported compression method " +
+                                   record.getMethod());
+        }
+        if (record.getMethod() == ZipEntry.STORED && record.getCompressedSize() != record.getSize()) {
+            throw new ZipException("Stored entry [" + record.getName() + "] has different sizes");
+        }
+    }
+
+    /**
+     * Returns position of entry's data in archive: after its local header, whose name and extra field lengths can
+     * differ from those in the central directory.
+     */
+    private static long dataPosition(FileContent archive, ZipEntryRecord record) throws IOException {
+        long position = record.getLocalHeaderOffset();
+        ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining()) {
+            if (archive.read(header, position + header.position()) < 0) {
+                throw new ZipException("Local header of [" + record.getName() + "] runs past the end of the file");
+            }
+        }
+        if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Bad local header signature for [" + record.getName() + "] at " + position);
+        }
+        int nameLength = header.getShort(26) & 0xffff;
+        int extraLength = header.getShort(28) & 0xffff;
+        long dataPosition = position + LOCAL_HEADER_SIZE + nameLength + extraLength;
+        if (dataPosition + record.getCompressedSize() > archive.size()) {
+            throw new ZipException("Data of [" + record.getName() + "] runs past the end of the file");
+        }
+        return dataPosition;
+    }
+
+
+    /**
+     * Inflates raw deflate data, releasing the inflater's native memory when closed.
+     */
+    private static final class EntryInflaterInputStream extends InflaterInputStream {
+        private boolean dummyByteSent;
+
+        EntryInflaterInputStream(InputStream in) {
+            super(in, new Inflater(true), 8192);
+        }
+
+        /**
+         * A raw inflater may need one byte past the end of the data to finish, as for ZipFile.
+         */
+        @Override
+        protected void fill() throws IOException {
+            len = in.read(buf, 0, buf.length);
+            if (len < 0) {
+                if (dummyByteSent) {
+                    throw new ZipException("Unexpected end of deflated data");
+                }
+                dummyByteSent = true;
+                buf[0] = 0;
+                len = 1;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            }
+            finally {
+                inf.end();
+            }
+        }
+    }
+
+    /**
+     * Fails as soon as more bytes come out than the entry's stated size.
+     */
+    private static final class SizeCheckingInputStream extends FilterInputStream {
+        private final ZipEntryRecord record;
+        private long remaining;
+
+        SizeCheckingInputStream(InputStream in, ZipEntryRecord record) {
+            super(in);
+            this.record = record;
+            this.remaining = record.getSize();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int count = read(one, 0, 1);
+            return count < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            // Ask for one more than is left, to find out if there is more
+            int count = super.read(bytes, offset, (int) Math.min(length, remaining + 1));
+            if (count > 0) {
+                remaining -= count;
+                if (remaining < 0) {
+                    throw new ZipException("Entry [" + record.getName() + "] inflates to more than its stated size " +
+                                           record.getSize());
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] skipped = new byte[(int) Math.min(n, 8192)];
+            int count = read(skipped, 0, skipped.length);
+            return Math.max(count, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.ddnconsulting.fileprocessor.archive;
+
+import java.util.zip.ZipEntry;
+
+
+/**
+ * An entry in a ZIP (or JAR) archive, as described by its record in the archive's central directory.
+ *
+ * @author Dan Nathanson
+ */
+public class ZipEntryRecord {
+    private final String name;
+    private final int method;
+    private final int flags;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final long localHeaderOffset;
+
+    /**
+     * @param localHeaderOffset position of the entry's local header in the file (allowing for any data before the
+     *                          archive)
+     */
+    public ZipEntryRecord(String name, int method, int flags, long crc, long compressedSize, long size,
+                          long localHeaderOffset) {
+        this.name = name;
+        this.method = method;
+        this.flags = flags;
+        this.crc = crc;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.localHeaderOffset = localHeaderOffset;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Compression method: {@link ZipEntry#STORED}, {@link ZipEntry#DEFLATED} or something more exotic.
+     */
+    public int getMethod() {
+        return method;
+    }
+
+    /**
+     * General purpose bit flags.
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    public boolean isEncrypted() {
+        return (flags & 1) != 0;
+    }
+
+    public boolean isDirectory() {
+        return name.endsWith("/");
+    }
+
+    public long getCrc() {
+        return crc;
+    }
+
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    /**
+     * Uncompressed size.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    public long getLocalHeaderOffset() {
+        return localHeaderOffset;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + size + " bytes, method " + method + ")";
+    }
+}
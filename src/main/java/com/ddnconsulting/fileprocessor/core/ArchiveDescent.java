@@ -0,0 +1,388 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ddnconsulting.fileprocessor.archive.ZipCentralDirectory;
+import com.ddnconsulting.fileprocessor.archive.ZipEntryRecord;
+import com.ddnconsulting.fileprocessor.workers.FileContextWorker;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import com.ddnconsulting.fileprocessor.workers.WorkerLane;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Looks inside ZIP archives (JARs, WARs, EARs...) found by the walk and puts their entries through the same
+ * classification and workers as files on disk, without extracting anything.  Each entry gets an
+ * {@link ArchiveEntryContext} with a virtual path (archive path + "!/" + entry name) and is classified and dispatched to
+ * its workers' lanes by the {@link FileWorkerVisitor}, so entries of one archive are worked on in parallel, bounded
+ * like everything else by the lanes' dispatch queues.  Entries are only inflated when a classifier or worker reads
+ * them, on the thread that does.  Directory entries are skipped.
+ *
+ * Archives inside archives (jars in a war, wars in an ear) are descended into as they are found, on the same thread,
+ * down to maxDepth levels.  All reads of entries from one archive on disk, nested ones included, are charged to one
+ * budget of decompressed bytes, and no single entry bigger than maxEntryBytes is read, so a zip bomb costs at most
+ * the budget (an entry that inflates to more than its stated size is stopped there too, see
+ * {@link com.ddnconsulting.fileprocessor.archive.ZipEntryReader}).  Once the budget is used up, no more entries of the
+ * archive are dispatched.
+ *
+ * Runs as a worker in its own "archive" lane, dispatched by the visitor for every file of an archive type (it isn't
+ * in the registry, so it doesn't depend on the operations).  Its tasks dispatch tasks to other lanes, and wait when
+ * those are full, so no worker that is dispatched for entries may run in the archive lane.  Entries are never looked
+ * up in (or added to) an incremental scan's index.  Results ({@link ArchiveResults}) count what was found in each
+ * archive.
+ *
+ * Thread-safe.
+ *
+ * @author Dan Nathanson
+ */
+@WorkerLane(value = "archive", threads = 2)
+public class ArchiveDescent implements FileContextWorker {
+    private static final Logger LOG = LoggerFactory.getLogger(ArchiveDescent.class);
+
+    private final FileWorkerVisitor visitor;
+    private final Set<String> archiveTypes = new HashSet<>();
+    private final int maxDepth;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final AtomicLong archives = new AtomicLong();
+    private final AtomicLong entries = new AtomicLong();
+    private final AtomicLong budgetsExhausted = new AtomicLong();
+
+    /**
+     * @param visitor classifies entries and dispatches their workers
+     * @param archiveTypes file types (MIME) descended into
+     * @param maxDepth levels of archives descended into: 1 for only archives on disk, 2 for archives in those too...
+     * @param maxBytes decompressed bytes that may be read from entries of one archive on disk, nested ones included
+     * @param maxEntryBytes entries bigger than this (uncompressed) aren't read
+     */
+    ArchiveDescent(FileWorkerVisitor visitor, Collection<String> archiveTypes, int maxDepth, long maxBytes,
+                   long maxEntryBytes) {
+        this.visitor = visitor;
+        for (String type : archiveTypes) {
+            this.archiveTypes.add(type.trim().toLowerCase(Locale.ENGLISH));
+        }
+        this.maxDepth = maxDepth;
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    /**
+     * Returns true if files of type are descended into.
+     */
+    public boolean isArchive(String type) {
+        return type != null && archiveTypes.contains(type.toLowerCase(Locale.ENGLISH));
+    }
+
+    @Override
+    public FileWorkerResults handle(Path filePath) {
+        FileContext context = new FileContext(filePath);
+        try {
+            return handle(context);
+        }
+        finally {
+            try {
+                context.closeContent();
+            }
+            catch (IOException e) {
+                LOG.warn("Failed to close archive [" + filePath + "]", e);
+            }
+        }
+    }
+
+    /**
+     * Dispatches workers for every entry of the archive (and of archives inside it).
+     */
+    @Override
+    public FileWorkerResults handle(FileContext context) {
+        ArchiveResults results = new ArchiveResults();
+        results.setFilename(context.getPath().toString());
+        results.setSuccess(true);
+
+        Budget budget = new Budget(maxBytes);
+        // Entries of archives too big to map read through the archive's channel, which is closed when this returns
+        List<Future<?>> dispatched = null;
+        try {
+            FileContent content = context.getContent();
+            if (!content.isBuffered()) {
+                dispatched = new ArrayList<>();
+            }
+            descend(context, content, 0, context.getAttributes().lastModifiedTime(), budget, results, dispatched);
+        }
+        catch (IOException e) {
+            results.setSuccess(false);
+            results.setErrorMessage("Could not read archive: " + e.getMessage());
+            LOG.warn("Could not read archive [" + context.getPath() + "]: " + e.getMessage());
+        }
+        if (dispatched != null) {
+            awaitEntries(dispatched);
+        }
+
+        if (budget.isExhausted()) {
+            results.setBudgetExhausted(true);
+            budgetsExhausted.incrementAndGet();
+            LOG.warn("Decompressed bytes budget (" + maxBytes + ") used up in archive [" + context.getPath() +
+                     "]. Remaining entries skipped");
+        }
+        return results;
+    }
+
+    /**
+     * Dispatches workers for each entry of archive, descending into archives inside it.
+     *
+     * @return false if the scan was cancelled, or the task interrupted
+     */
+    private boolean descend(FileContext archive, FileContent content, int depth, FileTime time, Budget budget,
+                            ArchiveResults results, List<Future<?>> dispatched) throws IOException {
+        ZipCentralDirectory directory = ZipCentralDirectory.read(content);
+        archives.incrementAndGet();
+        results.setArchives(results.getArchives() + 1);
+
+        for (ZipEntryRecord record : directory.getEntries()) {
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            if (record.isDirectory()) {
+                continue;
+            }
+            if (budget.isExhausted()) {
+                return true;
+            }
+            Path path;
+            try {
+                path = Paths.get(archive.getPath() + "!/" + record.getName());
+            }
+            catch (InvalidPathException e) {
+                LOG.debug("Skipping entry with bad name in [" + archive.getPath() + "]: " + e.getMessage());
+                results.setSkipped(results.getSkipped() + 1);
+                continue;
+            }
+
+            ArchiveEntryContext entry = new ArchiveEntryContext(path, archive, content, record, depth + 1, budget,
+                                                                maxEntryBytes, time);
+            entries.incrementAndGet();
+            results.setEntries(results.getEntries() + 1);
+            String type = visitor.classifyEntry(entry);
+            FileContent nested = null;
+            if (isArchive(type)) {
+                if (depth + 1 >= maxDepth) {
+                    results.setDepthLimited(results.getDepthLimited() + 1);
+                }
+                else {
+                    try {
+                        // Before the entry's workers are dispatched, so they share what is read here
+                        nested = entry.getContent();
+                    }
+                    catch (IOException e) {
+                        LOG.debug("Could not read nested archive [" + path + "]: " + e.getMessage());
+                        results.setUnreadable(results.getUnreadable() + 1);
+                    }
+                }
+            }
+
+            if (nested == null) {
+                if (!visitor.dispatchEntry(entry, dispatched)) {
+                    return false;
+                }
+                continue;
+            }
+            // The entry's runners mustn't close the nested archive while it is being descended into
+            entry.retain(1);
+            try {
+                if (!visitor.dispatchEntry(entry, dispatched)) {
+                    return false;
+                }
+                if (!descend(entry, nested, depth + 1, time, budget, results, dispatched)) {
+                    return false;
+                }
+            }
+            catch (IOException e) {
+                LOG.debug("Could not read nested archive [" + path + "]: " + e.getMessage());
+                results.setUnreadable(results.getUnreadable() + 1);
+            }
+            finally {
+                entry.release();
+            }
+        }
+        return true;
+    }
+
+    private static void awaitEntries(List<Future<?>> dispatched) {
+        for (Future<?> task : dispatched) {
+            try {
+                task.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch (ExecutionException | CancellationException e) {
+                // Counted by the scan job
+            }
+        }
+    }
+
+    /**
+     * Never found through the registry: the visitor dispatches it for archive types, whatever the operations.
+     */
+    @Override
+    public boolean canHandle(String operation, String type) {
+        return isArchive(type);
+    }
+
+    /**
+     * Number of archives descended into, nested ones included.
+     */
+    public long getArchives() {
+        return archives.get();
+    }
+
+    /**
+     * Number of entries classified and dispatched.
+     */
+    public long getEntries() {
+        return entries.get();
+    }
+
+    /**
+     * Number of archives on disk whose decompressed bytes budget was used up.
+     */
+    public long getBudgetsExhausted() {
+        return budgetsExhausted.get();
+    }
+
+    @Override
+    public String toString() {
+        return "archives=" + archives + ", entries=" + entries + ", budgets exhausted=" + budgetsExhausted;
+    }
+
+
+    /**
+     * Decompressed bytes that may still be read from the entries of one archive on disk.
+     */
+    static final class Budget {
+        private final AtomicLong remaining;
+
+        Budget(long bytes) {
+            remaining = new AtomicLong(bytes);
+        }
+
+        /**
+         * Charges bytes about to be read from the entry at path.  Once a read has been refused, the budget stays used
+         * up.
+         *
+         * @throws IOException if there aren't enough bytes left
+         */
+        void charge(long bytes, Path path) throws IOException {
+            if (remaining.addAndGet(-bytes) < 0) {
+                throw new IOException("Decompressed bytes budget of archive used up reading [" + path + "]");
+            }
+        }
+
+        boolean isExhausted() {
+            return remaining.get() < 0;
+        }
+    }
+
+
+    /**
+     * What was found in an archive on disk.
+     */
+    public static final class ArchiveResults extends FileWorkerResults {
+        private String filename;
+        private int archives;
+        private long entries;
+        private int depthLimited;
+        private int unreadable;
+        private long skipped;
+        private boolean budgetExhausted;
+
+        public String getFilename() {
+            return filename;
+        }
+
+        public void setFilename(String filename) {
+            this.filename = filename;
+        }
+
+        /**
+         * Number of archives descended into: this one and those nested inside it.
+         */
+        public int getArchives() {
+            return archives;
+        }
+
+        public void setArchives(int archives) {
+            this.archives = archives;
+        }
+
+        /**
+         * Number of entries (not directories) dispatched to workers.
+         */
+        public long getEntries() {
+            return entries;
+        }
+
+        public void setEntries(long entries) {
+            this.entries = entries;
+        }
+
+        /**
+         * Number of nested archives not descended into because they were too deep.
+         */
+        public int getDepthLimited() {
+            return depthLimited;
+        }
+
+        public void setDepthLimited(int depthLimited) {
+            this.depthLimited = depthLimited;
+        }
+
+        /**
+         * Number of nested archives that couldn't be read (damaged, too big or over budget).
+         */
+        public int getUnreadable() {
+            return unreadable;
+        }
+
+        public void setUnreadable(int unreadable) {
+            this.unreadable = unreadable;
+        }
+
+        /**
+         * Number of entries skipped because their names aren't valid paths.
+         */
+        public long getSkipped() {
+            return skipped;
+        }
+
+        public void setSkipped(long skipped) {
+            this.skipped = skipped;
+        }
+
+        /**
+         * True if the decompressed bytes budget was used up, so some entries weren't dispatched (or read).
+         */
+        public boolean isBudgetExhausted() {
+            return budgetExhausted;
+        }
+
+        public void setBudgetExhausted(boolean budgetExhausted) {
+            this.budgetExhausted = budgetExhausted;
+        }
+    }
+}
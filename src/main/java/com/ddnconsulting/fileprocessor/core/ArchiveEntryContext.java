@@ -0,0 +1,167 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+import com.ddnconsulting.fileprocessor.archive.ZipEntryReader;
+import com.ddnconsulting.fileprocessor.archive.ZipEntryRecord;
+import com.google.common.io.ByteStreams;
+
+
+/**
+ * Context for an entry inside a ZIP archive (JAR, WAR, EAR...), found by {@link ArchiveDescent}.  The path is virtual:
+ * the containing archive's path, "!/" and the entry's name, e.g. app.war!/WEB-INF/lib/lib.jar!/a/B.class.  It is
+ * reported like any other path, but can't be opened through the file system.  The size comes from the archive's
+ * central directory and the times from the archive on disk; there is no file key.
+ *
+ * The entry's contents are read (inflated) from the containing archive's contents only when a classifier or worker
+ * asks for them, on the thread that asks.  Every read is charged to the decompressed bytes budget of the archive on
+ * disk the entry was found in, and entries bigger than the limit for one entry aren't read at all: the reader gets an
+ * IOException, as for a file it can't open.
+ *
+ * @author Dan Nathanson
+ */
+public class ArchiveEntryContext extends FileContext {
+    private final FileContext archive;
+    private final FileContent archiveContent;
+    private final ZipEntryRecord record;
+    private final int depth;
+    private final ArchiveDescent.Budget budget;
+    private final long maxEntryBytes;
+
+    /**
+     * @param archive archive the entry is in
+     * @param archiveContent contents of archive
+     * @param depth 1 for entries of an archive on disk, 2 for entries of an archive inside that, and so on
+     * @param maxEntryBytes entries bigger than this aren't read
+     * @param time modification time of the archive on disk
+     */
+    ArchiveEntryContext(Path path, FileContext archive, FileContent archiveContent, ZipEntryRecord record, int depth,
+                        ArchiveDescent.Budget budget, long maxEntryBytes, FileTime time) {
+        super(path, new EntryAttributes(record.getSize(), time));
+        this.archive = archive;
+        this.archiveContent = archiveContent;
+        this.record = record;
+        this.depth = depth;
+        this.budget = budget;
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    /**
+     * Inflates the whole entry, if it isn't too big and the budget allows.
+     */
+    @Override
+    protected FileContent openContent() throws IOException {
+        if (record.getSize() > maxEntryBytes) {
+            throw new IOException("Entry [" + getPath() + "] is too large to read from its archive (" +
+                                  record.getSize() + " bytes, limit " + maxEntryBytes + ")");
+        }
+        budget.charge(record.getSize(), getPath());
+        return FileContent.wrap(ZipEntryReader.read(archiveContent, record));
+    }
+
+    /**
+     * Reads the start of the entry (as much as fits in bytes), without inflating the rest.  For classifiers.
+     *
+     * @return number of bytes read
+     */
+    public int readHeader(byte[] bytes) throws IOException {
+        int length = (int) Math.min(bytes.length, record.getSize());
+        budget.charge(length, getPath());
+        try (InputStream in = ZipEntryReader.open(archiveContent, record)) {
+            return ByteStreams.read(in, bytes, 0, length);
+        }
+    }
+
+    /**
+     * Archive the entry is in: a file on disk, or another entry.
+     */
+    public FileContext getArchive() {
+        return archive;
+    }
+
+    /**
+     * Path of the archive on disk the entry was found in, however deeply it is nested.
+     */
+    public Path getArchivePath() {
+        return archive instanceof ArchiveEntryContext ? ((ArchiveEntryContext) archive).getArchivePath()
+                                                      : archive.getPath();
+    }
+
+    public ZipEntryRecord getRecord() {
+        return record;
+    }
+
+    /**
+     * Number of archives the entry is inside.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    ArchiveDescent.Budget getBudget() {
+        return budget;
+    }
+
+
+    /**
+     * Attributes of an entry: a regular file of the entry's size.
+     */
+    private static final class EntryAttributes implements BasicFileAttributes {
+        private final long size;
+        private final FileTime time;
+
+        EntryAttributes(long size, FileTime time) {
+            this.size = size;
+            this.time = time;
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return time;
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return time;
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return time;
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return true;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return false;
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return false;
+        }
+
+        @Override
+        public boolean isOther() {
+            return false;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public Object fileKey() {
+            return null;
+        }
+    }
+}
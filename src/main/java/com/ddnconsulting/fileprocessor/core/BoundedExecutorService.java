@@ -0,0 +1,283 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * ExecutorService that puts a bound on the number of tasks that have been handed to a delegate executor but have not
+ * finished yet.  The thread pools created by {@link java.util.concurrent.Executors} have unbounded queues, so without
+ * this the directory walk runs far ahead of the workers and every file waiting to be processed is held in memory.
+ *
+ * Once the number of outstanding tasks reaches the high watermark, threads submitting tasks are blocked until the
+ * workers have drained it back down to the low watermark.  Having two watermarks means a blocked walker is released
+ * in one go rather than being woken for every task that completes.
+ *
+ * Tasks that were never run because the delegate was shut down with {@link #shutdownNow()} are not counted as
+ * finished.
+ *
+ * The delegate may be shared (another BoundedExecutorService, or a pool several scans run on), in which case shutting
+ * this down stops it taking tasks but leaves the delegate running.  Tasks are {@link FairQueue.Grouped} by the
+ * BoundedExecutorService they were submitted to, so a shared pool with a {@link FairQueue} takes turns between them.
+ *
+ * @author Dan Nathanson
+ */
+public class BoundedExecutorService extends AbstractExecutorService {
+
+    private final ExecutorService delegate;
+    private final boolean ownsDelegate;
+    private final int highWatermark;
+    private final int lowWatermark;
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger peakQueueDepth = new AtomicInteger();
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final AtomicLong blockedNanos = new AtomicLong();
+
+    // Set when high watermark is hit, cleared when low watermark is reached.  Written while holding lock.
+    private volatile boolean throttled;
+    private final Object lock = new Object();
+    // Only used if the delegate is shared
+    private volatile boolean shutdown;
+
+    /**
+     * @param delegate executor that runs the tasks
+     * @param highWatermark number of outstanding tasks at which submitting threads are blocked
+     * @param lowWatermark number of outstanding tasks at which blocked submitting threads are released
+     */
+    public BoundedExecutorService(ExecutorService delegate, int highWatermark, int lowWatermark) {
+        this(delegate, highWatermark, lowWatermark, true);
+    }
+
+    /**
+     * @param delegate executor that runs the tasks
+     * @param highWatermark number of outstanding tasks at which submitting threads are blocked
+     * @param lowWatermark number of outstanding tasks at which blocked submitting threads are released
+     * @param ownsDelegate false if delegate is shared and must be left running when this is shut down
+     */
+    public BoundedExecutorService(ExecutorService delegate, int highWatermark, int lowWatermark,
+                                  boolean ownsDelegate) {
+        if (highWatermark < 1 || lowWatermark < 0 || lowWatermark >= highWatermark) {
+            throw new IllegalArgumentException("Require 0 <= low watermark < high watermark. low=" + lowWatermark +
+                                               ", high=" + highWatermark);
+        }
+        this.delegate = delegate;
+        this.ownsDelegate = ownsDelegate;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+    }
+
+    /**
+     * Hands task to delegate, blocking first if the high watermark has been reached.
+     *
+     * @throws RejectedExecutionException if interrupted while waiting or if delegate rejects the task
+     */
+    @Override
+    public void execute(Runnable command) {
+        if (shutdown) {
+            throw new RejectedExecutionException("Executor has been shut down");
+        }
+        awaitCapacity();
+
+        int depth = queueDepth.incrementAndGet();
+        updatePeak(depth);
+
+        try {
+            delegate.execute(new CountedTask(command));
+        }
+        catch (RejectedExecutionException e) {
+            taskDone();
+            throw e;
+        }
+    }
+
+    /**
+     * Counts a task out when it finishes.
+     */
+    private final class CountedTask implements Runnable, FairQueue.Grouped {
+        private final Runnable command;
+
+        CountedTask(Runnable command) {
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            activeCount.incrementAndGet();
+            try {
+                command.run();
+            }
+            finally {
+                activeCount.decrementAndGet();
+                taskDone();
+            }
+        }
+
+        /**
+         * Group of the task submitted, if it is in one (passing through a shared BoundedExecutorService), otherwise
+         * this executor.
+         */
+        @Override
+        public Object getGroup() {
+            Object group = command instanceof FairQueue.Grouped ? ((FairQueue.Grouped) command).getGroup() : null;
+            return group != null ? group : BoundedExecutorService.this;
+        }
+    }
+
+    private void awaitCapacity() {
+        if (!throttled && queueDepth.get() < highWatermark) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        synchronized (lock) {
+            if (queueDepth.get() >= highWatermark) {
+                throttled = true;
+
+                // Tasks may have drained while we were getting here
+                if (queueDepth.get() <= lowWatermark) {
+                    throttled = false;
+                }
+            }
+            while (throttled) {
+                try {
+                    lock.wait();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException("Interrupted waiting for dispatch queue to drain", e);
+                }
+            }
+        }
+        blockedNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    private void taskDone() {
+        int depth = queueDepth.decrementAndGet();
+        if (throttled && depth <= lowWatermark) {
+            synchronized (lock) {
+                throttled = false;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void updatePeak(int depth) {
+        int peak;
+        while (depth > (peak = peakQueueDepth.get())) {
+            if (peakQueueDepth.compareAndSet(peak, depth)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns number of tasks submitted that have not finished yet (both queued and running).
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * Adds a thread to the delegate's pool (if it is a ThreadPoolExecutor), to replace one held by a task that has
+     * been given up on.
+     */
+    public void addThread() {
+        if (delegate instanceof BoundedExecutorService) {
+            ((BoundedExecutorService) delegate).addThread();
+        }
+        else if (delegate instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) delegate;
+            synchronized (pool) {
+                pool.setMaximumPoolSize(pool.getMaximumPoolSize() + 1);
+                pool.setCorePoolSize(pool.getCorePoolSize() + 1);
+            }
+        }
+    }
+
+    /**
+     * Returns number of tasks being run right now.
+     */
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    /**
+     * Returns highest value {@link #getQueueDepth()} has reached.
+     */
+    public int getPeakQueueDepth() {
+        return peakQueueDepth.get();
+    }
+
+    /**
+     * Returns total time submitting threads have spent blocked waiting for the queue to drain.
+     */
+    public long getBlockedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(blockedNanos.get());
+    }
+
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+
+    public int getLowWatermark() {
+        return lowWatermark;
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        if (ownsDelegate) {
+            delegate.shutdown();
+        }
+    }
+
+    /**
+     * Stops the delegate, unless it is shared, and releases threads blocked submitting tasks.  Tasks already handed
+     * to a shared delegate are left to it (cancel them to stop them running).
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Runnable> neverRun = ownsDelegate ? delegate.shutdownNow() : Collections.<Runnable>emptyList();
+
+        // Release anybody blocked waiting for tasks that will never finish
+        synchronized (lock) {
+            throttled = false;
+            lock.notifyAll();
+        }
+        return neverRun;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return ownsDelegate ? delegate.isShutdown() : shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return ownsDelegate ? delegate.isTerminated() : shutdown && queueDepth.get() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        if (ownsDelegate) {
+            return delegate.awaitTermination(timeout, unit);
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isTerminated()) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        return true;
+    }
+}
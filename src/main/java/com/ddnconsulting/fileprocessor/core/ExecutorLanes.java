@@ -0,0 +1,219 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.ddnconsulting.fileprocessor.workers.FileWorker;
+import com.ddnconsulting.fileprocessor.workers.WorkerLane;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.PropertyResolver;
+
+
+/**
+ * Set of named executor lanes.  Each lane is a fixed thread pool with its own bound on outstanding tasks (see
+ * {@link BoundedExecutorService}).  FileWorkers choose their lane with the {@link WorkerLane} annotation, so a slow
+ * worker only competes for threads with other workers in its lane.
+ *
+ * Lanes are created the first time a worker needs them.  Settings are taken from properties first, then the worker's
+ * annotation, then the defaults given to the constructor:
+ * <pre>
+ *   lane.&lt;name&gt;.threads       number of threads
+ *   lane.&lt;name&gt;.queue.high    outstanding tasks at which dispatch blocks
+ *   lane.&lt;name&gt;.queue.low     outstanding tasks at which blocked dispatch resumes (default half of high)
+ *   worker.&lt;simple class name&gt;.lane   puts a worker in a lane without changing its code
+ * </pre>
+ *
+ * A long-running process running several scans at once keeps one set of {@link #shared} lanes and gives each scan a
+ * view of them ({@link #forScan()}).  A scan's lanes have the usual bounds, counted for that scan alone, so one scan's
+ * backlog never blocks another's walk; the tasks run on the shared lanes' threads, which take them from each scan in
+ * turn (see {@link FairQueue}).  The shared lanes are bounded at maxScans times the usual bound.
+ *
+ * @author Dan Nathanson
+ */
+public class ExecutorLanes {
+    private static final Logger LOG = LoggerFactory.getLogger(ExecutorLanes.class);
+
+    private final PropertyResolver properties;
+    private final int defaultThreads;
+    private final int defaultQueueHigh;
+    private final int defaultQueueLow;
+    // Lanes the threads are borrowed from, for a scan's view of shared lanes
+    private final ExecutorLanes shared;
+    // For shared lanes, the most scans expected to run on them at once.  0 for lanes with threads of their own
+    private final int maxScans;
+
+    private final ConcurrentMap<String, BoundedExecutorService> lanes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Class<?>, BoundedExecutorService> lanesByWorkerClass = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Class<?>, String> laneNamesByWorkerClass = new ConcurrentHashMap<>();
+
+    /**
+     * @param properties source of lane settings
+     * @param defaultThreads number of threads for lanes that don't specify it
+     * @param defaultQueueHigh high watermark for lanes that don't specify it
+     * @param defaultQueueLow low watermark for lanes that don't specify a high watermark either
+     */
+    public ExecutorLanes(PropertyResolver properties, int defaultThreads, int defaultQueueHigh, int defaultQueueLow) {
+        this(properties, defaultThreads, defaultQueueHigh, defaultQueueLow, null, 0);
+    }
+
+    private ExecutorLanes(PropertyResolver properties, int defaultThreads, int defaultQueueHigh, int defaultQueueLow,
+                          ExecutorLanes shared, int maxScans) {
+        this.properties = properties;
+        this.defaultThreads = defaultThreads;
+        this.defaultQueueHigh = defaultQueueHigh;
+        this.defaultQueueLow = defaultQueueLow;
+        this.shared = shared;
+        this.maxScans = maxScans;
+    }
+
+    /**
+     * Creates lanes to be shared by scans running at the same time, each through its own {@link #forScan()} view.
+     *
+     * @param maxScans most scans expected to run at once
+     */
+    public static ExecutorLanes shared(PropertyResolver properties, int defaultThreads, int defaultQueueHigh,
+                                       int defaultQueueLow, int maxScans) {
+        if (maxScans < 1) {
+            throw new IllegalArgumentException("Must allow at least one scan: " + maxScans);
+        }
+        return new ExecutorLanes(properties, defaultThreads, defaultQueueHigh, defaultQueueLow, null, maxScans);
+    }
+
+    /**
+     * Returns lanes for one scan that run tasks on these (shared) lanes' threads.  Shutting them down leaves these
+     * running.
+     */
+    public ExecutorLanes forScan() {
+        if (maxScans == 0) {
+            throw new IllegalStateException("Lanes are not shared");
+        }
+        return new ExecutorLanes(properties, defaultThreads, defaultQueueHigh, defaultQueueLow, this, 0);
+    }
+
+    /**
+     * Returns executor for worker's lane, creating the lane if needed.
+     */
+    public BoundedExecutorService executorFor(FileWorker worker) {
+        Class<?> workerClass = worker.getClass();
+        BoundedExecutorService executor = lanesByWorkerClass.get(workerClass);
+        if (executor == null) {
+            String laneName = laneFor(worker);
+            WorkerLane annotation = workerClass.getAnnotation(WorkerLane.class);
+            executor = getLane(laneName, annotation != null && annotation.value().equals(laneName) ? annotation : null);
+            lanesByWorkerClass.putIfAbsent(workerClass, executor);
+        }
+        return executor;
+    }
+
+    /**
+     * Returns name of worker's lane, from properties or its {@link WorkerLane} annotation.
+     */
+    public String laneFor(FileWorker worker) {
+        Class<?> workerClass = worker.getClass();
+        String laneName = laneNamesByWorkerClass.get(workerClass);
+        if (laneName == null) {
+            laneName = properties.getProperty("worker." + workerClass.getSimpleName() + ".lane");
+            if (laneName == null) {
+                WorkerLane annotation = workerClass.getAnnotation(WorkerLane.class);
+                laneName = annotation != null ? annotation.value() : WorkerLane.DEFAULT;
+            }
+            laneNamesByWorkerClass.putIfAbsent(workerClass, laneName);
+        }
+        return laneName;
+    }
+
+    /**
+     * Returns named lane, creating it with settings from properties (or defaults) if needed.
+     */
+    public BoundedExecutorService getLane(String name) {
+        return getLane(name, null);
+    }
+
+    private BoundedExecutorService getLane(String name, WorkerLane annotation) {
+        BoundedExecutorService lane = lanes.get(name);
+        if (lane != null) {
+            return lane;
+        }
+
+        synchronized (lanes) {
+            lane = lanes.get(name);
+            if (lane == null) {
+                lane = createLane(name, annotation);
+                lanes.put(name, lane);
+            }
+        }
+        return lane;
+    }
+
+    private BoundedExecutorService createLane(String name, WorkerLane annotation) {
+        int threads = defaultThreads;
+        int high = defaultQueueHigh;
+        int low = defaultQueueLow;
+        if (annotation != null) {
+            if (annotation.threads() > 0) {
+                threads = annotation.threads();
+            }
+            if (annotation.queueBound() > 0) {
+                high = annotation.queueBound();
+                low = high / 2;
+            }
+        }
+
+        String prefix = "lane." + name;
+        threads = properties.getProperty(prefix + ".threads", Integer.class, threads);
+        Integer configuredHigh = properties.getProperty(prefix + ".queue.high", Integer.class);
+        if (configuredHigh != null) {
+            high = configuredHigh;
+            low = high / 2;
+        }
+        low = properties.getProperty(prefix + ".queue.low", Integer.class, low);
+
+        if (shared != null) {
+            return new BoundedExecutorService(shared.getLane(name, annotation), high, low, false);
+        }
+
+        // Default lane keeps the thread names used before there were lanes
+        String threadName = WorkerLane.DEFAULT.equals(name) ? "WorkerRunner" : name;
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat(threadName + "-%d").build();
+        ExecutorService pool;
+        if (maxScans > 0) {
+            high *= maxScans;
+            low *= maxScans;
+            pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new FairQueue(), threadFactory);
+        }
+        else {
+            pool = Executors.newFixedThreadPool(threads, threadFactory);
+        }
+
+        LOG.info("Creating executor lane [" + name + "]: threads=" + threads + ", queue high=" + high + ", low=" + low +
+                 (maxScans > 0 ? ", shared by up to " + maxScans + " scans" : ""));
+        return new BoundedExecutorService(pool, high, low);
+    }
+
+    /**
+     * Returns all lanes created so far, by name.
+     */
+    public Map<String, BoundedExecutorService> getLanes() {
+        return Collections.unmodifiableMap(new TreeMap<>(lanes));
+    }
+
+    /**
+     * Stops all lanes.  Tasks not yet started are not run.  For a scan's view of shared lanes, stops the scan
+     * submitting tasks, but leaves the shared lanes running.
+     */
+    public void shutdownNow() {
+        for (BoundedExecutorService lane : lanes.values()) {
+            lane.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Unbounded task queue for a thread pool shared by several scans at once.  Tasks are queued by group (see
+ * {@link Grouped}; in practice, the scan they belong to) and taken from the groups in turn, so a scan that has queued
+ * thousands of tasks gets no more of the pool's threads than one that has just queued its first.  Within a group,
+ * tasks are taken in the order they were queued.
+ *
+ * Tasks that don't say which group they are in share a group of their own.
+ *
+ * The iterator is a snapshot and does not see later changes.
+ *
+ * @author Dan Nathanson
+ */
+public class FairQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+    private static final Object UNGROUPED = new Object();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Map<Object, ArrayDeque<Runnable>> queues = new HashMap<>();
+    // Groups with tasks queued, in the order they get their next turn
+    private final ArrayDeque<Object> turns = new ArrayDeque<>();
+    private int size;
+
+    /**
+     * A task that knows which group it belongs to.
+     */
+    public interface Grouped {
+
+        /**
+         * Tasks with the same (equal) group are queued together.
+         */
+        Object getGroup();
+    }
+
+    private static Object groupOf(Runnable task) {
+        Object group = task instanceof Grouped ? ((Grouped) task).getGroup() : null;
+        return group != null ? group : UNGROUPED;
+    }
+
+    @Override
+    public boolean offer(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        Object group = groupOf(task);
+        lock.lock();
+        try {
+            ArrayDeque<Runnable> queue = queues.get(group);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                queues.put(group, queue);
+                turns.addLast(group);
+            }
+            queue.addLast(task);
+            size++;
+            notEmpty.signal();
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable task) {
+        offer(task);
+    }
+
+    @Override
+    public boolean offer(Runnable task, long timeout, TimeUnit unit) {
+        return offer(task);
+    }
+
+    /**
+     * Takes the next task from the group whose turn it is.  Must hold the lock.
+     */
+    private Runnable dequeue() {
+        Object group = turns.pollFirst();
+        if (group == null) {
+            return null;
+        }
+        ArrayDeque<Runnable> queue = queues.get(group);
+        Runnable task = queue.pollFirst();
+        if (queue.isEmpty()) {
+            queues.remove(group);
+        }
+        else {
+            turns.addLast(group);
+        }
+        size--;
+        return task;
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            Object group = turns.peekFirst();
+            return group == null ? null : queues.get(group).peekFirst();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof Runnable)) {
+            return false;
+        }
+        Object group = groupOf((Runnable) o);
+        lock.lock();
+        try {
+            ArrayDeque<Runnable> queue = queues.get(group);
+            if (queue == null || !queue.remove(o)) {
+                return false;
+            }
+            if (queue.isEmpty()) {
+                queues.remove(group);
+                turns.remove(group);
+            }
+            size--;
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of groups with tasks queued.
+     */
+    public int getGroups() {
+        lock.lock();
+        try {
+            return turns.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException("Can't drain to self");
+        }
+        lock.lock();
+        try {
+            int drained = 0;
+            Runnable task;
+            while (drained < maxElements && (task = dequeue()) != null) {
+                c.add(task);
+                drained++;
+            }
+            return drained;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Iterator<Runnable> iterator() {
+        final List<Runnable> snapshot = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Object group : turns) {
+                snapshot.addAll(queues.get(group));
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+
+        return new Iterator<Runnable>() {
+            private final Iterator<Runnable> delegate = snapshot.iterator();
+            private Runnable last;
+
+            @Override
+            public boolean hasNext() {
+                return delegate.hasNext();
+            }
+
+            @Override
+            public Runnable next() {
+                return last = delegate.next();
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                FairQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+}
@@ -10,8 +10,20 @@ public interface FileClassifier {
     String FILE_TYPE_DIRECTORY = "directory";
 
     /**
-     * Returns MIME type of file at Path.  If Path is for a directory, return {@link #FILE_TYPE_DIRECTORY}.  It type
-     * cannot be determined, returns null.
+     * Type of FIFOs, devices and sockets, which aren't files as far as workers are concerned (reading one can block
+     * forever).
+     */
+    String FILE_TYPE_SPECIAL = "special";
+
+    /**
+     * Returns MIME type of file at Path.  If Path is for a directory, return {@link #FILE_TYPE_DIRECTORY}; for a FIFO,
+     * device or socket, {@link #FILE_TYPE_SPECIAL}.  It type cannot be determined, returns null.
      */
     String getType(Path path);
+
+    /**
+     * Returns MIME type of file described by context.  Same as {@link #getType(Path)}, but uses the attributes already
+     * in the context rather than going back to the file system to find out if the file is a directory.
+     */
+    String getType(FileContext context);
 }
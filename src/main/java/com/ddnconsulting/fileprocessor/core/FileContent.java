@@ -0,0 +1,191 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Read-only view of a file's contents that can be shared by all the FileWorkers working on the file, so the file is
+ * opened and read once no matter how many workers want to look inside it.
+ *
+ * How the contents are held depends on the size of the file:
+ * <ul>
+ *     <li>small files are read into a heap buffer in one go (mapping has a fixed cost that isn't worth paying)</li>
+ *     <li>files up to 2 GB are memory-mapped, so every worker reads the same pages</li>
+ *     <li>larger files can't be mapped as a single buffer and are read through positioned reads on one shared
+ *     channel</li>
+ * </ul>
+ *
+ * Each call to {@link #getBuffer()}, {@link #getBuffer(long, int)} or {@link #newInputStream()} returns an independent
+ * view, so workers don't interfere with each other's position.  Closing an InputStream does not close the content;
+ * that is done by whoever opened it (normally FileWorkerRunner, once all workers have finished with the file).
+ *
+ * @author Dan Nathanson
+ */
+public class FileContent implements Closeable {
+    // Files up to this size are read into a heap buffer rather than mapped
+    static final int SMALL_FILE_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final long size;
+    private final ByteBuffer buffer;
+
+    private FileContent(FileChannel channel, long size, ByteBuffer buffer) {
+        this.channel = channel;
+        this.size = size;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Opens file at path for reading.
+     */
+    public static FileContent open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            ByteBuffer buffer = null;
+            if (size <= SMALL_FILE_SIZE) {
+                buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // keep reading
+                }
+                buffer.flip();
+            }
+            else if (size <= Integer.MAX_VALUE) {
+                buffer = channel.map(MapMode.READ_ONLY, 0, size);
+            }
+            return new FileContent(channel, size, buffer);
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Wraps contents that are already in memory.
+     */
+    public static FileContent wrap(ByteBuffer contents) {
+        return new FileContent(null, contents.remaining(), contents.slice());
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns true if whole file is available from {@link #getBuffer()}.
+     */
+    public boolean isBuffered() {
+        return buffer != null;
+    }
+
+    /**
+     * Returns new read-only buffer over the whole file, positioned at the start.
+     *
+     * @throws IOException if the file is too big to be held in a single buffer (see {@link #isBuffered()})
+     */
+    public ByteBuffer getBuffer() throws IOException {
+        if (buffer == null) {
+            throw new IOException("File is too large to buffer (" + size + " bytes). Use read() or newInputStream()");
+        }
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns new read-only buffer over length bytes of the file from position.  A view of the whole file's buffer if
+     * there is one; otherwise (files too big to buffer whole) the range is mapped on its own, so huge files can be read
+     * a window at a time.
+     */
+    public ByteBuffer getBuffer(long position, int length) throws IOException {
+        if (position < 0 || length < 0 || position + length > size) {
+            throw new IOException("Range " + position + "+" + length + " is outside the file (" + size + " bytes)");
+        }
+        if (buffer == null) {
+            return channel.map(MapMode.READ_ONLY, position, length);
+        }
+        ByteBuffer view = buffer.asReadOnlyBuffer();
+        view.position((int) position);
+        view.limit((int) position + length);
+        return view.slice();
+    }
+
+    /**
+     * Reads bytes starting at position into dst, without affecting any other reader.
+     *
+     * @return number of bytes read, or -1 if position is at or past the end of the file
+     */
+    public int read(ByteBuffer dst, long position) throws IOException {
+        if (position >= size) {
+            return -1;
+        }
+        if (buffer != null) {
+            ByteBuffer src = buffer.duplicate();
+            src.position((int) position);
+            int count = Math.min(src.remaining(), dst.remaining());
+            src.limit((int) position + count);
+            dst.put(src);
+            return count;
+        }
+        return channel.read(dst, position);
+    }
+
+    /**
+     * Returns new stream over the whole file.  Closing the stream does not close this content.
+     */
+    public InputStream newInputStream() {
+        return new ContentInputStream();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+
+    /**
+     * InputStream that keeps its own position and reads through {@link #read(ByteBuffer, long)}.
+     */
+    private final class ContentInputStream extends InputStream {
+        private long position;
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int count = read(one, 0, 1);
+            return count < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            int count = FileContent.this.read(ByteBuffer.wrap(bytes, offset, length), position);
+            if (count > 0) {
+                position += count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, size - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, size - position);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+
+/**
+ * Everything known about a file at the point it is handed to a FileWorker: its path, the attributes read by the
+ * directory walk and the type assigned by the {@link FileClassifier}.  Passing this along instead of a bare Path
+ * saves classifiers and workers from going back to the file system (which is expensive on network file systems) for
+ * information the walk already has.
+ *
+ * The walk does not follow symbolic links, so for a link the walk's attributes describe the link itself.  To match
+ * what {@link java.io.File#isFile()} and {@link java.io.File#length()} report, {@link #getAttributes()} resolves
+ * links (once) and returns the attributes of the target.  If the attributes were not supplied, they are read on
+ * first use.
+ *
+ * The same context is given to every worker that works on the file, so it is also where the file's contents are
+ * shared (see {@link #getContent()}).  When the workers are split between several runners (one per executor lane),
+ * the context counts the runners sharing it, and the contents are only closed when the last of them has finished.
+ *
+ * @author Dan Nathanson
+ */
+public class FileContext {
+    private final Path path;
+    private volatile BasicFileAttributes attributes;
+    private volatile boolean resolved;
+    private volatile String type;
+    private volatile ScanJob scanJob;
+    private FileContent content;
+    private int users;
+
+    /**
+     * Creates context for a file whose attributes have not been read yet.
+     */
+    public FileContext(Path path) {
+        this(path, null);
+    }
+
+    /**
+     * Creates context for a file using attributes already read (without following links).
+     *
+     * @param path path of the file
+     * @param attributes attributes of the file, or null if not known
+     */
+    public FileContext(Path path, BasicFileAttributes attributes) {
+        this.path = path;
+        this.attributes = attributes;
+        this.resolved = attributes != null && !attributes.isSymbolicLink();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the file's attributes, following symbolic links.  Only reads from the file system if the walk did not
+     * supply attributes or the file is a link.  For a broken link, the attributes of the link itself are returned.
+     */
+    public BasicFileAttributes getAttributes() throws IOException {
+        if (!resolved) {
+            try {
+                attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            }
+            catch (IOException e) {
+                if (attributes == null) {
+                    attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                }
+            }
+            resolved = true;
+        }
+        return attributes;
+    }
+
+    public boolean isDirectory() throws IOException {
+        return getAttributes().isDirectory();
+    }
+
+    public boolean isRegularFile() throws IOException {
+        return getAttributes().isRegularFile();
+    }
+
+    /**
+     * Size of file in bytes.
+     */
+    public long size() throws IOException {
+        return getAttributes().size();
+    }
+
+    /**
+     * Returns object that uniquely identifies the file (e.g. device and inode), or null if not available.  Two paths
+     * with the same key are hard links to the same file.
+     */
+    public Object getFileKey() throws IOException {
+        return getAttributes().fileKey();
+    }
+
+    /**
+     * Returns MIME type assigned by the FileClassifier, {@link FileClassifier#FILE_TYPE_DIRECTORY} or null if not
+     * classified (or type is unknown).
+     */
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    /**
+     * Returns the scan that found the file, or null if it was handed to its workers outside a scan.
+     */
+    public ScanJob getScanJob() {
+        return scanJob;
+    }
+
+    public void setScanJob(ScanJob scanJob) {
+        this.scanJob = scanJob;
+    }
+
+    /**
+     * Returns the file's contents, opening the file the first time this is called.  All workers given this context
+     * share the one open file.  Workers must not close it.
+     */
+    public synchronized FileContent getContent() throws IOException {
+        if (content == null) {
+            content = openContent();
+        }
+        return content;
+    }
+
+    /**
+     * Opens the file's contents.  Called (holding the context's lock) the first time they are needed.
+     */
+    protected FileContent openContent() throws IOException {
+        return FileContent.open(path);
+    }
+
+    /**
+     * Sets contents that are already available, e.g. from memory rather than the file system.
+     */
+    public synchronized void setContent(FileContent content) {
+        this.content = content;
+    }
+
+    /**
+     * Adds count users (runners, or anything else still reading the contents) to the context, each of which must call
+     * {@link #release()} when it has finished with the file.  Users must all be added before any of them can finish.
+     */
+    public synchronized void retain(int count) {
+        users += count;
+    }
+
+    /**
+     * Called by a user of the context when it has finished with the file.  Closes the contents once the last user
+     * has, or straight away if nobody was counted with {@link #retain(int)}.
+     */
+    public void release() throws IOException {
+        synchronized (this) {
+            if (users > 1) {
+                users--;
+                return;
+            }
+            users = 0;
+        }
+        closeContent();
+    }
+
+    /**
+     * Closes contents if they were opened, whoever is still using them.  Normally called through {@link #release()}
+     * once every worker has finished with the file.
+     */
+    public synchronized void closeContent() throws IOException {
+        if (content != null) {
+            content.close();
+            content = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+}
@@ -1,17 +1,34 @@
 package com.ddnconsulting.fileprocessor.core;
 
+import java.io.Flushable;
 import java.io.IOException;
 import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
+import javax.jms.ConnectionFactory;
+
+import com.ddnconsulting.fileprocessor.daemon.ScanDaemon;
+import com.ddnconsulting.fileprocessor.distributed.DistributedScan;
+import com.ddnconsulting.fileprocessor.distributed.ScanCoordinator;
+import com.ddnconsulting.fileprocessor.distributed.ScanNode;
+import com.ddnconsulting.fileprocessor.index.IncrementalIndex;
+import com.ddnconsulting.fileprocessor.resultshandlers.ResultsCodec;
 import com.ddnconsulting.fileprocessor.resultshandlers.ResultsHandler;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.ddnconsulting.fileprocessor.resultshandlers.ScanAwareResultsHandler;
+import com.ddnconsulting.fileprocessor.workers.AggregatingFileWorker;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
 import joptsimple.OptionException;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
@@ -20,6 +37,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
 
@@ -41,9 +59,18 @@ import org.springframework.stereotype.Component;
 @Component
 public class FileProcessor {
     private static final Logger LOG = LoggerFactory.getLogger(FileProcessor.class);
+    private static final int MAX_ABANDONED_REPORTED = 100;
+    private static final String DEFAULT_INDEX_FILE = "fileprocessor.index";
+
     private OptionParser optionParser;
     private OptionSpec<String> directorySpec;
     private OptionSpec<String> operationSpec;
+    private OptionSpec<String> incrementalSpec;
+    private OptionSpec<String> resumeSpec;
+    private OptionSpec<Void> archivesSpec;
+    private OptionSpec<Void> coordinatorSpec;
+    private OptionSpec<Void> nodeSpec;
+    private OptionSpec<Void> daemonSpec;
 
     @Autowired
     private FileWorkerRegistry fileWorkerRegistry;
@@ -54,26 +81,115 @@ public class FileProcessor {
     @Autowired
     private FileClassifier fileClassifier;
 
-    // Number of threads in the pool
+    @Autowired
+    private ResultsCodec resultsCodec;
+
+    // Where time goes in each scan.  Logged with progress and at the end of the scan
+    @Autowired(required = false)
+    private ScanMetrics scanMetrics;
+
+    // Source of per-lane settings
+    @Autowired
+    private Environment environment;
+
+    // Connections to the broker for distributed scans
+    @Autowired
+    private ConnectionFactory connectionFactory;
+
+    // Number of threads in each executor lane's pool, unless configured for the lane
     @Value("${num.threads}")
     private int numThreads = 10;
-    // How long to wait for all thread to complete
+    // How long (in seconds) the whole scan may take before outstanding work is cancelled. 0 for no limit
     @Value("${total.timeout}")
     private int totalTimeout;
+    // How long (in milliseconds) a worker may take on one file, unless set for the worker. 0 for no limit
+    @Value("${task.timeout.ms}")
+    private long taskTimeoutMillis;
+    // How often (in milliseconds) the watchdog checks running tasks for timeouts
+    @Value("${task.watchdog.interval.ms}")
+    private long watchdogIntervalMillis = 250;
+    // File listing paths workers timed out on, and the number of timeouts after which a path is skipped
+    @Value("${quarantine.file}")
+    private String quarantineFile;
+    @Value("${quarantine.threshold}")
+    private int quarantineThreshold = 2;
+    // File the walk's progress is written to, and how often (in seconds).  Empty for no checkpoints
+    @Value("${checkpoint.file}")
+    private String checkpointFile;
+    @Value("${checkpoint.interval}")
+    private int checkpointInterval = 60;
+    // Whether to look inside archives of archive.types (or only with --archives), how many levels of archives inside
+    // archives, and the most decompressed bytes read from each archive on disk and from any one entry
+    @Value("${archive.descent}")
+    private boolean archiveDescent;
+    @Value("${archive.types}")
+    private String archiveTypes = "application/java-archive,application/zip";
+    @Value("${archive.max.depth}")
+    private int archiveMaxDepth = 3;
+    @Value("${archive.max.bytes}")
+    private long archiveMaxBytes = 1024L * 1024 * 1024;
+    @Value("${archive.entry.max.bytes}")
+    private long archiveEntryMaxBytes = 64L * 1024 * 1024;
+    // How often (in seconds) to log progress while waiting for work to finish
+    @Value("${progress.interval}")
+    private int progressInterval = 30;
+    // Number of outstanding tasks in a lane at which the walk is blocked, unless configured for the lane
+    @Value("${dispatch.queue.high}")
+    private int dispatchQueueHigh = 10000;
+    // Number of outstanding tasks in a lane at which a blocked walk is resumed
+    @Value("${dispatch.queue.low}")
+    private int dispatchQueueLow = 5000;
+    // Number of threads walking the directory tree.  1 keeps the single-threaded Files.walkFileTree walk.
+    @Value("${walk.parallelism}")
+    private int walkParallelism = 1;
+    // Queues for distributed scans: work units to nodes, results and acknowledgements back to the coordinator
+    @Value("${jms.work.queue}")
+    private String workQueue;
+    @Value("${jms.node.results.queue}")
+    private String nodeResultsQueue;
+    @Value("${jms.ack.queue}")
+    private String ackQueue;
+    @Value("${jms.results.batch}")
+    private int nodeResultsBatchSize = 500;
+    // Queue scan requests are taken from in daemon mode, and the most scans run at once
+    @Value("${daemon.request.queue}")
+    private String daemonRequestQueue;
+    @Value("${daemon.scans}")
+    private int daemonScans = 4;
+
+    // Kept from scan to scan (and shared by scans running at once) once the processor is kept warm
+    private volatile ExecutorLanes sharedLanes;
+    private volatile Quarantine sharedQuarantine;
 
     public FileProcessor() {
         optionParser = new OptionParser();
         directorySpec = optionParser.accepts("d", "directory from which to start crawling")
                 .withRequiredArg()
                 .ofType(String.class)
-                .describedAs("entry point to filesystem")
-                .required();
+                .describedAs("entry point to filesystem");
         operationSpec = optionParser.accepts("o", "operations to perform on each file")
                 .withRequiredArg()
                 .ofType(String.class)
                 .describedAs("operation1,operation2,...")
-                .withValuesSeparatedBy(',')
-                .required();
+                .withValuesSeparatedBy(',');
+        incrementalSpec = optionParser.accepts("incremental", "only process files changed since the last " +
+                                                              "incremental scan, reusing stored results for the rest")
+                .withOptionalArg()
+                .ofType(String.class)
+                .describedAs("index file")
+                .defaultsTo(DEFAULT_INDEX_FILE);
+        resumeSpec = optionParser.accepts("resume", "carry on from the checkpoint of a scan that didn't finish, " +
+                                                    "skipping directories it finished")
+                .withOptionalArg()
+                .ofType(String.class)
+                .describedAs("checkpoint file");
+        archivesSpec = optionParser.accepts("archives", "look inside JAR, WAR, EAR and ZIP files and process their " +
+                                                        "entries too");
+        coordinatorSpec = optionParser.accepts("coordinator", "hand directories under the entry point to nodes " +
+                                                              "(see --node) and collect their results");
+        nodeSpec = optionParser.accepts("node", "process directories handed out by a coordinator until stopped");
+        daemonSpec = optionParser.accepts("daemon", "run scans sent to the daemon request queue until stopped, " +
+                                                    "keeping thread pools and caches warm between them");
         optionParser.acceptsAll(Arrays.asList("h", "?"), "show help").forHelp();
     }
 
@@ -84,6 +200,15 @@ public class FileProcessor {
      * Handles command line input and starts processing files.  Has two required arguments:
      *  -d <directory>:  specifies the entry point to the filesystem
      *  -o operation1[,operation2,...]: operation(s) to be performed on files
+     * and optional arguments:
+     *  --incremental [index file]: skip files unchanged since the last run with the same index file
+     *  --resume [checkpoint file]: skip directories finished by a run that died part way through
+     *  --archives: process entries inside archives too
+     *  --coordinator: spread the scan over nodes, over JMS
+     * Or, to run as a node in distributed scans (-d and -o come from the coordinator):
+     *  --node
+     * Or, to run scans sent over JMS (each request has its own directory and operations):
+     *  --daemon
      */
     public void run(String... args) throws Exception {
 
@@ -97,32 +222,394 @@ public class FileProcessor {
             System.out.println();
             System.exit(1);
         }
+
+        if (optionSet.has(nodeSpec)) {
+            runNode();
+            return;
+        }
+        if (optionSet.has(daemonSpec)) {
+            runDaemon();
+            return;
+        }
+
+        if (!optionSet.has(directorySpec) || !optionSet.has(operationSpec)) {
+            System.out.println("\nOptions d and o are required\n");
+            optionParser.printHelpOn(System.out);
+            System.out.println();
+            System.exit(1);
+        }
         String directory = directorySpec.value(optionSet);
         final List<String> operations = operationSpec.values(optionSet);
 
-        processFiles(directory, operations);
+        if (optionSet.has(coordinatorSpec)) {
+            coordinate(directory, operations);
+            return;
+        }
+
+        ScanOptions options = new ScanOptions();
+        if (optionSet.has(incrementalSpec)) {
+            options.setIncrementalIndex(Paths.get(incrementalSpec.value(optionSet)));
+        }
+        if (optionSet.has(resumeSpec) && optionSet.hasArgument(resumeSpec)) {
+            options.setCheckpoint(Paths.get(resumeSpec.value(optionSet)));
+        }
+        else if (checkpointFile != null && !checkpointFile.isEmpty()) {
+            options.setCheckpoint(Paths.get(checkpointFile));
+        }
+        else if (optionSet.has(resumeSpec)) {
+            LOG.warn("Nothing to resume from: no checkpoint file given with --resume and checkpoint.file isn't set");
+        }
+        options.setResume(optionSet.has(resumeSpec));
+        options.setArchives(optionSet.has(archivesSpec));
+
+        processFiles(directory, operations, options);
+    }
+
+
+    /**
+     * Hands directories under directory to nodes and passes the results they send back to the results handler.  Blocks
+     * until all the directories have been processed or the total timeout (if set) passes.
+     */
+    public DistributedScan coordinate(String directory, List<String> operations)
+            throws IOException, InterruptedException {
+        ScanCoordinator coordinator = new ScanCoordinator(connectionFactory, resultsCodec, workQueue, nodeResultsQueue,
+                                                          ackQueue);
+        Path root = FileSystems.getDefault().getPath(directory);
+        if (resultsHandler instanceof ScanAwareResultsHandler) {
+            ((ScanAwareResultsHandler) resultsHandler).scanStarted(root);
+        }
+        DistributedScan scan = coordinator.coordinate(directory, operations, resultsHandler, totalTimeout,
+                                                      TimeUnit.SECONDS);
+        if (resultsHandler instanceof ScanAwareResultsHandler) {
+            ((ScanAwareResultsHandler) resultsHandler).scanCompleted(root);
+        }
+        if (resultsHandler instanceof Flushable) {
+            ((Flushable) resultsHandler).flush();
+        }
+        return scan;
+    }
+
+    /**
+     * Processes directories handed out by coordinators until the JVM is stopped.
+     */
+    private void runNode() throws InterruptedException {
+        ScanNode node = createNode();
+        node.start();
+        try {
+            // Units are processed on the listener's thread
+            new CountDownLatch(1).await();
+        }
+        finally {
+            node.close();
+        }
+    }
+
+    /**
+     * Creates node processing directories handed out by coordinators with this processor.  Call start() on it to
+     * start taking work.
+     */
+    public ScanNode createNode() {
+        return new ScanNode(this, connectionFactory, resultsCodec, workQueue, nodeResultsQueue, ackQueue,
+                            nodeResultsBatchSize);
+    }
+
+
+    /**
+     * Runs scans sent to the request queue until the JVM is stopped.
+     */
+    private void runDaemon() throws IOException, InterruptedException {
+        keepWarm(daemonScans);
+        ScanDaemon daemon = createDaemon();
+        daemon.start();
+        try {
+            // Scans are run on the listener's threads
+            new CountDownLatch(1).await();
+        }
+        finally {
+            daemon.close();
+            shutdownWarm();
+        }
+    }
+
+    /**
+     * Creates daemon running scans sent to the request queue with this processor, up to daemon.scans at once.  Call
+     * start() on it to start taking requests.  The processor should be kept warm first.
+     */
+    public ScanDaemon createDaemon() {
+        return new ScanDaemon(this, connectionFactory, resultsCodec, daemonRequestQueue, daemonScans,
+                              nodeResultsBatchSize);
+    }
+
+    /**
+     * Keeps the executor lanes' threads (and the quarantine) from one scan to the next, for a process that runs many
+     * scans, maybe several at once.  Scans running at the same time share the lanes' threads, taking turns (see
+     * {@link ExecutorLanes#forScan()}), while each is bounded by the usual dispatch queue watermarks on its own.
+     *
+     * @param maxScans most scans expected to run at once
+     */
+    public synchronized void keepWarm(int maxScans) throws IOException {
+        if (sharedLanes != null) {
+            return;
+        }
+        if (quarantineFile != null && !quarantineFile.isEmpty()) {
+            sharedQuarantine = new Quarantine(Paths.get(quarantineFile), quarantineThreshold);
+        }
+        sharedLanes = ExecutorLanes.shared(environment, numThreads, dispatchQueueHigh, dispatchQueueLow, maxScans);
+    }
+
+    /**
+     * Stops the threads kept by {@link #keepWarm}.  Later scans start their own again.
+     */
+    public synchronized void shutdownWarm() throws IOException {
+        if (sharedLanes == null) {
+            return;
+        }
+        sharedLanes.shutdownNow();
+        sharedLanes = null;
+        if (sharedQuarantine != null) {
+            sharedQuarantine.save();
+            sharedQuarantine = null;
+        }
     }
 
 
-    public void processFiles(String directory, List<String> operations) throws IOException, InterruptedException {
+    /**
+     * Walks the tree under directory performing the operations on everything found there.  Blocks until all work is
+     * finished or the total timeout (if set) passes, in which case outstanding work is cancelled and reported.
+     *
+     * @return the finished job, which has the final counts and any tasks that were abandoned
+     */
+    public ScanJob processFiles(String directory, List<String> operations) throws IOException, InterruptedException {
+        return processFiles(directory, operations, new ScanOptions());
+    }
+
+    /**
+     * Walks the tree under directory performing the operations on everything found there, with options for this scan.
+     * For an incremental scan, the index is updated at the end of the scan (even if the deadline passed, in which
+     * case files that weren't finished are processed next time).  With a checkpoint, the progress of the walk is
+     * written out periodically, and the checkpoint deleted once the scan finishes.
+     *
+     * @return the finished job, which has the final counts and any tasks that were abandoned
+     */
+    public ScanJob processFiles(String directory, List<String> operations, ScanOptions options)
+            throws IOException, InterruptedException {
 
         // Use an ExecutorService to process files in separate threads. This may or may not speed things up and is
         // probably dependent on the hardware/OS on which the program is running since by definition I/O is involved.
         // How much parallelism can be gained is dependant on how the operating system and hardware handle parallel
         // reads.
 
-        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("WorkerRunner-%d").build();
-        final ExecutorService executor = Executors.newFixedThreadPool(numThreads, threadFactory);
+        // Each lane bounds the number of tasks waiting in its pool's queue so the walk can't run arbitrarily far ahead
+        // of the workers.
+        // Kept warm, the lanes' threads are shared with any other scans running, and left running afterwards.
+        ExecutorLanes shared = sharedLanes;
+        ExecutorLanes lanes = shared != null ? shared.forScan()
+                                             : new ExecutorLanes(environment, numThreads, dispatchQueueHigh,
+                                                                 dispatchQueueLow);
+        ScanJob scanJob = new ScanJob(lanes, totalTimeout, TimeUnit.SECONDS);
+        ResultsHandler handler = options.getResultsHandler() != null ? options.getResultsHandler() : resultsHandler;
+        IncrementalIndex incrementalIndex = null;
+        if (options.getIncrementalIndex() != null) {
+            incrementalIndex = new IncrementalIndex(options.getIncrementalIndex(), resultsCodec);
+        }
+        Quarantine quarantine = shared != null ? sharedQuarantine : null;
+        if (shared == null && quarantineFile != null && !quarantineFile.isEmpty()) {
+            quarantine = new Quarantine(Paths.get(quarantineFile), quarantineThreshold);
+        }
+        TaskWatchdog watchdog = new TaskWatchdog(environment, taskTimeoutMillis, scanJob, quarantine,
+                                                 watchdogIntervalMillis);
+        scanJob.setWatchdog(watchdog);
+        Path root = FileSystems.getDefault().getPath(directory);
+        ScanCheckpoint checkpoint = null;
+        if (options.getCheckpoint() != null && options.isSubdirectories()) {
+            checkpoint = new ScanCheckpoint(options.getCheckpoint(), root, operations, options.isResume());
+            checkpoint.setResultsHandler(handler);
+            scanJob.setCheckpoint(checkpoint);
+            if (checkpointInterval > 0) {
+                checkpoint.start(checkpointInterval, TimeUnit.SECONDS);
+            }
+        }
 
-        // Starting at root directory, apply FileWorkerVisitor at all files in this directory and all subdirectories
-        FileWorkerVisitor visitor = new FileWorkerVisitor(operations, executor, fileWorkerRegistry, resultsHandler, fileClassifier);
-        Files.walkFileTree(FileSystems.getDefault().getPath(directory), visitor);
+        if (handler instanceof ScanAwareResultsHandler) {
+            ((ScanAwareResultsHandler) handler).scanStarted(root);
+        }
+
+        // Workers reporting on the scan as a whole, once it is finished
+        List<AggregatingFileWorker> aggregators = fileWorkerRegistry.getWorkers(operations,
+                                                                                AggregatingFileWorker.class);
+        for (AggregatingFileWorker aggregator : aggregators) {
+            aggregator.scanStarted(scanJob);
+        }
+
+        ArchiveDescent descent = null;
+        FileWorkerVisitor visitor = null;
+        boolean scanEnded = false;
+        ScanMetrics.Scan metricsScan = null;
+        if (scanMetrics != null) {
+            metricsScan = scanMetrics.scanStarted(shared != null ? shared : lanes, handler);
+        }
+        try {
+            // Starting at root directory, apply FileWorkerVisitor at all files in this directory and all subdirectories
+            visitor = new FileWorkerVisitor(operations, scanJob, fileWorkerRegistry, handler, fileClassifier);
+            visitor.setIncrementalIndex(incrementalIndex);
+            visitor.setMetrics(scanMetrics);
+            visitor.setQuarantine(quarantine);
+            visitor.setCheckpoint(checkpoint);
+            if (archiveDescent || options.isArchives()) {
+                descent = new ArchiveDescent(visitor, Arrays.asList(archiveTypes.split(",")), archiveMaxDepth,
+                                             archiveMaxBytes, archiveEntryMaxBytes);
+                visitor.setArchiveDescent(descent);
+            }
+            if (!options.isSubdirectories()) {
+                Files.walkFileTree(root, EnumSet.noneOf(FileVisitOption.class), 1, new TopLevelVisitor(root, visitor));
+            }
+            else if (walkParallelism > 1) {
+                new ParallelFileWalker(walkParallelism).walk(root, visitor);
+            }
+            else {
+                Files.walkFileTree(root, visitor);
+            }
+            scanJob.walkCompleted();
+
+            while (!scanJob.awaitCompletion(progressInterval, TimeUnit.SECONDS)) {
+                LOG.info("Scan in progress: " + scanJob +
+                         (scanMetrics == null ? "" : "\n" + scanMetrics.getSummary()));
+            }
+            scanEnded = true;
+        }
+        finally {
+            // Listings of directories the walk was still in if it was cut short
+            if (visitor != null) {
+                visitor.walkStopped();
+            }
+            // Cancels anything left if the walk failed
+            scanJob.cancel();
+            watchdog.close();
+            if (checkpoint != null) {
+                checkpoint.close();
+            }
+            lanes.shutdownNow();
+            if (metricsScan != null) {
+                scanMetrics.scanFinished(metricsScan);
+            }
+            if (incrementalIndex != null && !scanEnded) {
+                // Not saved if the scan failed
+                incrementalIndex.close();
+            }
+            for (AggregatingFileWorker aggregator : aggregators) {
+                for (FileWorkerResults results : aggregator.scanCompleted(scanJob)) {
+                    FileWorkerRunner.handleResults(handler, aggregator, results);
+                }
+            }
+        }
 
-        executor.shutdown();
+        // Results may still be queued for a handler that runs on its own thread
+        try {
+            if (handler instanceof ScanAwareResultsHandler) {
+                ((ScanAwareResultsHandler) handler).scanCompleted(root);
+            }
+            if (handler instanceof Flushable) {
+                ((Flushable) handler).flush();
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            if (incrementalIndex != null) {
+                incrementalIndex.close();
+            }
+            throw e;
+        }
 
-        // There are other ways to do this that are better, but for a command line program this works just fine.
-        // If this were a service that continued to handle more requests, this solution is not optimal.
-        executor.awaitTermination(totalTimeout, TimeUnit.SECONDS);
+        if (incrementalIndex != null) {
+            incrementalIndex.save();
+        }
+        if (quarantine != null) {
+            quarantine.save();
+        }
+        if (checkpoint != null) {
+            if (scanJob.isCancelled()) {
+                checkpoint.save();
+                LOG.info("Scan can be resumed from checkpoint " + checkpoint.getFile() + " with --resume");
+            }
+            else {
+                checkpoint.delete();
+            }
+        }
+        if (descent != null) {
+            LOG.info("Archives descended: " + descent);
+        }
+        if (watchdog.getTimedOut() > 0) {
+            LOG.warn(watchdog.getTimedOut() + " workers timed out, " + watchdog.getAbandoned() + " tasks abandoned");
+        }
+        reportAbandoned(scanJob);
+        LOG.info("Scan " + (scanJob.isCancelled() ? "cancelled" : "complete") + ": " + scanJob);
+        for (Map.Entry<String, BoundedExecutorService> lane : lanes.getLanes().entrySet()) {
+            BoundedExecutorService executor = lane.getValue();
+            LOG.info("Lane [" + lane.getKey() + "] queue peak depth " + executor.getPeakQueueDepth() +
+                     " (high watermark " + executor.getHighWatermark() + "). Walk blocked on full queue for " +
+                     executor.getBlockedMillis() + " ms");
+        }
+        if (scanMetrics != null) {
+            LOG.info("Scan metrics:\n" + scanMetrics.getSummary());
+        }
+        return scanJob;
+    }
+
+    private void reportAbandoned(ScanJob scanJob) {
+        if (!scanJob.isCancelled()) {
+            return;
+        }
+
+        List<FileWorkerRunner> abandoned = scanJob.getAbandoned();
+        LOG.warn("Scan did not finish within " + totalTimeout + " seconds. " +
+                 (scanJob.isWalkComplete() ? "" : "Walk did not complete. ") + abandoned.size() +
+                 " tasks abandoned");
+        for (int i = 0; i < abandoned.size() && i < MAX_ABANDONED_REPORTED; i++) {
+            LOG.warn("Abandoned: " + abandoned.get(i));
+        }
+        if (abandoned.size() > MAX_ABANDONED_REPORTED) {
+            LOG.warn("... and " + (abandoned.size() - MAX_ABANDONED_REPORTED) + " more");
+        }
+    }
+
+
+    /**
+     * Passes the top directory and the files in it to the visitor, but not the directories in it (which are only added
+     * to the top directory's listings).  For walks limited to depth 1, where directories in the top directory are
+     * visited as files.
+     */
+    private static final class TopLevelVisitor extends SimpleFileVisitor<Path> {
+        private final Path root;
+        private final FileWorkerVisitor visitor;
+
+        TopLevelVisitor(Path root, FileWorkerVisitor visitor) {
+            this.root = root;
+            this.visitor = visitor;
+        }
+
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+            return visitor.preVisitDirectory(dir, attrs);
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+            if (attrs.isDirectory() && !file.equals(root)) {
+                // Still an entry of the top directory
+                visitor.entryFound(file, attrs);
+                return FileVisitResult.CONTINUE;
+            }
+            return visitor.visitFile(file, attrs);
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+            return visitor.visitFileFailed(file, exc);
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+            return visitor.postVisitDirectory(dir, exc);
+        }
     }
 
     public void setResultsHandler(ResultsHandler resultsHandler) {
@@ -132,4 +619,20 @@ public class FileProcessor {
     public void setFileWorkerRegistry(FileWorkerRegistry fileWorkerRegistry) {
         this.fileWorkerRegistry = fileWorkerRegistry;
     }
+
+    public void setScanMetrics(ScanMetrics scanMetrics) {
+        this.scanMetrics = scanMetrics;
+    }
+
+    public void setTaskTimeoutMillis(long taskTimeoutMillis) {
+        this.taskTimeoutMillis = taskTimeoutMillis;
+    }
+
+    public void setQuarantineFile(String quarantineFile) {
+        this.quarantineFile = quarantineFile;
+    }
+
+    public void setWalkParallelism(int walkParallelism) {
+        this.walkParallelism = walkParallelism;
+    }
 }
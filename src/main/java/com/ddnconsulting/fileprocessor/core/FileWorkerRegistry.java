@@ -1,12 +1,18 @@
 package com.ddnconsulting.fileprocessor.core;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
+import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import com.ddnconsulting.fileprocessor.workers.AggregatingFileWorker;
 import com.ddnconsulting.fileprocessor.workers.FileWorker;
+import com.ddnconsulting.fileprocessor.workers.WorkerMapping;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,6 +25,14 @@ import org.slf4j.LoggerFactory;
  * safety for easy of maintenance and extensibility. Now, assuming self-registration is implemented, new FileWorkers
  * can be used simply by adding their implementations to the classpath.
  *
+ * Lookups happen once per file per operation, so they are kept cheap.  When registration closes (at the first lookup)
+ * operations and types are interned to integer ids and a dispatch table is built: one row per type, holding the set
+ * of matching workers for each operation id.  Workers declare what they handle with {@link WorkerMapping} (including
+ * wildcard types), so rows are filled in from the mappings without asking the workers.  Workers without a mapping
+ * are asked with {@link FileWorker#canHandle} instead.  Types and operations seen for the first time during the scan
+ * (e.g. a MIME type no worker names, but which matches a wildcard) get a new row or id then; after that, a lookup is
+ * two map reads and an array index, and allocates nothing.
+ *
  * TODO: options to populate registry
  * 1. Scan class path to find classes implementing FileWorker
  * 2. Use spring Component scanning to scan for custom annotation
@@ -32,41 +46,65 @@ public class FileWorkerRegistry {
 
     private Set<FileWorker> allWorkers = new HashSet<>();
 
-    // Optimization: lazily keep track of workers that match operation/type pair. This optimization relies on the fact
-    // that works are added to the registry during initialization only.
-    private Map<OperationTypePair, Set<FileWorker>> matchedWorkers = new ConcurrentHashMap<>();
+    // Dispatch table, built when the first lookup closes registration
+    private volatile boolean frozen;
+    private FileWorker[] workers;
+    private Mapping[] mappings;
+    private final ConcurrentMap<String, Integer> operationIds = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, TypeRow> typeRows = new ConcurrentHashMap<>();
+    private TypeRow unknownTypeRow;
 
     /**
      * Returns all registered FileWorkers that can perform the specified operation on files of the specified type
      * @param operation operation to perform
-     * @param type type of file to perform operation on
+     * @param type type of file to perform operation on, or null if not known
      * @return set of all FileWorkers that can perform that operation on specified file type
      */
     public Set<FileWorker> getWorkers(String operation, String type) {
-        OperationTypePair key = new OperationTypePair(operation, type);
-        Set<FileWorker> workers = matchedWorkers.get(key);
-        if (workers != null) {
-            return workers;
+        if (!frozen) {
+            freeze();
         }
 
-        workers = new HashSet<>();
+        Integer operationId = operationIds.get(operation);
+        if (operationId == null) {
+            operationId = internOperation(operation);
+        }
+        TypeRow row = type == null ? unknownTypeRow : typeRows.get(type);
+        if (row == null) {
+            row = internType(type);
+        }
+        return row.getWorkers(operationId, operation);
+    }
+
+    /**
+     * Returns the registered workers of a kind (e.g. {@link AggregatingFileWorker}) that perform any of operations,
+     * whatever the file type.  Workers with a mapping are matched by its operations; others are asked about files of
+     * unknown type.
+     */
+    public synchronized <T> List<T> getWorkers(Collection<String> operations, Class<T> kind) {
+        List<T> matched = new ArrayList<>();
         for (FileWorker worker : allWorkers) {
-            if (worker.canHandle(operation, type)) {
-                workers.add(worker);
+            if (!kind.isInstance(worker)) {
+                continue;
+            }
+            WorkerMapping annotation = worker.getClass().getAnnotation(WorkerMapping.class);
+            Set<String> mapped = annotation == null ? null : new Mapping(annotation).operations;
+            for (String operation : operations) {
+                if (mapped != null ? mapped.contains(operation.toLowerCase(Locale.ENGLISH))
+                                   : worker.canHandle(operation, null)) {
+                    matched.add(kind.cast(worker));
+                    break;
+                }
             }
         }
-
-        workers = Collections.unmodifiableSet(workers);
-        matchedWorkers.put(key, workers);
-
-        return workers;
+        return matched;
     }
 
     /**
      * Registers a FileWorker.
      */
-    public void registerWorker(FileWorker worker) {
-        if (matchedWorkers.size() > 0) {
+    public synchronized void registerWorker(FileWorker worker) {
+        if (frozen) {
             throw new IllegalStateException("All workers must be registered prior to any lookups of workers in the registry");
         }
 
@@ -74,43 +112,173 @@ public class FileWorkerRegistry {
     }
 
     /**
-     * Key for matchedWorkers map
+     * Closes registration and builds the dispatch table for the operations and exact types named by the workers'
+     * mappings.
      */
-    private static final class OperationTypePair {
-        String operation;
-        String type;
+    private synchronized void freeze() {
+        if (frozen) {
+            return;
+        }
+
+        workers = allWorkers.toArray(new FileWorker[allWorkers.size()]);
+        mappings = new Mapping[workers.length];
+        List<String> namedTypes = new ArrayList<>();
+        for (int i = 0; i < workers.length; i++) {
+            WorkerMapping annotation = workers[i].getClass().getAnnotation(WorkerMapping.class);
+            if (annotation == null) {
+                continue;
+            }
+            mappings[i] = new Mapping(annotation);
+            for (String operation : annotation.operations()) {
+                internOperation(operation);
+            }
+            for (String type : annotation.types()) {
+                if (!type.contains("*")) {
+                    namedTypes.add(type);
+                }
+            }
+        }
 
-        public OperationTypePair(String operation, String type) {
-            this.operation = operation;
+        unknownTypeRow = new TypeRow(null);
+        for (String type : namedTypes) {
+            internType(type);
+        }
+        frozen = true;
+
+        LOG.debug("Dispatch table built for " + workers.length + " workers, " + operationIds.size() +
+                  " operations and " + typeRows.size() + " types");
+    }
+
+    private synchronized int internOperation(String operation) {
+        Integer id = operationIds.get(operation);
+        if (id == null) {
+            id = operationIds.size();
+            operationIds.put(operation, id);
+        }
+        return id;
+    }
+
+    /**
+     * Adds row for type, filled in for every operation known so far.
+     */
+    private synchronized TypeRow internType(String type) {
+        TypeRow row = typeRows.get(type);
+        if (row == null) {
+            row = new TypeRow(type);
+            for (String operation : operationIds.keySet()) {
+                row.getWorkers(operationIds.get(operation), operation);
+            }
+            typeRows.put(type, row);
+        }
+        return row;
+    }
+
+    /**
+     * Finds workers handling operation on type: from their mapping if they have one, otherwise by asking them.
+     */
+    private Set<FileWorker> match(String operation, String type) {
+        String lowerOperation = operation == null ? null : operation.toLowerCase(Locale.ENGLISH);
+        String lowerType = type == null ? null : type.toLowerCase(Locale.ENGLISH);
+        Set<FileWorker> matched = new HashSet<>();
+        for (int i = 0; i < workers.length; i++) {
+            boolean handles = mappings[i] != null ? mappings[i].matches(lowerOperation, lowerType)
+                                                  : workers[i].canHandle(operation, type);
+            if (handles) {
+                matched.add(workers[i]);
+            }
+        }
+        return Collections.unmodifiableSet(matched);
+    }
+
+
+    /**
+     * Workers for one type, indexed by operation id.  Filled in as operations are looked up; the list is replaced
+     * (never changed in place) so readers don't need to lock.
+     */
+    private final class TypeRow {
+        private final String type;
+        private volatile List<Set<FileWorker>> byOperation = Collections.emptyList();
+
+        TypeRow(String type) {
             this.type = type;
         }
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) {
-                return true;
+        Set<FileWorker> getWorkers(int operationId, String operation) {
+            List<Set<FileWorker>> row = byOperation;
+            if (operationId < row.size() && row.get(operationId) != null) {
+                return row.get(operationId);
             }
-            if (o == null || getClass() != o.getClass()) {
-                return false;
+            return fill(operationId, operation);
+        }
+
+        private synchronized Set<FileWorker> fill(int operationId, String operation) {
+            List<Set<FileWorker>> row = byOperation;
+            if (operationId < row.size() && row.get(operationId) != null) {
+                return row.get(operationId);
+            }
+            List<Set<FileWorker>> grown = new ArrayList<>(row);
+            while (grown.size() <= operationId) {
+                grown.add(null);
             }
+            Set<FileWorker> workers = match(operation, type);
+            grown.set(operationId, workers);
+            byOperation = grown;
+            return workers;
+        }
+    }
 
-            OperationTypePair pair = (OperationTypePair) o;
 
-            if (operation != null ? !operation.equals(pair.operation) : pair.operation != null) {
-                return false;
+    /**
+     * A worker's {@link WorkerMapping}, lower-cased for matching.
+     */
+    private static final class Mapping {
+        private final Set<String> operations = new HashSet<>();
+        private final String[] types;
+        private final String[] excludeTypes;
+
+        Mapping(WorkerMapping annotation) {
+            for (String operation : annotation.operations()) {
+                operations.add(operation.toLowerCase(Locale.ENGLISH));
             }
-            if (type != null ? !type.equals(pair.type) : pair.type != null) {
-                return false;
+            types = lowerCase(annotation.types());
+            excludeTypes = lowerCase(annotation.excludeTypes());
+        }
+
+        boolean matches(String operation, String type) {
+            return operations.contains(operation) && matchesAny(types, type) && !matchesAny(excludeTypes, type);
+        }
+
+        private static boolean matchesAny(String[] patterns, String type) {
+            for (String pattern : patterns) {
+                if (matchesPattern(pattern, type)) {
+                    return true;
+                }
             }
+            return false;
+        }
 
-            return true;
+        private static boolean matchesPattern(String pattern, String type) {
+            if (WorkerMapping.ANY_TYPE.equals(pattern)) {
+                return true;
+            }
+            if (type == null) {
+                return false;
+            }
+            if ("*/*".equals(pattern)) {
+                return type.indexOf('/') > 0;
+            }
+            if (pattern.endsWith("/*")) {
+                return type.startsWith(pattern.substring(0, pattern.length() - 1));
+            }
+            return pattern.equals(type);
         }
 
-        @Override
-        public int hashCode() {
-            int result = operation != null ? operation.hashCode() : 0;
-            result = 31 * result + (type != null ? type.hashCode() : 0);
-            return result;
+        private static String[] lowerCase(String[] values) {
+            String[] lower = new String[values.length];
+            for (int i = 0; i < values.length; i++) {
+                lower[i] = values[i].toLowerCase(Locale.ENGLISH);
+            }
+            return lower;
         }
     }
 }
@@ -1,37 +1,319 @@
 package com.ddnconsulting.fileprocessor.core;
 
+import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.ddnconsulting.fileprocessor.resultshandlers.ResultsHandler;
+import com.ddnconsulting.fileprocessor.resultshandlers.WorkerAwareResultsHandler;
+import com.ddnconsulting.fileprocessor.workers.AggregatingFileWorker;
+import com.ddnconsulting.fileprocessor.workers.FileContextWorker;
 import com.ddnconsulting.fileprocessor.workers.FileWorker;
 import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
  * Wrapper for FileWorkers that allows them to be run in their own threads.
  *
+ * All the workers that matched a file are run by one runner, one after the other, sharing the same FileContext.  A
+ * worker that reads the file's contents through {@link FileContext#getContent()} gets the same open (and, for all but
+ * huge files, memory-mapped) file as every other worker in the runner, so the file is read once rather than once per
+ * worker.  When runners in other lanes share the context too, the contents are closed when the last worker of the
+ * last runner has finished (see {@link FileContext#release()}).  A runner cancelled before it ran releases the context
+ * through {@link #cancelledBeforeRun()} instead.
+ *
+ * If given a {@link TaskWatchdog}, the runner tells it which worker is running and since when, so a worker that takes
+ * too long can be interrupted (its results are then replaced by {@link TaskWatchdog.TimedOutResults} and the runner
+ * goes on to the next worker) or, if it won't stop, abandoned.
+ *
+ * If given {@link ScanMetrics}, each worker's run time (by worker and by file type) and the time taken to hand its
+ * results to the results handler are recorded there.
+ *
  * @author Dan Nathanson
  */
-public class FileWorkerRunner implements Callable<FileWorkerResults> {
+public class FileWorkerRunner implements Callable<List<FileWorkerResults>> {
+    private static final Logger LOG = LoggerFactory.getLogger(FileWorkerRunner.class);
 
-    private FileWorker worker;
-    private Path path;
+    private List<FileWorker> workers;
+    private FileContext context;
     private ResultsHandler resultsHandler;
+    private WorkerResultsListener listener;
+    private ScanMetrics metrics;
+    private TaskWatchdog watchdog;
+
+    // Worker being run, for the watchdog.  Changes to these and to the timed out / abandoned state are made holding
+    // the runner's lock so the watchdog can't interrupt one worker for another's timeout.
+    private volatile FileWorker currentWorker;
+    private volatile long workerStartNanos;
+    private Thread thread;
+    private boolean timedOut;
+    private boolean abandoned;
+    // Claimed by whichever of call() and cancelledBeforeRun() comes first, so the context is released exactly once
+    private final AtomicBoolean started = new AtomicBoolean();
 
     public FileWorkerRunner(FileWorker worker, Path path, ResultsHandler resultsHandler) {
-        this.worker = worker;
-        this.path = path;
+        this(worker, new FileContext(path), resultsHandler);
+    }
+
+    public FileWorkerRunner(FileWorker worker, FileContext context, ResultsHandler resultsHandler) {
+        this(Collections.singletonList(worker), context, resultsHandler);
+    }
+
+    public FileWorkerRunner(List<FileWorker> workers, FileContext context, ResultsHandler resultsHandler) {
+        this(workers, context, resultsHandler, null);
+    }
+
+    /**
+     * @param listener told about each worker's results after the results handler, or null
+     */
+    public FileWorkerRunner(List<FileWorker> workers, FileContext context, ResultsHandler resultsHandler,
+                            WorkerResultsListener listener) {
+        this.workers = workers;
+        this.context = context;
         this.resultsHandler = resultsHandler;
+        this.listener = listener;
     }
 
     /**
-     * Calls FileWorker#handle.  Eventually should do something interesting with the report produced.
+     * Calls FileWorker#handle for each worker, passing the whole FileContext to workers that accept it.  Eventually
+     * should do something interesting with the report produced.
+     *
+     * A worker that throws doesn't stop the rest from running.  It is logged and an unsuccessful result (which is
+     * not passed to the results handler) is returned in its place.  A worker with nothing to report for the file on
+     * its own (an {@link AggregatingFileWorker}) returns null, which is left out.
      */
     @Override
-    public FileWorkerResults call() throws Exception {
-        FileWorkerResults results = worker.handle(path);
-        resultsHandler.handleResults(results);
+    public List<FileWorkerResults> call() throws Exception {
+        List<FileWorkerResults> allResults = new ArrayList<>(workers.size());
+        if (!started.compareAndSet(false, true)) {
+            // Cancelled (and released) just as it was being started
+            return allResults;
+        }
+        synchronized (this) {
+            thread = Thread.currentThread();
+        }
+        if (watchdog != null) {
+            watchdog.started(this);
+        }
+        try {
+            for (FileWorker worker : workers) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException("Cancelled before running " + worker.getClass().getSimpleName());
+                }
+                long start = System.nanoTime();
+                synchronized (this) {
+                    currentWorker = worker;
+                    workerStartNanos = start;
+                }
+                FileWorkerResults results = null;
+                RuntimeException failure = null;
+                try {
+                    results = runWorker(worker);
+                }
+                catch (RuntimeException e) {
+                    failure = e;
+                }
+                if (metrics != null) {
+                    metrics.workerRun(worker, context.getType(), start);
+                }
+
+                boolean workerTimedOut;
+                synchronized (this) {
+                    currentWorker = null;
+                    if (abandoned) {
+                        // Watchdog gave up on us and has handled the timeout
+                        return allResults;
+                    }
+                    workerTimedOut = timedOut;
+                    if (workerTimedOut) {
+                        // Clear watchdog's interrupt so the rest of the workers run
+                        timedOut = false;
+                        Thread.interrupted();
+                    }
+                }
+
+                if (workerTimedOut) {
+                    allResults.add(handleTimedOut(worker, false));
+                }
+                else if (failure != null) {
+                    LOG.error("Worker " + worker.getClass().getSimpleName() + " failed for [" + context.getPath() + "]",
+                              failure);
+                    FileWorkerResults failed = new FileWorkerResults();
+                    failed.setSuccess(false);
+                    failed.setErrorMessage(failure.toString());
+                    allResults.add(failed);
+                }
+                else if (results != null) {
+                    handle(worker, results);
+                    allResults.add(results);
+                }
+            }
+        }
+        finally {
+            if (watchdog != null) {
+                watchdog.finished(this);
+            }
+            synchronized (this) {
+                thread = null;
+            }
+            releaseContent();
+        }
+        return allResults;
+    }
+
+    private void handle(FileWorker worker, FileWorkerResults results) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        handleResults(resultsHandler, worker, results);
+        if (metrics != null) {
+            metrics.resultsHandled(start);
+        }
+        if (listener != null) {
+            listener.resultsProduced(context, worker, results);
+        }
+    }
+
+    private FileWorkerResults handleTimedOut(FileWorker worker, boolean abandon) {
+        long timeoutMillis = TimeUnit.NANOSECONDS.toMillis(watchdog.timeoutNanosFor(worker));
+        FileWorkerResults results = new TaskWatchdog.TimedOutResults(context, worker, timeoutMillis, abandon);
+        if (metrics != null) {
+            metrics.workerTimedOut();
+        }
+        handle(worker, results);
         return results;
     }
+
+    /**
+     * Interrupts worker if it is still the one running.  Called by the watchdog when worker's deadline has passed.
+     *
+     * @return true if worker was interrupted
+     */
+    synchronized boolean timeOut(FileWorker worker) {
+        if (worker != currentWorker || timedOut || abandoned || thread == null) {
+            return false;
+        }
+        timedOut = true;
+        thread.interrupt();
+        return true;
+    }
+
+    /**
+     * Gives up on worker, if it is still running after being timed out, handling timed-out results in its place.  The
+     * runner stops when (if) the worker returns.  Called by the watchdog.
+     *
+     * @return true if worker was abandoned
+     */
+    boolean abandon(FileWorker worker) {
+        synchronized (this) {
+            if (worker != currentWorker || !timedOut || abandoned) {
+                return false;
+            }
+            abandoned = true;
+        }
+        handleTimedOut(worker, true);
+        return true;
+    }
+
+    synchronized boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * Worker running right now, or null.
+     */
+    FileWorker getCurrentWorker() {
+        return currentWorker;
+    }
+
+    /**
+     * When current worker started, from {@link System#nanoTime()}.
+     */
+    long getWorkerStartNanos() {
+        return workerStartNanos;
+    }
+
+    private FileWorkerResults runWorker(FileWorker worker) {
+        if (worker instanceof FileContextWorker) {
+            return ((FileContextWorker) worker).handle(context);
+        }
+        return worker.handle(context.getPath());
+    }
+
+    /**
+     * Passes results to handler, telling it which worker they came from if it wants to know.
+     */
+    static void handleResults(ResultsHandler resultsHandler, FileWorker worker, FileWorkerResults results) {
+        if (resultsHandler instanceof WorkerAwareResultsHandler) {
+            ((WorkerAwareResultsHandler) resultsHandler).handleResults(worker, results);
+        }
+        else {
+            resultsHandler.handleResults(results);
+        }
+    }
+
+    /**
+     * Releases the runner's hold on the context if it never ran (its task was cancelled first).  Does nothing if it
+     * ran: it has released the context itself, or will once it finishes.
+     */
+    void cancelledBeforeRun() {
+        if (started.compareAndSet(false, true)) {
+            releaseContent();
+        }
+    }
+
+    private void releaseContent() {
+        try {
+            context.release();
+        }
+        catch (IOException e) {
+            LOG.warn("Failed to close [" + context.getPath() + "]", e);
+        }
+    }
+
+    /**
+     * Lets watchdog time workers out.  May be null.
+     */
+    public void setWatchdog(TaskWatchdog watchdog) {
+        this.watchdog = watchdog;
+    }
+
+    /**
+     * Records run times in metrics.  May be null.
+     */
+    public void setMetrics(ScanMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns first (or only) worker.  All workers in a runner share an executor lane.
+     */
+    public FileWorker getWorker() {
+        return workers.get(0);
+    }
+
+    public List<FileWorker> getWorkers() {
+        return workers;
+    }
+
+    public FileContext getContext() {
+        return context;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder names = new StringBuilder();
+        for (FileWorker worker : workers) {
+            if (names.length() > 0) {
+                names.append(',');
+            }
+            names.append(worker.getClass().getSimpleName());
+        }
+        return names + " on " + context.getPath();
+    }
 }
@@ -6,20 +6,57 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
+import com.ddnconsulting.fileprocessor.index.IncrementalIndex;
+import com.ddnconsulting.fileprocessor.index.IndexEntry;
 import com.ddnconsulting.fileprocessor.resultshandlers.ResultsHandler;
+import com.ddnconsulting.fileprocessor.workers.DirectoryEntriesWorker;
+import com.ddnconsulting.fileprocessor.workers.DirectoryEntriesWorker.Entries;
 import com.ddnconsulting.fileprocessor.workers.FileWorker;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
  * Visitor for use with {@link Files#walkFileTree}.  For each file, find the type of the file then look for FileWorkers
- * that can perform the requested operations on files of that type.  When a FileWorker is found, the worker is wrapped
- * with a Runnable and dispatched to an ExecutorService to be run in a separate thread.
+ * that can perform the requested operations on files of that type.  The workers found are wrapped with a Runnable
+ * (one per executor lane, so workers reading the file share a single read, which stays open until every lane's
+ * runner has finished) and dispatched through the
+ * {@link ScanJob} to be run in a separate thread.  Stops the walk if the job's deadline passes.
+ *
+ * For an incremental scan, files that haven't changed since the last scan aren't classified again, and workers that
+ * have stored results for them aren't run: the stored results are passed straight to the results handler.
+ *
+ * Files in the {@link Quarantine} (workers kept timing out on them in earlier scans) are skipped.
+ *
+ * If given a {@link ScanCheckpoint}, each directory entered and left is recorded there, and directories a resumed scan
+ * had already finished are skipped.
+ *
+ * If given {@link ScanMetrics}, the time spent on each file (classifying and dispatching it in particular) is recorded
+ * there, along with files no worker could handle.
+ *
+ * Workers that list directories from the walk's own enumeration ({@link DirectoryEntriesWorker}) aren't dispatched
+ * for directories on disk: they are told about each entry of the directory as the walk finds it (quarantined ones
+ * included), and when the walk has finished with the directory.  Listings of directories a walk stopped in (cut short
+ * by the deadline, a cancel or a failure) are finished with an error by {@link #walkStopped}.  Their listings are
+ * never stored in or reused from an incremental scan's index, since the walk enumerates the directory anyway.
+ *
+ * If given an {@link ArchiveDescent}, it is dispatched (in its own lane) for each file of an archive type, and
+ * classifies and dispatches the archive's entries through {@link #classifyEntry} and {@link #dispatchEntry}.
+ *
+ * Also used by {@link ParallelFileWalker}, which calls the visitor from several threads at once, so it must stay
+ * thread-safe.
  *
  * @author Dan Nathanson
  */
@@ -27,49 +64,377 @@ class FileWorkerVisitor extends SimpleFileVisitor<Path> {
     private static final Logger LOG = LoggerFactory.getLogger(FileWorkerVisitor.class);
 
     private final List<String> operations;
-    private final ExecutorService executor;
+    private final ScanJob scanJob;
     private FileWorkerRegistry registry;
     private ResultsHandler resultsHandler;
     private FileClassifier fileClassifier;
+    private IncrementalIndex incrementalIndex;
+    private ScanMetrics metrics;
+    private Quarantine quarantine;
+    private ScanCheckpoint checkpoint;
+    private ArchiveDescent archiveDescent;
+    // Listings of directories the walk is in, by directory
+    private final ConcurrentMap<Path, List<Entries>> listings = new ConcurrentHashMap<>();
 
-    public FileWorkerVisitor(List<String> operations, ExecutorService executor, FileWorkerRegistry registry,
+    public FileWorkerVisitor(List<String> operations, ScanJob scanJob, FileWorkerRegistry registry,
                              ResultsHandler resultsHandler, FileClassifier fileClassifier) {
         this.operations = operations;
-        this.executor = executor;
+        this.scanJob = scanJob;
         this.registry = registry;
         this.resultsHandler = resultsHandler;
         this.fileClassifier = fileClassifier;
     }
 
+    /**
+     * Makes this an incremental scan using index.
+     */
+    public void setIncrementalIndex(IncrementalIndex incrementalIndex) {
+        this.incrementalIndex = incrementalIndex;
+    }
+
+    /**
+     * Skips files quarantined for timing out too often.
+     */
+    public void setQuarantine(Quarantine quarantine) {
+        this.quarantine = quarantine;
+    }
+
+    /**
+     * Tracks progress of the walk in checkpoint, and skips directories it says are done.
+     */
+    public void setCheckpoint(ScanCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Descends into archives with archiveDescent.
+     */
+    public void setArchiveDescent(ArchiveDescent archiveDescent) {
+        this.archiveDescent = archiveDescent;
+    }
+
+    /**
+     * Records time spent on each file in metrics, and passes them on to the runners.
+     */
+    public void setMetrics(ScanMetrics metrics) {
+        this.metrics = metrics;
+    }
 
 
     @Override
-    public FileVisitResult visitFile(Path path, BasicFileAttributes ignored) throws IOException {
-        String fileType = fileClassifier.getType(path);
+    public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
+        entryFound(path, attrs);
+        return visit(path, attrs);
+    }
+
+    /**
+     * Lists the entry in its directory's listings, if any, without visiting it.  For walks that don't visit
+     * everything they find (walks of the top directory only).
+     */
+    void entryFound(Path path, BasicFileAttributes attrs) {
+        if (listings.isEmpty()) {
+            return;
+        }
+        List<Entries> listed = listings.get(path.getParent());
+        if (listed != null) {
+            for (Entries entries : listed) {
+                entries.entryFound(path, attrs);
+            }
+        }
+    }
+
+    private FileVisitResult visit(Path path, BasicFileAttributes attrs) throws IOException {
+        if (scanJob.checkDeadline()) {
+            return FileVisitResult.TERMINATE;
+        }
+        scanJob.fileDiscovered();
+        if (quarantine != null && quarantine.isQuarantined(path)) {
+            LOG.debug("Skipping quarantined [" + path + "]");
+            if (metrics != null) {
+                metrics.fileQuarantined();
+            }
+            return FileVisitResult.CONTINUE;
+        }
+        long start = metrics == null ? 0 : System.nanoTime();
+
+        // Hang on to the attributes the walk already read so nobody needs to stat the file again
+        FileContext context = new FileContext(path, attrs);
+        IndexEntry unchanged = incrementalIndex == null ? null : incrementalIndex.findUnchanged(context);
+        String fileType;
+        if (unchanged != null) {
+            fileType = unchanged.getType();
+            if (metrics != null) {
+                metrics.typeFromIndex();
+            }
+        }
+        else {
+            long classifyStart = metrics == null ? 0 : System.nanoTime();
+            fileType = fileClassifier.getType(context);
+            if (metrics != null) {
+                metrics.fileClassified(classifyStart);
+            }
+        }
+        context.setType(fileType);
+        if (incrementalIndex != null) {
+            incrementalIndex.recordFile(context, unchanged);
+        }
+
+        if (!dispatch(context, unchanged, null, attrs != null && attrs.isDirectory())) {
+            return FileVisitResult.TERMINATE;
+        }
+        if (metrics != null) {
+            metrics.fileVisited(attrs != null && attrs.isRegularFile() ? attrs.size() : 0, start);
+        }
+
+        return FileVisitResult.CONTINUE;
+    }
+
+
+    /**
+     * Classifies an entry found in an archive by the ArchiveDescent.
+     *
+     * @return entry's type
+     */
+    String classifyEntry(ArchiveEntryContext entry) {
+        long classifyStart = metrics == null ? 0 : System.nanoTime();
+        String fileType = fileClassifier.getType(entry);
+        if (metrics != null) {
+            metrics.fileClassified(classifyStart);
+        }
+        entry.setType(fileType);
+        return fileType;
+    }
+
+    /**
+     * Dispatches workers for a classified entry found in an archive by the ArchiveDescent, unless it is quarantined.
+     *
+     * @param dispatched if not null, the entry's tasks are added to it
+     * @return false if the scan has been cancelled
+     */
+    boolean dispatchEntry(ArchiveEntryContext entry, List<Future<?>> dispatched) {
+        if (scanJob.checkDeadline()) {
+            return false;
+        }
+        if (quarantine != null && quarantine.isQuarantined(entry.getPath())) {
+            LOG.debug("Skipping quarantined [" + entry.getPath() + "]");
+            if (metrics != null) {
+                metrics.fileQuarantined();
+            }
+            return true;
+        }
+        return dispatch(entry, null, dispatched, false);
+    }
 
+    /**
+     * Groups all the workers for a classified file into one task per executor lane, so that they share one read of
+     * the file's contents, and dispatches the tasks.  Archives on disk get a task for the ArchiveDescent as well.
+     *
+     * @param unchanged index entry for a file unchanged since the last incremental scan, or null
+     * @param dispatched if not null, the tasks are added to it
+     * @param walkedDirectory true for a directory the walk is about to enumerate (not a link to one)
+     * @return false if the scan has been cancelled
+     */
+    private boolean dispatch(FileContext context, IndexEntry unchanged, List<Future<?>> dispatched,
+                             boolean walkedDirectory) {
+        context.setScanJob(scanJob);
+        String fileType = context.getType();
+        boolean inArchive = context instanceof ArchiveEntryContext;
+        boolean listable = walkedDirectory && !inArchive;
+        Map<String, List<FileWorker>> workersByLane = new LinkedHashMap<>();
+        List<FileWorker> reused = unchanged == null ? null : new ArrayList<FileWorker>(2);
         boolean handled = false;
         for (String operation : operations) {
             Set<FileWorker> workers = registry.getWorkers(operation, fileType);
             for (FileWorker worker : workers) {
-                FileWorkerRunner runner = new FileWorkerRunner(worker, path, resultsHandler);
-                executor.submit(runner);
                 handled = true;
+                if (listable && worker instanceof DirectoryEntriesWorker) {
+                    startListing(context.getPath(), (DirectoryEntriesWorker) worker);
+                    continue;
+                }
+                if (reused != null) {
+                    // Unchanged since last scan: use stored results (once per worker) if there are any
+                    if (reused.contains(worker)) {
+                        continue;
+                    }
+                    if (reuseResults(unchanged, context, worker)) {
+                        reused.add(worker);
+                        continue;
+                    }
+                }
+                addToLane(workersByLane, worker);
+            }
+        }
+        if (archiveDescent != null && !inArchive && archiveDescent.isArchive(fileType)) {
+            // Entries are never in the index, so the descent can't be skipped for unchanged archives
+            handled = true;
+            addToLane(workersByLane, archiveDescent);
+        }
+
+        // Entries have nowhere to come from in the next incremental scan
+        WorkerResultsListener listener = inArchive ? null : incrementalIndex;
+        // Every runner is counted before any can finish, so the contents stay open until the last one has
+        int unsubmitted = workersByLane.size();
+        context.retain(unsubmitted);
+        for (List<FileWorker> laneWorkers : workersByLane.values()) {
+            FileWorkerRunner runner = new FileWorkerRunner(laneWorkers, context, resultsHandler, listener);
+            runner.setMetrics(metrics);
+            long dispatchStart = metrics == null ? 0 : System.nanoTime();
+            try {
+                Future<?> task = scanJob.submit(runner);
+                unsubmitted--;
+                if (dispatched != null) {
+                    dispatched.add(task);
+                }
+                if (metrics != null) {
+                    metrics.taskDispatched(dispatchStart);
+                }
+            }
+            catch (RejectedExecutionException e) {
+                // Job was cancelled while we were working on this file
+                releaseUnsubmitted(context, unsubmitted);
+                return false;
             }
         }
 
         if (!handled) {
-            LOG.info("No worker found for: " + path.getFileName() + ": " + fileType);
+            // Counted in the metrics; logging every one at INFO drowns everything else on big trees
+            LOG.debug("No worker found for: " + context.getPath().getFileName() + ": " + fileType);
+            if (metrics != null) {
+                metrics.fileUnhandled(fileType);
+            }
         }
+        return true;
+    }
 
-        return FileVisitResult.CONTINUE;
+    /**
+     * Releases the context for runners that were counted but never run.
+     */
+    private static void releaseUnsubmitted(FileContext context, int runners) {
+        try {
+            for (int i = 0; i < runners; i++) {
+                context.release();
+            }
+        }
+        catch (IOException e) {
+            LOG.warn("Failed to close [" + context.getPath() + "]", e);
+        }
     }
 
+    /**
+     * Starts worker's listing of dir, fed by the walk until it leaves the directory.
+     */
+    private void startListing(Path dir, final DirectoryEntriesWorker worker) {
+        Entries entries = worker.startDirectory(dir, new ResultsHandler() {
+            @Override
+            public void handleResults(FileWorkerResults results) {
+                FileWorkerRunner.handleResults(resultsHandler, worker, results);
+            }
+        });
+        List<Entries> listed = listings.get(dir);
+        if (listed == null) {
+            listed = new CopyOnWriteArrayList<>();
+            List<Entries> existing = listings.putIfAbsent(dir, listed);
+            if (existing != null) {
+                listed = existing;
+            }
+        }
+        listed.add(entries);
+    }
+
+    private void addToLane(Map<String, List<FileWorker>> workersByLane, FileWorker worker) {
+        String lane = scanJob.laneFor(worker);
+        List<FileWorker> laneWorkers = workersByLane.get(lane);
+        if (laneWorkers == null) {
+            laneWorkers = new ArrayList<>(2);
+            workersByLane.put(lane, laneWorkers);
+        }
+        if (!laneWorkers.contains(worker)) {
+            laneWorkers.add(worker);
+        }
+    }
 
     /**
-     * Handles directories the same as files.
+     * Passes results stored for worker by the last scan to the results handler.
+     *
+     * @return true if there were stored results, false if the worker needs to be run
+     */
+    private boolean reuseResults(IndexEntry unchanged, FileContext context, FileWorker worker) {
+        FileWorkerResults results = incrementalIndex.reuseResults(unchanged, context, worker);
+        if (results == null) {
+            return false;
+        }
+        long handleStart = metrics == null ? 0 : System.nanoTime();
+        FileWorkerRunner.handleResults(resultsHandler, worker, results);
+        if (metrics != null) {
+            metrics.resultsHandled(handleStart);
+        }
+        return true;
+    }
+
+
+    /**
+     * Handles directories the same as files, unless a resumed scan already finished them (they are still listed in
+     * their parent's listings).
      */
     @Override
     public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-        return visitFile(dir, attrs);
+        entryFound(dir, attrs);
+        if (checkpoint != null) {
+            if (checkpoint.isDone(dir)) {
+                LOG.debug("Skipping [" + dir + "], finished before the scan was resumed");
+                checkpoint.directorySkipped(dir);
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+            checkpoint.directoryStarted(dir);
+        }
+        return visit(dir, attrs);
+    }
+
+    /**
+     * Lists the entry as unreadable in its directory's listings, then fails as usual.
+     */
+    @Override
+    public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+        List<Entries> listed = listings.isEmpty() ? null : listings.get(file.getParent());
+        if (listed != null) {
+            for (Entries entries : listed) {
+                entries.entryFailed(file, exc);
+            }
+        }
+        return super.visitFileFailed(file, exc);
+    }
+
+    /**
+     * Finishes the directory's listings, before anything else can fail.
+     */
+    @Override
+    public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        List<Entries> listed = listings.remove(dir);
+        if (listed != null) {
+            for (Entries entries : listed) {
+                entries.finished(exc);
+            }
+        }
+        FileVisitResult result = super.postVisitDirectory(dir, exc);
+        if (checkpoint != null) {
+            checkpoint.directoryWalked(dir);
+        }
+        return result;
+    }
+
+    /**
+     * Finishes, with an error, the listings of directories the walk never left (it stopped part way through them).
+     * Called once the walk is over, however it ended.
+     */
+    void walkStopped() {
+        for (Path dir : listings.keySet()) {
+            List<Entries> listed = listings.remove(dir);
+            if (listed != null) {
+                IOException stopped = new IOException("Walk stopped before finishing directory [" + dir + "]");
+                for (Entries entries : listed) {
+                    entries.finished(stopped);
+                }
+            }
+        }
     }
 }
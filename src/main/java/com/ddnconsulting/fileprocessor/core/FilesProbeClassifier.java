@@ -1,8 +1,10 @@
 package com.ddnconsulting.fileprocessor.core;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 
 
 /**
@@ -31,7 +33,8 @@ public class FilesProbeClassifier implements FileClassifier {
         String fileType;
 
         // For files, find type.  For directories, use special case FILE_TYPE_DIRECTORY. Yuck.
-        if (path.toFile().isFile()) {
+        File file = path.toFile();
+        if (file.isFile()) {
 
             try {
                 fileType = Files.probeContentType(path);
@@ -40,10 +43,37 @@ public class FilesProbeClassifier implements FileClassifier {
                 return null;
             }
         }
+        else if (file.exists() && !file.isDirectory()) {
+            fileType = FileClassifier.FILE_TYPE_SPECIAL;
+        }
         else {
             fileType = FileClassifier.FILE_TYPE_DIRECTORY;
         }
         return fileType;
     }
 
+    /**
+     * Same as {@link #getType(Path)}, but uses attributes from the context to tell files and directories apart.
+     */
+    @Override
+    public String getType(FileContext context) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = context.getAttributes();
+        }
+        catch (IOException e) {
+            return null;
+        }
+
+        if (!attributes.isRegularFile()) {
+            return attributes.isOther() ? FileClassifier.FILE_TYPE_SPECIAL : FileClassifier.FILE_TYPE_DIRECTORY;
+        }
+
+        try {
+            return Files.probeContentType(context.getPath());
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
 }
@@ -0,0 +1,132 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Histogram of durations, in nanoseconds, that can be recorded from many threads at once without locking or
+ * allocating.  Durations are counted in log-linear buckets: each power of two is split into 8 buckets, so percentiles
+ * are accurate to within 12.5% from a nanosecond to centuries, in a fixed 4 KB array.
+ *
+ * Recording is a handful of atomic increments.  Reads don't stop recording, so counts read while durations are being
+ * recorded may be slightly out of step with each other.
+ *
+ * @author Dan Nathanson
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records a duration.  Negative durations (clock oddities) are recorded as zero.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(bucketFor(nanos));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxNanos.get())) {
+            if (maxNanos.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Records the time since startNanos (from {@link System#nanoTime()}).
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    static int bucketFor(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((nanos >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Largest duration counted in bucket.
+     */
+    static long highestInBucket(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public long getMeanNanos() {
+        long n = count.get();
+        return n == 0 ? 0 : totalNanos.get() / n;
+    }
+
+    /**
+     * Returns duration that percentile (0-100) of recorded durations are no longer than, rounded up to the top of its
+     * bucket (but never more than the longest duration recorded).  0 if nothing has been recorded.
+     */
+    public long getPercentileNanos(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(n * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(highestInBucket(i), maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    /**
+     * One-line summary: count, mean, median, 99th percentile and max, in the most readable unit.
+     */
+    @Override
+    public String toString() {
+        return "n=" + getCount() + " mean=" + format(getMeanNanos()) + " p50=" + format(getPercentileNanos(50)) +
+               " p99=" + format(getPercentileNanos(99)) + " max=" + format(getMaxNanos());
+    }
+
+    static String format(long nanos) {
+        if (nanos < TimeUnit.MICROSECONDS.toNanos(10)) {
+            return nanos + "ns";
+        }
+        if (nanos < TimeUnit.MILLISECONDS.toNanos(10)) {
+            return TimeUnit.NANOSECONDS.toMicros(nanos) + "us";
+        }
+        if (nanos < TimeUnit.SECONDS.toNanos(10)) {
+            return TimeUnit.NANOSECONDS.toMillis(nanos) + "ms";
+        }
+        return TimeUnit.NANOSECONDS.toSeconds(nanos) + "s";
+    }
+}
@@ -0,0 +1,203 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.j256.simplemagic.ContentInfo;
+import com.j256.simplemagic.ContentInfoUtil;
+
+
+/**
+ * Classifies files by their contents ("magic" numbers, like the unix "file" command) using the simplemagic library,
+ * so the type doesn't depend on the OS or JDK the way {@link FilesProbeClassifier} does.
+ *
+ * Only the start of the file is read (10 KB by default).  Each thread reads into its own direct buffer, which is reused
+ * from file to file, so classifying files from many walker threads at once neither contends nor allocates much.  The
+ * magic table is parsed once, when the classifier is created, and is shared by all threads.
+ *
+ * Files with extensions that leave no doubt about their type (see {@link #DEFAULT_UNAMBIGUOUS_EXTENSIONS}) are
+ * classified by extension without being opened at all.  This also keeps JARs typed as application/java-archive;
+ * by contents they are just ZIP files.  Files that don't match any magic fall back to their extension's type (plain
+ * text has no magic), or null if that doesn't help either.
+ *
+ * Counts of how files were classified are kept, to see how many files had to be opened.
+ *
+ * @author Dan Nathanson
+ */
+public class MagicFileClassifier implements FileClassifier {
+    /**
+     * Extensions classified without reading the file.
+     */
+    public static final List<String> DEFAULT_UNAMBIGUOUS_EXTENSIONS = Collections.unmodifiableList(Arrays.asList(
+            "jar", "war", "ear", "class", "png", "gif", "jpg", "jpeg", "pdf", "zip", "gz", "bz2", "xz", "7z", "rpm",
+            "deb", "iso", "mp3", "mp4", "avi", "mov"));
+
+    private final ContentInfoUtil contentInfoUtil = new ContentInfoUtil();
+    private final Map<String, String> typesByExtension = new HashMap<>();
+    private final int readSize;
+    private final AtomicLong extensionMatches = new AtomicLong();
+    private final AtomicLong contentMatches = new AtomicLong();
+    private final AtomicLong nameFallbacks = new AtomicLong();
+    private final ThreadLocal<Header> headers = new ThreadLocal<Header>() {
+        @Override
+        protected Header initialValue() {
+            return new Header(readSize);
+        }
+    };
+
+    public MagicFileClassifier() {
+        this(ContentInfoUtil.DEFAULT_READ_SIZE, DEFAULT_UNAMBIGUOUS_EXTENSIONS);
+    }
+
+    /**
+     * @param readSize number of bytes at the start of each file to check against the magic table
+     * @param unambiguousExtensions extensions (lower case, without ".") for which file contents aren't checked
+     */
+    public MagicFileClassifier(int readSize, Collection<String> unambiguousExtensions) {
+        if (readSize <= 0) {
+            throw new IllegalArgumentException("Read size must be positive: " + readSize);
+        }
+        this.readSize = readSize;
+        for (String extension : unambiguousExtensions) {
+            ContentInfo info = ContentInfoUtil.findExtensionMatch("file." + extension);
+            if (info != null && info.getMimeType() != null) {
+                typesByExtension.put(extension, info.getMimeType());
+            }
+        }
+    }
+
+    /**
+     * Returns MIME type of file at Path.  If Path is for a directory, return {@link #FILE_TYPE_DIRECTORY}.  It type
+     * cannot be determined, returns null.
+     */
+    @Override
+    public String getType(Path path) {
+        return getType(new FileContext(path));
+    }
+
+    /**
+     * Same as {@link #getType(Path)}, but uses attributes from the context to tell files and directories apart and to
+     * skip reading empty files.
+     */
+    @Override
+    public String getType(FileContext context) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = context.getAttributes();
+        }
+        catch (IOException e) {
+            return null;
+        }
+
+        if (!attributes.isRegularFile()) {
+            // Never open FIFOs and devices: reading them can block forever
+            return attributes.isOther() ? FileClassifier.FILE_TYPE_SPECIAL : FileClassifier.FILE_TYPE_DIRECTORY;
+        }
+
+        Path fileName = context.getPath().getFileName();
+        String name = fileName == null ? "" : fileName.toString();
+        String extensionType = typesByExtension.get(extension(name));
+        if (extensionType != null) {
+            extensionMatches.incrementAndGet();
+            return extensionType;
+        }
+
+        if (attributes.size() > 0) {
+            try {
+                ContentInfo info = contentInfoUtil.findMatch(readHeader(context));
+                if (info != null && info.getMimeType() != null) {
+                    contentMatches.incrementAndGet();
+                    return info.getMimeType();
+                }
+            }
+            catch (IOException e) {
+                // Can't read it, so go by name
+            }
+        }
+
+        nameFallbacks.incrementAndGet();
+        ContentInfo info = ContentInfoUtil.findExtensionMatch(name);
+        return info == null ? null : info.getMimeType();
+    }
+
+    /**
+     * Reads up to readSize bytes from the start of the file, using this thread's buffers.  Entries inside archives are
+     * read (inflating only as much as is needed) from the archive.
+     *
+     * @return bytes read.  The thread's own array if the file filled it, so it must not be held on to.
+     */
+    private byte[] readHeader(FileContext context) throws IOException {
+        Header header = headers.get();
+        int length;
+        if (context instanceof ArchiveEntryContext) {
+            length = ((ArchiveEntryContext) context).readHeader(header.bytes);
+        }
+        else {
+            ByteBuffer buffer = header.buffer;
+            buffer.clear();
+            try (FileChannel channel = FileChannel.open(context.getPath(), StandardOpenOption.READ)) {
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // keep reading
+                }
+            }
+            buffer.flip();
+            length = buffer.remaining();
+            buffer.get(header.bytes, 0, length);
+        }
+
+        // Matching looks at the whole array, so a file shorter than the buffer needs an array of its own
+        return length == header.bytes.length ? header.bytes : Arrays.copyOf(header.bytes, length);
+    }
+
+    /**
+     * Number of files typed by their extension alone, without being opened.
+     */
+    public long getExtensionMatches() {
+        return extensionMatches.get();
+    }
+
+    /**
+     * Number of files typed by their contents.
+     */
+    public long getContentMatches() {
+        return contentMatches.get();
+    }
+
+    /**
+     * Number of files whose contents didn't match any magic, typed by name if at all.
+     */
+    public long getNameFallbacks() {
+        return nameFallbacks.get();
+    }
+
+    private static String extension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ENGLISH);
+    }
+
+
+    /**
+     * Per-thread buffers for reading the start of a file.
+     */
+    private static final class Header {
+        final ByteBuffer buffer;
+        final byte[] bytes;
+
+        Header(int size) {
+            buffer = ByteBuffer.allocateDirect(size);
+            bytes = new byte[size];
+        }
+    }
+}
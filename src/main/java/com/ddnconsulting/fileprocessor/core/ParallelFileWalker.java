@@ -0,0 +1,248 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Walks a directory tree using a {@link ForkJoinPool} so that subdirectories are listed in parallel.  Each directory
+ * is a task; subdirectories are forked as they are found so that idle walker threads can steal them.  On trees with
+ * a wide fan-out (or on network file systems where listing a directory has high latency) this keeps the worker pool
+ * fed much better than the single-threaded {@link Files#walkFileTree}.
+ *
+ * The {@link FileVisitor} is driven the same way {@link Files#walkFileTree} drives it (symbolic links are not
+ * followed; a directory that can't be opened is passed to {@code visitFileFailed} without being pre-visited, and one
+ * that fails while being read is passed to {@code postVisitDirectory} with the exception), with these differences:
+ * <ul>
+ *     <li>the visitor is called from several threads at once and must be thread-safe</li>
+ *     <li>there is no ordering between siblings; {@code postVisitDirectory} is still called after all of the
+ *     directory's descendants have been visited</li>
+ *     <li>{@link FileVisitResult#SKIP_SIBLINGS} is treated as {@link FileVisitResult#SKIP_SUBTREE} when returned
+ *     from {@code preVisitDirectory}, and ignored otherwise, since siblings are being visited concurrently</li>
+ * </ul>
+ *
+ * @author Dan Nathanson
+ */
+public class ParallelFileWalker {
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelFileWalker.class);
+
+    private final int parallelism;
+
+    public ParallelFileWalker(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Walks file tree rooted at {@code start}, blocking until the walk is complete.
+     *
+     * @param start directory (or file) to start at
+     * @param visitor thread-safe visitor to invoke for each file and directory
+     * @throws IOException if the visitor throws an IOException.  The walk is stopped, and the visitor is no longer being
+     * called, by the time it is thrown.
+     */
+    public void walk(Path start, FileVisitor<? super Path> visitor) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism, new WalkerThreadFactory(), null, false);
+        Walk walk = new Walk(visitor);
+        try {
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(start, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            }
+            catch (IOException e) {
+                visitor.visitFileFailed(start, e);
+                return;
+            }
+
+            if (attrs.isDirectory()) {
+                pool.invoke(walk.new DirectoryTask(start, attrs));
+            }
+            else {
+                visitor.visitFile(start, attrs);
+            }
+        }
+        catch (VisitorException e) {
+            throw e.getCause();
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+
+    /**
+     * State for a single call to {@link #walk}.
+     */
+    private static final class Walk {
+        private final FileVisitor<? super Path> visitor;
+        private volatile boolean terminated;
+
+        Walk(FileVisitor<? super Path> visitor) {
+            this.visitor = visitor;
+        }
+
+        private void checkTerminate(FileVisitResult result) {
+            if (result == FileVisitResult.TERMINATE) {
+                terminated = true;
+            }
+        }
+
+
+        /**
+         * Visits a directory: lists it, visits files and forks a task for each subdirectory.
+         */
+        private final class DirectoryTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final Path dir;
+            private final BasicFileAttributes attrs;
+
+            DirectoryTask(Path dir, BasicFileAttributes attrs) {
+                this.dir = dir;
+                this.attrs = attrs;
+            }
+
+            @Override
+            protected void compute() {
+                if (terminated) {
+                    return;
+                }
+                List<DirectoryTask> subtasks = new ArrayList<>();
+                try {
+                    // Opened before pre-visiting, like Files.walkFileTree, so a directory that can't be read is a
+                    // failed file rather than a directory visited with an error.
+                    DirectoryStream<Path> stream;
+                    try {
+                        stream = Files.newDirectoryStream(dir);
+                    }
+                    catch (IOException e) {
+                        checkTerminate(visitor.visitFileFailed(dir, e));
+                        return;
+                    }
+
+                    IOException failure = null;
+                    try {
+                        FileVisitResult result = visitor.preVisitDirectory(dir, attrs);
+                        if (result != FileVisitResult.CONTINUE) {
+                            checkTerminate(result);
+                            return;
+                        }
+
+                        for (Path entry : stream) {
+                            if (terminated) {
+                                break;
+                            }
+                            BasicFileAttributes entryAttrs;
+                            try {
+                                entryAttrs = Files.readAttributes(entry, BasicFileAttributes.class,
+                                                                  LinkOption.NOFOLLOW_LINKS);
+                            }
+                            catch (IOException e) {
+                                checkTerminate(visitor.visitFileFailed(entry, e));
+                                continue;
+                            }
+
+                            if (entryAttrs.isDirectory()) {
+                                DirectoryTask subtask = new DirectoryTask(entry, entryAttrs);
+                                subtask.fork();
+                                subtasks.add(subtask);
+                            }
+                            else {
+                                checkTerminate(visitor.visitFile(entry, entryAttrs));
+                            }
+                        }
+                    }
+                    catch (DirectoryIteratorException e) {
+                        failure = e.getCause();
+                    }
+                    finally {
+                        try {
+                            stream.close();
+                        }
+                        catch (IOException e) {
+                            if (failure == null) {
+                                failure = e;
+                            }
+                        }
+                    }
+
+                    // Join in reverse order so the most recently forked (and so least likely to have been stolen)
+                    // tasks are run by this thread first.
+                    for (int i = subtasks.size() - 1; i >= 0; i--) {
+                        subtasks.get(i).join();
+                    }
+
+                    if (!terminated) {
+                        checkTerminate(visitor.postVisitDirectory(dir, failure));
+                    }
+                }
+                catch (IOException e) {
+                    LOG.debug("Visitor failed for directory [" + dir + "]", e);
+                    terminated = true;
+                    throw new VisitorException(e);
+                }
+                catch (RuntimeException e) {
+                    // The visitor failed here or below (VisitorException from a subtask)
+                    terminated = true;
+                    throw e;
+                }
+                finally {
+                    // Whichever way this ended, nothing forked from it is left running once it has, so the visitor
+                    // isn't called after walk() returns or throws.  The walk has been terminated if this failed, so
+                    // subtasks not yet started return straight away.
+                    for (DirectoryTask subtask : subtasks) {
+                        subtask.quietlyJoin();
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Carries an IOException thrown by the visitor out of the ForkJoinPool.
+     */
+    private static final class VisitorException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        VisitorException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+
+
+    /**
+     * Gives walker threads recognizable names.
+     */
+    private static final class WalkerThreadFactory implements ForkJoinWorkerThreadFactory {
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("Walker-" + thread.getPoolIndex());
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Paths that workers keep timing out on, kept in a file from scan to scan.  Each timeout is counted against the path;
+ * once a path has timed out threshold times (in any number of scans) it is quarantined and later scans skip it.
+ *
+ * The file is plain text, one "count&lt;tab&gt;path" line per path, so a path can be let out of quarantine by deleting
+ * its line.  The file is only written if something timed out.
+ *
+ * Thread-safe, and may be shared by scans running at the same time.
+ *
+ * @author Dan Nathanson
+ */
+public class Quarantine {
+    private static final Logger LOG = LoggerFactory.getLogger(Quarantine.class);
+
+    private final Path file;
+    private final int threshold;
+    private final ConcurrentMap<String, AtomicInteger> timeouts = new ConcurrentHashMap<>();
+    private volatile boolean changed;
+
+    /**
+     * Reads counts from file, if it exists.
+     *
+     * @param threshold number of timeouts after which a path is skipped
+     */
+    public Quarantine(Path file, int threshold) throws IOException {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("Threshold must be at least 1: " + threshold);
+        }
+        this.file = file;
+        this.threshold = threshold;
+        if (Files.exists(file)) {
+            load();
+        }
+    }
+
+    private void load() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab <= 0) {
+                    continue;
+                }
+                try {
+                    timeouts.put(line.substring(tab + 1), new AtomicInteger(Integer.parseInt(line.substring(0, tab))));
+                }
+                catch (NumberFormatException e) {
+                    LOG.warn("Ignoring bad line in " + file + ": " + line);
+                }
+            }
+        }
+        int quarantined = getQuarantined().size();
+        if (quarantined > 0) {
+            LOG.info(quarantined + " paths quarantined by " + file + " will be skipped");
+        }
+    }
+
+    /**
+     * Returns true if path has timed out too many times to be processed again.
+     */
+    public boolean isQuarantined(Path path) {
+        if (timeouts.isEmpty()) {
+            return false;
+        }
+        AtomicInteger count = timeouts.get(keyFor(path));
+        return count != null && count.get() >= threshold;
+    }
+
+    /**
+     * Counts a timeout against path.
+     */
+    public void timedOut(Path path) {
+        String key = keyFor(path);
+        AtomicInteger count = timeouts.get(key);
+        if (count == null) {
+            AtomicInteger existing = timeouts.putIfAbsent(key, count = new AtomicInteger());
+            if (existing != null) {
+                count = existing;
+            }
+        }
+        changed = true;
+        if (count.incrementAndGet() == threshold) {
+            LOG.warn("[" + key + "] quarantined after timing out " + threshold + " times. Later scans will skip it");
+        }
+    }
+
+    private static String keyFor(Path path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * Writes counts to the file if any timeouts were counted since it was read.  Written to a temporary file first so a
+     * failure leaves the previous file intact.
+     */
+    public synchronized void save() throws IOException {
+        if (!changed) {
+            return;
+        }
+        Map<String, Integer> sorted = new TreeMap<>();
+        for (Map.Entry<String, AtomicInteger> entry : timeouts.entrySet()) {
+            sorted.put(entry.getKey(), entry.getValue().get());
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Integer> entry : sorted.entrySet()) {
+                writer.write(entry.getValue() + "\t" + entry.getKey());
+                writer.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        changed = false;
+    }
+
+    /**
+     * Paths skipped by scans.
+     */
+    public Set<String> getQuarantined() {
+        Set<String> quarantined = new TreeSet<>();
+        for (Map.Entry<String, AtomicInteger> entry : timeouts.entrySet()) {
+            if (entry.getValue().get() >= threshold) {
+                quarantined.add(entry.getKey());
+            }
+        }
+        return quarantined;
+    }
+}
@@ -0,0 +1,370 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ddnconsulting.fileprocessor.resultshandlers.ResultsHandler;
+import com.google.common.base.Joiner;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Progress of a scan's walk, written to a file every so often so a scan that dies part way through can be resumed
+ * without processing again the parts of the tree that were finished.
+ *
+ * A directory is finished once the walk has left it (postVisitDirectory), every task dispatched for it or for the files
+ * directly in it has completed, and all of its subdirectories are finished.  Each directory being walked has a count
+ * of what it is waiting for, so keeping track costs a couple of hash map operations per task and per directory.  When
+ * a directory finishes, the entries for its subdirectories are replaced by its own, so the list of finished
+ * directories stays small: it is the frontier of the walk, not every directory walked.
+ *
+ * The file is plain text: the root and operations of the scan, then one line for each finished directory ("done"),
+ * each directory still being walked or waited on ("pending") and each file with a task queued or running ("inflight"),
+ * with paths relative to the root.  Only finished directories are used when resuming; files in pending directories
+ * (in-flight ones included) are processed again, so a resumed scan may report some results twice but never misses
+ * one.  Tasks cancelled because the scan's deadline passed are never counted as done.
+ *
+ * Results of finished tasks may still be queued in the results handler (see AsyncResultsHandler), so the handler is
+ * flushed before a checkpoint is written: a directory is never checkpointed as done before its results are out.
+ *
+ * The file is written to a temporary file and moved into place, so a crash while writing leaves the previous
+ * checkpoint.  It is deleted once the scan finishes.
+ *
+ * Thread-safe.
+ *
+ * @author Dan Nathanson
+ */
+public class ScanCheckpoint implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(ScanCheckpoint.class);
+    private static final String ROOT = "root";
+    private static final String OPERATIONS = "operations";
+    private static final String DONE = "done";
+    private static final String PENDING = "pending";
+    private static final String IN_FLIGHT = "inflight";
+
+    private final Path file;
+    private final Path root;
+    private final String operations;
+    private final Set<Path> resumed = new HashSet<>();
+    private final ConcurrentMap<Path, Directory> walking = new ConcurrentHashMap<>();
+    private final ConcurrentMap<FileWorkerRunner, Directory> inFlight = new ConcurrentHashMap<>();
+    // Finished directories, and the finished subdirectories of each directory being walked, are guarded by this lock
+    private final Set<Path> done = new HashSet<>();
+    private ResultsHandler resultsHandler;
+    private ScheduledExecutorService timer;
+
+    /**
+     * @param file where the checkpoint is written
+     * @param root directory the scan starts at
+     * @param operations operations the scan performs
+     * @param resume if true, and file has a checkpoint of a scan of the same root with the same operations,
+     *               directories it lists as done are skipped
+     */
+    public ScanCheckpoint(Path file, Path root, List<String> operations, boolean resume) throws IOException {
+        this.file = file;
+        this.root = root;
+        this.operations = Joiner.on(',').join(operations);
+        if (resume) {
+            if (Files.exists(file)) {
+                load();
+            }
+            else {
+                LOG.info("No checkpoint in " + file + ". Scanning from the beginning");
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        String checkpointRoot = null;
+        String checkpointOperations = null;
+        List<Path> checkpointDone = new ArrayList<>();
+        int pending = 0;
+        int inFlight = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab <= 0) {
+                    continue;
+                }
+                String key = line.substring(0, tab);
+                String value = line.substring(tab + 1);
+                switch (key) {
+                    case ROOT:
+                        checkpointRoot = value;
+                        break;
+                    case OPERATIONS:
+                        checkpointOperations = value;
+                        break;
+                    case DONE:
+                        checkpointDone.add(root.resolve(value));
+                        break;
+                    case PENDING:
+                        pending++;
+                        break;
+                    case IN_FLIGHT:
+                        inFlight++;
+                        break;
+                    default:
+                        LOG.warn("Ignoring bad line in " + file + ": " + line);
+                }
+            }
+        }
+
+        if (!keyFor(root).equals(checkpointRoot) || !operations.equals(checkpointOperations)) {
+            LOG.warn("Checkpoint in " + file + " is for a scan of [" + checkpointRoot + "] with operations [" +
+                     checkpointOperations + "], not this one. Scanning from the beginning");
+            return;
+        }
+        resumed.addAll(checkpointDone);
+        done.addAll(checkpointDone);
+        LOG.info("Resuming from " + file + ": skipping " + resumed.size() + " finished directories. " + pending +
+                 " unfinished directories (" + inFlight + " files in flight) will be scanned again");
+    }
+
+    private static String keyFor(Path path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * Flushes handler, if it is Flushable, before each checkpoint is written.
+     */
+    public void setResultsHandler(ResultsHandler resultsHandler) {
+        this.resultsHandler = resultsHandler;
+    }
+
+    /**
+     * Writes the checkpoint every interval until closed.
+     */
+    public void start(long interval, TimeUnit unit) {
+        timer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("ScanCheckpoint-%d").setDaemon(true).build());
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    save();
+                }
+                catch (IOException | RuntimeException e) {
+                    LOG.error("Failed to write checkpoint " + file, e);
+                }
+            }
+        }, interval, interval, unit);
+    }
+
+    /**
+     * Returns true if dir was finished by the scan being resumed, so the walk can skip it.
+     */
+    public boolean isDone(Path dir) {
+        return !resumed.isEmpty() && resumed.contains(dir);
+    }
+
+    /**
+     * Records that the walk has entered dir.  Called before any tasks are dispatched for it.
+     */
+    public void directoryStarted(Path dir) {
+        Directory parent = walking.get(dir.getParent());
+        if (parent != null) {
+            parent.pending.incrementAndGet();
+        }
+        walking.put(dir, new Directory(dir, parent));
+    }
+
+    /**
+     * Records that the walk skipped dir because the scan being resumed finished it.
+     */
+    public void directorySkipped(Path dir) {
+        Directory parent = walking.get(dir.getParent());
+        if (parent != null) {
+            synchronized (done) {
+                parent.doneSubdirectories.add(dir);
+            }
+        }
+    }
+
+    /**
+     * Records that the walk has left dir: everything in it has been visited.
+     */
+    public void directoryWalked(Path dir) {
+        Directory directory = walking.get(dir);
+        if (directory != null) {
+            release(directory);
+        }
+    }
+
+    /**
+     * Records that a task has been dispatched for runner's file.  Tasks for entries inside an archive count against the
+     * archive on disk.
+     */
+    void taskDispatched(FileWorkerRunner runner) {
+        FileContext context = runner.getContext();
+        Path path = context instanceof ArchiveEntryContext ? ((ArchiveEntryContext) context).getArchivePath()
+                                                           : context.getPath();
+        Directory directory = walking.get(path);
+        if (directory == null) {
+            directory = walking.get(path.getParent());
+        }
+        if (directory != null) {
+            directory.pending.incrementAndGet();
+            inFlight.put(runner, directory);
+        }
+    }
+
+    /**
+     * Records that runner's task finished (successfully or not).
+     */
+    void taskFinished(FileWorkerRunner runner) {
+        Directory directory = inFlight.remove(runner);
+        if (directory != null) {
+            release(directory);
+        }
+    }
+
+    /**
+     * Forgets a task that was never run because it was rejected.  Its directory stays unfinished.
+     */
+    void taskRejected(FileWorkerRunner runner) {
+        inFlight.remove(runner);
+    }
+
+    private void release(Directory directory) {
+        if (directory.pending.decrementAndGet() != 0) {
+            return;
+        }
+        walking.remove(directory.path);
+        synchronized (done) {
+            done.removeAll(directory.doneSubdirectories);
+            done.add(directory.path);
+            if (directory.parent != null) {
+                directory.parent.doneSubdirectories.add(directory.path);
+            }
+        }
+        if (directory.parent != null) {
+            release(directory.parent);
+        }
+    }
+
+    /**
+     * Writes the checkpoint.
+     */
+    public void save() throws IOException {
+        List<Path> finished;
+        synchronized (done) {
+            finished = new ArrayList<>(done);
+        }
+        // Everything done so far has handed its results to the handler
+        if (resultsHandler instanceof Flushable) {
+            ((Flushable) resultsHandler).flush();
+        }
+        Set<String> pending = new TreeSet<>();
+        for (Path dir : walking.keySet()) {
+            pending.add(relative(dir));
+        }
+        Set<String> files = new TreeSet<>();
+        for (FileWorkerRunner runner : inFlight.keySet()) {
+            files.add(relative(runner.getContext().getPath()));
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            write(writer, ROOT, keyFor(root));
+            write(writer, OPERATIONS, operations);
+            for (Path dir : finished) {
+                write(writer, DONE, relative(dir));
+            }
+            for (String dir : pending) {
+                write(writer, PENDING, dir);
+            }
+            for (String path : files) {
+                write(writer, IN_FLIGHT, path);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private String relative(Path path) {
+        return root.relativize(path).toString();
+    }
+
+    private static void write(BufferedWriter writer, String key, String value) throws IOException {
+        writer.write(key);
+        writer.write('\t');
+        writer.write(value);
+        writer.newLine();
+    }
+
+    /**
+     * Deletes the checkpoint, once the scan has finished.
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Stops writing the checkpoint.
+     */
+    @Override
+    public void close() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+    }
+
+    /**
+     * Finished directories, the frontier of the walk.
+     */
+    public Set<Path> getDone() {
+        synchronized (done) {
+            return Collections.unmodifiableSet(new HashSet<>(done));
+        }
+    }
+
+    /**
+     * Directories being walked, or waiting for tasks or subdirectories to finish.
+     */
+    public Set<Path> getPending() {
+        return Collections.unmodifiableSet(new HashSet<>(walking.keySet()));
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+
+    /**
+     * A directory the walk has entered that isn't finished yet.
+     */
+    private static final class Directory {
+        private final Path path;
+        private final Directory parent;
+        // One for the walk, plus one for each unfinished task and subdirectory
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private final List<Path> doneSubdirectories = new ArrayList<>();
+
+        Directory(Path path, Directory parent) {
+            this.path = path;
+            this.parent = parent;
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ddnconsulting.fileprocessor.workers.FileWorker;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Handle for a single run of the FileProcessor.  Tracks every FileWorkerRunner dispatched for the scan so that there
+ * is a definite answer to "is the scan finished?" rather than waiting for a thread pool to terminate, and keeps
+ * running counts of files discovered and tasks dispatched, completed and failed so progress can be reported while the
+ * scan is running.
+ *
+ * A scan is complete once the walk has finished ({@link #walkCompleted()}) and every dispatched task has finished.
+ * An optional deadline can be set.  If the scan is still running when the deadline passes, outstanding tasks are
+ * cancelled and recorded as abandoned.
+ *
+ * With a {@link TaskWatchdog}, individual tasks are timed out too, and a task whose worker won't stop can be abandoned
+ * on its own ({@link #abandon}) without cancelling the rest of the scan.
+ *
+ * With a {@link ScanCheckpoint}, each task is reported to it as it is dispatched and when it finishes.
+ *
+ * @author Dan Nathanson
+ */
+public class ScanJob {
+    private static final Logger LOG = LoggerFactory.getLogger(ScanJob.class);
+
+    private final ExecutorLanes lanes;
+    private final long startNanos;
+    private final long deadlineNanos;
+
+    private final AtomicLong filesDiscovered = new AtomicLong();
+    private final AtomicLong tasksDispatched = new AtomicLong();
+    private final AtomicLong tasksCompleted = new AtomicLong();
+    private final AtomicLong tasksFailed = new AtomicLong();
+
+    private final Set<TrackedTask> outstanding = Collections.newSetFromMap(new ConcurrentHashMap<TrackedTask, Boolean>());
+    private final List<FileWorkerRunner> abandoned = Collections.synchronizedList(new ArrayList<FileWorkerRunner>());
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    private volatile TaskWatchdog watchdog;
+    private volatile ScanCheckpoint checkpoint;
+    private volatile boolean walkComplete;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates job with no deadline.
+     *
+     * @param lanes executors that run FileWorkerRunners for this job
+     */
+    public ScanJob(ExecutorLanes lanes) {
+        this(lanes, 0, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param lanes executors that run FileWorkerRunners for this job
+     * @param timeout how long the whole scan (walk included) may take.  Zero or less for no deadline.
+     * @param unit unit of timeout
+     */
+    public ScanJob(ExecutorLanes lanes, long timeout, TimeUnit unit) {
+        this.lanes = lanes;
+        this.startNanos = System.nanoTime();
+        this.deadlineNanos = timeout > 0 ? startNanos + unit.toNanos(timeout) : 0;
+    }
+
+    /**
+     * Records that the walk found a file or directory.
+     */
+    public void fileDiscovered() {
+        filesDiscovered.incrementAndGet();
+    }
+
+    /**
+     * Dispatches a runner to the executor lane for its workers and tracks it until it finishes.  Blocks if the lane's
+     * queue is full.  All of the runner's workers must be in the same lane (see {@link #laneFor}).
+     *
+     * @throws RejectedExecutionException if job has been cancelled or the executor rejects the task
+     */
+    public Future<List<FileWorkerResults>> submit(FileWorkerRunner runner) {
+        if (cancelled) {
+            throw new RejectedExecutionException("Scan has been cancelled");
+        }
+
+        runner.setWatchdog(watchdog);
+        TrackedTask task = new TrackedTask(runner);
+        outstanding.add(task);
+        tasksDispatched.incrementAndGet();
+        if (checkpoint != null) {
+            checkpoint.taskDispatched(runner);
+        }
+        try {
+            lanes.executorFor(runner.getWorker()).execute(task);
+        }
+        catch (RejectedExecutionException e) {
+            outstanding.remove(task);
+            tasksDispatched.decrementAndGet();
+            if (checkpoint != null) {
+                checkpoint.taskRejected(runner);
+            }
+            throw e;
+        }
+        return task;
+    }
+
+    /**
+     * Times out tasks submitted from now on.
+     */
+    public void setWatchdog(TaskWatchdog watchdog) {
+        this.watchdog = watchdog;
+    }
+
+    /**
+     * Tells checkpoint about tasks submitted from now on, and when they finish.
+     */
+    public void setCheckpoint(ScanCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Stops waiting for runner, whose worker has been timed out but won't stop.  The task is cancelled and counted as
+     * completed and failed, and its lane is given a thread to replace the one the worker is holding.
+     */
+    public void abandon(FileWorkerRunner runner) {
+        for (TrackedTask task : outstanding) {
+            if (task.runner == runner) {
+                task.abandoned = true;
+                if (task.cancel(true)) {
+                    lanes.executorFor(runner.getWorker()).addThread();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns name of the executor lane worker's tasks run in.
+     */
+    public String laneFor(FileWorker worker) {
+        return lanes.laneFor(worker);
+    }
+
+    /**
+     * Records that the walk is finished and so no more tasks will be submitted.
+     */
+    public void walkCompleted() {
+        walkComplete = true;
+        checkFinished();
+    }
+
+    /**
+     * Returns true if the deadline has passed, cancelling the job if it hasn't been already.  Meant to be polled by
+     * the walk so it can stop early.
+     */
+    public boolean checkDeadline() {
+        if (deadlineNanos != 0 && !isFinished() && System.nanoTime() - deadlineNanos >= 0) {
+            cancel();
+            return true;
+        }
+        return cancelled;
+    }
+
+    /**
+     * Blocks until the scan is finished or the deadline (if any) passes.  If the deadline passes, outstanding tasks
+     * are cancelled.
+     *
+     * @return true if the scan finished, false if it was cancelled
+     */
+    public boolean awaitCompletion() throws InterruptedException {
+        if (deadlineNanos == 0) {
+            finished.await();
+        }
+        else if (!finished.await(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            cancel();
+        }
+        return !cancelled;
+    }
+
+    /**
+     * Blocks until the scan is finished, the deadline (if any) passes or the timeout elapses, whichever is first.
+     * Useful for reporting progress periodically while waiting.
+     *
+     * @return true if the scan is finished or cancelled, false if the timeout elapsed first
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        long waitNanos = unit.toNanos(timeout);
+        if (deadlineNanos != 0) {
+            long untilDeadline = deadlineNanos - System.nanoTime();
+            if (untilDeadline <= waitNanos) {
+                awaitCompletion();
+                return true;
+            }
+        }
+        return finished.await(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Cancels all outstanding tasks (interrupting any that are running) and stops further tasks from being
+     * dispatched.  The cancelled tasks are available from {@link #getAbandoned()}.
+     *
+     * @return runners for tasks that were cancelled by this call
+     */
+    public List<FileWorkerRunner> cancel() {
+        List<FileWorkerRunner> cancelledNow = new ArrayList<>();
+        if (isFinished()) {
+            return cancelledNow;
+        }
+
+        cancelled = true;
+        for (TrackedTask task : outstanding) {
+            if (task.cancel(true)) {
+                cancelledNow.add(task.runner);
+            }
+        }
+        abandoned.addAll(cancelledNow);
+        finished.countDown();
+        return cancelledNow;
+    }
+
+    private void checkFinished() {
+        if (walkComplete && outstanding.isEmpty()) {
+            finished.countDown();
+        }
+    }
+
+    /**
+     * Returns true if the scan is complete or has been cancelled.
+     */
+    public boolean isFinished() {
+        return finished.getCount() == 0;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isWalkComplete() {
+        return walkComplete;
+    }
+
+    /**
+     * Number of files and directories found by the walk.
+     */
+    public long getFilesDiscovered() {
+        return filesDiscovered.get();
+    }
+
+    public long getTasksDispatched() {
+        return tasksDispatched.get();
+    }
+
+    /**
+     * Number of tasks that have finished running, including those that failed.
+     */
+    public long getTasksCompleted() {
+        return tasksCompleted.get();
+    }
+
+    /**
+     * Number of tasks that threw an exception or where a worker reported failure.
+     */
+    public long getTasksFailed() {
+        return tasksFailed.get();
+    }
+
+    public int getTasksOutstanding() {
+        return outstanding.size();
+    }
+
+    /**
+     * Tasks cancelled because the deadline passed (or {@link #cancel()} was called) before they finished.
+     */
+    public List<FileWorkerRunner> getAbandoned() {
+        synchronized (abandoned) {
+            return new ArrayList<>(abandoned);
+        }
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public String toString() {
+        return "discovered=" + filesDiscovered + ", dispatched=" + tasksDispatched + ", completed=" +
+               tasksCompleted + ", failed=" + tasksFailed + ", outstanding=" + outstanding.size() +
+               ", walkComplete=" + walkComplete + ", elapsed=" + getElapsedMillis() + "ms";
+    }
+
+
+    /**
+     * Updates job's counters when a runner finishes.
+     */
+    private final class TrackedTask extends FutureTask<List<FileWorkerResults>> {
+        private final FileWorkerRunner runner;
+        private volatile boolean abandoned;
+
+        TrackedTask(FileWorkerRunner runner) {
+            super(runner);
+            this.runner = runner;
+        }
+
+        @Override
+        protected void done() {
+            if (abandoned) {
+                tasksCompleted.incrementAndGet();
+                tasksFailed.incrementAndGet();
+            }
+            else if (!isCancelled()) {
+                tasksCompleted.incrementAndGet();
+                try {
+                    for (FileWorkerResults results : get()) {
+                        if (results != null && !results.isSuccess()) {
+                            tasksFailed.incrementAndGet();
+                            break;
+                        }
+                    }
+                }
+                catch (ExecutionException e) {
+                    tasksFailed.incrementAndGet();
+                    LOG.error("Worker failed for [" + runner + "]", e.getCause());
+                }
+                catch (InterruptedException e) {
+                    // Can't happen.  Task is done.
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (isCancelled()) {
+                // A runner that never started still holds the file open for the other lanes' runners
+                runner.cancelledBeforeRun();
+            }
+            // Tasks cancelled by the deadline weren't done and must be run again if the scan is resumed
+            if (checkpoint != null && (abandoned || !isCancelled())) {
+                checkpoint.taskFinished(runner);
+            }
+            outstanding.remove(this);
+            checkFinished();
+        }
+    }
+}
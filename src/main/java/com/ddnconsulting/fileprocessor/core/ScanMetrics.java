@@ -0,0 +1,463 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ddnconsulting.fileprocessor.resultshandlers.AsyncResultsHandler;
+import com.ddnconsulting.fileprocessor.resultshandlers.ResultsHandler;
+import com.ddnconsulting.fileprocessor.resultshandlers.RoutingResultsHandler;
+import com.ddnconsulting.fileprocessor.workers.FileWorker;
+
+
+/**
+ * Counts and times each stage of scans so it is possible to tell where a scan spends its time: the walk, classifying
+ * files, dispatching them to the executor lanes (which includes time the walk is blocked on full queues), running
+ * workers and handing results to the results handler.  Worker run times are kept by worker and by file type.
+ *
+ * Counts are kept for the life of the process (so across scans for a long-running process), except that rates are for
+ * the current or last scan.  When several scans run at once (as in daemon mode) their files can't be told apart, so
+ * rates are for all of them together, since the first of them started, and queue depths are summed over them.  Recording allocates nothing once each worker and type has been seen, and costs a few
+ * atomic increments and a pair of {@link System#nanoTime()} calls per stage, so it can be left on.
+ *
+ * Exported over JMX as a standard MBean; {@link #getSummary()} is also logged with the scan's progress.
+ *
+ * @author Dan Nathanson
+ */
+public class ScanMetrics implements ScanMetricsMBean {
+    private static final String UNKNOWN_TYPE = "unknown";
+    private static final int MAX_TYPES_SUMMARIZED = 5;
+
+    private final FileClassifier classifier;
+
+    private final AtomicLong filesVisited = new AtomicLong();
+    private final AtomicLong bytesVisited = new AtomicLong();
+    private final AtomicLong unhandledFiles = new AtomicLong();
+    private final AtomicLong typesFromIndex = new AtomicLong();
+    private final AtomicLong workersTimedOut = new AtomicLong();
+    private final AtomicLong filesQuarantined = new AtomicLong();
+    private final ConcurrentMap<String, AtomicLong> unhandledByType = new ConcurrentHashMap<>();
+
+    private final LatencyHistogram visitLatency = new LatencyHistogram();
+    private final LatencyHistogram classifyLatency = new LatencyHistogram();
+    private final LatencyHistogram dispatchLatency = new LatencyHistogram();
+    private final LatencyHistogram resultsLatency = new LatencyHistogram();
+    private final ConcurrentMap<Class<?>, LatencyHistogram> workerLatencies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> typeLatencies = new ConcurrentHashMap<>();
+
+    // Scans running, and the last one to finish (until then, the time since this was created)
+    private final List<Scan> running = new ArrayList<>();
+    private Scan lastScan = new Scan(null, null, 0, 0);
+
+    // For rates in the summary since the one before
+    private long lastSummaryNanos = System.nanoTime();
+    private long lastSummaryFiles;
+
+    /**
+     * @param classifier classifier used by scans, for its counts of files typed without reading them.  May be null.
+     */
+    public ScanMetrics(FileClassifier classifier) {
+        this.classifier = classifier;
+    }
+
+    /**
+     * Starts timing a scan run on lanes, with results going to resultsHandler.
+     *
+     * @return the scan, to pass to {@link #scanFinished(Scan)}
+     */
+    public synchronized Scan scanStarted(ExecutorLanes lanes, ResultsHandler resultsHandler) {
+        Scan scan = new Scan(lanes, resultsHandler, filesVisited.get(), bytesVisited.get());
+        running.add(scan);
+        return scan;
+    }
+
+    public synchronized void scanFinished(Scan scan) {
+        scan.endNanos = System.nanoTime();
+        running.remove(scan);
+        lastScan = scan;
+    }
+
+    /**
+     * Scans that rates and queue depths are for: those running, or the last one if none are.
+     */
+    private synchronized List<Scan> currentScans() {
+        return running.isEmpty() ? Collections.singletonList(lastScan) : new ArrayList<>(running);
+    }
+
+    /**
+     * Records a file (or directory) visited by the walk and how long the visit took, classifying and dispatching
+     * included.
+     *
+     * @param size size of the file, 0 for directories
+     */
+    public void fileVisited(long size, long startNanos) {
+        visitLatency.recordSince(startNanos);
+        filesVisited.incrementAndGet();
+        if (size > 0) {
+            bytesVisited.addAndGet(size);
+        }
+    }
+
+    public void fileClassified(long startNanos) {
+        classifyLatency.recordSince(startNanos);
+    }
+
+    /**
+     * Records that a file's type came from the incremental index rather than the classifier.
+     */
+    public void typeFromIndex() {
+        typesFromIndex.incrementAndGet();
+    }
+
+    /**
+     * Records time taken to hand a task to its executor lane, including any time blocked on a full queue.
+     */
+    public void taskDispatched(long startNanos) {
+        dispatchLatency.recordSince(startNanos);
+    }
+
+    /**
+     * Records a file no worker could do anything with.
+     */
+    public void fileUnhandled(String type) {
+        unhandledFiles.incrementAndGet();
+        String key = type == null ? UNKNOWN_TYPE : type;
+        AtomicLong count = unhandledByType.get(key);
+        if (count == null) {
+            AtomicLong existing = unhandledByType.putIfAbsent(key, count = new AtomicLong());
+            if (existing != null) {
+                count = existing;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Records how long worker took on a file of type.
+     */
+    public void workerRun(FileWorker worker, String type, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        histogram(workerLatencies, worker.getClass()).record(nanos);
+        histogram(typeLatencies, type == null ? UNKNOWN_TYPE : type).record(nanos);
+    }
+
+    /**
+     * Records a worker that went past its deadline.
+     */
+    public void workerTimedOut() {
+        workersTimedOut.incrementAndGet();
+    }
+
+    /**
+     * Records a file skipped because it is quarantined.
+     */
+    public void fileQuarantined() {
+        filesQuarantined.incrementAndGet();
+    }
+
+    /**
+     * Records how long handing results to the results handler took.
+     */
+    public void resultsHandled(long startNanos) {
+        resultsLatency.recordSince(startNanos);
+    }
+
+    private static <K> LatencyHistogram histogram(ConcurrentMap<K, LatencyHistogram> histograms, K key) {
+        LatencyHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            LatencyHistogram existing = histograms.putIfAbsent(key, histogram = new LatencyHistogram());
+            if (existing != null) {
+                histogram = existing;
+            }
+        }
+        return histogram;
+    }
+
+    @Override
+    public long getFilesVisited() {
+        return filesVisited.get();
+    }
+
+    @Override
+    public long getBytesVisited() {
+        return bytesVisited.get();
+    }
+
+    @Override
+    public double getFilesPerSecond() {
+        Scan first = firstScan();
+        return perSecond(first, filesVisited.get() - first.filesAtStart);
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        Scan first = firstScan();
+        return perSecond(first, bytesVisited.get() - first.bytesAtStart);
+    }
+
+    /**
+     * The current scan that started first.
+     */
+    private Scan firstScan() {
+        Scan first = null;
+        for (Scan scan : currentScans()) {
+            if (first == null || scan.startNanos - first.startNanos < 0) {
+                first = scan;
+            }
+        }
+        return first;
+    }
+
+    private static double perSecond(Scan scan, long count) {
+        long end = scan.endNanos != 0 ? scan.endNanos : System.nanoTime();
+        long elapsed = end - scan.startNanos;
+        return elapsed <= 0 ? 0 : count * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    @Override
+    public long getUnhandledFiles() {
+        return unhandledFiles.get();
+    }
+
+    @Override
+    public Map<String, Long> getUnhandledByType() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : unhandledByType.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    @Override
+    public long getWorkersTimedOut() {
+        return workersTimedOut.get();
+    }
+
+    @Override
+    public long getFilesQuarantined() {
+        return filesQuarantined.get();
+    }
+
+    @Override
+    public long getClassifications() {
+        return classifyLatency.getCount();
+    }
+
+    @Override
+    public long getClassifyMeanMicros() {
+        return micros(classifyLatency.getMeanNanos());
+    }
+
+    @Override
+    public long getClassifyP99Micros() {
+        return micros(classifyLatency.getPercentileNanos(99));
+    }
+
+    @Override
+    public double getClassifierHitPercent() {
+        long fromIndex = typesFromIndex.get();
+        long typed = fromIndex + classifyLatency.getCount();
+        if (typed == 0) {
+            return 0;
+        }
+        return 100.0 * (fromIndex + getExtensionMatches()) / typed;
+    }
+
+    private long getExtensionMatches() {
+        return classifier instanceof MagicFileClassifier ? ((MagicFileClassifier) classifier).getExtensionMatches()
+                                                         : 0;
+    }
+
+    @Override
+    public long getDispatchMeanMicros() {
+        return micros(dispatchLatency.getMeanNanos());
+    }
+
+    @Override
+    public long getDispatchP99Micros() {
+        return micros(dispatchLatency.getPercentileNanos(99));
+    }
+
+    @Override
+    public long getResultsHandlingMeanMicros() {
+        return micros(resultsLatency.getMeanNanos());
+    }
+
+    @Override
+    public long getResultsHandlingP99Micros() {
+        return micros(resultsLatency.getPercentileNanos(99));
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    @Override
+    public Map<String, String> getWorkerLatencies() {
+        Map<String, String> latencies = new TreeMap<>();
+        for (Map.Entry<Class<?>, LatencyHistogram> entry : workerLatencies.entrySet()) {
+            latencies.put(entry.getKey().getSimpleName(), entry.getValue().toString());
+        }
+        return latencies;
+    }
+
+    @Override
+    public Map<String, String> getTypeLatencies() {
+        Map<String, String> latencies = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : typeLatencies.entrySet()) {
+            latencies.put(entry.getKey(), entry.getValue().toString());
+        }
+        return latencies;
+    }
+
+    /**
+     * Worker run times for the file type, or null if no worker has been run on files of that type.
+     */
+    public LatencyHistogram getTypeLatency(String type) {
+        return typeLatencies.get(type);
+    }
+
+    /**
+     * Run times of worker, or null if it hasn't been run.
+     */
+    public LatencyHistogram getWorkerLatency(Class<? extends FileWorker> workerClass) {
+        return workerLatencies.get(workerClass);
+    }
+
+    @Override
+    public int getQueueDepth() {
+        int depth = 0;
+        for (BoundedExecutorService lane : currentLanes()) {
+            depth += lane.getQueueDepth();
+        }
+        return depth;
+    }
+
+    @Override
+    public int getActiveThreads() {
+        int active = 0;
+        for (BoundedExecutorService lane : currentLanes()) {
+            active += lane.getActiveCount();
+        }
+        return active;
+    }
+
+    /**
+     * Lanes of the current scans, each once (scans in daemon mode share theirs).
+     */
+    private Set<BoundedExecutorService> currentLanes() {
+        Set<BoundedExecutorService> lanes =
+                Collections.newSetFromMap(new IdentityHashMap<BoundedExecutorService, Boolean>());
+        for (Scan scan : currentScans()) {
+            if (scan.lanes != null) {
+                lanes.addAll(scan.lanes.getLanes().values());
+            }
+        }
+        return lanes;
+    }
+
+    @Override
+    public int getResultsQueueDepth() {
+        Set<ResultsHandler> handlers = Collections.newSetFromMap(new IdentityHashMap<ResultsHandler, Boolean>());
+        for (Scan scan : currentScans()) {
+            ResultsHandler handler = scan.resultsHandler;
+            if (handler instanceof RoutingResultsHandler) {
+                handlers.addAll(((RoutingResultsHandler) handler).getHandlers());
+            }
+            else if (handler != null) {
+                handlers.add(handler);
+            }
+        }
+        int depth = 0;
+        for (ResultsHandler handler : handlers) {
+            depth += queueDepth(handler);
+        }
+        return depth;
+    }
+
+    private static int queueDepth(ResultsHandler handler) {
+        return handler instanceof AsyncResultsHandler ? ((AsyncResultsHandler) handler).getQueueDepth() : 0;
+    }
+
+    /**
+     * Multi-line summary of everything measured.  The rate in brackets is since the last summary.
+     */
+    @Override
+    public synchronized String getSummary() {
+        long now = System.nanoTime();
+        long files = filesVisited.get();
+        double recentRate = now == lastSummaryNanos ? 0 :
+                            (files - lastSummaryFiles) * (double) TimeUnit.SECONDS.toNanos(1) /
+                            (now - lastSummaryNanos);
+        lastSummaryNanos = now;
+        lastSummaryFiles = files;
+
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format("Files: %d (%d MB) at %.0f/s (%.0f/s now), %.1f MB/s; %d unhandled",
+                                     files, bytesVisited.get() >> 20, getFilesPerSecond(), recentRate,
+                                     getBytesPerSecond() / (1 << 20), unhandledFiles.get()));
+        if (!unhandledByType.isEmpty()) {
+            summary.append(' ').append(getUnhandledByType());
+        }
+        summary.append("; ").append(workersTimedOut.get()).append(" timed out, ").append(filesQuarantined.get())
+               .append(" quarantined");
+        summary.append("\n  Visit:    ").append(visitLatency);
+        summary.append("\n  Classify: ").append(classifyLatency)
+               .append(String.format(" (%.0f%% typed without reading: index %d, extension %d)",
+                                     getClassifierHitPercent(), typesFromIndex.get(), getExtensionMatches()));
+        summary.append("\n  Dispatch: ").append(dispatchLatency);
+        for (Map.Entry<String, String> worker : getWorkerLatencies().entrySet()) {
+            summary.append("\n  Worker ").append(worker.getKey()).append(": ").append(worker.getValue());
+        }
+        for (Map.Entry<String, LatencyHistogram> type : slowestTypes()) {
+            summary.append("\n  Type ").append(type.getKey()).append(": ").append(type.getValue());
+        }
+        summary.append("\n  Results:  ").append(resultsLatency);
+        summary.append("\n  Queues: ").append(getQueueDepth()).append(" tasks, ").append(getActiveThreads())
+               .append(" threads active, ").append(getResultsQueueDepth()).append(" results waiting");
+        return summary.toString();
+    }
+
+    /**
+     * Types workers spent the most time on.
+     */
+    private List<Map.Entry<String, LatencyHistogram>> slowestTypes() {
+        List<Map.Entry<String, LatencyHistogram>> types = new ArrayList<>(typeLatencies.entrySet());
+        Collections.sort(types, new Comparator<Map.Entry<String, LatencyHistogram>>() {
+            @Override
+            public int compare(Map.Entry<String, LatencyHistogram> a, Map.Entry<String, LatencyHistogram> b) {
+                return Long.compare(b.getValue().getTotalNanos(), a.getValue().getTotalNanos());
+            }
+        });
+        return types.size() > MAX_TYPES_SUMMARIZED ? types.subList(0, MAX_TYPES_SUMMARIZED) : types;
+    }
+
+
+    /**
+     * A scan being timed, from {@link #scanStarted}.
+     */
+    public static final class Scan {
+        private final ExecutorLanes lanes;
+        private final ResultsHandler resultsHandler;
+        private final long filesAtStart;
+        private final long bytesAtStart;
+        private final long startNanos = System.nanoTime();
+        private volatile long endNanos;
+
+        private Scan(ExecutorLanes lanes, ResultsHandler resultsHandler, long filesAtStart, long bytesAtStart) {
+            this.lanes = lanes;
+            this.resultsHandler = resultsHandler;
+            this.filesAtStart = filesAtStart;
+            this.bytesAtStart = bytesAtStart;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import java.util.Map;
+
+
+/**
+ * JMX view of {@link ScanMetrics}.  Times are in microseconds; rates are for the current (or last) scan, or
+ * for all the scans running if there are several.
+ *
+ * @author Dan Nathanson
+ */
+public interface ScanMetricsMBean {
+
+    long getFilesVisited();
+
+    long getBytesVisited();
+
+    double getFilesPerSecond();
+
+    double getBytesPerSecond();
+
+    /**
+     * Files for which no worker could do any of the requested operations.
+     */
+    long getUnhandledFiles();
+
+    /**
+     * Number of unhandled files of each type.
+     */
+    Map<String, Long> getUnhandledByType();
+
+    /**
+     * Workers interrupted or abandoned for going past their deadline.
+     */
+    long getWorkersTimedOut();
+
+    /**
+     * Files skipped because workers kept timing out on them.
+     */
+    long getFilesQuarantined();
+
+    long getClassifications();
+
+    long getClassifyMeanMicros();
+
+    long getClassifyP99Micros();
+
+    /**
+     * Types taken from the incremental index or from the file's extension, without reading the file, as a percentage
+     * of all files typed.
+     */
+    double getClassifierHitPercent();
+
+    long getDispatchMeanMicros();
+
+    long getDispatchP99Micros();
+
+    long getResultsHandlingMeanMicros();
+
+    long getResultsHandlingP99Micros();
+
+    /**
+     * Summary of run times (count, mean, p50, p99, max) by worker.
+     */
+    Map<String, String> getWorkerLatencies();
+
+    /**
+     * Summary of worker run times by file type.
+     */
+    Map<String, String> getTypeLatencies();
+
+    /**
+     * Tasks waiting for or being run by worker threads, over all executor lanes.
+     */
+    int getQueueDepth();
+
+    int getActiveThreads();
+
+    /**
+     * Results waiting on the results handler's queue, if it has one.
+     */
+    int getResultsQueueDepth();
+
+    String getSummary();
+}
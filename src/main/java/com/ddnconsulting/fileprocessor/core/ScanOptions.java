@@ -0,0 +1,88 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import java.nio.file.Path;
+
+import com.ddnconsulting.fileprocessor.resultshandlers.ResultsHandler;
+
+
+/**
+ * Optional settings for a single scan, mostly set from the command line.  Settings that apply to every scan are in
+ * application.properties.
+ *
+ * @author Dan Nathanson
+ */
+public class ScanOptions {
+    private Path incrementalIndex;
+    private boolean subdirectories = true;
+    private ResultsHandler resultsHandler;
+    private Path checkpoint;
+    private boolean resume;
+    private boolean archives;
+
+    /**
+     * Index file for an incremental scan, or null to process every file.
+     */
+    public Path getIncrementalIndex() {
+        return incrementalIndex;
+    }
+
+    public void setIncrementalIndex(Path incrementalIndex) {
+        this.incrementalIndex = incrementalIndex;
+    }
+
+    /**
+     * Whether to walk below the directory.  If false, only the directory itself and the files directly in it are
+     * processed (not its subdirectories).
+     */
+    public boolean isSubdirectories() {
+        return subdirectories;
+    }
+
+    public void setSubdirectories(boolean subdirectories) {
+        this.subdirectories = subdirectories;
+    }
+
+    /**
+     * Handler for this scan's results, or null to use the processor's.
+     */
+    public ResultsHandler getResultsHandler() {
+        return resultsHandler;
+    }
+
+    public void setResultsHandler(ResultsHandler resultsHandler) {
+        this.resultsHandler = resultsHandler;
+    }
+
+    /**
+     * File the progress of the walk is written to every checkpoint.interval seconds, or null for no checkpoints.
+     */
+    public Path getCheckpoint() {
+        return checkpoint;
+    }
+
+    public void setCheckpoint(Path checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Whether to carry on from the checkpoint left by a scan that didn't finish, skipping the directories it finished.
+     */
+    public boolean isResume() {
+        return resume;
+    }
+
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * Whether to look inside archives and process their entries too, whatever archive.descent says.
+     */
+    public boolean isArchives() {
+        return archives;
+    }
+
+    public void setArchives(boolean archives) {
+        this.archives = archives;
+    }
+}
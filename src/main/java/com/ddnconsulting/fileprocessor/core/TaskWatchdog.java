@@ -0,0 +1,233 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ddnconsulting.fileprocessor.workers.FileWorker;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.PropertyResolver;
+
+
+/**
+ * Enforces per-worker deadlines on the FileWorkerRunners of a scan, so one pathological file (a huge archive on a slow
+ * mount, a FIFO that blocks forever) can't hold a worker thread for the rest of the scan.
+ *
+ * Each worker may take up to its timeout on a file: worker.&lt;class simple name&gt;.timeout.ms if set, otherwise the
+ * default (task.timeout.ms).  A thread of the watchdog's own checks running tasks every interval.  A worker past its
+ * deadline is interrupted and its results replaced with {@link TimedOutResults}.  Most blocking file I/O (channels,
+ * sleeps, waits) gives up when interrupted; if the worker still hasn't returned after a second timeout, the task is
+ * abandoned: it is cancelled in the ScanJob (so the scan doesn't wait for it), the timed-out results are handled on
+ * its behalf, and the lane gets a thread to replace the one that is stuck.
+ *
+ * Timeouts are counted against the file in the {@link Quarantine}, if there is one.
+ *
+ * @author Dan Nathanson
+ */
+public class TaskWatchdog implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(TaskWatchdog.class);
+
+    private final PropertyResolver properties;
+    private final long defaultTimeoutMillis;
+    private final ScanJob scanJob;
+    private final Quarantine quarantine;
+    private final ConcurrentMap<Class<?>, Long> timeoutsByWorkerClass = new ConcurrentHashMap<>();
+    private final Set<FileWorkerRunner> running =
+            Collections.newSetFromMap(new ConcurrentHashMap<FileWorkerRunner, Boolean>());
+    private final ScheduledExecutorService timer;
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+
+    /**
+     * Starts checking tasks every interval.
+     *
+     * @param properties source of per-worker timeouts
+     * @param defaultTimeoutMillis timeout for workers without one of their own.  0 for none.
+     * @param scanJob job the tasks belong to, for abandoning them
+     * @param quarantine where timeouts are counted.  May be null.
+     */
+    public TaskWatchdog(PropertyResolver properties, long defaultTimeoutMillis, ScanJob scanJob, Quarantine quarantine,
+                        long intervalMillis) {
+        this.properties = properties;
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+        this.scanJob = scanJob;
+        this.quarantine = quarantine;
+        timer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("TaskWatchdog-%d").setDaemon(true).build());
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns how long worker may take on a file, in nanoseconds.  0 for no limit.
+     */
+    public long timeoutNanosFor(FileWorker worker) {
+        Class<?> workerClass = worker.getClass();
+        Long timeout = timeoutsByWorkerClass.get(workerClass);
+        if (timeout == null) {
+            long millis = properties.getProperty("worker." + workerClass.getSimpleName() + ".timeout.ms", Long.class,
+                                                 defaultTimeoutMillis);
+            timeout = TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+            timeoutsByWorkerClass.putIfAbsent(workerClass, timeout);
+        }
+        return timeout;
+    }
+
+    void started(FileWorkerRunner runner) {
+        running.add(runner);
+    }
+
+    void finished(FileWorkerRunner runner) {
+        running.remove(runner);
+    }
+
+    /**
+     * Interrupts workers past their deadline and abandons those that didn't stop when interrupted.
+     */
+    void check() {
+        long now = System.nanoTime();
+        for (FileWorkerRunner runner : running) {
+            try {
+                FileWorker worker = runner.getCurrentWorker();
+                if (worker == null) {
+                    continue;
+                }
+                long timeout = timeoutNanosFor(worker);
+                if (timeout == 0) {
+                    continue;
+                }
+                long overdue = now - runner.getWorkerStartNanos() - timeout;
+                if (overdue >= timeout && runner.isTimedOut()) {
+                    abandon(runner, worker);
+                }
+                else if (overdue >= 0) {
+                    // Holding the runner's lock keeps it from reporting the timeout before it has been counted
+                    synchronized (runner) {
+                        if (runner.timeOut(worker)) {
+                            timedOut(runner, worker, timeout);
+                        }
+                    }
+                }
+            }
+            catch (RuntimeException e) {
+                LOG.error("Watchdog failed checking " + runner, e);
+            }
+        }
+    }
+
+    private void timedOut(FileWorkerRunner runner, FileWorker worker, long timeout) {
+        timedOut.incrementAndGet();
+        LOG.warn(worker.getClass().getSimpleName() + " timed out after " + TimeUnit.NANOSECONDS.toMillis(timeout) +
+                 " ms on [" + runner.getContext().getPath() + "]. Interrupted");
+        if (quarantine != null) {
+            quarantine.timedOut(runner.getContext().getPath());
+        }
+    }
+
+    private void abandon(FileWorkerRunner runner, FileWorker worker) {
+        if (!runner.abandon(worker)) {
+            return;
+        }
+        running.remove(runner);
+        abandoned.incrementAndGet();
+        LOG.warn(worker.getClass().getSimpleName() + " did not stop when interrupted on [" +
+                 runner.getContext().getPath() + "]. Task abandoned");
+        scanJob.abandon(runner);
+    }
+
+    /**
+     * Stops checking.
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * Number of workers interrupted for going past their deadline.
+     */
+    public long getTimedOut() {
+        return timedOut.get();
+    }
+
+    /**
+     * Number of tasks given up on because their worker didn't stop when interrupted.
+     */
+    public long getAbandoned() {
+        return abandoned.get();
+    }
+
+
+    /**
+     * Results in place of those of a worker that took too long.
+     */
+    public static final class TimedOutResults extends FileWorkerResults {
+        private String filename;
+        private String worker;
+        private long timeoutMillis;
+        private boolean abandoned;
+
+        public TimedOutResults() {
+        }
+
+        TimedOutResults(FileContext context, FileWorker worker, long timeoutMillis, boolean abandoned) {
+            setSuccess(false);
+            setErrorMessage("Timed out after " + timeoutMillis + " ms" + (abandoned ? " and abandoned" : ""));
+            this.filename = context.getPath().toString();
+            this.worker = worker.getClass().getSimpleName();
+            this.timeoutMillis = timeoutMillis;
+            this.abandoned = abandoned;
+        }
+
+        public String getFilename() {
+            return filename;
+        }
+
+        public void setFilename(String filename) {
+            this.filename = filename;
+        }
+
+        /**
+         * Simple class name of the worker.
+         */
+        public String getWorker() {
+            return worker;
+        }
+
+        public void setWorker(String worker) {
+            this.worker = worker;
+        }
+
+        public long getTimeoutMillis() {
+            return timeoutMillis;
+        }
+
+        public void setTimeoutMillis(long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        /**
+         * True if the worker didn't stop when interrupted and its thread was left to it.
+         */
+        public boolean isAbandoned() {
+            return abandoned;
+        }
+
+        public void setAbandoned(boolean abandoned) {
+            this.abandoned = abandoned;
+        }
+    }
+}
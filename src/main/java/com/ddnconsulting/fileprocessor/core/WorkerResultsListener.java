@@ -0,0 +1,21 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import com.ddnconsulting.fileprocessor.workers.FileWorker;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+
+/**
+ * Told about the results of each FileWorker run by a FileWorkerRunner, along with the file and the worker that
+ * produced them.  Unlike a ResultsHandler, which only sees results, this is for parts of the processor that need to
+ * know which worker ran on which file.
+ *
+ * Called on worker threads, so implementations must be thread-safe.
+ *
+ * @author Dan Nathanson
+ */
+public interface WorkerResultsListener {
+
+    /**
+     * Called after results have been passed to the results handler.
+     */
+    void resultsProduced(FileContext context, FileWorker worker, FileWorkerResults results);
+}
@@ -0,0 +1,211 @@
+package com.ddnconsulting.fileprocessor.daemon;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import com.ddnconsulting.fileprocessor.core.FileProcessor;
+import com.ddnconsulting.fileprocessor.core.ScanJob;
+import com.ddnconsulting.fileprocessor.core.ScanOptions;
+import com.ddnconsulting.fileprocessor.resultshandlers.JmsResultsHandler;
+import com.ddnconsulting.fileprocessor.resultshandlers.ResultsCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+import org.springframework.jms.listener.SessionAwareMessageListener;
+
+
+/**
+ * Runs scans asked for by {@link ScanRequest} messages on the request queue, in a process that stays up between them,
+ * so each scan doesn't pay for starting a JVM and Spring context and warming up the JIT, classifier and thread pools.
+ * Up to maxScans requests are run at once, each on a listener thread of its own; they share the FileProcessor's warm
+ * executor lanes (see {@link FileProcessor#keepWarm}), taking turns for their threads.
+ *
+ * When a scan is finished, a reply is sent to the request's JMSReplyTo (if it has one), correlated with the request's
+ * JMSCorrelationID, or its JMSMessageID if it has none.  The reply's properties give the outcome: complete (false if
+ * the scan was cancelled or failed), filesDiscovered, tasksDispatched, tasksFailed, elapsedMillis, resultsSent (for
+ * requests with a results queue) and error (if the scan failed).  Results sent to a request's results queue carry the
+ * same correlation id in the requestId property.
+ *
+ * Requests are acknowledged when they are taken from the queue; a request that fails is answered with an error rather
+ * than being delivered again.
+ *
+ * @author Dan Nathanson
+ */
+public class ScanDaemon implements SessionAwareMessageListener<Message>, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(ScanDaemon.class);
+
+    // Reply message properties
+    static final String COMPLETE_PROPERTY = "complete";
+    static final String FILES_PROPERTY = "filesDiscovered";
+    static final String TASKS_PROPERTY = "tasksDispatched";
+    static final String FAILED_PROPERTY = "tasksFailed";
+    static final String ELAPSED_PROPERTY = "elapsedMillis";
+    static final String RESULTS_SENT_PROPERTY = "resultsSent";
+    static final String ERROR_PROPERTY = "error";
+    // Set on results sent to a request's results queue
+    static final String REQUEST_ID_PROPERTY = "requestId";
+
+    private final FileProcessor fileProcessor;
+    private final ConnectionFactory connectionFactory;
+    private final ResultsCodec codec;
+    private final String requestQueue;
+    private final int maxScans;
+    private final int resultsBatchSize;
+    private final AtomicInteger scansRunning = new AtomicInteger();
+    private final AtomicLong scansFinished = new AtomicLong();
+    private final AtomicLong scansFailed = new AtomicLong();
+    private DefaultMessageListenerContainer container;
+
+    /**
+     * @param fileProcessor processor that runs the scans.  Should be kept warm.
+     * @param requestQueue queue requests are taken from
+     * @param maxScans most scans run at once
+     * @param resultsBatchSize results to a message, for requests with a results queue
+     */
+    public ScanDaemon(FileProcessor fileProcessor, ConnectionFactory connectionFactory, ResultsCodec codec,
+                      String requestQueue, int maxScans, int resultsBatchSize) {
+        this.fileProcessor = fileProcessor;
+        this.connectionFactory = connectionFactory;
+        this.codec = codec;
+        this.requestQueue = requestQueue;
+        this.maxScans = maxScans;
+        this.resultsBatchSize = resultsBatchSize;
+    }
+
+    /**
+     * Starts taking requests.  Returns immediately; scans are run on the listener's threads.
+     */
+    public synchronized void start() {
+        container = new DefaultMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        // Fetch one request per listener thread at a time (ActiveMQ destination option), so requests aren't held
+        // by a thread that is busy while another is idle
+        container.setDestinationName(requestQueue + "?consumer.prefetchSize=1");
+        container.setConcurrentConsumers(maxScans);
+        container.setMaxConcurrentConsumers(maxScans);
+        container.setMessageListener(this);
+        container.afterPropertiesSet();
+        container.start();
+        LOG.info("Waiting for scan requests on " + requestQueue + ", running up to " + maxScans + " at once");
+    }
+
+    /**
+     * Stops taking requests, waiting for the scans running to finish.
+     */
+    @Override
+    public synchronized void close() {
+        if (container != null) {
+            container.shutdown();
+            container = null;
+        }
+    }
+
+    /**
+     * Runs the requested scan and replies with the outcome.
+     */
+    @Override
+    public void onMessage(Message message, Session session) throws JMSException {
+        String requestId = message.getJMSCorrelationID() != null ? message.getJMSCorrelationID()
+                                                                 : message.getJMSMessageID();
+        Message reply = session.createMessage();
+        reply.setJMSCorrelationID(requestId);
+        scansRunning.incrementAndGet();
+        try {
+            ScanRequest request = ScanRequest.fromMessage(message);
+            LOG.info("Running " + request + " for request " + requestId);
+            scan(request, requestId, reply);
+        }
+        catch (IOException | JMSException | RuntimeException e) {
+            LOG.error("Request " + requestId + " failed", e);
+            failed(reply, e.toString());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed(reply, "Interrupted");
+        }
+        finally {
+            scansRunning.decrementAndGet();
+            scansFinished.incrementAndGet();
+        }
+
+        Destination replyTo = message.getJMSReplyTo();
+        if (replyTo != null) {
+            MessageProducer producer = session.createProducer(replyTo);
+            try {
+                producer.send(reply);
+            }
+            finally {
+                producer.close();
+            }
+        }
+    }
+
+    private void scan(ScanRequest request, String requestId, Message reply)
+            throws IOException, InterruptedException, JMSException {
+        ScanOptions options = request.toOptions();
+        JmsResultsHandler resultsHandler = null;
+        if (request.getResultsQueue() != null) {
+            resultsHandler = new JmsResultsHandler(connectionFactory, request.getResultsQueue(), codec,
+                                                   resultsBatchSize);
+            resultsHandler.setMessageProperties(Collections.singletonMap(REQUEST_ID_PROPERTY, requestId));
+            options.setResultsHandler(resultsHandler);
+        }
+
+        ScanJob scanJob = fileProcessor.processFiles(request.getDirectory(), request.getOperations(), options);
+        boolean complete = !scanJob.isCancelled();
+        if (resultsHandler != null) {
+            resultsHandler.close();
+            reply.setLongProperty(RESULTS_SENT_PROPERTY, resultsHandler.getResultsSent());
+            if (resultsHandler.getFailedBatches() > 0) {
+                complete = false;
+                reply.setStringProperty(ERROR_PROPERTY, "Failed to send " + resultsHandler.getFailedBatches() +
+                                                        " batches of results to " + request.getResultsQueue());
+            }
+        }
+        reply.setBooleanProperty(COMPLETE_PROPERTY, complete);
+        reply.setLongProperty(FILES_PROPERTY, scanJob.getFilesDiscovered());
+        reply.setLongProperty(TASKS_PROPERTY, scanJob.getTasksDispatched());
+        reply.setLongProperty(FAILED_PROPERTY, scanJob.getTasksFailed());
+        reply.setLongProperty(ELAPSED_PROPERTY, scanJob.getElapsedMillis());
+        if (!complete) {
+            scansFailed.incrementAndGet();
+        }
+    }
+
+    private void failed(Message reply, String error) throws JMSException {
+        scansFailed.incrementAndGet();
+        reply.setBooleanProperty(COMPLETE_PROPERTY, false);
+        reply.setStringProperty(ERROR_PROPERTY, error);
+    }
+
+    /**
+     * Number of scans running right now.
+     */
+    public int getScansRunning() {
+        return scansRunning.get();
+    }
+
+    /**
+     * Number of requests finished, including those that failed.
+     */
+    public long getScansFinished() {
+        return scansFinished.get();
+    }
+
+    /**
+     * Number of requests that failed or whose scans didn't complete.
+     */
+    public long getScansFailed() {
+        return scansFailed.get();
+    }
+}
@@ -0,0 +1,135 @@
+package com.ddnconsulting.fileprocessor.daemon;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import com.ddnconsulting.fileprocessor.core.ScanOptions;
+import org.apache.commons.lang.StringUtils;
+
+
+/**
+ * A scan for a {@link ScanDaemon} to run.  Sent as a TextMessage holding the directory, with everything else in
+ * message properties:
+ * <pre>
+ *   operations       operation1,operation2,...  (required)
+ *   subdirectories   false to only process the directory and the files directly in it (default true)
+ *   incremental      index file, for an incremental scan
+ *   resultsQueue     queue to send the scan's results to, instead of the daemon's usual output
+ * </pre>
+ * The daemon replies to the message's JMSReplyTo, if set (see {@link ScanDaemon}).
+ *
+ * @author Dan Nathanson
+ */
+public class ScanRequest {
+    static final String OPERATIONS_PROPERTY = "operations";
+    static final String SUBDIRECTORIES_PROPERTY = "subdirectories";
+    static final String INCREMENTAL_PROPERTY = "incremental";
+    static final String RESULTS_QUEUE_PROPERTY = "resultsQueue";
+
+    private final String directory;
+    private final List<String> operations;
+    private boolean subdirectories = true;
+    private String incrementalIndex;
+    private String resultsQueue;
+
+    /**
+     * @param directory directory to scan, as the daemon sees it
+     * @param operations operations to perform
+     */
+    public ScanRequest(String directory, List<String> operations) {
+        this.directory = directory;
+        this.operations = Collections.unmodifiableList(operations);
+    }
+
+    public Message toMessage(Session session) throws JMSException {
+        TextMessage message = session.createTextMessage(directory);
+        message.setStringProperty(OPERATIONS_PROPERTY, StringUtils.join(operations, ','));
+        message.setBooleanProperty(SUBDIRECTORIES_PROPERTY, subdirectories);
+        if (incrementalIndex != null) {
+            message.setStringProperty(INCREMENTAL_PROPERTY, incrementalIndex);
+        }
+        if (resultsQueue != null) {
+            message.setStringProperty(RESULTS_QUEUE_PROPERTY, resultsQueue);
+        }
+        return message;
+    }
+
+    static ScanRequest fromMessage(Message message) throws JMSException {
+        String operations = message.getStringProperty(OPERATIONS_PROPERTY);
+        if (!(message instanceof TextMessage) || operations == null) {
+            throw new JMSException("Not a scan request: " + message);
+        }
+        ScanRequest request = new ScanRequest(((TextMessage) message).getText(),
+                                              Arrays.asList(StringUtils.split(operations, ',')));
+        if (message.propertyExists(SUBDIRECTORIES_PROPERTY)) {
+            request.setSubdirectories(message.getBooleanProperty(SUBDIRECTORIES_PROPERTY));
+        }
+        request.setIncrementalIndex(message.getStringProperty(INCREMENTAL_PROPERTY));
+        request.setResultsQueue(message.getStringProperty(RESULTS_QUEUE_PROPERTY));
+        return request;
+    }
+
+    /**
+     * Options for the FileProcessor's scan.
+     */
+    ScanOptions toOptions() {
+        ScanOptions options = new ScanOptions();
+        options.setSubdirectories(subdirectories);
+        if (incrementalIndex != null) {
+            options.setIncrementalIndex(Paths.get(incrementalIndex));
+        }
+        return options;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public List<String> getOperations() {
+        return operations;
+    }
+
+    public boolean isSubdirectories() {
+        return subdirectories;
+    }
+
+    public void setSubdirectories(boolean subdirectories) {
+        this.subdirectories = subdirectories;
+    }
+
+    /**
+     * Index file for an incremental scan, or null to process every file.
+     */
+    public String getIncrementalIndex() {
+        return incrementalIndex;
+    }
+
+    public void setIncrementalIndex(String incrementalIndex) {
+        this.incrementalIndex = incrementalIndex;
+    }
+
+    /**
+     * Queue the scan's results are sent to, or null for the daemon's usual output.
+     */
+    public String getResultsQueue() {
+        return resultsQueue;
+    }
+
+    public void setResultsQueue(String resultsQueue) {
+        this.resultsQueue = resultsQueue;
+    }
+
+    @Override
+    public String toString() {
+        return "ScanRequest{" + directory + ": " + StringUtils.join(operations, ',') +
+               (subdirectories ? "" : " (no subdirectories)") +
+               (incrementalIndex == null ? "" : " (incremental " + incrementalIndex + ")") + "}";
+    }
+}
@@ -0,0 +1,196 @@
+package com.ddnconsulting.fileprocessor.distributed;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Progress of a distributed scan, as seen by the coordinator.  A unit is finished once a node has acknowledged it and
+ * the coordinator has received as many results for it as the node says it sent (results and acknowledgements come on
+ * different queues, so either may arrive first).
+ *
+ * Units are delivered to nodes at least once, so if a node dies part way through a unit and the unit is redelivered,
+ * results sent by the dead node are received as well, and some results may be received twice.  Results are counted
+ * by delivery (each delivery of a unit to a node sends its own id with its results and acknowledgement), so only the
+ * results of the delivery that was acknowledged count towards finishing the unit.
+ *
+ * A node whose scan of a unit was cut off (by its total timeout) acknowledges the unit as incomplete.  The unit is
+ * finished, since nothing more will come for it, but the scan is not complete.
+ *
+ * Thread-safe.
+ *
+ * @author Dan Nathanson
+ */
+public class DistributedScan {
+    private final String scanId;
+    private final Map<String, UnitProgress> units = new LinkedHashMap<>();
+    private long resultsReceived;
+    private int unitsFinished;
+    private int unitsCutOff;
+
+    DistributedScan(String scanId, List<WorkUnit> workUnits) {
+        this.scanId = scanId;
+        for (WorkUnit workUnit : workUnits) {
+            units.put(workUnit.getUnitId(), new UnitProgress(workUnit));
+        }
+    }
+
+    /**
+     * @param delivery id of the delivery of the unit the results were sent for
+     */
+    synchronized void resultsReceived(String unitId, String delivery, int count) {
+        resultsReceived += count;
+        UnitProgress unit = units.get(unitId);
+        if (unit != null) {
+            Long received = unit.resultsReceived.get(delivery);
+            unit.resultsReceived.put(delivery, received == null ? count : received + count);
+            checkFinished(unit);
+        }
+    }
+
+    /**
+     * @param delivery id of the delivery of the unit that was acknowledged
+     * @param complete false if the node's scan of the unit was cut off
+     */
+    synchronized void acknowledged(String unitId, String delivery, long resultsSent, boolean complete, String node) {
+        UnitProgress unit = units.get(unitId);
+        if (unit != null && !unit.acknowledged) {
+            unit.acknowledged = true;
+            unit.delivery = delivery;
+            unit.resultsSent = resultsSent;
+            unit.complete = complete;
+            unit.node = node;
+            if (!complete) {
+                unitsCutOff++;
+            }
+            checkFinished(unit);
+        }
+    }
+
+    private void checkFinished(UnitProgress unit) {
+        if (unit.finished || !unit.acknowledged) {
+            return;
+        }
+        Long received = unit.resultsReceived.get(unit.delivery);
+        if ((received == null ? 0 : received) >= unit.resultsSent) {
+            unit.finished = true;
+            unitsFinished++;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits until every unit is finished or timeout passes.
+     *
+     * @param timeout how long to wait; 0 waits however long it takes
+     * @return true if every unit finished (see {@link #isComplete()} for whether they were all scanned in full)
+     */
+    public synchronized boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = timeout > 0 ? System.nanoTime() + unit.toNanos(timeout) : Long.MAX_VALUE;
+        while (!isFinished()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, Math.min(remaining, TimeUnit.SECONDS.toNanos(1)));
+        }
+        return true;
+    }
+
+    public String getScanId() {
+        return scanId;
+    }
+
+    /**
+     * True once every unit is finished, whether or not its scan was cut off.
+     */
+    public synchronized boolean isFinished() {
+        return unitsFinished == units.size();
+    }
+
+    /**
+     * True once every unit is finished and none of their scans was cut off.
+     */
+    public synchronized boolean isComplete() {
+        return isFinished() && unitsCutOff == 0;
+    }
+
+    public synchronized int getUnitCount() {
+        return units.size();
+    }
+
+    public synchronized int getUnitsFinished() {
+        return unitsFinished;
+    }
+
+    public synchronized long getResultsReceived() {
+        return resultsReceived;
+    }
+
+    /**
+     * Units not finished (yet).
+     */
+    public synchronized List<WorkUnit> getUnfinished() {
+        List<WorkUnit> unfinished = new ArrayList<>();
+        for (UnitProgress unit : units.values()) {
+            if (!unit.finished) {
+                unfinished.add(unit.workUnit);
+            }
+        }
+        return unfinished;
+    }
+
+    /**
+     * Units acknowledged as incomplete: the node's scan was cut off.
+     */
+    public synchronized List<WorkUnit> getCutOff() {
+        List<WorkUnit> cutOff = new ArrayList<>();
+        for (UnitProgress unit : units.values()) {
+            if (unit.acknowledged && !unit.complete) {
+                cutOff.add(unit.workUnit);
+            }
+        }
+        return cutOff;
+    }
+
+    /**
+     * Number of units finished by each node.
+     */
+    public synchronized Map<String, Integer> getUnitsByNode() {
+        Map<String, Integer> byNode = new LinkedHashMap<>();
+        for (UnitProgress unit : units.values()) {
+            if (unit.node != null) {
+                Integer count = byNode.get(unit.node);
+                byNode.put(unit.node, count == null ? 1 : count + 1);
+            }
+        }
+        return byNode;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DistributedScan{" + scanId + ": " + unitsFinished + "/" + units.size() + " units finished, " +
+               unitsCutOff + " cut off, " + resultsReceived + " results received}";
+    }
+
+
+    private static final class UnitProgress {
+        final WorkUnit workUnit;
+        boolean acknowledged;
+        boolean complete;
+        boolean finished;
+        String delivery;
+        long resultsSent;
+        // By delivery: results of deliveries that weren't acknowledged don't count
+        final Map<String, Long> resultsReceived = new HashMap<>(2);
+        String node;
+
+        UnitProgress(WorkUnit workUnit) {
+            this.workUnit = workUnit;
+        }
+    }
+}
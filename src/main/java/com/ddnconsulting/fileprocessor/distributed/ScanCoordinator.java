@@ -0,0 +1,231 @@
+package com.ddnconsulting.fileprocessor.distributed;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.BytesMessage;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+
+import com.ddnconsulting.fileprocessor.resultshandlers.BatchResultsHandler;
+import com.ddnconsulting.fileprocessor.resultshandlers.JmsResultsHandler;
+import com.ddnconsulting.fileprocessor.resultshandlers.ResultsCodec;
+import com.ddnconsulting.fileprocessor.resultshandlers.ResultsHandler;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jms.JmsException;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.core.MessageCreator;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+
+
+/**
+ * Coordinates a scan spread over several machines.  The directory to scan is split into work units, one for each
+ * directory directly under it (scanned with everything below it) and one for the directory itself and the files
+ * directly in it.  Units are sent to the work queue, where each is taken by one {@link ScanNode}.  Nodes send
+ * results back in batches (in {@link JmsResultsHandler}'s format) and acknowledge each unit when done; the coordinator
+ * passes the results to its results handler and waits for every unit to be finished.  A unit whose node's scan was
+ * cut off (by the node's total timeout) is not sent again, which would most likely be cut off the same way: the scan
+ * is reported as incomplete instead.
+ *
+ * Nodes take units from the queue in a transaction, which is only committed once the unit is done, so units taken by a
+ * node that dies are given to another node.
+ *
+ * A scan that does not finish within its timeout leaves nothing behind for nodes to pick up later, with nobody
+ * listening for what they send back: its units are sent to live no longer than the timeout, and those still on the
+ * work queue when it passes are taken off it.
+ *
+ * Nodes must see the directory under the same path as the coordinator (e.g. the same share mounted in the same place).
+ *
+ * @author Dan Nathanson
+ */
+public class ScanCoordinator {
+    private static final Logger LOG = LoggerFactory.getLogger(ScanCoordinator.class);
+    // How long to wait for another unit when taking a timed out scan's units off the work queue
+    private static final long WITHDRAW_RECEIVE_TIMEOUT_MILLIS = 500;
+
+    private final ConnectionFactory connectionFactory;
+    private final ResultsCodec codec;
+    private final String workQueue;
+    private final String resultsQueue;
+    private final String ackQueue;
+
+    public ScanCoordinator(ConnectionFactory connectionFactory, ResultsCodec codec, String workQueue,
+                           String resultsQueue, String ackQueue) {
+        this.connectionFactory = connectionFactory;
+        this.codec = codec;
+        this.workQueue = workQueue;
+        this.resultsQueue = resultsQueue;
+        this.ackQueue = ackQueue;
+    }
+
+    /**
+     * Sends work units for directory to nodes and passes the results they send back to resultsHandler, blocking until
+     * every unit is finished or timeout passes.  Units are sent to expire with the timeout, and any left on the work
+     * queue when it passes are withdrawn.
+     *
+     * @param timeout how long to wait; 0 waits however long it takes
+     * @return the scan, with which units finished and whether they were scanned in full
+     */
+    public DistributedScan coordinate(String directory, List<String> operations, final ResultsHandler resultsHandler,
+                                      long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        String scanId = UUID.randomUUID().toString();
+        List<WorkUnit> units = split(scanId, directory, operations);
+        final DistributedScan scan = new DistributedScan(scanId, units);
+        String selector = WorkUnit.SCAN_ID_PROPERTY + " = '" + scanId + "'";
+
+        DefaultMessageListenerContainer resultsListener = listen(resultsQueue, selector, new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                receiveResults(message, scan, resultsHandler);
+            }
+        });
+        DefaultMessageListenerContainer ackListener = listen(ackQueue, selector, new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                receiveAck(message, scan);
+            }
+        });
+
+        boolean timedOut = false;
+        try {
+            JmsTemplate jmsTemplate = new JmsTemplate(connectionFactory);
+            if (timeout > 0) {
+                // Not worth scanning once nobody is waiting for the results
+                jmsTemplate.setExplicitQosEnabled(true);
+                jmsTemplate.setTimeToLive(unit.toMillis(timeout));
+            }
+            for (final WorkUnit workUnit : units) {
+                jmsTemplate.send(workQueue, new MessageCreator() {
+                    @Override
+                    public Message createMessage(Session session) throws JMSException {
+                        return workUnit.toMessage(session);
+                    }
+                });
+            }
+            LOG.info("Sent " + units.size() + " work units for " + directory + " (scan " + scanId + ")");
+
+            if (!scan.awaitCompletion(timeout, unit)) {
+                LOG.warn("Distributed scan did not finish within " + timeout + " " + unit + ". Unfinished: " +
+                         scan.getUnfinished());
+                timedOut = true;
+            }
+        }
+        finally {
+            resultsListener.shutdown();
+            ackListener.shutdown();
+        }
+
+        if (timedOut) {
+            withdraw(scanId, selector);
+        }
+
+        if (!scan.getCutOff().isEmpty()) {
+            LOG.warn("Units whose scans were cut off by their nodes: " + scan.getCutOff());
+        }
+        LOG.info("Distributed scan " + (scan.isComplete() ? "complete" : "incomplete") + ": " + scan +
+                 ". Units by node: " + scan.getUnitsByNode());
+        return scan;
+    }
+
+    /**
+     * One unit for the top directory (not walking below it) and one for each directory directly under it.
+     */
+    List<WorkUnit> split(String scanId, String directory, List<String> operations) throws IOException {
+        List<WorkUnit> units = new ArrayList<>();
+        units.add(new WorkUnit(scanId, "0", directory, operations, false));
+        Path root = Paths.get(directory);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+            for (Path child : stream) {
+                if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                    units.add(new WorkUnit(scanId, Integer.toString(units.size()), child.toString(), operations,
+                                           true));
+                }
+            }
+        }
+        return units;
+    }
+
+    /**
+     * Takes the units of a scan that timed out off the work queue, so no node scans them for nobody.  Units nodes are
+     * already scanning are left to finish.
+     */
+    private void withdraw(String scanId, String selector) {
+        JmsTemplate jmsTemplate = new JmsTemplate(connectionFactory);
+        jmsTemplate.setReceiveTimeout(WITHDRAW_RECEIVE_TIMEOUT_MILLIS);
+        int withdrawn = 0;
+        try {
+            while (jmsTemplate.receiveSelected(workQueue, selector) != null) {
+                withdrawn++;
+            }
+        }
+        catch (JmsException e) {
+            LOG.error("Error withdrawing work units of scan " + scanId + " (" + withdrawn + " withdrawn)", e);
+            return;
+        }
+        if (withdrawn > 0) {
+            LOG.info("Withdrew " + withdrawn + " unstarted work units of scan " + scanId);
+        }
+    }
+
+    private DefaultMessageListenerContainer listen(String queue, String selector, MessageListener listener) {
+        DefaultMessageListenerContainer container = new DefaultMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.setDestinationName(queue);
+        container.setMessageSelector(selector);
+        container.setMessageListener(listener);
+        container.afterPropertiesSet();
+        container.start();
+        return container;
+    }
+
+    private void receiveResults(Message message, DistributedScan scan, ResultsHandler resultsHandler) {
+        try {
+            List<FileWorkerResults> results = JmsResultsHandler.readResults((BytesMessage) message, codec);
+            if (resultsHandler instanceof BatchResultsHandler) {
+                ((BatchResultsHandler) resultsHandler).handleBatch(results);
+            }
+            else {
+                for (FileWorkerResults result : results) {
+                    resultsHandler.handleResults(result);
+                }
+            }
+            scan.resultsReceived(message.getStringProperty(WorkUnit.UNIT_ID_PROPERTY),
+                                 message.getStringProperty(ScanNode.DELIVERY_PROPERTY), results.size());
+        }
+        catch (JMSException | IOException | RuntimeException e) {
+            LOG.error("Error reading results from " + message, e);
+        }
+    }
+
+    private void receiveAck(Message message, DistributedScan scan) {
+        try {
+            // Nodes that don't say are taken to have scanned the whole unit
+            boolean complete = !message.propertyExists(ScanNode.COMPLETE_PROPERTY) ||
+                               message.getBooleanProperty(ScanNode.COMPLETE_PROPERTY);
+            scan.acknowledged(message.getStringProperty(WorkUnit.UNIT_ID_PROPERTY),
+                              message.getStringProperty(ScanNode.DELIVERY_PROPERTY),
+                              message.getLongProperty(ScanNode.RESULTS_SENT_PROPERTY), complete,
+                              message.getStringProperty(ScanNode.NODE_PROPERTY));
+            if (!complete) {
+                LOG.warn("Scan of unit " + message.getStringProperty(WorkUnit.UNIT_ID_PROPERTY) + " was cut off by " +
+                         message.getStringProperty(ScanNode.NODE_PROPERTY) + ": its results are incomplete");
+            }
+        }
+        catch (JMSException e) {
+            LOG.error("Error reading acknowledgement " + message, e);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.ddnconsulting.fileprocessor.distributed;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import com.ddnconsulting.fileprocessor.core.FileProcessor;
+import com.ddnconsulting.fileprocessor.core.ScanJob;
+import com.ddnconsulting.fileprocessor.core.ScanOptions;
+import com.ddnconsulting.fileprocessor.resultshandlers.JmsResultsHandler;
+import com.ddnconsulting.fileprocessor.resultshandlers.ResultsCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+import org.springframework.jms.listener.SessionAwareMessageListener;
+import org.springframework.jms.listener.adapter.ListenerExecutionFailedException;
+
+
+/**
+ * Processes work units sent by a {@link ScanCoordinator}, one at a time, each with a local scan by the FileProcessor.
+ * Results are sent to the results queue as the scan goes; when the scan is finished the unit is acknowledged on the
+ * acknowledgement queue with the number of results sent.
+ *
+ * Units are taken from the work queue in a transaction that also sends the acknowledgement, so a unit is only removed
+ * from the queue once it is done.  If the node dies (or the scan fails) part way through, the transaction is rolled
+ * back and the broker gives the unit to another node.  Only one unit is fetched from the broker at a time, so units
+ * aren't held by a node that is busy.
+ *
+ * @author Dan Nathanson
+ */
+public class ScanNode implements SessionAwareMessageListener<Message>, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(ScanNode.class);
+
+    // Acknowledgement message properties
+    static final String RESULTS_SENT_PROPERTY = "resultsSent";
+    static final String FILES_PROPERTY = "filesDiscovered";
+    static final String COMPLETE_PROPERTY = "complete";
+    static final String NODE_PROPERTY = "node";
+    // Results and acknowledgement message property: id of this delivery of the unit
+    static final String DELIVERY_PROPERTY = "delivery";
+
+    private final FileProcessor fileProcessor;
+    private final ConnectionFactory connectionFactory;
+    private final ResultsCodec codec;
+    private final String workQueue;
+    private final String resultsQueue;
+    private final String ackQueue;
+    private final int resultsBatchSize;
+    private String name = ManagementFactory.getRuntimeMXBean().getName();
+    private DefaultMessageListenerContainer container;
+    private volatile int unitsProcessed;
+
+    public ScanNode(FileProcessor fileProcessor, ConnectionFactory connectionFactory, ResultsCodec codec,
+                    String workQueue, String resultsQueue, String ackQueue, int resultsBatchSize) {
+        this.fileProcessor = fileProcessor;
+        this.connectionFactory = connectionFactory;
+        this.codec = codec;
+        this.workQueue = workQueue;
+        this.resultsQueue = resultsQueue;
+        this.ackQueue = ackQueue;
+        this.resultsBatchSize = resultsBatchSize;
+    }
+
+    /**
+     * Starts taking units from the work queue.  Returns immediately; units are processed on the listener's thread.
+     */
+    public synchronized void start() {
+        container = new DefaultMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        // Fetch one unit at a time (ActiveMQ destination option)
+        container.setDestinationName(workQueue + "?consumer.prefetchSize=1");
+        container.setSessionTransacted(true);
+        container.setMessageListener(this);
+        container.afterPropertiesSet();
+        container.start();
+        LOG.info("Node " + name + " waiting for work on " + workQueue);
+    }
+
+    /**
+     * Stops taking units, waiting for the current one to finish.
+     */
+    @Override
+    public synchronized void close() {
+        if (container != null) {
+            container.shutdown();
+            container = null;
+        }
+    }
+
+    /**
+     * Scans the unit's directory and acknowledges it.  Throwing rolls the transaction back, so the unit is delivered
+     * again.
+     */
+    @Override
+    public void onMessage(Message message, Session session) throws JMSException {
+        WorkUnit unit = WorkUnit.fromMessage(message);
+        LOG.info("Processing " + unit + (message.getJMSRedelivered() ? " (redelivered)" : ""));
+
+        // Results of an earlier delivery (by a node that died) are told apart from this one's
+        String delivery = UUID.randomUUID().toString();
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put(WorkUnit.SCAN_ID_PROPERTY, unit.getScanId());
+        properties.put(WorkUnit.UNIT_ID_PROPERTY, unit.getUnitId());
+        properties.put(DELIVERY_PROPERTY, delivery);
+        JmsResultsHandler resultsHandler = new JmsResultsHandler(connectionFactory, resultsQueue, codec,
+                                                                 resultsBatchSize);
+        resultsHandler.setMessageProperties(properties);
+
+        ScanOptions options = new ScanOptions();
+        options.setSubdirectories(unit.isSubdirectories());
+        options.setResultsHandler(resultsHandler);
+
+        ScanJob scanJob;
+        try {
+            scanJob = fileProcessor.processFiles(unit.getDirectory(), unit.getOperations(), options);
+            resultsHandler.close();
+        }
+        catch (IOException e) {
+            throw failure("Scan of " + unit + " failed", e);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw failure("Interrupted while processing " + unit, e);
+        }
+        if (resultsHandler.getFailedBatches() > 0) {
+            throw failure("Failed to send results for " + unit, null);
+        }
+
+        Message ack = session.createMessage();
+        ack.setStringProperty(WorkUnit.SCAN_ID_PROPERTY, unit.getScanId());
+        ack.setStringProperty(WorkUnit.UNIT_ID_PROPERTY, unit.getUnitId());
+        ack.setStringProperty(DELIVERY_PROPERTY, delivery);
+        ack.setLongProperty(RESULTS_SENT_PROPERTY, resultsHandler.getResultsSent());
+        ack.setLongProperty(FILES_PROPERTY, scanJob.getFilesDiscovered());
+        ack.setBooleanProperty(COMPLETE_PROPERTY, !scanJob.isCancelled());
+        ack.setStringProperty(NODE_PROPERTY, name);
+        MessageProducer producer = session.createProducer(session.createQueue(ackQueue));
+        try {
+            producer.send(ack);
+        }
+        finally {
+            producer.close();
+        }
+        unitsProcessed++;
+    }
+
+    /**
+     * Failure of the unit itself (rather than of the connection to the broker), so the listener rolls back without
+     * reconnecting.
+     */
+    private static ListenerExecutionFailedException failure(String reason, Exception cause) {
+        return new ListenerExecutionFailedException(reason, cause);
+    }
+
+    /**
+     * Name sent with acknowledgements.  Defaults to the JVM's name (pid@host).
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public int getUnitsProcessed() {
+        return unitsProcessed;
+    }
+}
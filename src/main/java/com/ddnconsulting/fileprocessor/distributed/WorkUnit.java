@@ -0,0 +1,93 @@
+package com.ddnconsulting.fileprocessor.distributed;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.apache.commons.lang.StringUtils;
+
+
+/**
+ * A directory for a node to scan, as part of a distributed scan.  Sent to nodes as a TextMessage holding the
+ * directory, with everything else in message properties.
+ *
+ * @author Dan Nathanson
+ */
+public class WorkUnit {
+    // Message properties, also set on results and acknowledgement messages from nodes
+    public static final String SCAN_ID_PROPERTY = "scanId";
+    public static final String UNIT_ID_PROPERTY = "unitId";
+    static final String OPERATIONS_PROPERTY = "operations";
+    static final String SUBDIRECTORIES_PROPERTY = "subdirectories";
+
+    private final String scanId;
+    private final String unitId;
+    private final String directory;
+    private final List<String> operations;
+    private final boolean subdirectories;
+
+    /**
+     * @param scanId distributed scan this unit is part of
+     * @param unitId id of unit, unique within the scan
+     * @param directory directory to scan, as nodes see it
+     * @param operations operations to perform
+     * @param subdirectories whether to walk below directory, or only process it and the files directly in it
+     */
+    public WorkUnit(String scanId, String unitId, String directory, List<String> operations,
+                    boolean subdirectories) {
+        this.scanId = scanId;
+        this.unitId = unitId;
+        this.directory = directory;
+        this.operations = Collections.unmodifiableList(operations);
+        this.subdirectories = subdirectories;
+    }
+
+    Message toMessage(Session session) throws JMSException {
+        TextMessage message = session.createTextMessage(directory);
+        message.setStringProperty(SCAN_ID_PROPERTY, scanId);
+        message.setStringProperty(UNIT_ID_PROPERTY, unitId);
+        message.setStringProperty(OPERATIONS_PROPERTY, StringUtils.join(operations, ','));
+        message.setBooleanProperty(SUBDIRECTORIES_PROPERTY, subdirectories);
+        return message;
+    }
+
+    static WorkUnit fromMessage(Message message) throws JMSException {
+        if (!(message instanceof TextMessage)) {
+            throw new JMSException("Not a work unit: " + message);
+        }
+        String operations = message.getStringProperty(OPERATIONS_PROPERTY);
+        return new WorkUnit(message.getStringProperty(SCAN_ID_PROPERTY), message.getStringProperty(UNIT_ID_PROPERTY),
+                            ((TextMessage) message).getText(), Arrays.asList(StringUtils.split(operations, ',')),
+                            message.getBooleanProperty(SUBDIRECTORIES_PROPERTY));
+    }
+
+    public String getScanId() {
+        return scanId;
+    }
+
+    public String getUnitId() {
+        return unitId;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public List<String> getOperations() {
+        return operations;
+    }
+
+    public boolean isSubdirectories() {
+        return subdirectories;
+    }
+
+    @Override
+    public String toString() {
+        return "WorkUnit{" + unitId + ": " + directory + (subdirectories ? "" : " (no subdirectories)") + "}";
+    }
+}
@@ -0,0 +1,235 @@
+package com.ddnconsulting.fileprocessor.hash;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+
+import com.ddnconsulting.fileprocessor.core.FileContent;
+
+
+/**
+ * Computes the SHA-256 and xxHash64 of a file's contents, reading it the way that suits its size:
+ * <ul>
+ *     <li>files held in a single buffer by {@link FileContent} (read into memory if small, mapped whole otherwise) are
+ *     hashed straight from that buffer, shared with any other worker reading the file</li>
+ *     <li>files too big to buffer whole (over 2 GB) are hashed through mapped windows of chunkSize bytes, one after
+ *     another</li>
+ *     <li>files bigger than parallelThreshold are split into ranges of chunkSize bytes, hashed in parallel on the
+ *     hasher's own pool and combined into a tree hash: the SHA-256 of the ranges' SHA-256s, in order, and the xxHash64
+ *     of the ranges' xxHash64s (8 bytes each, little-endian)</li>
+ * </ul>
+ * Either way, the content is fed to both hashes a slice (1 MB) at a time, so it is read from memory once.  Tree
+ * hashes aren't the same as hashes of the whole file (as from sha256sum), so {@link Hashes} records the chunk size.
+ *
+ * Each thread keeps its own MessageDigest and XxHash64, reset for each file, so nothing is allocated per file.
+ * Hashing stops with an InterruptedIOException if the thread is interrupted (e.g. by the task watchdog).
+ *
+ * Thread-safe.
+ *
+ * @author Dan Nathanson
+ */
+public class ContentHasher implements Closeable {
+    private static final int SLICE_SIZE = 1024 * 1024;
+
+    private final long parallelThreshold;
+    private final int chunkSize;
+    private final int parallelism;
+    private final ThreadLocal<Hashers> hashers = new ThreadLocal<Hashers>() {
+        @Override
+        protected Hashers initialValue() {
+            return new Hashers();
+        }
+    };
+    private ForkJoinPool pool;
+
+    /**
+     * @param parallelThreshold files bigger than this (bytes) are hashed in ranges, in parallel
+     * @param chunkSize size of ranges (and of mapped windows)
+     * @param parallelism threads hashing ranges of big files.  0 for one per processor.
+     */
+    public ContentHasher(long parallelThreshold, int chunkSize, int parallelism) {
+        if (chunkSize < SLICE_SIZE) {
+            throw new IllegalArgumentException("Chunk size must be at least " + SLICE_SIZE + ": " + chunkSize);
+        }
+        this.parallelThreshold = parallelThreshold;
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Hashes the whole of content.
+     */
+    public Hashes hash(FileContent content) throws IOException {
+        if (content.size() > parallelThreshold && content.size() > chunkSize) {
+            return hashTree(content);
+        }
+
+        Hashers mine = hashers.get();
+        mine.reset();
+        if (content.isBuffered()) {
+            mine.update(content.getBuffer());
+        }
+        else {
+            for (long position = 0; position < content.size(); position += chunkSize) {
+                mine.update(content.getBuffer(position, (int) Math.min(chunkSize, content.size() - position)));
+            }
+        }
+        return mine.getHashes(0);
+    }
+
+    /**
+     * Hashes bytes (from position to limit), e.g. part of a file.
+     */
+    public Hashes hash(ByteBuffer bytes) throws IOException {
+        Hashers mine = hashers.get();
+        mine.reset();
+        mine.update(bytes.duplicate());
+        return mine.getHashes(0);
+    }
+
+    private Hashes hashTree(final FileContent content) throws IOException {
+        List<Callable<Hashes>> ranges = new ArrayList<>();
+        for (long start = 0; start < content.size(); start += chunkSize) {
+            final long position = start;
+            final int length = (int) Math.min(chunkSize, content.size() - start);
+            ranges.add(new Callable<Hashes>() {
+                @Override
+                public Hashes call() throws IOException {
+                    return hash(content.getBuffer(position, length));
+                }
+            });
+        }
+
+        List<Future<Hashes>> hashed;
+        try {
+            hashed = getPool().invokeAll(ranges);
+        }
+        catch (RuntimeException e) {
+            throw new IOException("Could not hash ranges in parallel", e);
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            cancel(hashed);
+            throw new InterruptedIOException("Interrupted while hashing");
+        }
+
+        Hashers mine = hashers.get();
+        mine.reset();
+        ByteBuffer xxHash = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            for (Future<Hashes> range : hashed) {
+                Hashes hashes = range.get();
+                mine.sha256.update(hashes.getSha256());
+                xxHash.clear();
+                xxHash.putLong(hashes.getXxHash64()).flip();
+                mine.xxHash64.update(xxHash);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel(hashed);
+            throw new InterruptedIOException("Interrupted while hashing");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException("Could not hash range", cause);
+        }
+        return mine.getHashes(chunkSize);
+    }
+
+    private static void cancel(List<Future<Hashes>> hashed) {
+        for (Future<Hashes> range : hashed) {
+            range.cancel(true);
+        }
+    }
+
+    private synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism, new HasherThreadFactory(), null, false);
+        }
+        return pool;
+    }
+
+    /**
+     * Stops the threads hashing ranges, if any were started.
+     */
+    @Override
+    public synchronized void close() {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+
+    public long getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+
+    /**
+     * A thread's hashes, reused from one file to the next.
+     */
+    private static final class Hashers {
+        private final MessageDigest sha256;
+        private final XxHash64 xxHash64 = new XxHash64();
+
+        Hashers() {
+            try {
+                sha256 = MessageDigest.getInstance("SHA-256");
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 not available", e);
+            }
+        }
+
+        void reset() {
+            sha256.reset();
+            xxHash64.reset();
+        }
+
+        /**
+         * Feeds bytes to both hashes a slice at a time, while each slice is in cache.
+         */
+        void update(ByteBuffer bytes) throws InterruptedIOException {
+            int end = bytes.limit();
+            for (int position = bytes.position(); position < end; position += SLICE_SIZE) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Interrupted while hashing");
+                }
+                ByteBuffer slice = bytes.duplicate();
+                slice.position(position);
+                slice.limit(Math.min(end, position + SLICE_SIZE));
+                xxHash64.update(slice.duplicate());
+                sha256.update(slice);
+            }
+        }
+
+        Hashes getHashes(int chunkSize) {
+            return new Hashes(sha256.digest(), xxHash64.getValue(), chunkSize);
+        }
+    }
+
+    private static final class HasherThreadFactory implements ForkJoinWorkerThreadFactory {
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("Hasher-" + thread.getPoolIndex());
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.ddnconsulting.fileprocessor.hash;
+
+import java.util.Arrays;
+
+import com.google.common.io.BaseEncoding;
+
+
+/**
+ * SHA-256 and xxHash64 of some content, as computed by {@link ContentHasher}.
+ *
+ * @author Dan Nathanson
+ */
+public final class Hashes {
+    private final byte[] sha256;
+    private final long xxHash64;
+    private final int chunkSize;
+
+    /**
+     * @param chunkSize size of the ranges combined into a tree hash, or 0 if the hashes are of the whole content
+     */
+    public Hashes(byte[] sha256, long xxHash64, int chunkSize) {
+        this.sha256 = sha256;
+        this.xxHash64 = xxHash64;
+        this.chunkSize = chunkSize;
+    }
+
+    public byte[] getSha256() {
+        return sha256.clone();
+    }
+
+    /**
+     * SHA-256 as lower case hex.
+     */
+    public String getSha256Hex() {
+        return BaseEncoding.base16().lowerCase().encode(sha256);
+    }
+
+    public long getXxHash64() {
+        return xxHash64;
+    }
+
+    /**
+     * xxHash64 as 16 lower case hex digits.
+     */
+    public String getXxHash64Hex() {
+        return String.format("%016x", xxHash64);
+    }
+
+    /**
+     * Size of the ranges hashed separately and combined into a tree hash, or 0 if the hashes are of the whole content
+     * (and so match what sha256sum and xxhsum report).
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Hashes)) {
+            return false;
+        }
+        Hashes other = (Hashes) o;
+        return xxHash64 == other.xxHash64 && chunkSize == other.chunkSize && Arrays.equals(sha256, other.sha256);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (xxHash64 ^ (xxHash64 >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "sha256=" + getSha256Hex() + ", xxhash64=" + getXxHash64Hex() +
+               (chunkSize > 0 ? ", tree of " + chunkSize + " byte chunks" : "");
+    }
+}
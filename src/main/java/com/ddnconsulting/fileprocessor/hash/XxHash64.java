@@ -0,0 +1,156 @@
+package com.ddnconsulting.fileprocessor.hash;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+
+/**
+ * Streaming xxHash64: a fast non-cryptographic 64-bit hash (several GB/s on one core, so it keeps up with NVMe
+ * disks where SHA-256 can't).  Good for telling files apart and spotting changes, not for resisting deliberate
+ * collisions.  Gives the same values as the reference implementation.
+ *
+ * Reads buffers with absolute little-endian getLong calls, so heap, direct and mapped buffers are all read in place.
+ *
+ * Not thread-safe.  Reusable after {@link #reset()}.
+ *
+ * @author Dan Nathanson
+ */
+public final class XxHash64 {
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+    private static final int STRIPE = 32;
+
+    private final long seed;
+    private final ByteBuffer pending = ByteBuffer.allocate(STRIPE).order(ByteOrder.LITTLE_ENDIAN);
+    private long v1;
+    private long v2;
+    private long v3;
+    private long v4;
+    private long length;
+
+    public XxHash64() {
+        this(0);
+    }
+
+    public XxHash64(long seed) {
+        this.seed = seed;
+        reset();
+    }
+
+    /**
+     * Hashes bytes in one go.
+     */
+    public static long hash(ByteBuffer bytes) {
+        XxHash64 hash = new XxHash64();
+        hash.update(bytes);
+        return hash.getValue();
+    }
+
+    public void reset() {
+        v1 = seed + PRIME1 + PRIME2;
+        v2 = seed + PRIME2;
+        v3 = seed;
+        v4 = seed - PRIME1;
+        length = 0;
+        pending.clear();
+    }
+
+    /**
+     * Adds the remaining bytes of data, leaving data's position at its limit.
+     */
+    public void update(ByteBuffer data) {
+        ByteBuffer in = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        data.position(data.limit());
+        length += in.remaining();
+
+        if (pending.position() > 0) {
+            int count = Math.min(pending.remaining(), in.remaining());
+            int limit = in.limit();
+            in.limit(in.position() + count);
+            pending.put(in);
+            in.limit(limit);
+            if (pending.hasRemaining()) {
+                return;
+            }
+            stripe(pending, 0);
+            pending.clear();
+        }
+
+        int position = in.position();
+        int end = in.limit() - STRIPE;
+        while (position <= end) {
+            stripe(in, position);
+            position += STRIPE;
+        }
+        in.position(position);
+        pending.put(in);
+    }
+
+    public void update(byte[] bytes, int offset, int count) {
+        update(ByteBuffer.wrap(bytes, offset, count));
+    }
+
+    private void stripe(ByteBuffer in, int position) {
+        v1 = round(v1, in.getLong(position));
+        v2 = round(v2, in.getLong(position + 8));
+        v3 = round(v3, in.getLong(position + 16));
+        v4 = round(v4, in.getLong(position + 24));
+    }
+
+    /**
+     * Hash of everything added since the last reset.  Can go on adding afterwards.
+     */
+    public long getValue() {
+        long hash;
+        if (length >= STRIPE) {
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = merge(hash, v1);
+            hash = merge(hash, v2);
+            hash = merge(hash, v3);
+            hash = merge(hash, v4);
+        }
+        else {
+            hash = seed + PRIME5;
+        }
+        hash += length;
+
+        int end = pending.position();
+        int position = 0;
+        while (position + 8 <= end) {
+            hash ^= round(0, pending.getLong(position));
+            hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+            position += 8;
+        }
+        if (position + 4 <= end) {
+            hash ^= (pending.getInt(position) & 0xFFFFFFFFL) * PRIME1;
+            hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+            position += 4;
+        }
+        while (position < end) {
+            hash ^= (pending.get(position) & 0xFF) * PRIME5;
+            hash = Long.rotateLeft(hash, 11) * PRIME1;
+            position++;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= PRIME2;
+        hash ^= hash >>> 29;
+        hash *= PRIME3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    private static long round(long accumulator, long input) {
+        accumulator += input * PRIME2;
+        accumulator = Long.rotateLeft(accumulator, 31);
+        return accumulator * PRIME1;
+    }
+
+    private static long merge(long hash, long accumulator) {
+        hash ^= round(0, accumulator);
+        return hash * PRIME1 + PRIME4;
+    }
+}
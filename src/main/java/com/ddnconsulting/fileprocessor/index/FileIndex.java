@@ -0,0 +1,225 @@
+package com.ddnconsulting.fileprocessor.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Read-only, memory-mapped file index written by {@link FileIndexWriter}.  Nothing is read up front: entries are
+ * decoded from the mapped file when asked for, so opening an index with tens of millions of entries is cheap and only
+ * the pages actually touched are read from disk.
+ *
+ * File layout (all numbers big-endian):
+ * <pre>
+ *   header    int magic, int version, int segment size, int reserved, long entry count, long offsets position
+ *   records   one per file, sorted by path (UTF-8 bytes, unsigned):
+ *               int length of rest of record
+ *               string path, long size, long last modified (ms), string file key, string type,
+ *               short number of results, then for each: string worker class, int length, encoded results
+ *   offsets   long position of each record, in the same order as the records
+ * </pre>
+ * Strings are a short byte count (-1 for null) followed by UTF-8 bytes.
+ *
+ * The file is mapped in segments (1 GB unless written otherwise) since a single mapping can't exceed 2 GB.  The writer
+ * pads so that no record or offset crosses a segment boundary.  Lookups by path are binary searches of the offsets.
+ *
+ * Thread-safe.
+ *
+ * @author Dan Nathanson
+ */
+public class FileIndex implements Closeable {
+    static final int MAGIC = 0x46504958; // "FPIX"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+    private final FileChannel channel;
+    private final ByteBuffer[] segments;
+    private final int segmentSize;
+    private final long entryCount;
+    private final long offsetsPosition;
+
+    private FileIndex(FileChannel channel, ByteBuffer[] segments, int segmentSize, long entryCount,
+                      long offsetsPosition) {
+        this.channel = channel;
+        this.segments = segments;
+        this.segmentSize = segmentSize;
+        this.entryCount = entryCount;
+        this.offsetsPosition = offsetsPosition;
+    }
+
+    /**
+     * Opens and maps an index file.
+     *
+     * @throws IOException if file can't be read or is not an index written by this version
+     */
+    public static FileIndex open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE) {
+                throw new IOException("Not a file index (too short): " + file);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // keep reading
+            }
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a file index: " + file);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported file index version " + version + ": " + file);
+            }
+            int segmentSize = header.getInt();
+            header.getInt();
+            long entryCount = header.getLong();
+            long offsetsPosition = header.getLong();
+            if (segmentSize < HEADER_SIZE || segmentSize % 8 != 0 ||
+                offsetsPosition + entryCount * 8 > fileSize) {
+                throw new IOException("Corrupt file index: " + file);
+            }
+
+            ByteBuffer[] segments = new ByteBuffer[(int) ((fileSize + segmentSize - 1) / segmentSize)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = (long) i * segmentSize;
+                segments[i] = channel.map(MapMode.READ_ONLY, start, Math.min(segmentSize, fileSize - start));
+            }
+            return new FileIndex(channel, segments, segmentSize, entryCount, offsetsPosition);
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Number of files in the index.
+     */
+    public long size() {
+        return entryCount;
+    }
+
+    /**
+     * Returns the entry at position i, in path order.  Reading entries 0 to size() - 1 in turn reads the file
+     * sequentially.
+     */
+    public IndexEntry get(long i) {
+        if (i < 0 || i >= entryCount) {
+            throw new IndexOutOfBoundsException("Entry " + i + " of " + entryCount);
+        }
+        return readEntry(recordPosition(i), i);
+    }
+
+    /**
+     * Returns the entry for path, or null if path is not in the index.
+     */
+    public IndexEntry get(String path) {
+        long i = indexOf(path);
+        return i < 0 ? null : get(i);
+    }
+
+    /**
+     * Returns the position of path's entry, in path order, or -1 if path is not in the index.
+     */
+    public long indexOf(String path) {
+        byte[] key = path.getBytes(StandardCharsets.UTF_8);
+        long low = 0;
+        long high = entryCount - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            long position = recordPosition(mid);
+            int comparison = comparePath(position, key);
+            if (comparison < 0) {
+                low = mid + 1;
+            }
+            else if (comparison > 0) {
+                high = mid - 1;
+            }
+            else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private long recordPosition(long i) {
+        long position = offsetsPosition + i * 8;
+        return segments[(int) (position / segmentSize)].getLong((int) (position % segmentSize));
+    }
+
+    /**
+     * Returns buffer positioned at start of record (after its length).
+     */
+    private ByteBuffer record(long position) {
+        ByteBuffer buffer = segments[(int) (position / segmentSize)].duplicate();
+        int start = (int) (position % segmentSize);
+        int length = buffer.getInt(start);
+        buffer.position(start + 4);
+        buffer.limit(start + 4 + length);
+        return buffer;
+    }
+
+    /**
+     * Compares path of record with key, byte by byte, without decoding the record.
+     */
+    private int comparePath(long position, byte[] key) {
+        ByteBuffer buffer = record(position);
+        int length = buffer.getShort();
+        int start = buffer.position();
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (buffer.get(start + i) & 0xff) - (key[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - key.length;
+    }
+
+    private IndexEntry readEntry(long position, long index) {
+        ByteBuffer buffer = record(position);
+        String path = readString(buffer);
+        long size = buffer.getLong();
+        long lastModified = buffer.getLong();
+        String fileKey = readString(buffer);
+        String type = readString(buffer);
+        int resultCount = buffer.getShort();
+        Map<String, byte[]> results = new HashMap<>(resultCount * 2);
+        for (int i = 0; i < resultCount; i++) {
+            String worker = readString(buffer);
+            byte[] encoded = new byte[buffer.getInt()];
+            buffer.get(encoded);
+            results.put(worker, encoded);
+        }
+        return new IndexEntry(path, size, lastModified, fileKey, type, Collections.unmodifiableMap(results), index);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Closes the file.  The mapped segments are released when garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
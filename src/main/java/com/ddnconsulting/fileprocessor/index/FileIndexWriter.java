@@ -0,0 +1,301 @@
+package com.ddnconsulting.fileprocessor.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+
+
+/**
+ * Writes a {@link FileIndex} file.  Entries are sorted by path and written in one sequential pass.  See FileIndex for
+ * the layout.
+ *
+ * {@link #open} writes entries one at a time, already in path order, without holding them: record offsets are kept in
+ * a temporary file next to the index until the records have all been written, so an index of any size can be written
+ * in a fixed amount of memory.
+ *
+ * @author Dan Nathanson
+ */
+public class FileIndexWriter {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final int segmentSize;
+
+    public FileIndexWriter() {
+        this(FileIndex.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * For tests: a small segment size exercises segment boundaries without writing gigabytes.
+     */
+    FileIndexWriter(int segmentSize) {
+        if (segmentSize < FileIndex.HEADER_SIZE || segmentSize % 8 != 0) {
+            throw new IllegalArgumentException("Segment size must be a multiple of 8 of at least " +
+                                               FileIndex.HEADER_SIZE + ": " + segmentSize);
+        }
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Writes entries to file, replacing anything already there.
+     *
+     * @throws IOException if file can't be written or an entry is too large to fit in a segment
+     */
+    public void write(Path file, Collection<IndexEntry> entries) throws IOException {
+        SortableEntry[] sorted = new SortableEntry[entries.size()];
+        int count = 0;
+        for (IndexEntry entry : entries) {
+            sorted[count++] = new SortableEntry(entry);
+        }
+        Arrays.sort(sorted, 0, count, SortableEntry.BY_PATH);
+
+        try (Output output = open(file)) {
+            for (int i = 0; i < count; i++) {
+                output.add(sorted[i].path, sorted[i].entry);
+            }
+            output.finish();
+        }
+    }
+
+    /**
+     * Starts writing file, replacing anything already there.  Entries are added in path order, then
+     * {@link Output#finish()} completes the index.  Closing the output without finishing leaves an incomplete file.
+     */
+    public Output open(Path file) throws IOException {
+        return new Output(file);
+    }
+
+    /**
+     * Compares paths by their UTF-8 bytes, unsigned: the order of entries in an index.
+     */
+    static int comparePaths(byte[] a, byte[] b) {
+        int common = Math.min(a.length, b.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (a[i] & 0xff) - (b[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return a.length - b.length;
+    }
+
+
+    /**
+     * An index being written, an entry at a time.
+     */
+    public final class Output implements Closeable {
+        private final FileChannel channel;
+        private final PositionedOutput output;
+        private final Path offsetsFile;
+        private final DataOutputStream offsets;
+        private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+        private final DataOutputStream record = new DataOutputStream(recordBytes);
+        private byte[] lastPath;
+        private long count;
+
+        private Output(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                       StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                output = new PositionedOutput(Channels.newOutputStream(channel));
+                output.pad(FileIndex.HEADER_SIZE);
+                offsetsFile = file.resolveSibling(file.getFileName() + ".offsets");
+                offsets = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(offsetsFile),
+                                                                        BUFFER_SIZE));
+            }
+            catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Adds entry, which must come after the last one added in path order.
+         *
+         * @throws IOException if the entry is out of order, too large to fit in a segment or can't be written
+         */
+        public void add(IndexEntry entry) throws IOException {
+            add(bytes(entry.getPath()), entry);
+        }
+
+        void add(byte[] path, IndexEntry entry) throws IOException {
+            if (lastPath != null && comparePaths(lastPath, path) >= 0) {
+                throw new IOException("Index entry out of order: " + entry.getPath());
+            }
+            lastPath = path;
+            recordBytes.reset();
+            writeRecord(record, path, entry);
+            int length = 4 + recordBytes.size();
+            if (length > segmentSize) {
+                throw new IOException("Index entry too large (" + length + " bytes): " + entry.getPath());
+            }
+            startSegmentIfNeeded(output, length);
+            offsets.writeLong(output.position);
+            output.data.writeInt(recordBytes.size());
+            recordBytes.writeTo(output.data);
+            count++;
+        }
+
+        /**
+         * Number of entries added.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Writes the offsets and header, completing the index.
+         */
+        public void finish() throws IOException {
+            offsets.close();
+
+            // Offsets are 8-byte aligned and segments are a multiple of 8, so none straddles a segment boundary
+            output.pad((int) ((8 - output.position % 8) % 8));
+            long offsetsPosition = output.position;
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(offsetsFile), BUFFER_SIZE)) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    output.write(buffer, 0, read);
+                }
+            }
+            output.data.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(FileIndex.HEADER_SIZE);
+            header.putInt(FileIndex.MAGIC)
+                    .putInt(FileIndex.VERSION)
+                    .putInt(segmentSize)
+                    .putInt(0)
+                    .putLong(count)
+                    .putLong(offsetsPosition);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(false);
+        }
+
+        /**
+         * Closes the file and removes the temporary offsets file.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                offsets.close();
+                channel.close();
+            }
+            finally {
+                Files.deleteIfExists(offsetsFile);
+            }
+        }
+    }
+
+    /**
+     * Pads to start of next segment if a record of length bytes would cross into it.
+     */
+    private void startSegmentIfNeeded(PositionedOutput output, int length) throws IOException {
+        long used = output.position % segmentSize;
+        if (used + length > segmentSize) {
+            output.pad((int) (segmentSize - used));
+        }
+    }
+
+    private static void writeRecord(DataOutputStream record, byte[] path, IndexEntry entry) throws IOException {
+        writeString(record, path);
+        record.writeLong(entry.getSize());
+        record.writeLong(entry.getLastModified());
+        writeString(record, bytes(entry.getFileKey()));
+        writeString(record, bytes(entry.getType()));
+        Map<String, byte[]> results = entry.getAllResults();
+        if (results.size() > Short.MAX_VALUE) {
+            throw new IOException("Too many results for " + entry.getPath());
+        }
+        record.writeShort(results.size());
+        for (Map.Entry<String, byte[]> result : results.entrySet()) {
+            writeString(record, bytes(result.getKey()));
+            record.writeInt(result.getValue().length);
+            record.write(result.getValue());
+        }
+    }
+
+    static byte[] bytes(String string) {
+        return string == null ? null : string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static void writeString(DataOutputStream record, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            record.writeShort(-1);
+            return;
+        }
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IOException("String too long for index (" + bytes.length + " bytes)");
+        }
+        record.writeShort(bytes.length);
+        record.write(bytes);
+    }
+
+
+    /**
+     * Entry with its path encoded once for sorting and writing.
+     */
+    private static final class SortableEntry {
+        static final Comparator<SortableEntry> BY_PATH = new Comparator<SortableEntry>() {
+            @Override
+            public int compare(SortableEntry a, SortableEntry b) {
+                return comparePaths(a.path, b.path);
+            }
+        };
+
+        final IndexEntry entry;
+        final byte[] path;
+
+        SortableEntry(IndexEntry entry) {
+            this.entry = entry;
+            this.path = bytes(entry.getPath());
+        }
+    }
+
+
+    /**
+     * Buffered output that keeps track of how much has been written (DataOutputStream's count is an int).
+     */
+    private static final class PositionedOutput extends BufferedOutputStream {
+        final DataOutputStream data = new DataOutputStream(this);
+        long position;
+
+        PositionedOutput(OutputStream out) {
+            super(out, BUFFER_SIZE);
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            super.write(b);
+            position++;
+        }
+
+        @Override
+        public synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+            super.write(bytes, offset, length);
+            position += length;
+        }
+
+        void pad(int count) throws IOException {
+            write(new byte[count], 0, count);
+        }
+    }
+}
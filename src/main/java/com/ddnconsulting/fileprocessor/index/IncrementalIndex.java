@@ -0,0 +1,322 @@
+package com.ddnconsulting.fileprocessor.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.ddnconsulting.fileprocessor.core.FileContext;
+import com.ddnconsulting.fileprocessor.core.WorkerResultsListener;
+import com.ddnconsulting.fileprocessor.resultshandlers.ResultsCodec;
+import com.ddnconsulting.fileprocessor.workers.FileWorker;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Supports incremental scans.  Holds the index written by the previous scan (if any) and builds the index for the
+ * current one.
+ *
+ * During the walk, each file is looked up in the previous index.  If it is there and its size, modification time and
+ * file key haven't changed, its type and the stored results of each worker can be reused instead of classifying the
+ * file again and dispatching the workers.  Every file seen is recorded in the new index along with the results of
+ * the workers run on it (reused or new) which is written out with {@link #save()} at the end of the scan.
+ *
+ * The new index is never held in memory.  An unchanged file is only marked (a bit for each entry of the previous
+ * index) and its previous entry, stored results of workers not run this time included, is copied into the new index
+ * when it is saved.  Changed and new files, and results of workers that were run, go into {@link IndexUpdates}, which
+ * spills them to sorted run files next to the index once they take up more than the buffer size.  Saving merges the
+ * previous index with the runs in one sequential pass.  Memory used is the buffer plus one bit per file of the
+ * previous index, however many files there are; the run files take up to about the size of the changes on disk while
+ * the scan runs.
+ *
+ * Only successful results are stored, so a worker that failed on a file runs again on the next scan.  Files that
+ * have gone since the last scan are dropped from the index.
+ *
+ * Files are keyed by absolute path, so an index can be used with scans started from different (relative) paths.
+ *
+ * Thread-safe.
+ *
+ * @author Dan Nathanson
+ */
+public class IncrementalIndex implements WorkerResultsListener, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(IncrementalIndex.class);
+
+    public static final long DEFAULT_BUFFER_BYTES = 64L * 1024 * 1024;
+
+    private final Path indexFile;
+    private final ResultsCodec codec;
+    private final FileIndex previous;
+    // Entries of the previous index for files recorded unchanged, a bit for each by position
+    private final AtomicLongArray unchanged;
+    private final IndexUpdates updates;
+    private final AtomicLong recordedFiles = new AtomicLong();
+    private final AtomicLong unchangedFiles = new AtomicLong();
+    private final AtomicLong reusedResults = new AtomicLong();
+    // Set if results couldn't be recorded, so the index isn't saved without them
+    private volatile IOException failure;
+
+    /**
+     * Opens the index in indexFile, if there is one, buffering up to {@link #DEFAULT_BUFFER_BYTES} of changes.
+     */
+    public IncrementalIndex(Path indexFile, ResultsCodec codec) {
+        this(indexFile, codec, DEFAULT_BUFFER_BYTES);
+    }
+
+    /**
+     * Opens the index in indexFile, if there is one.  An unreadable index is logged and ignored; the scan then
+     * processes every file and writes a fresh index.
+     *
+     * @param bufferBytes changes held in memory before they are spilled to disk
+     */
+    public IncrementalIndex(Path indexFile, ResultsCodec codec, long bufferBytes) {
+        this.indexFile = indexFile;
+        this.codec = codec;
+        this.updates = new IndexUpdates(indexFile, bufferBytes);
+        FileIndex index = null;
+        if (Files.exists(indexFile)) {
+            try {
+                index = FileIndex.open(indexFile);
+                LOG.info("Loaded index of " + index.size() + " files from " + indexFile);
+            }
+            catch (IOException e) {
+                LOG.warn("Ignoring unreadable index " + indexFile + ": " + e.getMessage());
+            }
+        }
+        this.previous = index;
+        this.unchanged = index == null ? null : new AtomicLongArray((int) ((index.size() + 63) / 64));
+    }
+
+    /**
+     * Returns the previous scan's entry for the file if the file hasn't changed since, otherwise null.
+     */
+    public IndexEntry findUnchanged(FileContext context) throws IOException {
+        if (previous == null) {
+            return null;
+        }
+        long position = previous.indexOf(keyFor(context));
+        if (position < 0) {
+            return null;
+        }
+        IndexEntry entry = previous.get(position);
+        if (!entry.matches(context.getAttributes())) {
+            return null;
+        }
+        unchangedFiles.incrementAndGet();
+        return entry;
+    }
+
+    /**
+     * Records file in new index.  The file's type must already be set.
+     *
+     * @param unchangedEntry what {@link #findUnchanged} returned for the file: if not null, the previous entry is
+     *                       carried over
+     */
+    public void recordFile(FileContext context, IndexEntry unchangedEntry) throws IOException {
+        recordedFiles.incrementAndGet();
+        if (unchangedEntry != null && unchangedEntry.getIndexPosition() >= 0) {
+            long position = unchangedEntry.getIndexPosition();
+            int word = (int) (position >>> 6);
+            long bit = 1L << (position & 63);
+            long bits;
+            do {
+                bits = unchanged.get(word);
+            }
+            while ((bits & bit) == 0 && !unchanged.compareAndSet(word, bits, bits | bit));
+            return;
+        }
+        String key = keyFor(context);
+        updates.fileRecorded(IndexEntry.create(key, context.getAttributes(), context.getType()));
+    }
+
+    /**
+     * Returns results stored by worker in the previous scan, or returns null if there are none (e.g. the operation
+     * wasn't requested last time) in which case the worker has to be run.  They are carried over into the new index
+     * with the rest of the file's entry.
+     */
+    public FileWorkerResults reuseResults(IndexEntry previousEntry, FileContext context, FileWorker worker) {
+        String workerId = workerId(worker);
+        byte[] stored = previousEntry.getResults(workerId);
+        if (stored == null) {
+            return null;
+        }
+        FileWorkerResults results;
+        try {
+            results = codec.decode(stored);
+        }
+        catch (IOException e) {
+            LOG.warn("Can't read stored results of " + workerId + " for [" + context.getPath() + "]: " +
+                     e.getMessage());
+            return null;
+        }
+        reusedResults.incrementAndGet();
+        return results;
+    }
+
+    /**
+     * Records results of a worker that was run on the file (recorded with {@link #recordFile}).
+     */
+    @Override
+    public void resultsProduced(FileContext context, FileWorker worker, FileWorkerResults results) {
+        if (!results.isSuccess()) {
+            return;
+        }
+        byte[] encoded;
+        try {
+            encoded = codec.encode(results);
+        }
+        catch (IOException e) {
+            LOG.warn("Can't store results of " + workerId(worker) + " for [" + context.getPath() + "]: " +
+                     e.getMessage());
+            return;
+        }
+        try {
+            updates.resultsProduced(keyFor(context), workerId(worker), encoded);
+        }
+        catch (IOException e) {
+            LOG.error("Can't record results of " + workerId(worker) + " for [" + context.getPath() + "]", e);
+            failure = e;
+        }
+    }
+
+    /**
+     * Writes the new index over the previous one, merging the previous index's unchanged entries with the changes
+     * made by the scan.  Written to a temporary file first so a failure leaves the previous index intact.
+     *
+     * @throws IOException if the index can't be written, or changes couldn't be recorded during the scan
+     */
+    public void save() throws IOException {
+        if (failure != null) {
+            close();
+            throw new IOException("Index not saved: changes couldn't be recorded", failure);
+        }
+        Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        long saved;
+        try (IndexUpdates.Merge merge = updates.merge();
+             FileIndexWriter.Output output = new FileIndexWriter().open(temp)) {
+            merge(merge, output);
+            output.finish();
+            saved = output.getCount();
+        }
+        finally {
+            close();
+        }
+        Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOG.info("Saved index of " + saved + " files to " + indexFile + ". " + unchangedFiles +
+                 " files unchanged, " + reusedResults + " results reused");
+    }
+
+    /**
+     * Writes unchanged entries of the previous index and the scan's changes, both in path order, to output.  A
+     * changed or new file's entry has the results recorded for it this scan.  An unchanged file's entry keeps its
+     * stored results, with any recorded this scan replacing them.  Results of files not recorded are dropped.
+     */
+    private void merge(IndexUpdates.Merge merge, FileIndexWriter.Output output) throws IOException {
+        long next = nextUnchanged(0);
+        IndexEntry carried = next < 0 ? null : previous.get(next);
+        byte[] carriedPath = carried == null ? null : FileIndexWriter.bytes(carried.getPath());
+        boolean more = merge.next();
+        while (carried != null || more) {
+            int order = carried == null ? 1 : !more ? -1 : FileIndexWriter.comparePaths(carriedPath, merge.getPath());
+            if (order <= 0) {
+                IndexEntry file = order == 0 && merge.getFile() != null ? merge.getFile() : carried;
+                IndexEntry entry = new IndexEntry(file.getPath(), file.getSize(), file.getLastModified(),
+                                                  file.getFileKey(), file.getType());
+                if (file == carried) {
+                    putAll(entry, carried.getAllResults());
+                }
+                if (order == 0) {
+                    putAll(entry, merge.getResults());
+                    more = merge.next();
+                }
+                output.add(carriedPath, entry);
+                next = nextUnchanged(next + 1);
+                carried = next < 0 ? null : previous.get(next);
+                carriedPath = carried == null ? null : FileIndexWriter.bytes(carried.getPath());
+            }
+            else {
+                IndexEntry file = merge.getFile();
+                if (file != null) {
+                    putAll(file, merge.getResults());
+                    output.add(merge.getPath(), file);
+                }
+                more = merge.next();
+            }
+        }
+    }
+
+    private static void putAll(IndexEntry entry, Map<String, byte[]> results) {
+        for (Map.Entry<String, byte[]> result : results.entrySet()) {
+            entry.putResults(result.getKey(), result.getValue());
+        }
+    }
+
+    /**
+     * Position of the first entry of the previous index from position on that was recorded unchanged, or -1.
+     */
+    private long nextUnchanged(long position) {
+        if (previous == null) {
+            return -1;
+        }
+        for (long i = position; i < previous.size(); i++) {
+            long bits = unchanged.get((int) (i >>> 6)) >>> (i & 63);
+            if (bits == 0) {
+                // Nothing more in this word
+                i |= 63;
+            }
+            else if ((bits & 1) != 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Number of files found unchanged since the previous scan.
+     */
+    public long getUnchangedFiles() {
+        return unchangedFiles.get();
+    }
+
+    /**
+     * Number of worker results reused from the previous scan rather than run again.
+     */
+    public long getReusedResults() {
+        return reusedResults.get();
+    }
+
+    /**
+     * Number of files recorded in the new index.
+     */
+    public long getRecordedFiles() {
+        return recordedFiles.get();
+    }
+
+    /**
+     * Closes the previous index and deletes the changes spilled to disk.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            updates.close();
+        }
+        finally {
+            if (previous != null) {
+                previous.close();
+            }
+        }
+    }
+
+    private static String keyFor(FileContext context) {
+        return context.getPath().toAbsolutePath().normalize().toString();
+    }
+
+    private static String workerId(FileWorker worker) {
+        return worker.getClass().getName();
+    }
+}
@@ -0,0 +1,124 @@
+package com.ddnconsulting.fileprocessor.index;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * What the file index knows about one file: the attributes used to tell whether it has changed since the last scan,
+ * its type and the last (successful) results of each FileWorker that ran on it.  Results are kept encoded (see
+ * {@link com.ddnconsulting.fileprocessor.resultshandlers.ResultsCodec}) and keyed by worker class name.
+ *
+ * @author Dan Nathanson
+ */
+public class IndexEntry {
+    private final String path;
+    private final long size;
+    private final long lastModified;
+    private final String fileKey;
+    private final String type;
+    private final Map<String, byte[]> results;
+    // Position in the index it was read from, or -1
+    private final long indexPosition;
+
+    public IndexEntry(String path, long size, long lastModified, String fileKey, String type) {
+        this(path, size, lastModified, fileKey, type, new ConcurrentHashMap<String, byte[]>());
+    }
+
+    IndexEntry(String path, long size, long lastModified, String fileKey, String type, Map<String, byte[]> results) {
+        this(path, size, lastModified, fileKey, type, results, -1);
+    }
+
+    IndexEntry(String path, long size, long lastModified, String fileKey, String type, Map<String, byte[]> results,
+               long indexPosition) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.fileKey = fileKey;
+        this.type = type;
+        this.results = results;
+        this.indexPosition = indexPosition;
+    }
+
+    /**
+     * Creates entry for a file from its attributes.
+     */
+    public static IndexEntry create(String path, BasicFileAttributes attributes, String type) {
+        return new IndexEntry(path, attributes.size(), attributes.lastModifiedTime().toMillis(),
+                              fileKeyString(attributes.fileKey()), type);
+    }
+
+    /**
+     * Returns true if attributes describe the same, unmodified file as this entry: same size and modification time
+     * and, when the file system provides one, the same file key (so a file replaced by another with the same size and
+     * time is still seen as changed).
+     */
+    public boolean matches(BasicFileAttributes attributes) {
+        if (size != attributes.size() || lastModified != attributes.lastModifiedTime().toMillis()) {
+            return false;
+        }
+        String otherKey = fileKeyString(attributes.fileKey());
+        return fileKey == null || otherKey == null || fileKey.equals(otherKey);
+    }
+
+    private static String fileKeyString(Object fileKey) {
+        return fileKey == null ? null : fileKey.toString();
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public String getFileKey() {
+        return fileKey;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Position of the entry in the {@link FileIndex} it was read from, or -1 if it wasn't read from one.
+     */
+    long getIndexPosition() {
+        return indexPosition;
+    }
+
+    /**
+     * Returns encoded results of worker, or null if there are none.
+     *
+     * @param worker class name of the worker
+     */
+    public byte[] getResults(String worker) {
+        return results.get(worker);
+    }
+
+    /**
+     * Only valid on entries created for writing a new index.  Entries read from an index are not modifiable.
+     */
+    public void putResults(String worker, byte[] encodedResults) {
+        results.put(worker, encodedResults);
+    }
+
+    /**
+     * Returns encoded results keyed by worker class name.
+     */
+    public Map<String, byte[]> getAllResults() {
+        return Collections.unmodifiableMap(results);
+    }
+
+    @Override
+    public String toString() {
+        return path + " (" + size + " bytes, modified " + lastModified + ", " + results.size() + " results)";
+    }
+}
@@ -0,0 +1,383 @@
+package com.ddnconsulting.fileprocessor.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+
+/**
+ * What a scan changes in the index: files recorded (new or changed since the previous scan) and results produced by
+ * workers, as separate records so nothing already recorded is ever changed.  Records are kept in memory up to a limit,
+ * then sorted by path and spilled to a run file next to the index, so a scan of any size holds a bounded amount.
+ * {@link #merge()} reads them all back in path order, a path at a time.
+ *
+ * Thread-safe.
+ *
+ * @author Dan Nathanson
+ */
+class IndexUpdates implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Rough cost of a record in memory, on top of its path and results
+    private static final int RECORD_OVERHEAD = 64;
+
+    private static final byte FILE = 0;
+    private static final byte RESULTS = 1;
+
+    private final Path runPrefix;
+    private final long maxBufferBytes;
+    private List<Update> buffer = new ArrayList<>();
+    private long bufferBytes;
+    private final List<Run> runs = new ArrayList<>();
+    // Set once the updates are being read back, after which any more are dropped
+    private boolean merging;
+
+    /**
+     * @param runPrefix run files are named after this, with a number added
+     * @param maxBufferBytes records held in memory before they are spilled
+     */
+    IndexUpdates(Path runPrefix, long maxBufferBytes) {
+        this.runPrefix = runPrefix;
+        this.maxBufferBytes = maxBufferBytes;
+    }
+
+    /**
+     * Records a file, with its attributes and type (any results in entry are ignored).
+     */
+    void fileRecorded(IndexEntry entry) throws IOException {
+        add(new Update(FileIndexWriter.bytes(entry.getPath()), entry, null, null));
+    }
+
+    /**
+     * Records results of worker for the file at path.
+     */
+    void resultsProduced(String path, String worker, byte[] encoded) throws IOException {
+        add(new Update(FileIndexWriter.bytes(path), null, worker, encoded));
+    }
+
+    private synchronized void add(Update update) throws IOException {
+        if (merging) {
+            // Too late: e.g. results of a runner cancelled at the end of the scan that finished anyway
+            return;
+        }
+        buffer.add(update);
+        bufferBytes += update.bytes();
+        if (bufferBytes >= maxBufferBytes) {
+            spill();
+        }
+    }
+
+    /**
+     * Writes the buffer, sorted, to a new run file.
+     */
+    private void spill() throws IOException {
+        Collections.sort(buffer, Update.BY_PATH);
+        Path file = runPrefix.resolveSibling(runPrefix.getFileName() + ".run" + runs.size());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file),
+                                                                                  BUFFER_SIZE))) {
+            for (Update update : buffer) {
+                update.write(out);
+            }
+        }
+        runs.add(new Run(file, buffer.size()));
+        buffer = new ArrayList<>();
+        bufferBytes = 0;
+    }
+
+    /**
+     * Reads back everything recorded, in path order.  Anything recorded once this has been called is dropped.
+     */
+    synchronized Merge merge() throws IOException {
+        merging = true;
+        Collections.sort(buffer, Update.BY_PATH);
+        Merge merge = new Merge();
+        try {
+            for (int i = 0; i < runs.size(); i++) {
+                merge.add(new RunCursor(runs.get(i), i));
+            }
+            merge.add(new BufferCursor(buffer, runs.size()));
+        }
+        catch (IOException | RuntimeException e) {
+            merge.close();
+            throw e;
+        }
+        return merge;
+    }
+
+    /**
+     * Deletes the run files.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (Run run : runs) {
+            Files.deleteIfExists(run.file);
+        }
+        runs.clear();
+        buffer = new ArrayList<>();
+        bufferBytes = 0;
+    }
+
+
+    /**
+     * The records of each path in turn.  Where a path has several, later ones win: the last file record, and the last
+     * results of each worker.
+     */
+    static final class Merge implements Closeable {
+        private final PriorityQueue<Cursor> cursors = new PriorityQueue<>(11, Cursor.BY_PATH);
+        private final List<Cursor> all = new ArrayList<>();
+        private byte[] path;
+        private IndexEntry file;
+        private Map<String, byte[]> results;
+
+        private void add(Cursor cursor) throws IOException {
+            all.add(cursor);
+            if (cursor.next()) {
+                cursors.add(cursor);
+            }
+        }
+
+        /**
+         * Moves to the next path.
+         *
+         * @return false if there are no more
+         */
+        boolean next() throws IOException {
+            if (cursors.isEmpty()) {
+                return false;
+            }
+            path = cursors.peek().current.path;
+            file = null;
+            results = new HashMap<>();
+            while (!cursors.isEmpty() && FileIndexWriter.comparePaths(cursors.peek().current.path, path) == 0) {
+                Cursor cursor = cursors.poll();
+                Update update = cursor.current;
+                if (update.file != null) {
+                    file = update.file;
+                }
+                else {
+                    results.put(update.worker, update.results);
+                }
+                if (cursor.next()) {
+                    cursors.add(cursor);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Path (UTF-8) of the current records.
+         */
+        byte[] getPath() {
+            return path;
+        }
+
+        /**
+         * File recorded at the current path, without results, or null if the path only has results.
+         */
+        IndexEntry getFile() {
+            return file;
+        }
+
+        /**
+         * Results recorded for the current path, by worker.
+         */
+        Map<String, byte[]> getResults() {
+            return results;
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+            for (Cursor cursor : all) {
+                try {
+                    cursor.close();
+                }
+                catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+
+    /**
+     * A file recorded, or a worker's results.
+     */
+    private static final class Update {
+        static final Comparator<Update> BY_PATH = new Comparator<Update>() {
+            @Override
+            public int compare(Update a, Update b) {
+                return FileIndexWriter.comparePaths(a.path, b.path);
+            }
+        };
+
+        final byte[] path;
+        final IndexEntry file;
+        final String worker;
+        final byte[] results;
+
+        Update(byte[] path, IndexEntry file, String worker, byte[] results) {
+            this.path = path;
+            this.file = file;
+            this.worker = worker;
+            this.results = results;
+        }
+
+        long bytes() {
+            return RECORD_OVERHEAD + path.length + (results == null ? 0 : results.length);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            FileIndexWriter.writeString(out, path);
+            if (file != null) {
+                out.writeByte(FILE);
+                out.writeLong(file.getSize());
+                out.writeLong(file.getLastModified());
+                FileIndexWriter.writeString(out, FileIndexWriter.bytes(file.getFileKey()));
+                FileIndexWriter.writeString(out, FileIndexWriter.bytes(file.getType()));
+            }
+            else {
+                out.writeByte(RESULTS);
+                FileIndexWriter.writeString(out, FileIndexWriter.bytes(worker));
+                out.writeInt(results.length);
+                out.write(results);
+            }
+        }
+
+        static Update read(DataInputStream in) throws IOException {
+            byte[] path = readBytes(in);
+            if (in.readByte() == FILE) {
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                String fileKey = readString(in);
+                String type = readString(in);
+                IndexEntry file = new IndexEntry(new String(path, StandardCharsets.UTF_8), size, lastModified,
+                                                 fileKey, type);
+                return new Update(path, file, null, null);
+            }
+            String worker = readString(in);
+            byte[] results = new byte[in.readInt()];
+            in.readFully(results);
+            return new Update(path, null, worker, results);
+        }
+
+        private static byte[] readBytes(DataInputStream in) throws IOException {
+            int length = in.readShort();
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return bytes;
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            byte[] bytes = readBytes(in);
+            return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+
+    private static final class Run {
+        final Path file;
+        final int count;
+
+        Run(Path file, int count) {
+            this.file = file;
+            this.count = count;
+        }
+    }
+
+
+    /**
+     * Reads the updates of one run (or of the buffer) in order.  Ties between cursors go to the one spilled first, so
+     * later records win.
+     */
+    private abstract static class Cursor implements Closeable {
+        static final Comparator<Cursor> BY_PATH = new Comparator<Cursor>() {
+            @Override
+            public int compare(Cursor a, Cursor b) {
+                int order = FileIndexWriter.comparePaths(a.current.path, b.current.path);
+                return order != 0 ? order : a.order - b.order;
+            }
+        };
+
+        final int order;
+        Update current;
+
+        Cursor(int order) {
+            this.order = order;
+        }
+
+        /**
+         * Moves to the next update.
+         *
+         * @return false if there are no more
+         */
+        abstract boolean next() throws IOException;
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+    private static final class RunCursor extends Cursor {
+        private final DataInputStream in;
+        private int remaining;
+
+        RunCursor(Run run, int order) throws IOException {
+            super(order);
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run.file), BUFFER_SIZE));
+            this.remaining = run.count;
+        }
+
+        @Override
+        boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            current = Update.read(in);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static final class BufferCursor extends Cursor {
+        private final List<Update> updates;
+        private int next;
+
+        BufferCursor(List<Update> updates, int order) {
+            super(order);
+            this.updates = updates;
+        }
+
+        @Override
+        boolean next() {
+            if (next == updates.size()) {
+                return false;
+            }
+            current = updates.get(next++);
+            return true;
+        }
+    }
+}
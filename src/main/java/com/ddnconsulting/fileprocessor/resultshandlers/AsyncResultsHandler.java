@@ -0,0 +1,433 @@
+package com.ddnconsulting.fileprocessor.resultshandlers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Decorator that takes results handling off the worker threads.  Workers put results on a bounded, lock-free ring
+ * buffer and go straight back to work; a dedicated consumer thread takes them off in batches and passes them to the
+ * real handler (with {@link BatchResultsHandler#handleBatch} if it handles batches, otherwise one at a time).  The
+ * handler is only ever called from the consumer thread.
+ *
+ * What happens when the buffer is full is up to the {@link OverflowPolicy}.
+ *
+ * {@link #flush()} waits until everything handed over so far has been handled (FileProcessor calls it when a scan
+ * finishes).  {@link #close()} flushes, stops the consumer thread and closes the real handler; results handled after
+ * that are passed straight to the real handler on the caller's thread.  Producers count themselves in while they
+ * hand results over, and the consumer doesn't stop until none are left, so a result offered just as the handler is
+ * closed is still delivered.
+ *
+ * If the real handler reports on whole scans ({@link ScanAwareResultsHandler}), the end of a scan is passed on once
+ * everything handed over before it has been handled, on the caller's thread.
+ *
+ * Spilled results that can't be read back are counted as dropped (and as handled, so flush doesn't wait for them).
+ *
+ * @author Dan Nathanson
+ */
+public class AsyncResultsHandler implements BatchResultsHandler, ScanAwareResultsHandler, Flushable, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncResultsHandler.class);
+
+    // How long the consumer sleeps when there's nothing to do, unless woken by a producer
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    // How long a blocked producer (or flush) waits before looking again
+    private static final long WAIT_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final ResultsHandler delegate;
+    private final RingBuffer<FileWorkerResults> ring;
+    private final int batchSize;
+    private final OverflowPolicy overflowPolicy;
+    private final ResultsCodec codec;
+    private final Thread consumer;
+
+    private volatile boolean consumerParked;
+    private volatile boolean closed;
+    // Producers handing results over: the consumer only stops once closed and none are left
+    private final AtomicLong offering = new AtomicLong();
+
+    // Counts for flush(): results accepted (queued or spilled) and results passed on to the delegate
+    private final AtomicLong accepted = new AtomicLong();
+    private volatile long handled;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong blockedNanos = new AtomicLong();
+
+    // Spill file currently being written, guarded by spillLock
+    private final Object spillLock = new Object();
+    private Path spillFile;
+    private DataOutputStream spillOut;
+    private long spillCount;
+    private volatile boolean spillPending;
+
+    /**
+     * Creates handler with a policy other than {@link OverflowPolicy#SPILL}.
+     */
+    public AsyncResultsHandler(ResultsHandler delegate, int capacity, int batchSize, OverflowPolicy overflowPolicy) {
+        this(delegate, capacity, batchSize, overflowPolicy, null);
+    }
+
+    /**
+     * @param delegate handler results are passed on to
+     * @param capacity number of results the buffer holds (rounded up to a power of two)
+     * @param batchSize most results passed to the delegate at once
+     * @param overflowPolicy what to do when the buffer is full
+     * @param codec used to write spilled results; required for {@link OverflowPolicy#SPILL}
+     */
+    public AsyncResultsHandler(ResultsHandler delegate, int capacity, int batchSize, OverflowPolicy overflowPolicy,
+                               ResultsCodec codec) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1: " + batchSize);
+        }
+        if (overflowPolicy == OverflowPolicy.SPILL && codec == null) {
+            throw new IllegalArgumentException("Spilling results needs a ResultsCodec");
+        }
+        this.delegate = delegate;
+        this.ring = new RingBuffer<>(capacity);
+        this.batchSize = batchSize;
+        this.overflowPolicy = overflowPolicy;
+        this.codec = codec;
+
+        consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        }, "ResultsHandler-" + delegate.getClass().getSimpleName());
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * Queues results for the consumer thread.  Called on worker threads.
+     */
+    @Override
+    public void handleResults(FileWorkerResults results) {
+        // Counted in before looking at closed, so the consumer can't stop between the look and the offer
+        offering.incrementAndGet();
+        try {
+            if (closed) {
+                delegate.handleResults(results);
+                return;
+            }
+
+            if (ring.offer(results)) {
+                accepted();
+                return;
+            }
+
+            switch (overflowPolicy) {
+                case BLOCK:
+                    waitForSpace(results);
+                    break;
+                case SPILL:
+                    spill(results);
+                    break;
+                default:
+                    dropped.incrementAndGet();
+                    break;
+            }
+        }
+        finally {
+            offering.decrementAndGet();
+        }
+    }
+
+    /**
+     * Queues each result in turn.
+     */
+    @Override
+    public void handleBatch(List<FileWorkerResults> batch) {
+        for (FileWorkerResults results : batch) {
+            handleResults(results);
+        }
+    }
+
+    private void accepted() {
+        accepted.incrementAndGet();
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    private void waitForSpace(FileWorkerResults results) {
+        long start = System.nanoTime();
+        try {
+            while (!ring.offer(results)) {
+                if (closed) {
+                    delegate.handleResults(results);
+                    return;
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    // Task is being cancelled; don't hold it up
+                    dropped.incrementAndGet();
+                    return;
+                }
+                LockSupport.unpark(consumer);
+                LockSupport.parkNanos(this, WAIT_PARK_NANOS);
+            }
+            accepted();
+        }
+        finally {
+            blockedNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private void spill(FileWorkerResults results) {
+        byte[] encoded;
+        try {
+            encoded = codec.encode(results);
+            synchronized (spillLock) {
+                if (spillOut == null) {
+                    spillFile = Files.createTempFile("results-spill", ".bin");
+                    spillOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile)));
+                }
+                spillOut.writeInt(encoded.length);
+                spillOut.write(encoded);
+                spillCount++;
+                spillPending = true;
+            }
+        }
+        catch (IOException e) {
+            LOG.error("Failed to spill results, dropping them", e);
+            dropped.incrementAndGet();
+            return;
+        }
+        spilled.incrementAndGet();
+        accepted();
+    }
+
+    /**
+     * Consumer thread: passes queued results to the delegate until closed and empty.
+     */
+    private void consume() {
+        List<FileWorkerResults> batch = new ArrayList<>(batchSize);
+        while (true) {
+            if (ring.drainTo(batch, batchSize) > 0) {
+                deliver(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+            else if (spillPending) {
+                drainSpill();
+            }
+            else if (closed) {
+                // Offers after close() go straight to the delegate.  Once no producer is left that might have
+                // looked before it, everything offered is in the buffer or the spill file.
+                if (offering.get() == 0) {
+                    if (ring.isEmpty() && !spillPending) {
+                        return;
+                    }
+                }
+                else {
+                    LockSupport.parkNanos(this, WAIT_PARK_NANOS);
+                }
+            }
+            else {
+                consumerParked = true;
+                if (ring.isEmpty() && !spillPending) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                consumerParked = false;
+            }
+        }
+    }
+
+    private void deliver(List<FileWorkerResults> batch) {
+        try {
+            if (delegate instanceof BatchResultsHandler) {
+                ((BatchResultsHandler) delegate).handleBatch(batch);
+            }
+            else {
+                for (FileWorkerResults results : batch) {
+                    delegate.handleResults(results);
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            LOG.error("Results handler " + delegate.getClass().getSimpleName() + " failed on batch of " +
+                      batch.size() + " results", e);
+        }
+        handled += batch.size();
+    }
+
+    /**
+     * Reads back the current spill file (a new one is started for anything spilled meanwhile) and delivers it.
+     */
+    private void drainSpill() {
+        Path file;
+        long count;
+        synchronized (spillLock) {
+            file = spillFile;
+            count = spillCount;
+            spillCount = 0;
+            spillPending = false;
+            if (spillOut == null) {
+                return;
+            }
+            try {
+                spillOut.close();
+            }
+            catch (IOException e) {
+                LOG.error("Failed to finish spill file " + file, e);
+            }
+            spillOut = null;
+            spillFile = null;
+        }
+
+        List<FileWorkerResults> batch = new ArrayList<>(batchSize);
+        long read = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (read < count) {
+                int length;
+                try {
+                    length = in.readInt();
+                }
+                catch (EOFException e) {
+                    break;
+                }
+                byte[] encoded = new byte[length];
+                in.readFully(encoded);
+                batch.add(codec.decode(encoded));
+                read++;
+                if (batch.size() == batchSize) {
+                    deliver(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            LOG.error("Failed to read back spilled results from " + file, e);
+        }
+        if (!batch.isEmpty()) {
+            deliver(batch);
+        }
+        if (read < count) {
+            // Accepted but never coming back: counted as handled so flush() doesn't wait for them forever
+            long lost = count - read;
+            LOG.error(lost + " spilled results could not be read back from " + file + " and are lost");
+            dropped.addAndGet(lost);
+            handled += lost;
+        }
+
+        try {
+            Files.deleteIfExists(file);
+        }
+        catch (IOException e) {
+            LOG.warn("Failed to delete spill file " + file, e);
+        }
+    }
+
+    /**
+     * Waits until all results handed over before this call have been passed to the delegate, then flushes the
+     * delegate if it can be flushed.
+     */
+    @Override
+    public void flush() throws IOException {
+        long target = accepted.get();
+        while (handled < target && consumer.isAlive()) {
+            LockSupport.unpark(consumer);
+            LockSupport.parkNanos(this, WAIT_PARK_NANOS);
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IOException("Interrupted while flushing results");
+            }
+        }
+        if (delegate instanceof Flushable) {
+            ((Flushable) delegate).flush();
+        }
+    }
+
+    @Override
+    public void scanStarted(Path root) {
+        if (delegate instanceof ScanAwareResultsHandler) {
+            ((ScanAwareResultsHandler) delegate).scanStarted(root);
+        }
+    }
+
+    /**
+     * Waits for everything handed over so far to be handled, then tells the delegate the scan is over.
+     */
+    @Override
+    public void scanCompleted(Path root) throws IOException {
+        flush();
+        if (delegate instanceof ScanAwareResultsHandler) {
+            ((ScanAwareResultsHandler) delegate).scanCompleted(root);
+        }
+    }
+
+    /**
+     * Flushes and stops the consumer thread, then closes the delegate if it can be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing", e);
+        }
+        if (delegate instanceof Closeable) {
+            ((Closeable) delegate).close();
+        }
+        else if (delegate instanceof Flushable) {
+            ((Flushable) delegate).flush();
+        }
+        if (dropped.get() > 0) {
+            LOG.warn(dropped.get() + " results dropped because the results queue was full, or couldn't be spilled");
+        }
+    }
+
+    /**
+     * Number of results waiting for the consumer thread (not counting spilled ones).
+     */
+    public int getQueueDepth() {
+        return ring.size();
+    }
+
+    /**
+     * Number of results thrown away because the buffer was full (or spilling, or reading them back, failed).
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Number of results written to spill files because the buffer was full.
+     */
+    public long getSpilled() {
+        return spilled.get();
+    }
+
+    /**
+     * Total time worker threads spent waiting for space in the buffer.
+     */
+    public long getBlockedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(blockedNanos.get());
+    }
+
+    public ResultsHandler getDelegate() {
+        return delegate;
+    }
+}
@@ -0,0 +1,20 @@
+package com.ddnconsulting.fileprocessor.resultshandlers;
+
+import java.util.List;
+
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+
+/**
+ * ResultsHandler that can handle many results at once, which lets it amortize the cost of getting them where they're
+ * going (one log call, one write, one message) over the whole batch.  {@link AsyncResultsHandler} delivers results to
+ * handlers implementing this in batches.
+ *
+ * @author Dan Nathanson
+ */
+public interface BatchResultsHandler extends ResultsHandler {
+
+    /**
+     * Do something interesting with a batch of results from FileWorkers.  The handler may keep the list.
+     */
+    void handleBatch(List<FileWorkerResults> batch);
+}
@@ -0,0 +1,458 @@
+package com.ddnconsulting.fileprocessor.resultshandlers;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import com.ddnconsulting.fileprocessor.workers.FileSizeWorker.FileSizeResults;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Adds up the sizes reported by FileSizeWorker ("sizeof") for each directory, so directory totals come out of a scan
+ * without anyone downstream having to collect millions of file results.  Other results are passed to the delegate
+ * unchanged; file size results are only passed on if asked for.
+ *
+ * Sizes are added to a tree of directory nodes as results arrive.  Each file is only added to its own directory, with
+ * lock-free counters, so results for files in different directories never touch the same counter and results for the
+ * top of the tree don't all contend on the root; totals are added up the tree once, when the report is made.  Files
+ * themselves are not kept, only one node per directory.
+ *
+ * Each scan running has a tree of its own, keyed by the scan's root, and each file is added to the tree of the
+ * deepest root it is under, so scans running at the same time (in daemon mode) are reported separately.  Scans of the
+ * same root running at once can't be told apart: they share a tree, reported when the last of them completes.  Files
+ * under no running scan's root go in a tree reported when the handler is closed.
+ *
+ * When a scan completes, a du-style report of its tree is logged and passed to the delegate as
+ * {@link DirectorySizeResults}, and the tree is dropped.  Flushing (which checkpoints do while the scan runs) only
+ * flushes the delegate: the report is only made once, with everything in it.  The report starts at the
+ * deepest directory holding all the files seen and goes down maxDepth levels below it, listing the topN largest
+ * subdirectories of each directory.
+ *
+ * @author Dan Nathanson
+ */
+public class DirectorySizeRollupHandler implements BatchResultsHandler, ScanAwareResultsHandler, Flushable, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(DirectorySizeRollupHandler.class);
+
+    private final ResultsHandler delegate;
+    private final int maxDepth;
+    private final int topN;
+    private final boolean passFileResults;
+
+    // Tree of each scan running, by root.  Changed holding its lock
+    private final ConcurrentMap<Path, ScanTree> scans = new ConcurrentHashMap<>();
+    private final ScanTree unscanned = new ScanTree();
+
+    /**
+     * @param delegate handler for other results and for the report
+     * @param maxDepth levels of directories below the top one to report
+     * @param topN number of largest subdirectories of each directory to report
+     * @param passFileResults whether file size results are also passed to the delegate
+     */
+    public DirectorySizeRollupHandler(ResultsHandler delegate, int maxDepth, int topN, boolean passFileResults) {
+        this.delegate = delegate;
+        this.maxDepth = maxDepth;
+        this.topN = topN;
+        this.passFileResults = passFileResults;
+    }
+
+    /**
+     * Adds size to file's directory if results are file size results.
+     */
+    @Override
+    public void handleResults(FileWorkerResults results) {
+        if (add(results) && !passFileResults) {
+            return;
+        }
+        delegate.handleResults(results);
+    }
+
+    /**
+     * Adds sizes from batch, passing the rest to the delegate as a batch.
+     */
+    @Override
+    public void handleBatch(List<FileWorkerResults> batch) {
+        List<FileWorkerResults> others = passFileResults ? batch : new ArrayList<FileWorkerResults>();
+        for (FileWorkerResults results : batch) {
+            if (!add(results) && !passFileResults) {
+                others.add(results);
+            }
+        }
+        if (others.isEmpty()) {
+            return;
+        }
+        if (delegate instanceof BatchResultsHandler) {
+            ((BatchResultsHandler) delegate).handleBatch(others);
+        }
+        else {
+            for (FileWorkerResults results : others) {
+                delegate.handleResults(results);
+            }
+        }
+    }
+
+    /**
+     * @return true if results were file size results
+     */
+    private boolean add(FileWorkerResults results) {
+        if (!(results instanceof FileSizeResults)) {
+            return false;
+        }
+        FileSizeResults sizeResults = (FileSizeResults) results;
+        if (sizeResults.isSuccess() && sizeResults.getFilename() != null) {
+            Path directory = Paths.get(sizeResults.getFilename()).toAbsolutePath().getParent();
+            if (directory != null) {
+                nodeFor(treeFor(directory).nodes, directory).add(sizeResults.getSize());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tree of the scan with the deepest root directory is under.
+     */
+    private ScanTree treeFor(Path directory) {
+        ScanTree found = unscanned;
+        for (ScanTree tree : scans.values()) {
+            if (directory.startsWith(tree.root) &&
+                    (found.root == null || tree.root.getNameCount() > found.root.getNameCount())) {
+                found = tree;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns directory's node in tree, adding it (and any parents missing) if needed.  The whole path is added to the
+     * one tree, however the scans change meanwhile.
+     */
+    private static Node nodeFor(ConcurrentMap<Path, Node> tree, Path directory) {
+        Node node = tree.get(directory);
+        if (node != null) {
+            return node;
+        }
+        Path parentPath = directory.getParent();
+        Node parent = parentPath == null ? null : nodeFor(tree, parentPath);
+        node = new Node(directory);
+        Node existing = tree.putIfAbsent(directory, node);
+        if (existing != null) {
+            return existing;
+        }
+        if (parent != null) {
+            parent.children.add(node);
+        }
+        return node;
+    }
+
+    /**
+     * Starts a tree for the scan, or shares the tree of a scan of the same root already running.
+     */
+    @Override
+    public void scanStarted(Path root) {
+        Path key = root.toAbsolutePath().normalize();
+        synchronized (scans) {
+            ScanTree tree = scans.get(key);
+            if (tree == null) {
+                tree = new ScanTree(key);
+                scans.put(key, tree);
+            }
+            tree.scans++;
+        }
+        if (delegate instanceof ScanAwareResultsHandler) {
+            ((ScanAwareResultsHandler) delegate).scanStarted(root);
+        }
+    }
+
+    /**
+     * Reports sizes of the directories of the scan's tree (unless another scan of root is still running) and drops it,
+     * then tells the delegate.
+     */
+    @Override
+    public void scanCompleted(Path root) throws IOException {
+        Path key = root.toAbsolutePath().normalize();
+        ScanTree finished = null;
+        synchronized (scans) {
+            ScanTree tree = scans.get(key);
+            if (tree != null && --tree.scans == 0) {
+                scans.remove(key);
+                finished = tree;
+            }
+        }
+        if (finished != null) {
+            reportTree(finished.nodes);
+        }
+        if (delegate instanceof ScanAwareResultsHandler) {
+            ((ScanAwareResultsHandler) delegate).scanCompleted(root);
+        }
+    }
+
+    private void reportTree(ConcurrentMap<Path, Node> tree) {
+        if (!tree.isEmpty()) {
+            DirectorySizeResults report = report(tree);
+            LOG.info("Directory sizes:\n" + report.toDuString());
+            delegate.handleResults(report);
+        }
+    }
+
+    /**
+     * Flushes the delegate.  Doesn't report: the scan isn't over.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (delegate instanceof Flushable) {
+            ((Flushable) delegate).flush();
+        }
+    }
+
+    /**
+     * Reports anything not reported yet and closes the delegate if it can be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        List<ScanTree> left;
+        synchronized (scans) {
+            left = new ArrayList<>(scans.values());
+            scans.clear();
+        }
+        left.add(unscanned);
+        for (ScanTree tree : left) {
+            reportTree(tree.nodes);
+        }
+        unscanned.nodes.clear();
+        flush();
+        if (delegate instanceof Closeable) {
+            ((Closeable) delegate).close();
+        }
+    }
+
+    /**
+     * Builds report from tree.  Results added while this runs may or may not be included.
+     */
+    DirectorySizeResults report(ConcurrentMap<Path, Node> tree) {
+        List<Node> roots = new ArrayList<>();
+        for (Node node : tree.values()) {
+            if (node.path.getParent() == null) {
+                roots.add(node);
+            }
+        }
+
+        DirectorySizeResults report = new DirectorySizeResults();
+        report.setSuccess(true);
+        List<DirectorySize> directories = new ArrayList<>();
+        for (Node root : roots) {
+            root.rollUp();
+            Node top = root;
+            // Start at the deepest directory holding everything
+            while (top.files == 0 && top.children.size() == 1) {
+                top = top.children.get(0);
+            }
+            addToReport(top, 0, directories);
+        }
+        report.setDirectories(directories);
+        return report;
+    }
+
+    private void addToReport(Node node, int depth, List<DirectorySize> directories) {
+        DirectorySize size = new DirectorySize();
+        size.setPath(node.path.toString());
+        size.setDepth(depth);
+        size.setBytes(node.totalBytes);
+        size.setFiles(node.totalFiles);
+        directories.add(size);
+        if (depth >= maxDepth || node.children.isEmpty()) {
+            return;
+        }
+
+        List<Node> children;
+        synchronized (node.children) {
+            children = new ArrayList<>(node.children);
+        }
+        Collections.sort(children, LARGEST_FIRST);
+        int shown = Math.min(topN, children.size());
+        for (Node child : children.subList(0, shown)) {
+            addToReport(child, depth + 1, directories);
+        }
+        size.setOtherDirectories(children.size() - shown);
+    }
+
+    private static final Comparator<Node> LARGEST_FIRST = new Comparator<Node>() {
+        @Override
+        public int compare(Node a, Node b) {
+            return Long.compare(b.totalBytes, a.totalBytes);
+        }
+    };
+
+
+    /**
+     * Directories of the files of one root's scans (or of files under no scan's root, with no root).
+     */
+    private static final class ScanTree {
+        final Path root;
+        final ConcurrentMap<Path, Node> nodes = new ConcurrentHashMap<>();
+        // Scans of root running, guarded by the scans map's lock
+        int scans;
+
+        ScanTree() {
+            this(null);
+        }
+
+        ScanTree(Path root) {
+            this.root = root;
+        }
+    }
+
+    /**
+     * A directory.  Counters are only those of files directly in it until rolled up.
+     */
+    static final class Node {
+        private static final AtomicLongFieldUpdater<Node> BYTES =
+                AtomicLongFieldUpdater.newUpdater(Node.class, "bytes");
+        private static final AtomicLongFieldUpdater<Node> FILES =
+                AtomicLongFieldUpdater.newUpdater(Node.class, "files");
+
+        final Path path;
+        final List<Node> children = Collections.synchronizedList(new ArrayList<Node>(2));
+        private volatile long bytes;
+        private volatile long files;
+        long totalBytes;
+        long totalFiles;
+
+        Node(Path path) {
+            this.path = path;
+        }
+
+        void add(long size) {
+            BYTES.addAndGet(this, size);
+            FILES.incrementAndGet(this);
+        }
+
+        /**
+         * Adds up totals for this directory and everything below it.
+         */
+        void rollUp() {
+            totalBytes = bytes;
+            totalFiles = files;
+            List<Node> copy;
+            synchronized (children) {
+                copy = new ArrayList<>(children);
+            }
+            for (Node child : copy) {
+                child.rollUp();
+                totalBytes += child.totalBytes;
+                totalFiles += child.totalFiles;
+            }
+        }
+    }
+
+
+    /**
+     * Report of directory sizes: directories in depth-first order, largest first among siblings.
+     */
+    public static final class DirectorySizeResults extends FileWorkerResults {
+        private List<DirectorySize> directories;
+
+        public List<DirectorySize> getDirectories() {
+            return directories;
+        }
+
+        public void setDirectories(List<DirectorySize> directories) {
+            this.directories = directories;
+        }
+
+        /**
+         * Formats report like du: size and path, indented by depth.
+         */
+        public String toDuString() {
+            StringBuilder builder = new StringBuilder();
+            for (DirectorySize directory : directories) {
+                builder.append(String.format("%8s  ", humanReadable(directory.getBytes())));
+                for (int i = 0; i < directory.getDepth(); i++) {
+                    builder.append("  ");
+                }
+                builder.append(directory.getPath()).append(" (").append(directory.getFiles()).append(" files");
+                if (directory.getOtherDirectories() > 0) {
+                    builder.append(", ").append(directory.getOtherDirectories()).append(" smaller directories " +
+                                                                                         "not shown");
+                }
+                builder.append(")\n");
+            }
+            return builder.toString();
+        }
+
+        private static String humanReadable(long bytes) {
+            if (bytes < 1024) {
+                return bytes + "B";
+            }
+            int unit = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+            return String.format("%.1f%c", bytes / (double) (1L << (unit * 10)), "BKMGTPE".charAt(unit));
+        }
+    }
+
+    public static final class DirectorySize {
+        private String path;
+        private int depth;
+        private long bytes;
+        private long files;
+        private int otherDirectories;
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        /**
+         * Levels below the top directory of the report.
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        public void setDepth(int depth) {
+            this.depth = depth;
+        }
+
+        /**
+         * Total size of files in the directory and everything below it.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        public void setBytes(long bytes) {
+            this.bytes = bytes;
+        }
+
+        public long getFiles() {
+            return files;
+        }
+
+        public void setFiles(long files) {
+            this.files = files;
+        }
+
+        /**
+         * Number of subdirectories left out of the report (beyond the top N).
+         */
+        public int getOtherDirectories() {
+            return otherDirectories;
+        }
+
+        public void setOtherDirectories(int otherDirectories) {
+            this.otherDirectories = otherDirectories;
+        }
+    }
+}
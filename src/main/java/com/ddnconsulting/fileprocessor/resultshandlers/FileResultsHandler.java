@@ -0,0 +1,246 @@
+package com.ddnconsulting.fileprocessor.resultshandlers;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.common.io.CountingOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Handles results by writing them to files, one record per result, with Jackson's streaming generator.  Records are
+ * either compact JSON, one per line (NDJSON), or a binary format (Smile or CBOR) written as a sequence of values.
+ *
+ * Output is buffered in a direct buffer and written to the file's channel in large writes.  When a file reaches the
+ * rotation size a new one is started; files are named <prefix>-<sequence>.<format>[.gz], with the sequence starting
+ * after any files already there, so nothing is overwritten.  The rotation size is counted before compression (a
+ * compressed file holds the same records as an uncompressed one would).
+ *
+ * Safe to call from many threads, but it is meant to sit behind an {@link AsyncResultsHandler} so that only the
+ * consumer thread writes and whole batches are written at once.  Records are written to the file as the buffer fills;
+ * {@link #flush()} writes whatever is buffered and {@link #close()} finishes the current file.
+ *
+ * @author Dan Nathanson
+ */
+public class FileResultsHandler implements BatchResultsHandler, Flushable, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(FileResultsHandler.class);
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Format of the records in results files.
+     */
+    public enum Format {
+        /**
+         * Compact JSON, one record per line.
+         */
+        NDJSON("ndjson"),
+        /**
+         * Jackson's binary JSON.
+         */
+        SMILE("smile"),
+        /**
+         * Concise Binary Object Representation (RFC 7049).
+         */
+        CBOR("cbor");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        JsonFactory createFactory() {
+            switch (this) {
+                case SMILE:
+                    return new SmileFactory();
+                case CBOR:
+                    return new CBORFactory();
+                default:
+                    return new JsonFactory();
+            }
+        }
+    }
+
+    private final Path directory;
+    private final String prefix;
+    private final Format format;
+    private final long rotateBytes;
+    private final boolean gzip;
+    private final JsonFactory factory;
+    private final ObjectWriter writer;
+
+    private int sequence;
+    private Path currentFile;
+    private CountingOutputStream countingStream;
+    private JsonGenerator generator;
+    private long recordsWritten;
+    private final List<Path> files = new ArrayList<>();
+
+    /**
+     * @param directory directory results files are written to (created if needed)
+     * @param prefix start of each results file's name
+     * @param format format of records
+     * @param rotateBytes size at which a new file is started, or 0 to write a single file
+     * @param gzip whether to compress files
+     */
+    public FileResultsHandler(Path directory, String prefix, Format format, long rotateBytes, boolean gzip) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.format = format;
+        this.rotateBytes = rotateBytes;
+        this.gzip = gzip;
+        this.factory = format.createFactory();
+
+        ObjectMapper objectMapper = new ObjectMapper(factory);
+        objectMapper.setSerializationInclusion(Include.NON_DEFAULT);
+        // Flushing is left to the buffer (and to flush()), not done after every record
+        objectMapper.disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        writer = objectMapper.writer();
+    }
+
+    /**
+     * Write results as one record
+     */
+    @Override
+    public synchronized void handleResults(FileWorkerResults results) {
+        try {
+            write(results);
+        }
+        catch (IOException e) {
+            LOG.error("Error writing results to " + currentFile, e);
+        }
+    }
+
+    /**
+     * Write each result in batch as a record
+     */
+    @Override
+    public synchronized void handleBatch(List<FileWorkerResults> batch) {
+        try {
+            for (FileWorkerResults results : batch) {
+                write(results);
+            }
+        }
+        catch (IOException e) {
+            LOG.error("Error writing results to " + currentFile, e);
+        }
+    }
+
+    private void write(FileWorkerResults results) throws IOException {
+        if (generator == null) {
+            open();
+        }
+        writer.writeValue(generator, results);
+        if (format == Format.NDJSON) {
+            generator.writeRaw('\n');
+        }
+        recordsWritten++;
+
+        if (rotateBytes > 0 && countingStream.getCount() >= rotateBytes) {
+            closeCurrent();
+        }
+    }
+
+    /**
+     * Starts the next results file.
+     */
+    private void open() throws IOException {
+        Files.createDirectories(directory);
+        String extension = "." + format.getExtension() + (gzip ? ".gz" : "");
+        FileChannel channel = null;
+        while (channel == null) {
+            sequence++;
+            currentFile = directory.resolve(String.format("%s-%05d%s", prefix, sequence, extension));
+            try {
+                channel = FileChannel.open(currentFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            }
+            catch (FileAlreadyExistsException e) {
+                // Left by an earlier run; try the next one
+            }
+        }
+
+        OutputStream out = new ChannelOutputStream(channel, BUFFER_SIZE);
+        if (gzip) {
+            out = new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+        countingStream = new CountingOutputStream(out);
+        generator = factory.createGenerator(countingStream);
+        if (format == Format.NDJSON) {
+            // Records are separated by newlines, written after each one
+            generator.setRootValueSeparator(null);
+        }
+        files.add(currentFile);
+        LOG.debug("Writing results to " + currentFile);
+    }
+
+    private void closeCurrent() throws IOException {
+        if (generator != null) {
+            try {
+                // Closes the whole chain: finishes compression and closes the channel
+                generator.close();
+            }
+            finally {
+                generator = null;
+                countingStream = null;
+            }
+        }
+    }
+
+    /**
+     * Writes buffered records to the current file.  Compressed records may stay in the compressor until the file is
+     * closed.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (generator != null) {
+            generator.flush();
+        }
+    }
+
+    /**
+     * Finishes the current file.  A later result starts a new one.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closeCurrent();
+    }
+
+    /**
+     * Number of records written so far.
+     */
+    public synchronized long getRecordsWritten() {
+        return recordsWritten;
+    }
+
+    /**
+     * Files written so far, oldest first.
+     */
+    public synchronized List<Path> getFiles() {
+        return Collections.unmodifiableList(new ArrayList<>(files));
+    }
+}
@@ -0,0 +1,193 @@
+package com.ddnconsulting.fileprocessor.resultshandlers;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jms.BytesMessage;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jms.JmsException;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.core.MessageCreator;
+
+
+/**
+ * Handles results by sending them to a JMS queue, for a central server to collect results from FileProcessors running
+ * on other machines.  Results are sent in batches, many to a message: each message is a BytesMessage holding a JSON
+ * array written by {@link ResultsCodec#encodeBatch}, with the number of results in the {@link #COUNT_PROPERTY}
+ * property.
+ *
+ * Sending is done with a JmsTemplate, so the connection factory should cache connections, sessions and producers
+ * (e.g. Spring's CachingConnectionFactory), otherwise each message opens a new connection.  Whether sends are async,
+ * and how many bytes can be in flight, is set on the connection factory (for ActiveMQ, useAsyncSend and
+ * producerWindowSize).  When the window is full a send blocks until the broker catches up; behind an
+ * {@link AsyncResultsHandler} with the BLOCK policy that backs up into the worker threads, so a slow broker slows the
+ * scan down rather than filling up memory.
+ *
+ * A batch that can't be sent is logged and counted as failed; it is not retried.
+ *
+ * @author Dan Nathanson
+ */
+public class JmsResultsHandler implements BatchResultsHandler, Flushable, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(JmsResultsHandler.class);
+
+    /**
+     * Message property holding the number of results in the message.
+     */
+    public static final String COUNT_PROPERTY = "resultsCount";
+
+    private final JmsTemplate jmsTemplate;
+    private final String queueName;
+    private final ResultsCodec codec;
+    private final int batchSize;
+
+    private Map<String, Object> messageProperties = Collections.emptyMap();
+
+    private List<FileWorkerResults> pending;
+    private long messagesSent;
+    private long resultsSent;
+    private long failedBatches;
+    private long sendNanos;
+
+    /**
+     * @param connectionFactory factory for connections to the broker, which should cache sessions and producers
+     * @param queueName queue results are sent to
+     * @param codec encodes results in messages
+     * @param batchSize most results sent in one message
+     */
+    public JmsResultsHandler(ConnectionFactory connectionFactory, String queueName, ResultsCodec codec,
+                             int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1: " + batchSize);
+        }
+        this.jmsTemplate = new JmsTemplate(connectionFactory);
+        this.queueName = queueName;
+        this.codec = codec;
+        this.batchSize = batchSize;
+        this.pending = new ArrayList<>(batchSize);
+    }
+
+    /**
+     * Adds results to the current batch, sending it if full.
+     */
+    @Override
+    public synchronized void handleResults(FileWorkerResults results) {
+        pending.add(results);
+        if (pending.size() >= batchSize) {
+            sendPending();
+        }
+    }
+
+    /**
+     * Adds batch to the current batch, sending full batches.
+     */
+    @Override
+    public synchronized void handleBatch(List<FileWorkerResults> batch) {
+        for (FileWorkerResults results : batch) {
+            handleResults(results);
+        }
+    }
+
+    /**
+     * Sends results waiting for their batch to fill.
+     */
+    @Override
+    public synchronized void flush() {
+        if (!pending.isEmpty()) {
+            sendPending();
+        }
+    }
+
+    /**
+     * Sends results waiting for their batch to fill.  The connection factory is left open; it belongs to whoever
+     * created it.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        LOG.info("Sent " + resultsSent + " results in " + messagesSent + " messages to " + queueName + " (" +
+                 failedBatches + " batches failed). " + sendNanos / 1000000 + " ms spent sending");
+    }
+
+    private void sendPending() {
+        final List<FileWorkerResults> batch = pending;
+        pending = new ArrayList<>(batchSize);
+
+        final byte[] body;
+        try {
+            body = codec.encodeBatch(batch);
+        }
+        catch (IOException e) {
+            LOG.error("Error serializing batch of " + batch.size() + " results", e);
+            failedBatches++;
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            jmsTemplate.send(queueName, new MessageCreator() {
+                @Override
+                public Message createMessage(Session session) throws JMSException {
+                    BytesMessage message = session.createBytesMessage();
+                    for (Map.Entry<String, Object> property : messageProperties.entrySet()) {
+                        message.setObjectProperty(property.getKey(), property.getValue());
+                    }
+                    message.setIntProperty(COUNT_PROPERTY, batch.size());
+                    message.writeBytes(body);
+                    return message;
+                }
+            });
+            messagesSent++;
+            resultsSent += batch.size();
+        }
+        catch (JmsException e) {
+            LOG.error("Error sending batch of " + batch.size() + " results to " + queueName, e);
+            failedBatches++;
+        }
+        finally {
+            sendNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Sets properties added to every message, e.g. to tell the receiver which scan the results belong to.  Values
+     * must be types JMS allows for properties (strings, primitive wrappers).
+     */
+    public synchronized void setMessageProperties(Map<String, ?> messageProperties) {
+        this.messageProperties = new LinkedHashMap<String, Object>(messageProperties);
+    }
+
+    /**
+     * Reads the results out of a message sent by this handler.
+     */
+    public static List<FileWorkerResults> readResults(BytesMessage message, ResultsCodec codec)
+            throws JMSException, IOException {
+        byte[] body = new byte[(int) message.getBodyLength()];
+        message.readBytes(body);
+        return codec.decodeBatch(body);
+    }
+
+    public synchronized long getMessagesSent() {
+        return messagesSent;
+    }
+
+    public synchronized long getResultsSent() {
+        return resultsSent;
+    }
+
+    public synchronized long getFailedBatches() {
+        return failedBatches;
+    }
+}
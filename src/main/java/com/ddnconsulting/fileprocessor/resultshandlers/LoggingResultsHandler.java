@@ -1,5 +1,7 @@
 package com.ddnconsulting.fileprocessor.resultshandlers;
 
+import java.util.List;
+
 import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -10,11 +12,12 @@ import org.slf4j.LoggerFactory;
 
 
 /**
- * Handles results by serializing to JSON and dumping to log
+ * Handles results by serializing to JSON and dumping to log.  A batch is logged as one message (a JSON array), so
+ * the logger is only locked once per batch.
  *
  * @author Dan Nathanson
  */
-public class LoggingResultsHandler implements ResultsHandler {
+public class LoggingResultsHandler implements BatchResultsHandler {
     private static final Logger LOG = LoggerFactory.getLogger(LoggingResultsHandler.class);
     private final ObjectMapper objectMapper;
 
@@ -36,4 +39,17 @@ public class LoggingResultsHandler implements ResultsHandler {
             LOG.error("Error serializing results", e);
         }
     }
+
+    /**
+     * Dump batch of results to log as one JSON array
+     */
+    @Override
+    public void handleBatch(List<FileWorkerResults> batch) {
+        try {
+            LOG.info(objectMapper.writeValueAsString(batch));
+        }
+        catch (JsonProcessingException e) {
+            LOG.error("Error serializing results", e);
+        }
+    }
 }
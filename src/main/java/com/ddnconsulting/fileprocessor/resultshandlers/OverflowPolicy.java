@@ -0,0 +1,24 @@
+package com.ddnconsulting.fileprocessor.resultshandlers;
+
+/**
+ * What {@link AsyncResultsHandler} does with results when its queue is full.
+ *
+ * @author Dan Nathanson
+ */
+public enum OverflowPolicy {
+    /**
+     * Worker thread waits for space.  Nothing is lost, but a slow handler slows down the scan.
+     */
+    BLOCK,
+
+    /**
+     * Results are thrown away (and counted).  The scan is never held up.
+     */
+    DROP,
+
+    /**
+     * Results are written to a temporary file and handled once the queue has been emptied.  Nothing is lost and the
+     * scan isn't held up, at the cost of disk space and results not being handled in the order they were produced.
+     */
+    SPILL
+}
@@ -0,0 +1,78 @@
+package com.ddnconsulting.fileprocessor.resultshandlers;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+
+/**
+ * Serializes FileWorkerResults to compact JSON that records the concrete results class, so they can be read back
+ * later (or somewhere else) as the same type.  Used wherever results leave the JVM and need to come back as objects:
+ * the incremental scan index, spill files, messages and so on.
+ *
+ * Thread-safe.
+ *
+ * @author Dan Nathanson
+ */
+public class ResultsCodec {
+    // Name of the JSON property holding the results class
+    public static final String CLASS_PROPERTY = "@class";
+
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter batchWriter;
+    private final ObjectReader batchReader;
+
+    public ResultsCodec() {
+        objectMapper = new ObjectMapper();
+        objectMapper.addMixIn(FileWorkerResults.class, TypedResults.class);
+        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        JavaType batchType = objectMapper.getTypeFactory().constructCollectionType(List.class,
+                                                                                   FileWorkerResults.class);
+        batchWriter = objectMapper.writerFor(batchType);
+        batchReader = objectMapper.reader(batchType);
+    }
+
+    public byte[] encode(FileWorkerResults results) throws IOException {
+        return objectMapper.writeValueAsBytes(results);
+    }
+
+    public FileWorkerResults decode(byte[] bytes) throws IOException {
+        return decode(bytes, 0, bytes.length);
+    }
+
+    public FileWorkerResults decode(byte[] bytes, int offset, int length) throws IOException {
+        return objectMapper.readValue(bytes, offset, length, FileWorkerResults.class);
+    }
+
+    /**
+     * Encodes batch of results as a single JSON array, each element recording its class.
+     */
+    public byte[] encodeBatch(List<FileWorkerResults> batch) throws IOException {
+        return batchWriter.writeValueAsBytes(batch);
+    }
+
+    public List<FileWorkerResults> decodeBatch(byte[] bytes) throws IOException {
+        return batchReader.readValue(bytes);
+    }
+
+    /**
+     * Returns mapper configured to write and read results with their class.  For streaming many results at once.
+     */
+    public ObjectMapper getObjectMapper() {
+        return objectMapper;
+    }
+
+    /**
+     * Mix-in adding type information to FileWorkerResults and all its subclasses.
+     */
+    @JsonTypeInfo(use = JsonTypeInfo.Id.CLASS, include = JsonTypeInfo.As.PROPERTY, property = CLASS_PROPERTY)
+    private abstract static class TypedResults {
+    }
+}
@@ -0,0 +1,127 @@
+package com.ddnconsulting.fileprocessor.resultshandlers;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Bounded, lock-free queue for many producers (worker threads) and consumers (usually one).  This is Dmitry Vyukov's
+ * bounded MPMC queue: each slot has a sequence number that says whether it is ready to be written or read, so
+ * producers and consumers only contend on a compare-and-set of their own position and never lock or allocate.
+ *
+ * Capacity is rounded up to a power of two.
+ *
+ * @author Dan Nathanson
+ */
+class RingBuffer<E> {
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong enqueuePosition = new AtomicLong();
+    private final AtomicLong dequeuePosition = new AtomicLong();
+
+    RingBuffer(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity out of range: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        elements = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds element if there is room.
+     *
+     * @return false if the buffer is full
+     */
+    boolean offer(E element) {
+        long position = enqueuePosition.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (enqueuePosition.compareAndSet(position, position + 1)) {
+                    elements.set(index, element);
+                    // Publishes the element to consumers
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = enqueuePosition.get();
+            }
+            else if (difference < 0) {
+                return false;
+            }
+            else {
+                // Another producer took this slot
+                position = enqueuePosition.get();
+            }
+        }
+    }
+
+    /**
+     * Removes and returns oldest element, or null if empty.
+     */
+    E poll() {
+        long position = dequeuePosition.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (dequeuePosition.compareAndSet(position, position + 1)) {
+                    E element = elements.get(index);
+                    elements.lazySet(index, null);
+                    // Hands the slot back to producers, one lap on
+                    sequences.lazySet(index, position + mask + 1);
+                    return element;
+                }
+                position = dequeuePosition.get();
+            }
+            else if (difference < 0) {
+                return null;
+            }
+            else {
+                position = dequeuePosition.get();
+            }
+        }
+    }
+
+    /**
+     * Moves up to max elements into target.
+     *
+     * @return number of elements moved
+     */
+    int drainTo(List<? super E> target, int max) {
+        int count = 0;
+        E element;
+        while (count < max && (element = poll()) != null) {
+            target.add(element);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Number of elements in the buffer.  Only approximate while producers or consumers are active.
+     */
+    int size() {
+        long size = enqueuePosition.get() - dequeuePosition.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
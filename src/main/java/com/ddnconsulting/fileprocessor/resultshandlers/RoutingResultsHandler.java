@@ -0,0 +1,196 @@
+package com.ddnconsulting.fileprocessor.resultshandlers;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.ddnconsulting.fileprocessor.workers.FileWorker;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Sends results to different handlers depending on the FileWorker that produced them or the type of the results.
+ * Routes are keyed by the simple name of a worker class (e.g. "JarFileContentsLister") or of a results class (e.g.
+ * "FileSizeResults").  Results go to every handler routed from their worker or their type; results matching no route
+ * go to the default handler.
+ *
+ * Routing is done on the worker's thread, so route handlers should be quick to accept results.  Wrapping each in its
+ * own {@link AsyncResultsHandler} gives each route its own queue and consumer thread: a slow handler then only holds
+ * up the workers whose results are routed to it, once its queue is full, and not the rest.
+ *
+ * Routes must all be added before results are handled.  Which handlers a (worker, results type) pair goes to is
+ * worked out the first time it is seen and remembered.
+ *
+ * @author Dan Nathanson
+ */
+public class RoutingResultsHandler implements WorkerAwareResultsHandler, ScanAwareResultsHandler, Flushable,
+                                              Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(RoutingResultsHandler.class);
+
+    private final ResultsHandler defaultHandler;
+    private final Map<String, List<ResultsHandler>> routes = new ConcurrentHashMap<>();
+
+    // Handlers for results of each type from each worker class (Void for results with no known worker)
+    private final ConcurrentMap<Class<?>, ConcurrentMap<Class<?>, ResultsHandler[]>> resolved =
+            new ConcurrentHashMap<>();
+
+    public RoutingResultsHandler(ResultsHandler defaultHandler) {
+        this.defaultHandler = defaultHandler;
+    }
+
+    /**
+     * Routes results from a worker, or of a type, to handler as well as to any handlers already routed from it.
+     *
+     * @param key simple name of a FileWorker or FileWorkerResults class
+     */
+    public synchronized void addRoute(String key, ResultsHandler handler) {
+        if (!resolved.isEmpty()) {
+            throw new IllegalStateException("All routes must be added before any results are handled");
+        }
+        List<ResultsHandler> handlers = routes.get(key);
+        if (handlers == null) {
+            handlers = new ArrayList<>();
+            routes.put(key, handlers);
+        }
+        handlers.add(handler);
+    }
+
+    /**
+     * Routes results by type only.
+     */
+    @Override
+    public void handleResults(FileWorkerResults results) {
+        route(Void.class, results);
+    }
+
+    /**
+     * Routes results by worker and type.
+     */
+    @Override
+    public void handleResults(FileWorker worker, FileWorkerResults results) {
+        route(worker.getClass(), results);
+    }
+
+    private void route(Class<?> workerClass, FileWorkerResults results) {
+        ConcurrentMap<Class<?>, ResultsHandler[]> byResultsType = resolved.get(workerClass);
+        ResultsHandler[] handlers = byResultsType == null ? null : byResultsType.get(results.getClass());
+        if (handlers == null) {
+            handlers = resolve(workerClass, results.getClass());
+        }
+        for (ResultsHandler handler : handlers) {
+            handler.handleResults(results);
+        }
+    }
+
+    private synchronized ResultsHandler[] resolve(Class<?> workerClass, Class<?> resultsClass) {
+        ConcurrentMap<Class<?>, ResultsHandler[]> byResultsType = resolved.get(workerClass);
+        if (byResultsType == null) {
+            byResultsType = new ConcurrentHashMap<>();
+            resolved.put(workerClass, byResultsType);
+        }
+        ResultsHandler[] handlers = byResultsType.get(resultsClass);
+        if (handlers != null) {
+            return handlers;
+        }
+
+        Set<ResultsHandler> matched = new LinkedHashSet<>();
+        addHandlers(workerClass.getSimpleName(), matched);
+        addHandlers(resultsClass.getSimpleName(), matched);
+        if (matched.isEmpty()) {
+            matched.add(defaultHandler);
+        }
+        handlers = matched.toArray(new ResultsHandler[matched.size()]);
+        byResultsType.put(resultsClass, handlers);
+        LOG.debug(resultsClass.getSimpleName() + " from " + workerClass.getSimpleName() + " routed to " +
+                  matched.size() + " handler(s)");
+        return handlers;
+    }
+
+    private void addHandlers(String key, Set<ResultsHandler> matched) {
+        List<ResultsHandler> handlers = routes.get(key);
+        if (handlers != null) {
+            matched.addAll(handlers);
+        }
+    }
+
+    /**
+     * Tells every handler that reports on whole scans.
+     */
+    @Override
+    public void scanStarted(Path root) {
+        for (ResultsHandler handler : getHandlers()) {
+            if (handler instanceof ScanAwareResultsHandler) {
+                ((ScanAwareResultsHandler) handler).scanStarted(root);
+            }
+        }
+    }
+
+    /**
+     * Tells every handler that reports on whole scans.
+     */
+    @Override
+    public void scanCompleted(Path root) throws IOException {
+        for (ResultsHandler handler : getHandlers()) {
+            if (handler instanceof ScanAwareResultsHandler) {
+                ((ScanAwareResultsHandler) handler).scanCompleted(root);
+            }
+        }
+    }
+
+    /**
+     * Flushes every handler that can be flushed.
+     */
+    @Override
+    public void flush() throws IOException {
+        for (ResultsHandler handler : getHandlers()) {
+            if (handler instanceof Flushable) {
+                ((Flushable) handler).flush();
+            }
+        }
+    }
+
+    /**
+     * Closes every handler that can be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (ResultsHandler handler : getHandlers()) {
+            if (handler instanceof Closeable) {
+                try {
+                    ((Closeable) handler).close();
+                }
+                catch (IOException e) {
+                    LOG.error("Failed to close " + handler.getClass().getSimpleName(), e);
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Default handler and every routed handler, each once.
+     */
+    public synchronized Set<ResultsHandler> getHandlers() {
+        Set<ResultsHandler> handlers = new LinkedHashSet<>();
+        handlers.add(defaultHandler);
+        for (List<ResultsHandler> routed : routes.values()) {
+            handlers.addAll(routed);
+        }
+        return Collections.unmodifiableSet(handlers);
+    }
+}
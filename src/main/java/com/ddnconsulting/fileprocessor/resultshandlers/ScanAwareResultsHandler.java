@@ -0,0 +1,26 @@
+package com.ddnconsulting.fileprocessor.resultshandlers;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * ResultsHandler that reports on each scan as a whole, e.g. totals for the directories scanned, and so needs to know
+ * when a scan starts and when it has finished.  Unlike {@link java.io.Flushable#flush()}, which may be called at any
+ * time (checkpoints flush the handlers every few seconds), {@link #scanCompleted} is only called once per scan, after
+ * every result of the scan has been handed over.  Handlers wrapping others pass both calls on.
+ *
+ * @author Dan Nathanson
+ */
+public interface ScanAwareResultsHandler extends ResultsHandler {
+
+    /**
+     * Called before any results of a scan of root are handled.
+     */
+    void scanStarted(Path root);
+
+    /**
+     * Called once every result of the scan of root has been handled (or handed over to this handler, for handlers
+     * that queue results: they pass the call on once everything before it has been handled).
+     */
+    void scanCompleted(Path root) throws IOException;
+}
@@ -0,0 +1,19 @@
+package com.ddnconsulting.fileprocessor.resultshandlers;
+
+import com.ddnconsulting.fileprocessor.workers.FileWorker;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+
+/**
+ * ResultsHandler that wants to know which FileWorker produced the results, e.g. to handle each worker's results
+ * differently.  The processor calls {@link #handleResults(FileWorker, FileWorkerResults)} instead of
+ * {@link #handleResults(FileWorkerResults)} on handlers implementing this.
+ *
+ * @author Dan Nathanson
+ */
+public interface WorkerAwareResultsHandler extends ResultsHandler {
+
+    /**
+     * Do something interesting with results from worker
+     */
+    void handleResults(FileWorker worker, FileWorkerResults results);
+}
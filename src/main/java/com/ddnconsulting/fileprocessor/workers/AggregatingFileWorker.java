@@ -0,0 +1,35 @@
+package com.ddnconsulting.fileprocessor.workers;
+
+import java.util.List;
+
+import com.ddnconsulting.fileprocessor.core.ScanJob;
+
+
+/**
+ * FileWorker whose findings are about many files at once (duplicates, for example), so they can only be reported once
+ * every file of a scan has been handled.  Its handle methods return null for files with nothing to report on their
+ * own.  FileProcessor calls {@link #scanStarted} before a scan that runs one of the worker's operations, and
+ * {@link #scanCompleted} once all of the scan's tasks have finished (or been cancelled), passing the results it
+ * returns to the scan's results handler.  Several scans may be running at once (in daemon mode), so findings are kept
+ * by scan: the scan a file was found by is in its context
+ * ({@link com.ddnconsulting.fileprocessor.core.FileContext#getScanJob()}).
+ *
+ * @author Dan Nathanson
+ */
+public interface AggregatingFileWorker extends FileWorker {
+
+    /**
+     * Called before the walk of a scan running one of this worker's operations starts.
+     *
+     * @param scanJob the scan starting
+     */
+    void scanStarted(ScanJob scanJob);
+
+    /**
+     * Called once all tasks of the scan have finished.  Returns what was found in the scan's files, and forgets it.
+     *
+     * @param scanJob the scan that has finished
+     * @return results for the whole scan, possibly empty
+     */
+    List<FileWorkerResults> scanCompleted(ScanJob scanJob);
+}
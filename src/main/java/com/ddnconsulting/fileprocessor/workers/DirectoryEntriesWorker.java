@@ -0,0 +1,55 @@
+package com.ddnconsulting.fileprocessor.workers;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import com.ddnconsulting.fileprocessor.resultshandlers.ResultsHandler;
+
+
+/**
+ * FileWorker for directories that works from the directory's entries as the walk enumerates them, with the attributes
+ * the walk read for each, rather than listing the directory again.  During a scan, instead of running
+ * {@link #handle} in an executor lane, the walk calls {@link #startDirectory} when it comes to a directory the worker
+ * handles, then tells the returned {@link Entries} about each entry it finds and when it has finished.  Results go
+ * straight to the results handler, as many as the worker likes, so big directories can be reported a chunk at a time.
+ *
+ * Entries are reported from the walk's threads (several at once with a parallel walk), in no particular order.
+ * {@link #handle} is still used outside a walk.
+ *
+ * @author Dan Nathanson
+ */
+public interface DirectoryEntriesWorker extends FileWorker {
+
+    /**
+     * Starts on a directory the walk is about to enumerate.
+     *
+     * @param results where results for the directory go
+     * @return told about the directory's entries
+     */
+    Entries startDirectory(Path dir, ResultsHandler results);
+
+
+    /**
+     * Entries of one directory, as the walk finds them.  Must be thread-safe.
+     */
+    interface Entries {
+
+        /**
+         * An entry, with the attributes the walk read for it (symbolic links not followed).
+         */
+        void entryFound(Path entry, BasicFileAttributes attrs);
+
+        /**
+         * An entry whose attributes couldn't be read.
+         */
+        void entryFailed(Path entry, IOException e);
+
+        /**
+         * The walk has finished with the directory.
+         *
+         * @param e why the directory couldn't be read (completely), or null
+         */
+        void finished(IOException e);
+    }
+}
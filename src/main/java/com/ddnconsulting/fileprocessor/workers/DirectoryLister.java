@@ -1,11 +1,17 @@
 package com.ddnconsulting.fileprocessor.workers;
 
-import java.io.File;
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.List;
 
 import com.ddnconsulting.fileprocessor.core.FileClassifier;
+import com.ddnconsulting.fileprocessor.resultshandlers.ResultsHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,11 +19,23 @@ import org.slf4j.LoggerFactory;
 /**
  * Prints a listing of files in a directory to the log (for lack of a better place).
  *
+ * During a scan the listing is made from the walk's own enumeration of the directory ({@link DirectoryEntriesWorker}):
+ * the directory isn't read again and each entry's type comes from the attributes the walk already read, so there is
+ * no extra stat per entry.  Listings are reported in chunks of up to chunkSize entries as the walk finds them, so a
+ * directory of a million entries is never held in memory at once; each chunk is numbered, and the last says so.
+ * Outside a scan, {@link #handle} lists the directory itself, with a DirectoryStream, as a single chunk.
+ *
+ * Either way, entries are typed by what they point to: a symbolic link to a directory is listed as a DIRECTORY.  The
+ * walk doesn't follow links, so during a scan only symbolic links are looked at again.
+ *
  * @author Dan Nathanson
  */
-public class DirectoryLister implements FileWorker {
+@WorkerMapping(operations = "dir", types = FileClassifier.FILE_TYPE_DIRECTORY)
+public class DirectoryLister implements DirectoryEntriesWorker {
     private static final Logger LOG = LoggerFactory.getLogger(DirectoryLister.class);
 
+    private int chunkSize = 1000;
+
 
     /**
      * List all files in a directory, distinguishing between files and subdirectories
@@ -29,42 +47,61 @@ public class DirectoryLister implements FileWorker {
     public FileWorkerResults handle(Path filePath) {
         DirectoryListResults results = new DirectoryListResults();
         results.setSuccess(true);
-
         results.setFilename(filePath.toString());
-        try {
-            File[] files = filePath.toFile().listFiles();
-            if (files == null) {
-                results.setErrorMessage("could not read contents");
-                results.setSuccess(false);
-            }
-            else  {
-                List<DirectoryEntry> directoryEntries = new ArrayList<>();
-                results.setEntries(directoryEntries);
-                for (File file : files) {
-                    DirectoryEntry entry = new DirectoryEntry();
-                    entry.setFilename(file.getName());
-                    try {
-                        if (file.isDirectory()) {
-                            entry.setType(FileType.DIRECTORY);
-                        }
-                        else {
-                            entry.setType(FileType.FILE);
-                        }
-                    }
-                    catch (SecurityException e) {
-                        entry.setType(FileType.PERMISSION_DENIED);
-                    }
-                    directoryEntries.add(entry);
-                }
+        results.setLastChunk(true);
+
+        List<DirectoryEntry> directoryEntries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(filePath)) {
+            for (Path file : stream) {
+                directoryEntries.add(newEntry(file, typeOf(file)));
             }
+            results.setEntries(directoryEntries);
         }
-        catch (SecurityException e) {
+        catch (AccessDeniedException | SecurityException e) {
             results.setErrorMessage("permission denied");
             results.setSuccess(false);
         }
+        catch (IOException | DirectoryIteratorException e) {
+            results.setErrorMessage("could not read contents");
+            results.setSuccess(false);
+        }
         return results;
     }
 
+    /**
+     * Starts a listing of dir fed by the walk.
+     */
+    @Override
+    public Entries startDirectory(Path dir, ResultsHandler results) {
+        return new Listing(dir, results);
+    }
+
+    /**
+     * Number of entries reported in each chunk of a listing made during a scan.
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Type of the entry, following symbolic links.
+     */
+    private static FileType typeOf(Path file) {
+        try {
+            return Files.isDirectory(file) ? FileType.DIRECTORY : FileType.FILE;
+        }
+        catch (SecurityException e) {
+            return FileType.PERMISSION_DENIED;
+        }
+    }
+
+    private static DirectoryEntry newEntry(Path file, FileType type) {
+        DirectoryEntry entry = new DirectoryEntry();
+        entry.setFilename(file.getFileName().toString());
+        entry.setType(type);
+        return entry;
+    }
+
     /**
      * Returns true iff:
      *  operation == "dir"
@@ -80,8 +117,90 @@ public class DirectoryLister implements FileWorker {
                "dir".equalsIgnoreCase(operation);
     }
 
+
+    /**
+     * Listing of one directory, fed by the walk.  Entries are collected until there are enough for a chunk.
+     */
+    private final class Listing implements Entries {
+        private final Path dir;
+        private final ResultsHandler results;
+        private List<DirectoryEntry> chunk;
+        private int chunks;
+
+        Listing(Path dir, ResultsHandler results) {
+            this.dir = dir;
+            this.results = results;
+            this.chunk = new ArrayList<>();
+        }
+
+        @Override
+        public void entryFound(Path entry, BasicFileAttributes attrs) {
+            FileType type;
+            if (attrs.isDirectory()) {
+                type = FileType.DIRECTORY;
+            }
+            else if (attrs.isSymbolicLink()) {
+                // Walk's attributes are of the link itself
+                type = typeOf(entry);
+            }
+            else {
+                type = FileType.FILE;
+            }
+            add(newEntry(entry, type));
+        }
+
+        @Override
+        public void entryFailed(Path entry, IOException e) {
+            add(newEntry(entry, FileType.PERMISSION_DENIED));
+        }
+
+        @Override
+        public void finished(IOException e) {
+            DirectoryListResults last;
+            synchronized (this) {
+                last = newChunk();
+                last.setLastChunk(true);
+                if (e != null) {
+                    LOG.debug("Could not read contents of [" + dir + "]: " + e.getMessage());
+                    last.setErrorMessage(e instanceof AccessDeniedException ? "permission denied"
+                                                                            : "could not read contents");
+                    last.setSuccess(false);
+                }
+            }
+            results.handleResults(last);
+        }
+
+        private void add(DirectoryEntry entry) {
+            DirectoryListResults full = null;
+            synchronized (this) {
+                chunk.add(entry);
+                if (chunk.size() >= chunkSize) {
+                    full = newChunk();
+                }
+            }
+            if (full != null) {
+                results.handleResults(full);
+            }
+        }
+
+        /**
+         * Results for the entries collected so far, which are forgotten.
+         */
+        private DirectoryListResults newChunk() {
+            DirectoryListResults listed = new DirectoryListResults();
+            listed.setSuccess(true);
+            listed.setFilename(dir.toString());
+            listed.setChunk(chunks++);
+            listed.setEntries(chunk);
+            chunk = new ArrayList<>();
+            return listed;
+        }
+    }
+
     public static final class DirectoryListResults extends FileWorkerResults {
         private String filename;
+        private int chunk;
+        private boolean lastChunk;
         private List<DirectoryEntry> entries;
 
         public String getFilename() {
@@ -92,6 +211,28 @@ public class DirectoryLister implements FileWorker {
             this.filename = filename;
         }
 
+        /**
+         * Number of this chunk of the directory's listing, from 0.
+         */
+        public int getChunk() {
+            return chunk;
+        }
+
+        public void setChunk(int chunk) {
+            this.chunk = chunk;
+        }
+
+        /**
+         * True for the last chunk of the directory's listing.
+         */
+        public boolean isLastChunk() {
+            return lastChunk;
+        }
+
+        public void setLastChunk(boolean lastChunk) {
+            this.lastChunk = lastChunk;
+        }
+
         public List<DirectoryEntry> getEntries() {
             return entries;
         }
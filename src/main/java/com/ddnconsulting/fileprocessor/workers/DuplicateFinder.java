@@ -0,0 +1,637 @@
+package com.ddnconsulting.fileprocessor.workers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ddnconsulting.fileprocessor.core.ArchiveEntryContext;
+import com.ddnconsulting.fileprocessor.core.FileClassifier;
+import com.ddnconsulting.fileprocessor.core.FileContent;
+import com.ddnconsulting.fileprocessor.core.FileContext;
+import com.ddnconsulting.fileprocessor.core.ScanJob;
+import com.ddnconsulting.fileprocessor.hash.ContentHasher;
+import com.ddnconsulting.fileprocessor.hash.Hashes;
+import com.ddnconsulting.fileprocessor.hash.XxHash64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Finds files with the same contents ("dupes"), reading as little of each file as it can.  Files pass through three
+ * stages, each only reached by files that still might have a duplicate:
+ * <ol>
+ *     <li>size: every file is put in a bucket by the size the walk read from its attributes.  A file alone in its
+ *     bucket is never read at all</li>
+ *     <li>partial hash: once a bucket has two files, each of its files gets an xxHash64 of its first and last 4 KB
+ *     (the whole file, if that's all there is)</li>
+ *     <li>full hash: files whose partial hash matches another's in the bucket get a SHA-256 of their whole contents
+ *     ({@link ContentHasher}, so huge files are hashed in parallel)</li>
+ * </ol>
+ * Stages run as files arrive, on the worker threads, so a file's later stages are often reached while the file is
+ * being handled and its contents (shared with its other workers) are at hand.  The first file of a bucket is only read
+ * when the second arrives, from its path.  Each hash is computed once, however many files it is compared with.
+ *
+ * Hard links to a file already seen (same file key) are counted but never read or reported as duplicates: they take
+ * no space of their own.  Files without a file key are always treated as different files.  Entries of archives aren't
+ * looked at.
+ *
+ * Nothing is reported for each file.  At the end of the scan, each set of files with the same contents is reported as
+ * a {@link DuplicateGroupResults} (largest waste first), followed by a {@link DuplicateSummaryResults} with totals.
+ * Only a path and size (and hashes, if read) are kept per file until then.  Each scan has an index of its own (found
+ * through the scan job in the file's context), so scans running at the same time in daemon mode each report only
+ * duplicates among their own files.  Files handed over outside a scan share one index, reported by
+ * {@code scanCompleted(null)}.
+ *
+ * Thread-safe.
+ *
+ * @author Dan Nathanson
+ */
+@WorkerLane(value = "content", threads = 2)
+@WorkerMapping(operations = "dupes",
+               excludeTypes = {FileClassifier.FILE_TYPE_DIRECTORY, FileClassifier.FILE_TYPE_SPECIAL})
+public class DuplicateFinder implements FileContextWorker, AggregatingFileWorker {
+    private static final Logger LOG = LoggerFactory.getLogger(DuplicateFinder.class);
+
+    private final ContentHasher hasher;
+    private final int partialSize;
+    private final long minSize;
+
+    // Index of each scan running, by scan job (NO_SCAN for files handed over outside a scan)
+    private static final Object NO_SCAN = new Object();
+    private final ConcurrentMap<Object, ScanIndex> scans = new ConcurrentHashMap<>();
+
+    /**
+     * @param hasher computes full hashes
+     * @param partialSize bytes hashed from each end of a file for its partial hash
+     * @param minSize smaller files (e.g. empty ones) are ignored
+     */
+    public DuplicateFinder(ContentHasher hasher, int partialSize, long minSize) {
+        this.hasher = hasher;
+        this.partialSize = partialSize;
+        this.minSize = minSize;
+    }
+
+    /**
+     * Adds the file to the index.
+     *
+     * @param filePath the file to process.
+     * @return null: duplicates are reported at the end of the scan
+     */
+    @Override
+    public FileWorkerResults handle(Path filePath) {
+        FileContext context = new FileContext(filePath);
+        try {
+            return handle(context);
+        }
+        finally {
+            try {
+                context.closeContent();
+            }
+            catch (IOException e) {
+                LOG.warn("Failed to close file [" + filePath + "]", e);
+            }
+        }
+    }
+
+    /**
+     * Adds the file to its size bucket and, if the bucket has other files, takes it (and them) through as many stages
+     * as it takes to tell them apart.
+     *
+     * @param context the file to process.
+     * @return null: duplicates are reported at the end of the scan
+     */
+    @Override
+    public FileWorkerResults handle(FileContext context) {
+        if (context instanceof ArchiveEntryContext) {
+            return null;
+        }
+        ScanIndex scan = indexFor(context.getScanJob());
+        if (scan == null) {
+            LOG.debug("Ignoring [" + context.getPath() + "]: its scan has finished");
+            return null;
+        }
+        Counters counters = scan.counters;
+        Candidate file;
+        try {
+            if (context.size() < minSize) {
+                return null;
+            }
+            file = new Candidate(context.getPath().toString(), context.size(), context.getAttributes().fileKey());
+        }
+        catch (IOException e) {
+            LOG.debug("Could not read attributes of [" + context.getPath() + "]: " + e.getMessage());
+            counters.unreadable.incrementAndGet();
+            return null;
+        }
+
+        ConcurrentMap<Long, SizeBucket> index = scan.buckets;
+        SizeBucket bucket = index.get(file.size);
+        if (bucket == null) {
+            SizeBucket created = new SizeBucket();
+            bucket = index.putIfAbsent(file.size, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+
+        Candidate first;
+        synchronized (bucket) {
+            if (file.fileKey != null) {
+                if (bucket.byFileKey.containsKey(file.fileKey)) {
+                    counters.hardLinks.incrementAndGet();
+                    return null;
+                }
+                bucket.byFileKey.put(file.fileKey, file);
+            }
+            counters.files.incrementAndGet();
+            bucket.count++;
+            if (bucket.count == 1) {
+                // Alone (so far): not read
+                bucket.first = file;
+                return null;
+            }
+            first = bucket.count == 2 ? bucket.first : null;
+            bucket.first = null;
+        }
+
+        // Files whose partial hashes match another's in the bucket, and which haven't been picked for a full hash yet
+        List<Candidate> toHash = new ArrayList<>(2);
+        if (first != null) {
+            partialHash(counters, first, null);
+            index(bucket, first, toHash);
+        }
+        partialHash(counters, file, context);
+        index(bucket, file, toHash);
+
+        for (Candidate candidate : toHash) {
+            fullHash(counters, candidate, candidate == file ? context : null);
+        }
+        return null;
+    }
+
+    /**
+     * Adds file to bucket's partial hash index, adding it and the files it matches to toHash if they haven't been
+     * picked for a full hash already.
+     */
+    private static void index(SizeBucket bucket, Candidate file, List<Candidate> toHash) {
+        if (file.unreadable) {
+            return;
+        }
+        synchronized (bucket) {
+            List<Candidate> matches = bucket.byPartialHash.get(file.partialHash);
+            if (matches == null) {
+                matches = new ArrayList<>(2);
+                bucket.byPartialHash.put(file.partialHash, matches);
+            }
+            else {
+                for (Candidate match : matches) {
+                    pick(match, toHash);
+                }
+                pick(file, toHash);
+            }
+            matches.add(file);
+        }
+    }
+
+    private static void pick(Candidate file, List<Candidate> toHash) {
+        if (!file.picked) {
+            file.picked = true;
+            toHash.add(file);
+        }
+    }
+
+    /**
+     * Hashes the first and last partialSize bytes of file, from the file's shared contents if context is given.
+     */
+    private void partialHash(Counters counters, Candidate file, FileContext context) {
+        synchronized (file) {
+            if (file.partialHashed || file.unreadable) {
+                return;
+            }
+            if (file.size <= 2L * partialSize) {
+                // Reading the ends would read the whole file: go straight to the full hash
+                fullHash(counters, file, context);
+                file.partialHash = file.hashes == null ? 0 : file.hashes.getXxHash64();
+                file.partialHashed = true;
+                return;
+            }
+            FileContent content = null;
+            try {
+                content = context != null ? context.getContent() : FileContent.open(Paths.get(file.path));
+                XxHash64 hash = new XxHash64();
+                hash.update(content.getBuffer(0, partialSize));
+                hash.update(content.getBuffer(file.size - partialSize, partialSize));
+                file.partialHash = hash.getValue();
+                file.partialHashed = true;
+                counters.partialHashed.incrementAndGet();
+                counters.bytesRead.addAndGet(2L * partialSize);
+            }
+            catch (IOException e) {
+                unreadable(counters, file, e);
+            }
+            finally {
+                if (context == null) {
+                    close(content, file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hashes all of file, from the file's shared contents if context is given.
+     */
+    private void fullHash(Counters counters, Candidate file, FileContext context) {
+        synchronized (file) {
+            if (file.hashes != null || file.unreadable) {
+                return;
+            }
+            FileContent content = null;
+            try {
+                content = context != null ? context.getContent() : FileContent.open(Paths.get(file.path));
+                file.hashes = hasher.hash(content);
+                counters.fullHashed.incrementAndGet();
+                counters.bytesRead.addAndGet(file.size);
+            }
+            catch (IOException e) {
+                unreadable(counters, file, e);
+            }
+            finally {
+                if (context == null) {
+                    close(content, file);
+                }
+            }
+        }
+    }
+
+    private static void unreadable(Counters counters, Candidate file, IOException e) {
+        LOG.warn("Could not read [" + file.path + "] to compare it: " + e.getMessage());
+        file.unreadable = true;
+        counters.unreadable.incrementAndGet();
+    }
+
+    private static void close(FileContent content, Candidate file) {
+        if (content != null) {
+            try {
+                content.close();
+            }
+            catch (IOException e) {
+                LOG.warn("Failed to close file [" + file.path + "]", e);
+            }
+        }
+    }
+
+    /**
+     * Returns true iff:
+     *  operation == "dupes"
+     *
+     *  Works for any type of file except directories and special files
+     */
+    @Override
+    public boolean canHandle(String operation, String type) {
+        return "dupes".equals(operation) &&
+                !FileClassifier.FILE_TYPE_DIRECTORY.equalsIgnoreCase(type) &&
+                !FileClassifier.FILE_TYPE_SPECIAL.equalsIgnoreCase(type);
+    }
+
+    /**
+     * Returns index of scan (null for files handed over outside a scan), or null if the scan isn't running.
+     */
+    private ScanIndex indexFor(ScanJob scanJob) {
+        if (scanJob != null) {
+            return scans.get(scanJob);
+        }
+        ScanIndex index = scans.get(NO_SCAN);
+        if (index == null) {
+            ScanIndex created = new ScanIndex();
+            index = scans.putIfAbsent(NO_SCAN, created);
+            if (index == null) {
+                index = created;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Starts an empty index for scan's files.
+     */
+    @Override
+    public void scanStarted(ScanJob scanJob) {
+        scans.putIfAbsent(scanJob == null ? NO_SCAN : scanJob, new ScanIndex());
+    }
+
+    /**
+     * Groups scan's files whose full hashes match, and forgets them.  Files of other scans aren't looked at.
+     */
+    @Override
+    public List<FileWorkerResults> scanCompleted(ScanJob scanJob) {
+        ScanIndex scan = scans.remove(scanJob == null ? NO_SCAN : scanJob);
+        if (scan == null) {
+            scan = new ScanIndex();
+        }
+        ConcurrentMap<Long, SizeBucket> index = scan.buckets;
+        DuplicateSummaryResults summary = scan.counters.summarize();
+
+        List<DuplicateGroupResults> groups = new ArrayList<>();
+        for (Map.Entry<Long, SizeBucket> entry : index.entrySet()) {
+            SizeBucket bucket = entry.getValue();
+            synchronized (bucket) {
+                if (bucket.count < 2) {
+                    continue;
+                }
+                summary.setSizeCollisions(summary.getSizeCollisions() + bucket.count);
+                Map<String, List<String>> byHash = new HashMap<>();
+                for (List<Candidate> matches : bucket.byPartialHash.values()) {
+                    for (Candidate file : matches) {
+                        if (file.hashes == null) {
+                            continue;
+                        }
+                        String sha256 = file.hashes.getSha256Hex();
+                        List<String> paths = byHash.get(sha256);
+                        if (paths == null) {
+                            paths = new ArrayList<>(2);
+                            byHash.put(sha256, paths);
+                        }
+                        paths.add(file.path);
+                    }
+                }
+                for (Map.Entry<String, List<String>> same : byHash.entrySet()) {
+                    if (same.getValue().size() > 1) {
+                        groups.add(new DuplicateGroupResults(entry.getKey(), same.getKey(), same.getValue()));
+                    }
+                }
+            }
+        }
+
+        Collections.sort(groups, new Comparator<DuplicateGroupResults>() {
+            @Override
+            public int compare(DuplicateGroupResults a, DuplicateGroupResults b) {
+                return Long.compare(b.getWastedBytes(), a.getWastedBytes());
+            }
+        });
+        for (DuplicateGroupResults group : groups) {
+            summary.setGroups(summary.getGroups() + 1);
+            summary.setDuplicates(summary.getDuplicates() + group.getFiles().size() - 1);
+            summary.setWastedBytes(summary.getWastedBytes() + group.getWastedBytes());
+        }
+        LOG.info("Duplicates: " + summary.getGroups() + " groups, " + summary.getDuplicates() + " duplicate files, " +
+                 summary.getWastedBytes() + " bytes wasted. Read " + summary.getBytesRead() + " bytes of " +
+                 summary.getFiles() + " files");
+
+        List<FileWorkerResults> results = new ArrayList<FileWorkerResults>(groups);
+        results.add(summary);
+        return results;
+    }
+
+
+    /**
+     * A file that may have duplicates.  Hashes are filled in (once each) under the file's lock.
+     */
+    private static final class Candidate {
+        final String path;
+        final long size;
+        final Object fileKey;
+        boolean partialHashed;
+        long partialHash;
+        Hashes hashes;
+        boolean unreadable;
+        // Guarded by the bucket's lock
+        boolean picked;
+
+        Candidate(String path, long size, Object fileKey) {
+            this.path = path;
+            this.size = size;
+            this.fileKey = fileKey;
+        }
+    }
+
+    /**
+     * Files of one scan, by size, and its counts.
+     */
+    private static final class ScanIndex {
+        final ConcurrentMap<Long, SizeBucket> buckets = new ConcurrentHashMap<>();
+        final Counters counters = new Counters();
+    }
+
+    /**
+     * Files of one size.  Files are only added to the partial hash index once hashed.
+     */
+    private static final class SizeBucket {
+        int count;
+        // Only file so far, not yet hashed
+        Candidate first;
+        final Map<Object, Candidate> byFileKey = new HashMap<>(2);
+        final Map<Long, List<Candidate>> byPartialHash = new HashMap<>(2);
+    }
+
+    private static final class Counters {
+        final AtomicLong files = new AtomicLong();
+        final AtomicLong hardLinks = new AtomicLong();
+        final AtomicLong partialHashed = new AtomicLong();
+        final AtomicLong fullHashed = new AtomicLong();
+        final AtomicLong bytesRead = new AtomicLong();
+        final AtomicLong unreadable = new AtomicLong();
+
+        DuplicateSummaryResults summarize() {
+            DuplicateSummaryResults summary = new DuplicateSummaryResults();
+            summary.setSuccess(true);
+            summary.setFiles(files.get());
+            summary.setHardLinks(hardLinks.get());
+            summary.setPartialHashed(partialHashed.get());
+            summary.setFullHashed(fullHashed.get());
+            summary.setBytesRead(bytesRead.get());
+            summary.setUnreadable(unreadable.get());
+            return summary;
+        }
+    }
+
+
+    /**
+     * Files with the same contents.
+     */
+    public static final class DuplicateGroupResults extends FileWorkerResults {
+        private long size;
+        private String sha256;
+        private List<String> files;
+
+        public DuplicateGroupResults() {
+        }
+
+        DuplicateGroupResults(long size, String sha256, List<String> files) {
+            this.size = size;
+            this.sha256 = sha256;
+            this.files = new ArrayList<>(files);
+            Collections.sort(this.files);
+            setSuccess(true);
+        }
+
+        /**
+         * Size of each file.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+
+        /**
+         * SHA-256 of each file's contents (a tree hash for very big files), as lower case hex.
+         */
+        public String getSha256() {
+            return sha256;
+        }
+
+        public void setSha256(String sha256) {
+            this.sha256 = sha256;
+        }
+
+        /**
+         * Paths of the files, sorted.  One path per file: hard links aren't listed.
+         */
+        public List<String> getFiles() {
+            return files;
+        }
+
+        public void setFiles(List<String> files) {
+            this.files = files;
+        }
+
+        /**
+         * Space taken by all but one of the files.
+         */
+        public long getWastedBytes() {
+            return files == null || files.isEmpty() ? 0 : size * (files.size() - 1);
+        }
+    }
+
+    /**
+     * Totals for a scan.
+     */
+    public static final class DuplicateSummaryResults extends FileWorkerResults {
+        private long files;
+        private long sizeCollisions;
+        private long hardLinks;
+        private long partialHashed;
+        private long fullHashed;
+        private long bytesRead;
+        private long unreadable;
+        private long groups;
+        private long duplicates;
+        private long wastedBytes;
+
+        /**
+         * Number of files looked at (hard links to files already seen aside).
+         */
+        public long getFiles() {
+            return files;
+        }
+
+        public void setFiles(long files) {
+            this.files = files;
+        }
+
+        /**
+         * Number of files the same size as another.
+         */
+        public long getSizeCollisions() {
+            return sizeCollisions;
+        }
+
+        public void setSizeCollisions(long sizeCollisions) {
+            this.sizeCollisions = sizeCollisions;
+        }
+
+        /**
+         * Number of hard links to files already seen.
+         */
+        public long getHardLinks() {
+            return hardLinks;
+        }
+
+        public void setHardLinks(long hardLinks) {
+            this.hardLinks = hardLinks;
+        }
+
+        /**
+         * Number of files whose ends were hashed.
+         */
+        public long getPartialHashed() {
+            return partialHashed;
+        }
+
+        public void setPartialHashed(long partialHashed) {
+            this.partialHashed = partialHashed;
+        }
+
+        /**
+         * Number of files hashed whole.
+         */
+        public long getFullHashed() {
+            return fullHashed;
+        }
+
+        public void setFullHashed(long fullHashed) {
+            this.fullHashed = fullHashed;
+        }
+
+        /**
+         * Bytes read to tell files apart.
+         */
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public void setBytesRead(long bytesRead) {
+            this.bytesRead = bytesRead;
+        }
+
+        /**
+         * Number of files that couldn't be read, and so aren't in any group.
+         */
+        public long getUnreadable() {
+            return unreadable;
+        }
+
+        public void setUnreadable(long unreadable) {
+            this.unreadable = unreadable;
+        }
+
+        public long getGroups() {
+            return groups;
+        }
+
+        public void setGroups(long groups) {
+            this.groups = groups;
+        }
+
+        /**
+         * Number of files that are copies of another (files in groups, less one per group).
+         */
+        public long getDuplicates() {
+            return duplicates;
+        }
+
+        public void setDuplicates(long duplicates) {
+            this.duplicates = duplicates;
+        }
+
+        public long getWastedBytes() {
+            return wastedBytes;
+        }
+
+        public void setWastedBytes(long wastedBytes) {
+            this.wastedBytes = wastedBytes;
+        }
+    }
+}
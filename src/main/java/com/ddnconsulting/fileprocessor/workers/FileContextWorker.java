@@ -0,0 +1,23 @@
+package com.ddnconsulting.fileprocessor.workers;
+
+import com.ddnconsulting.fileprocessor.core.FileContext;
+
+/**
+ * FileWorker that can use what the directory walk and the FileClassifier already know about a file (attributes such
+ * as size and file key, and the file's type) instead of going back to the file system for them.  When a worker
+ * implements this interface, {@link #handle(FileContext)} is called instead of {@link #handle(java.nio.file.Path)}.
+ *
+ * @author Dan Nathanson
+ */
+public interface FileContextWorker extends FileWorker {
+
+    /**
+     * Handle a file. Return JSON report of results.
+     *
+     * It is recommended that long running operations are performed asynchronously.
+     *
+     * @param context the file to process, along with its cached attributes and type
+     * @return JSON report
+     */
+    FileWorkerResults handle(FileContext context);
+}
@@ -3,6 +3,7 @@ package com.ddnconsulting.fileprocessor.workers;
 import java.nio.file.Path;
 
 import com.ddnconsulting.fileprocessor.core.FileClassifier;
+import com.ddnconsulting.fileprocessor.core.FileContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -12,8 +13,8 @@ import org.slf4j.LoggerFactory;
  *
  * @author Dan Nathanson
  */
-
-public class FileSizeWorker implements FileWorker {
+@WorkerMapping(operations = "sizeof", excludeTypes = FileClassifier.FILE_TYPE_DIRECTORY)
+public class FileSizeWorker implements FileContextWorker {
     private static final Logger LOG = LoggerFactory.getLogger(FileSizeWorker.class);
 
     /**
@@ -38,6 +39,28 @@ public class FileSizeWorker implements FileWorker {
         return results;
     }
 
+    /**
+     * Prints the size of the file to the log.  Uses size from the attributes read during the directory walk.
+     *
+     * @param context the file to process.
+     * @return true if file processed successfully
+     */
+    @Override
+    public FileWorkerResults handle(FileContext context) {
+        FileSizeResults results = new FileSizeResults();
+        results.setFilename(context.getPath().toString());
+        try {
+            results.setSize(context.size());
+            results.setSuccess(true);
+        }
+        catch (Exception e) {
+            LOG.error("Could not get size of file [" + context.getPath() + "]");
+            results.setErrorMessage("Could not get size of file");
+            results.setSuccess(false);
+        }
+        return results;
+    }
+
     /**
      * Returns true iff:
      *  operation == "size"
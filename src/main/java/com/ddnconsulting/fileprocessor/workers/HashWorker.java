@@ -0,0 +1,161 @@
+package com.ddnconsulting.fileprocessor.workers;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+
+import com.ddnconsulting.fileprocessor.core.FileClassifier;
+import com.ddnconsulting.fileprocessor.core.FileContext;
+import com.ddnconsulting.fileprocessor.hash.ContentHasher;
+import com.ddnconsulting.fileprocessor.hash.Hashes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Computes the SHA-256 and xxHash64 of each file (not directory), for finding duplicates or checking files haven't
+ * changed.  The file is read once, through the contents shared by all workers on the file, and fed to both hashes as it
+ * goes; see {@link ContentHasher} for how files of different sizes are read, and how very big ones are hashed in
+ * parallel.
+ *
+ * Hashing reads every byte of every file, so this worker runs in the "content" lane, whose threads (with
+ * lane.content.threads) decide how many files are hashed at once.
+ *
+ * @author Dan Nathanson
+ */
+@WorkerLane(value = "content", threads = 2)
+@WorkerMapping(operations = "hash",
+               excludeTypes = {FileClassifier.FILE_TYPE_DIRECTORY, FileClassifier.FILE_TYPE_SPECIAL})
+public class HashWorker implements FileContextWorker {
+    private static final Logger LOG = LoggerFactory.getLogger(HashWorker.class);
+
+    private final ContentHasher hasher;
+
+    public HashWorker(ContentHasher hasher) {
+        this.hasher = hasher;
+    }
+
+    /**
+     * Hashes the file.
+     *
+     * @param filePath the file to process.
+     * @return true if file processed successfully
+     */
+    @Override
+    public FileWorkerResults handle(Path filePath) {
+        FileContext context = new FileContext(filePath);
+        try {
+            return handle(context);
+        }
+        finally {
+            try {
+                context.closeContent();
+            }
+            catch (IOException e) {
+                LOG.warn("Failed to close file [" + filePath + "]", e);
+            }
+        }
+    }
+
+    /**
+     * Hashes the file contents shared by all workers on this file.
+     *
+     * @param context the file to process.
+     * @return true if file processed successfully
+     */
+    @Override
+    public FileWorkerResults handle(FileContext context) {
+        HashResults results = new HashResults();
+        results.setFilename(context.getPath().toString());
+        try {
+            Hashes hashes = hasher.hash(context.getContent());
+            results.setSize(context.size());
+            results.setSha256(hashes.getSha256Hex());
+            results.setXxHash64(hashes.getXxHash64Hex());
+            results.setChunkSize(hashes.getChunkSize());
+            results.setSuccess(true);
+        }
+        catch (InterruptedIOException e) {
+            results.setErrorMessage("Interrupted while hashing file");
+            results.setSuccess(false);
+        }
+        catch (IOException e) {
+            LOG.error("Could not hash file [" + context.getPath() + "]: " + e.getMessage());
+            results.setErrorMessage("Could not hash file: " + e.getMessage());
+            results.setSuccess(false);
+        }
+        return results;
+    }
+
+    /**
+     * Returns true iff:
+     *  operation == "hash"
+     *
+     *  Works for any type of file except directories and special files
+     */
+    @Override
+    public boolean canHandle(String operation, String type) {
+        return "hash".equals(operation) &&
+                !FileClassifier.FILE_TYPE_DIRECTORY.equalsIgnoreCase(type) &&
+                !FileClassifier.FILE_TYPE_SPECIAL.equalsIgnoreCase(type);
+    }
+
+
+    public static final class HashResults extends FileWorkerResults {
+        private String filename;
+        private long size;
+        private String sha256;
+        private String xxHash64;
+        private int chunkSize;
+
+        public String getFilename() {
+            return filename;
+        }
+
+        public void setFilename(String filename) {
+            this.filename = filename;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+
+        /**
+         * SHA-256 as lower case hex.
+         */
+        public String getSha256() {
+            return sha256;
+        }
+
+        public void setSha256(String sha256) {
+            this.sha256 = sha256;
+        }
+
+        /**
+         * xxHash64 as 16 lower case hex digits.
+         */
+        public String getXxHash64() {
+            return xxHash64;
+        }
+
+        public void setXxHash64(String xxHash64) {
+            this.xxHash64 = xxHash64;
+        }
+
+        /**
+         * Size of the ranges combined into a tree hash, or 0 if the hashes are of the whole file (as sha256sum and
+         * xxhsum would report).
+         */
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        public void setChunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+    }
+}
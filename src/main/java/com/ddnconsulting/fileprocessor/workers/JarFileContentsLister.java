@@ -1,13 +1,17 @@
 package com.ddnconsulting.fileprocessor.workers;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
 
+import com.ddnconsulting.fileprocessor.archive.ZipCentralDirectory;
+import com.ddnconsulting.fileprocessor.archive.ZipEntryRecord;
+import com.ddnconsulting.fileprocessor.core.FileContent;
+import com.ddnconsulting.fileprocessor.core.FileContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -17,11 +21,23 @@ import org.slf4j.LoggerFactory;
  * for JAR files (or any compressed archive) would be to recurse into the archive applying FileWorkers to the files
  * found inside.
  *
+ * The listing comes from the archive's central directory ({@link ZipCentralDirectory}), so only the index at the end
+ * of the archive is read and nothing is inflated.  Damaged archives, whose central directory can't be read, are
+ * listed by streaming through their entries with a ZipInputStream instead.  With details on, each entry's sizes, CRC
+ * and compression method are listed too; they are in the central directory anyway, so this costs no extra I/O (but
+ * makes results much bigger).
+ *
+ * Reading archives is much slower than looking at file metadata, so this worker runs in its own "content" lane.
+ *
  * @author Dan Nathanson
  */
-public class JarFileContentsLister implements FileWorker {
+@WorkerLane(value = "content", threads = 2)
+@WorkerMapping(operations = "dir", types = "application/java-archive")
+public class JarFileContentsLister implements FileContextWorker {
     private static final Logger LOG = LoggerFactory.getLogger(JarFileContentsLister.class);
 
+    private boolean details;
+
 
     /**
      * Handle a file.  It is recommended that long running operations are performed asynchronously.
@@ -31,27 +47,92 @@ public class JarFileContentsLister implements FileWorker {
      */
     @Override
     public FileWorkerResults handle(Path filePath) {
+        FileContext context = new FileContext(filePath);
+        try {
+            return handle(context);
+        }
+        finally {
+            try {
+                context.closeContent();
+            }
+            catch (IOException e) {
+                LOG.warn("Failed to close JAR file [" + filePath + "]", e);
+            }
+        }
+    }
+
+    /**
+     * Lists the archive using the file contents shared by all workers on this file, so the JAR isn't read again for
+     * each worker.
+     *
+     * @param context the file to process.
+     * @return true if file processed successfully
+     */
+    @Override
+    public FileWorkerResults handle(FileContext context) {
         JarContentsResults results = new JarContentsResults();
-        results.setFilename(filePath.toString());
+        results.setFilename(context.getPath().toString());
         results.setSuccess(true);
 
         try {
-            ZipInputStream zip = new ZipInputStream(Files.newInputStream(filePath));
+            FileContent content = context.getContent();
+            try {
+                list(ZipCentralDirectory.read(content), results);
+            }
+            catch (ZipException e) {
+                LOG.warn("Could not read central directory of JAR file [" + context.getPath() + "] (" + e.getMessage() +
+                         "). Streaming through entries instead");
+                stream(content, results);
+            }
+        }
+        catch (IOException e) {
+            results.setErrorMessage("Could not open file");
+            LOG.error("Failed to list contents of JAR file [" + context.getPath() + "]", e);
+        }
+
+        return results;
+    }
+
+    private void list(ZipCentralDirectory directory, JarContentsResults results) {
+        List<ZipEntryRecord> records = directory.getEntries();
+        List<String> files = new ArrayList<>(records.size());
+        List<EntryDetails> entries = details ? new ArrayList<EntryDetails>(records.size()) : null;
+        for (ZipEntryRecord record : records) {
+            files.add(record.getName());
+            if (entries != null) {
+                entries.add(new EntryDetails(record.getName(), record.getSize(), record.getCompressedSize(),
+                                             record.getCrc(), record.getMethod()));
+            }
+        }
+        results.setFiles(files);
+        results.setEntries(entries);
+    }
+
+    /**
+     * Lists entries from their local headers, inflating each one to find the next.  Only for damaged archives.
+     */
+    private void stream(FileContent content, JarContentsResults results) throws IOException {
+        try (ZipInputStream zip = new ZipInputStream(content.newInputStream())) {
             List<String> files = new ArrayList<>();
+            List<EntryDetails> entries = details ? new ArrayList<EntryDetails>() : null;
 
             ZipEntry entry;
             while ((entry = zip.getNextEntry()) != null) {
                 files.add(entry.getName());
+                if (entries != null) {
+                    // Sizes and CRC are only known once the entry has been read when they follow the data
+                    while (zip.skip(Long.MAX_VALUE) > 0) {
+                        // read to end of entry
+                    }
+                    entries.add(new EntryDetails(entry.getName(), entry.getSize(), entry.getCompressedSize(),
+                                                 entry.getCrc(), entry.getMethod()));
+                }
             }
 
             results.setFiles(files);
+            results.setEntries(entries);
+            results.setStreamed(true);
         }
-        catch (IOException e) {
-            results.setErrorMessage("Could not open file");
-            LOG.error("Failed to list contents of JAR file [" + filePath + "]", e);
-        }
-
-        return results;
     }
 
     /**
@@ -69,9 +150,18 @@ public class JarFileContentsLister implements FileWorker {
                "dir".equalsIgnoreCase(operation);
     }
 
+    /**
+     * Whether to list each entry's sizes, CRC and compression method as well as its name.
+     */
+    public void setDetails(boolean details) {
+        this.details = details;
+    }
+
     public static final class JarContentsResults extends FileWorkerResults {
         private String filename;
         private List<String> files;
+        private List<EntryDetails> entries;
+        private boolean streamed;
 
         public String getFilename() {
             return filename;
@@ -88,6 +178,93 @@ public class JarFileContentsLister implements FileWorker {
         public void setFiles(List<String> files) {
             this.files = files;
         }
+
+        /**
+         * Details of each entry, if asked for.
+         */
+        public List<EntryDetails> getEntries() {
+            return entries;
+        }
+
+        public void setEntries(List<EntryDetails> entries) {
+            this.entries = entries;
+        }
+
+        /**
+         * True if the archive's central directory couldn't be read and the listing came from streaming through it.
+         */
+        public boolean isStreamed() {
+            return streamed;
+        }
+
+        public void setStreamed(boolean streamed) {
+            this.streamed = streamed;
+        }
+    }
+
+    public static final class EntryDetails {
+        private String name;
+        private long size;
+        private long compressedSize;
+        private long crc;
+        private int method;
+
+        public EntryDetails() {
+        }
+
+        EntryDetails(String name, long size, long compressedSize, long crc, int method) {
+            this.name = name;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.crc = crc;
+            this.method = method;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Uncompressed size.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public void setCompressedSize(long compressedSize) {
+            this.compressedSize = compressedSize;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public void setCrc(long crc) {
+            this.crc = crc;
+        }
+
+        /**
+         * Compression method: 0 stored, 8 deflated.
+         */
+        public int getMethod() {
+            return method;
+        }
+
+        public void setMethod(int method) {
+            this.method = method;
+        }
     }
 
 }
@@ -0,0 +1,44 @@
+package com.ddnconsulting.fileprocessor.workers;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares the executor lane a FileWorker's tasks run in.  Each lane has its own thread pool and its own bound on
+ * queued tasks, so slow workers (e.g. ones that read the whole file) can't hold up cheap ones that only look at
+ * metadata.  Workers without this annotation run in the {@link #DEFAULT} lane.
+ *
+ * Values given here are defaults and can be overridden in application.properties:
+ * <pre>
+ *   lane.&lt;name&gt;.threads
+ *   lane.&lt;name&gt;.queue.high
+ *   lane.&lt;name&gt;.queue.low
+ *   worker.&lt;worker class simple name&gt;.lane
+ * </pre>
+ *
+ * @author Dan Nathanson
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface WorkerLane {
+    String DEFAULT = "default";
+
+    /**
+     * Name of the lane.  Workers declaring the same name share a pool.  Threads are named after the lane.
+     */
+    String value();
+
+    /**
+     * Number of threads in lane's pool.  0 to use num.threads.
+     */
+    int threads() default 0;
+
+    /**
+     * Number of outstanding tasks at which dispatch to this lane blocks.  0 to use dispatch.queue.high.
+     */
+    int queueBound() default 0;
+}
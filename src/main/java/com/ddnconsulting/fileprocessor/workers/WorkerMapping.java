@@ -0,0 +1,46 @@
+package com.ddnconsulting.fileprocessor.workers;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares the operations a FileWorker performs and the file types it performs them on.  The registry uses this
+ * instead of calling {@link FileWorker#canHandle}, which lets it work out which workers handle a type once rather
+ * than asking every worker about every type.  Workers without it are still matched with canHandle.
+ *
+ * Operations and types are matched ignoring case.  Type patterns can be:
+ * <ul>
+ *     <li>an exact MIME type (e.g. "application/java-archive") or "directory"</li>
+ *     <li>"major/*", matching any subtype (e.g. "image/*")</li>
+ *     <li>"*&#47;*", matching any MIME type, but not directories or files of unknown type</li>
+ *     <li>{@link #ANY_TYPE}, matching everything, including directories and files of unknown type</li>
+ * </ul>
+ *
+ * A worker's canHandle method should agree with its mapping, for callers that ask the worker directly.
+ *
+ * @author Dan Nathanson
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface WorkerMapping {
+    String ANY_TYPE = "*";
+
+    /**
+     * Operations performed by the worker.
+     */
+    String[] operations();
+
+    /**
+     * Patterns of types the worker handles.
+     */
+    String[] types() default ANY_TYPE;
+
+    /**
+     * Patterns of types the worker does not handle, even if they match {@link #types()}.
+     */
+    String[] excludeTypes() default {};
+}
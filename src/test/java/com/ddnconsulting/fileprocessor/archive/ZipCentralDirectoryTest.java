@@ -0,0 +1,134 @@
+package com.ddnconsulting.fileprocessor.archive;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import com.ddnconsulting.fileprocessor.core.FileContent;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * JUnit test for ZipCentralDirectory
+ */
+public class ZipCentralDirectoryTest {
+    private static final byte[] TEXT = "hello hello hello hello hello".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRead() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("test.jar");
+        Files.write(file, zip(2, "comment"));
+
+        try (FileContent content = FileContent.open(file)) {
+            ZipCentralDirectory directory = ZipCentralDirectory.read(content);
+            List<ZipEntryRecord> entries = directory.getEntries();
+
+            assertEquals("Entries", 3, entries.size());
+            assertFalse("Not ZIP64", directory.isZip64());
+            assertEquals("Nothing before archive", 0, directory.getOffset());
+            assertTrue("Directory", entries.get(0).isDirectory());
+            ZipEntryRecord deflated = entries.get(1);
+            assertEquals("Name", "dir/file0.txt", deflated.getName());
+            assertEquals("Method", ZipEntry.DEFLATED, deflated.getMethod());
+            assertEquals("Size", TEXT.length, deflated.getSize());
+            assertTrue("Compressed", deflated.getCompressedSize() < TEXT.length);
+            assertEquals("CRC", crc(TEXT), deflated.getCrc());
+        }
+    }
+
+    /**
+     * Offsets are corrected for data in front of the archive (like an executable jar's launch script).
+     */
+    @Test
+    public void testDataBeforeArchive() throws Exception {
+        byte[] prefix = "#!/bin/sh\nexec java -jar \"$0\" \"$@\"\n".getBytes(StandardCharsets.UTF_8);
+        byte[] archive = zip(1, null);
+        ByteBuffer buffer = ByteBuffer.allocate(prefix.length + archive.length);
+        buffer.put(prefix).put(archive).flip();
+
+        ZipCentralDirectory directory = ZipCentralDirectory.read(FileContent.wrap(buffer));
+
+        assertEquals("Offset", prefix.length, directory.getOffset());
+        assertEquals("Entries", 2, directory.getEntries().size());
+        assertEquals("Local header of first entry", prefix.length, directory.getEntries().get(0).getLocalHeaderOffset());
+    }
+
+    /**
+     * More than 65535 entries need ZIP64 end records.
+     */
+    @Test
+    public void testZip64() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.setMethod(ZipOutputStream.STORED);
+            for (int i = 0; i < 70000; i++) {
+                ZipEntry entry = new ZipEntry("e" + i);
+                entry.setSize(0);
+                entry.setCrc(0);
+                zip.putNextEntry(entry);
+                zip.closeEntry();
+            }
+        }
+
+        ZipCentralDirectory directory = ZipCentralDirectory.read(FileContent.wrap(ByteBuffer.wrap(bytes.toByteArray())));
+
+        assertTrue("ZIP64", directory.isZip64());
+        assertEquals("Entries", 70000, directory.getEntries().size());
+        assertEquals("Last", "e69999", directory.getEntries().get(69999).getName());
+    }
+
+    @Test
+    public void testDamaged() throws Exception {
+        byte[] archive = zip(1, null);
+        for (byte[] damaged : Arrays.asList(Arrays.copyOf(archive, archive.length - 10), "not a zip".getBytes())) {
+            try {
+                ZipCentralDirectory.read(FileContent.wrap(ByteBuffer.wrap(damaged)));
+                fail("Damaged archive read");
+            }
+            catch (ZipException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Archive with a directory and files, each holding TEXT deflated.
+     */
+    static byte[] zip(int files, String comment) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry("dir/"));
+            zip.closeEntry();
+            for (int i = 0; i < files; i++) {
+                zip.putNextEntry(new ZipEntry("dir/file" + i + ".txt"));
+                zip.write(TEXT);
+                zip.closeEntry();
+            }
+            if (comment != null) {
+                zip.setComment(comment);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static long crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+}
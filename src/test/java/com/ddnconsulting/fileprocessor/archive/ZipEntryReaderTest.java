@@ -0,0 +1,94 @@
+package com.ddnconsulting.fileprocessor.archive;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import com.ddnconsulting.fileprocessor.core.FileContent;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+/**
+ * JUnit test for ZipEntryReader
+ */
+public class ZipEntryReaderTest {
+    private static final byte[] DEFLATED = new byte[5000];
+    private static final byte[] STORED = "stored contents".getBytes();
+
+    @Test
+    public void testRead() throws Exception {
+        FileContent archive = FileContent.wrap(ByteBuffer.wrap(zip()));
+        List<ZipEntryRecord> entries = ZipCentralDirectory.read(archive).getEntries();
+
+        ByteBuffer deflated = ZipEntryReader.read(archive, entries.get(0));
+        ByteBuffer stored = ZipEntryReader.read(archive, entries.get(1));
+
+        assertArrayEquals("Deflated", DEFLATED, bytes(deflated));
+        assertArrayEquals("Stored", STORED, bytes(stored));
+        try (InputStream in = ZipEntryReader.open(archive, entries.get(0))) {
+            byte[] start = new byte[10];
+            ByteStreams.readFully(in, start);
+            assertArrayEquals("Start of entry", Arrays.copyOf(DEFLATED, 10), start);
+        }
+    }
+
+    /**
+     * An entry that inflates to more than the central directory says is stopped there.
+     */
+    @Test
+    public void testLongerThanStated() throws Exception {
+        byte[] zip = zip();
+        // Uncompressed size of first central directory header
+        ByteBuffer buffer = ByteBuffer.wrap(zip).order(ByteOrder.LITTLE_ENDIAN);
+        int header = 0;
+        while (buffer.getInt(header) != 0x02014b50) {
+            header++;
+        }
+        buffer.putInt(header + 24, 100);
+        FileContent archive = FileContent.wrap(buffer);
+        ZipEntryRecord record = ZipCentralDirectory.read(archive).getEntries().get(0);
+
+        try {
+            ZipEntryReader.read(archive, record);
+            fail("Read more than stated size");
+        }
+        catch (ZipException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("more than its stated size"));
+        }
+    }
+
+    private static byte[] zip() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry("deflated"));
+            zip.write(DEFLATED);
+            zip.closeEntry();
+
+            ZipEntry stored = new ZipEntry("stored");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(STORED.length);
+            CRC32 crc = new CRC32();
+            crc.update(STORED);
+            stored.setCrc(crc.getValue());
+            zip.putNextEntry(stored);
+            zip.write(STORED);
+            zip.closeEntry();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
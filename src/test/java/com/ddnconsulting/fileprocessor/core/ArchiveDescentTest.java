@@ -0,0 +1,221 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.ddnconsulting.fileprocessor.archive.ZipCentralDirectory;
+import com.ddnconsulting.fileprocessor.core.ArchiveDescent.ArchiveResults;
+import com.ddnconsulting.fileprocessor.resultshandlers.CollectingResultsHandler;
+import com.ddnconsulting.fileprocessor.workers.FileSizeWorker;
+import com.ddnconsulting.fileprocessor.workers.FileSizeWorker.FileSizeResults;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import com.ddnconsulting.fileprocessor.workers.JarFileContentsLister;
+import com.ddnconsulting.fileprocessor.workers.JarFileContentsLister.JarContentsResults;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+
+/**
+ * JUnit test for ArchiveDescent.  Tasks for entries are run as they are dispatched.
+ */
+public class ArchiveDescentTest {
+    private static final long MB = 1024 * 1024;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private CollectingResultsHandler resultsHandler;
+    private FileWorkerVisitor visitor;
+
+    @Before
+    public void setUp() {
+        ScanJob scanJob = mock(ScanJob.class);
+        when(scanJob.submit(any(FileWorkerRunner.class))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                return Futures.immediateFuture(((FileWorkerRunner) invocation.getArguments()[0]).call());
+            }
+        });
+        FileWorkerRegistry registry = new FileWorkerRegistry();
+        registry.registerWorker(new FileSizeWorker());
+        registry.registerWorker(new JarFileContentsLister());
+        resultsHandler = new CollectingResultsHandler();
+        visitor = new FileWorkerVisitor(Lists.newArrayList("sizeof", "dir"), scanJob, registry, resultsHandler,
+                                        new MagicFileClassifier());
+    }
+
+    /**
+     * Entries of the war and of the jar inside it are classified and given to their workers.
+     */
+    @Test
+    public void testDescend() throws Exception {
+        Path war = war();
+        ArchiveDescent descent = new ArchiveDescent(visitor, Arrays.asList("application/java-archive"), 3, MB, MB);
+
+        ArchiveResults results = (ArchiveResults) descent.handle(war);
+
+        assertTrue("Success", results.isSuccess());
+        assertEquals("War and jar", 2, results.getArchives());
+        assertEquals("Entries, not directories", 4, results.getEntries());
+
+        Map<String, Long> sizes = sizes();
+        assertEquals("Entry in war", Long.valueOf(5), sizes.get(war + "!/index.html"));
+        assertEquals("Entry in jar in war", Long.valueOf(100), sizes.get(war + "!/WEB-INF/lib/lib.jar!/a/B.class"));
+        assertEquals("Sizes", 4, sizes.size());
+
+        JarContentsResults listing = getResults(JarContentsResults.class);
+        assertEquals("Nested jar listed", war + "!/WEB-INF/lib/lib.jar", listing.getFilename());
+        assertEquals("Nested jar contents", Arrays.asList("a/B.class", "a/readme.txt"), listing.getFiles());
+    }
+
+    /**
+     * Archives nested deeper than the limit are processed as files but not descended into.
+     */
+    @Test
+    public void testDepthLimit() throws Exception {
+        Path war = war();
+        ArchiveDescent descent = new ArchiveDescent(visitor, Arrays.asList("application/java-archive"), 1, MB, MB);
+
+        ArchiveResults results = (ArchiveResults) descent.handle(war);
+
+        assertEquals("Only the war", 1, results.getArchives());
+        assertEquals("Jar not descended into", 1, results.getDepthLimited());
+        assertEquals("Entries", 2, results.getEntries());
+    }
+
+    /**
+     * Once the archive's decompressed bytes budget is used up, nothing more is read from it.
+     */
+    @Test
+    public void testBudget() throws Exception {
+        // Each jar inflates to 600 KB, from a few KB
+        byte[] jar = zip(ZipEntry.STORED, "zeros", new byte[600 * 1024]);
+        Path archive = folder.getRoot().toPath().resolve("bomb.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(archive))) {
+            for (int i = 0; i < 3; i++) {
+                zip.putNextEntry(new ZipEntry("jar" + i + ".jar"));
+                zip.write(jar);
+                zip.closeEntry();
+            }
+        }
+        ArchiveDescent descent = new ArchiveDescent(visitor, Arrays.asList("application/java-archive"), 3, MB, MB);
+
+        ArchiveResults results = (ArchiveResults) descent.handle(archive);
+
+        assertTrue("Budget used up", results.isBudgetExhausted());
+        assertEquals("Second jar couldn't be read", 1, results.getUnreadable());
+        assertEquals("First jar, its entry and second jar; not third", 3, results.getEntries());
+        assertEquals("One jar descended into", 2, results.getArchives());
+    }
+
+    /**
+     * Entries too big to read are refused, without using up the budget.
+     */
+    @Test
+    public void testEntryTooLarge() throws Exception {
+        Path archive = folder.getRoot().toPath().resolve("big.zip");
+        Files.write(archive, zip(ZipEntry.DEFLATED, "big.bin", new byte[100 * 1024]));
+        ArchiveDescent descent = new ArchiveDescent(visitor, Arrays.asList("application/zip"), 3, MB, 1024);
+        FileContext context = new FileContext(archive);
+        ArchiveEntryContext entry = new ArchiveEntryContext(
+                archive.resolveSibling("big.zip!/big.bin"), context, context.getContent(),
+                ZipCentralDirectory.read(context.getContent()).getEntries().get(0), 1, new ArchiveDescent.Budget(MB),
+                1024, null);
+
+        try {
+            entry.getContent();
+            fail("Entry too large read");
+        }
+        catch (IOException e) {
+            assertFalse("Budget not charged", entry.getBudget().isExhausted());
+        }
+        finally {
+            context.closeContent();
+        }
+        assertTrue("Zip is an archive", descent.isArchive("application/zip"));
+    }
+
+    private Path war() throws IOException {
+        byte[] jar;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry("a/B.class"));
+            zip.write(new byte[100]);
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("a/readme.txt"));
+            zip.write("read me".getBytes());
+            zip.closeEntry();
+        }
+        jar = bytes.toByteArray();
+
+        Path war = folder.getRoot().toPath().resolve("app.war");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(war))) {
+            zip.putNextEntry(new ZipEntry("index.html"));
+            zip.write("hello".getBytes());
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("WEB-INF/"));
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("WEB-INF/lib/lib.jar"));
+            zip.write(jar);
+            zip.closeEntry();
+        }
+        return war;
+    }
+
+    private static byte[] zip(int method, String name, byte[] contents) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            ZipEntry entry = new ZipEntry(name);
+            entry.setMethod(method);
+            if (method == ZipEntry.STORED) {
+                CRC32 crc = new CRC32();
+                crc.update(contents);
+                entry.setSize(contents.length);
+                entry.setCrc(crc.getValue());
+            }
+            zip.putNextEntry(entry);
+            zip.write(contents);
+            zip.closeEntry();
+        }
+        return bytes.toByteArray();
+    }
+
+    private Map<String, Long> sizes() {
+        Map<String, Long> sizes = new HashMap<>();
+        for (FileWorkerResults results : resultsHandler.getResults()) {
+            if (results instanceof FileSizeResults) {
+                sizes.put(((FileSizeResults) results).getFilename(), ((FileSizeResults) results).getSize());
+            }
+        }
+        return sizes;
+    }
+
+    private <T extends FileWorkerResults> T getResults(Class<T> type) {
+        List<FileWorkerResults> all = resultsHandler.getResults();
+        for (FileWorkerResults results : all) {
+            if (type.isInstance(results)) {
+                return type.cast(results);
+            }
+        }
+        fail("No " + type.getSimpleName() + " in " + all);
+        return null;
+    }
+}
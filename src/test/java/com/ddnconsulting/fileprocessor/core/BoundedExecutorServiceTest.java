@@ -0,0 +1,97 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit test for BoundedExecutorService
+ */
+public class BoundedExecutorServiceTest {
+
+    private BoundedExecutorService executor;
+    private CountDownLatch release;
+
+    @Before
+    public void setUp() {
+        executor = new BoundedExecutorService(Executors.newFixedThreadPool(2), 4, 1);
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLowMustBeBelowHigh() {
+        new BoundedExecutorService(Executors.newSingleThreadExecutor(), 5, 5);
+    }
+
+    /**
+     * Submitting past the high watermark blocks until the low watermark is reached.
+     */
+    @Test
+    public void testBlocksAtHighWatermark() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            executor.submit(new Blocker());
+        }
+        assertEquals("Queue depth", 4, executor.getQueueDepth());
+
+        final CountDownLatch submitted = new CountDownLatch(1);
+        Thread submitter = new Thread() {
+            @Override
+            public void run() {
+                executor.submit(new Blocker());
+                submitted.countDown();
+            }
+        };
+        submitter.start();
+
+        assertFalse("Submit should block while queue is full", submitted.await(200, TimeUnit.MILLISECONDS));
+        assertEquals("Queue depth", 4, executor.getQueueDepth());
+
+        release.countDown();
+        assertTrue("Submit should be released once queue drains", submitted.await(5, TimeUnit.SECONDS));
+        assertTrue("Blocked time recorded", executor.getBlockedMillis() >= 100);
+    }
+
+    @Test
+    public void testQueueDepthDrainsToZero() throws Exception {
+        final AtomicInteger ran = new AtomicInteger();
+        for (int i = 0; i < 100; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ran.incrementAndGet();
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue("Terminated", executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals("All tasks ran", 100, ran.get());
+        assertEquals("Queue depth", 0, executor.getQueueDepth());
+        assertTrue("Peak depth never passes high watermark", executor.getPeakQueueDepth() <= 4);
+    }
+
+    private class Blocker implements Runnable {
+        @Override
+        public void run() {
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
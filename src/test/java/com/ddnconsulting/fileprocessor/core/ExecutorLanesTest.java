@@ -0,0 +1,136 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import com.ddnconsulting.fileprocessor.workers.FileWorker;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import com.ddnconsulting.fileprocessor.workers.WorkerLane;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+/**
+ * JUnit test for ExecutorLanes
+ */
+public class ExecutorLanesTest {
+
+    private Map<String, Object> properties;
+    private ExecutorLanes lanes;
+
+    @Before
+    public void setUp() {
+        properties = new HashMap<>();
+        StandardEnvironment environment = new StandardEnvironment();
+        environment.getPropertySources().addFirst(new MapPropertySource("test", properties));
+        lanes = new ExecutorLanes(environment, 3, 100, 50);
+    }
+
+    @After
+    public void tearDown() {
+        lanes.shutdownNow();
+    }
+
+    @Test
+    public void testUnannotatedWorkerUsesDefaultLane() throws Exception {
+        BoundedExecutorService executor = lanes.executorFor(new PlainWorker());
+
+        assertSame("Default lane", lanes.getLane(WorkerLane.DEFAULT), executor);
+        assertEquals("Default high watermark", 100, executor.getHighWatermark());
+        assertEquals("Default low watermark", 50, executor.getLowWatermark());
+        assertTrue("Default lane keeps old thread names", threadName(executor).startsWith("WorkerRunner-"));
+    }
+
+    @Test
+    public void testAnnotatedWorkerGetsOwnLane() throws Exception {
+        BoundedExecutorService slow = lanes.executorFor(new SlowWorker());
+        BoundedExecutorService plain = lanes.executorFor(new PlainWorker());
+
+        assertNotSame("Separate lanes", slow, plain);
+        assertEquals("Queue bound from annotation", 10, slow.getHighWatermark());
+        assertEquals("Low watermark half of bound", 5, slow.getLowWatermark());
+        assertTrue("Thread named after lane", threadName(slow).startsWith("slow-"));
+        assertSame("Lane reused", slow, lanes.executorFor(new SlowWorker()));
+        assertEquals("Num lanes", 2, lanes.getLanes().size());
+    }
+
+    @Test
+    public void testPropertiesOverrideAnnotation() throws Exception {
+        properties.put("lane.slow.queue.high", "40");
+        properties.put("lane.slow.queue.low", "30");
+
+        BoundedExecutorService slow = lanes.executorFor(new SlowWorker());
+
+        assertEquals("High watermark from properties", 40, slow.getHighWatermark());
+        assertEquals("Low watermark from properties", 30, slow.getLowWatermark());
+    }
+
+    @Test
+    public void testWorkerMovedToLaneByProperty() throws Exception {
+        properties.put("worker.PlainWorker.lane", "other");
+
+        BoundedExecutorService executor = lanes.executorFor(new PlainWorker());
+
+        assertSame("Moved to other lane", lanes.getLane("other"), executor);
+        assertTrue("Thread named after lane", threadName(executor).startsWith("other-"));
+    }
+
+    /**
+     * Scans' views of shared lanes are bounded on their own, run on the shared threads and leave them running when
+     * shut down.
+     */
+    @Test
+    public void testSharedLanes() throws Exception {
+        ExecutorLanes shared = ExecutorLanes.shared(new StandardEnvironment(), 2, 100, 50, 4);
+        try {
+            ExecutorLanes scan1 = shared.forScan();
+            ExecutorLanes scan2 = shared.forScan();
+            BoundedExecutorService lane1 = scan1.executorFor(new PlainWorker());
+
+            assertNotSame("Each scan has its own bound", lane1, scan2.executorFor(new PlainWorker()));
+            assertEquals("Scan's bound", 100, lane1.getHighWatermark());
+            assertEquals("Shared bound for 4 scans", 400, shared.getLane(WorkerLane.DEFAULT).getHighWatermark());
+            assertTrue("Shared threads", threadName(lane1).startsWith("WorkerRunner-"));
+
+            scan1.shutdownNow();
+            assertTrue("Scan's lane shut down", lane1.isShutdown());
+            assertTrue("Still running for others",
+                       threadName(scan2.executorFor(new PlainWorker())).startsWith("WorkerRunner-"));
+            assertFalse("Shared lane running", shared.getLane(WorkerLane.DEFAULT).isShutdown());
+        }
+        finally {
+            shared.shutdownNow();
+        }
+    }
+
+    private String threadName(BoundedExecutorService executor) throws Exception {
+        return executor.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return Thread.currentThread().getName();
+            }
+        }).get();
+    }
+
+    public static class PlainWorker implements FileWorker {
+        @Override
+        public FileWorkerResults handle(Path filePath) {
+            return null;
+        }
+
+        @Override
+        public boolean canHandle(String operation, String type) {
+            return true;
+        }
+    }
+
+    @WorkerLane(value = "slow", threads = 1, queueBound = 10)
+    public static class SlowWorker extends PlainWorker {
+    }
+}
@@ -0,0 +1,83 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * JUnit test for FairQueue
+ */
+public class FairQueueTest {
+
+    /**
+     * Groups take turns, however many tasks each has queued.  Within a group, tasks come out in order.
+     */
+    @Test
+    public void testGroupsTakeTurns() throws Exception {
+        FairQueue queue = new FairQueue();
+        for (int i = 0; i < 3; i++) {
+            queue.offer(new Task("big", i));
+        }
+        queue.offer(new Task("small", 0));
+        assertEquals("Size", 4, queue.size());
+        assertEquals("Groups", 2, queue.getGroups());
+
+        List<String> order = new ArrayList<>();
+        Runnable task;
+        while ((task = queue.poll()) != null) {
+            order.add(task.toString());
+        }
+        assertEquals("Order", "[big0, small0, big1, big2]", order.toString());
+        assertEquals("Empty", 0, queue.getGroups());
+        assertNull("Nothing to wait for", queue.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Tasks can be removed (as ThreadPoolExecutor does with cancelled tasks) and drained.
+     */
+    @Test
+    public void testRemoveAndDrain() throws Exception {
+        FairQueue queue = new FairQueue();
+        Task removed = new Task("a", 0);
+        queue.offer(removed);
+        queue.offer(new Task("b", 0));
+        queue.offer(new Task("b", 1));
+
+        assertTrue("Removed", queue.remove(removed));
+        assertFalse("Only once", queue.remove(removed));
+        assertEquals("Group gone", 1, queue.getGroups());
+
+        List<Runnable> drained = new ArrayList<>();
+        assertEquals("Drained", 2, queue.drainTo(drained));
+        assertEquals("Order", "[b0, b1]", drained.toString());
+        assertTrue("Empty", queue.isEmpty());
+    }
+
+    private static final class Task implements Runnable, FairQueue.Grouped {
+        private final String group;
+        private final int number;
+
+        Task(String group, int number) {
+            this.group = group;
+            this.number = number;
+        }
+
+        @Override
+        public Object getGroup() {
+            return group;
+        }
+
+        @Override
+        public void run() {
+        }
+
+        @Override
+        public String toString() {
+            return group + number;
+        }
+    }
+}
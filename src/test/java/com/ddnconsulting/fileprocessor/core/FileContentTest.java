@@ -0,0 +1,124 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * JUnit test for FileContent
+ */
+public class FileContentTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSmallFileIsBuffered() throws Exception {
+        byte[] bytes = bytes(100);
+        try (FileContent content = FileContent.open(write(bytes))) {
+            assertTrue("Buffered", content.isBuffered());
+            assertEquals("Size", 100, content.size());
+            assertArrayEquals("Contents", bytes, toArray(content.getBuffer()));
+        }
+    }
+
+    /**
+     * Files bigger than the small file threshold are mapped.  Each buffer/stream is independent.
+     */
+    @Test
+    public void testLargeFileIsMappedAndSharable() throws Exception {
+        byte[] bytes = bytes(FileContent.SMALL_FILE_SIZE * 3);
+        try (FileContent content = FileContent.open(write(bytes))) {
+            assertTrue("Buffered", content.isBuffered());
+
+            InputStream first = content.newInputStream();
+            InputStream second = content.newInputStream();
+            assertEquals("First byte from first stream", bytes[0] & 0xff, first.read());
+            assertArrayEquals("Second stream starts at beginning", bytes, readAll(second));
+
+            ByteBuffer buffer = content.getBuffer();
+            buffer.position(10);
+            assertEquals("Other buffers not affected", 0, content.getBuffer().position());
+        }
+    }
+
+    @Test
+    public void testPositionedRead() throws Exception {
+        byte[] bytes = bytes(1000);
+        try (FileContent content = FileContent.open(write(bytes))) {
+            ByteBuffer dst = ByteBuffer.allocate(10);
+            assertEquals("Bytes read", 10, content.read(dst, 500));
+            assertEquals("Byte at position", bytes[500], dst.get(0));
+
+            dst.clear();
+            assertEquals("Short read at end", 5, content.read(dst, 995));
+            assertEquals("End of file", -1, content.read(dst, 1000));
+        }
+    }
+
+    @Test
+    public void testRangeBuffer() throws Exception {
+        byte[] bytes = bytes(1000);
+        try (FileContent content = FileContent.open(write(bytes))) {
+            ByteBuffer range = content.getBuffer(100, 10);
+            assertEquals("Range starts at 0", 0, range.position());
+            assertEquals("Range length", 10, range.remaining());
+            assertEquals("Byte at position", bytes[100], range.get(0));
+            try {
+                content.getBuffer(995, 10);
+                fail("Range past end of file");
+            }
+            catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testWrap() throws Exception {
+        byte[] bytes = bytes(50);
+        FileContent content = FileContent.wrap(ByteBuffer.wrap(bytes));
+
+        assertEquals("Size", 50, content.size());
+        assertArrayEquals("Contents", bytes, readAll(content.newInputStream()));
+    }
+
+    private Path write(byte[] bytes) throws Exception {
+        Path file = folder.newFile().toPath();
+        Files.write(file, bytes);
+        return file;
+    }
+
+    private static byte[] bytes(int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (i * 31);
+        }
+        return bytes;
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] readAll(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        int count;
+        while ((count = in.read(chunk)) > 0) {
+            out.write(chunk, 0, count);
+        }
+        return out.toByteArray();
+    }
+}
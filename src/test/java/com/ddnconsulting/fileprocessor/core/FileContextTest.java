@@ -0,0 +1,105 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * JUnit test for FileContext
+ */
+public class FileContextTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = folder.getRoot().toPath().resolve("file.txt");
+        Files.write(file, new byte[42]);
+    }
+
+    /**
+     * Attributes supplied by the walk are used as-is.
+     */
+    @Test
+    public void testSuppliedAttributes() throws Exception {
+        BasicFileAttributes attributes = mock(BasicFileAttributes.class);
+        when(attributes.size()).thenReturn(7L);
+        when(attributes.fileKey()).thenReturn("key");
+
+        FileContext context = new FileContext(file, attributes);
+
+        assertEquals("Size", 7L, context.size());
+        assertEquals("File key", "key", context.getFileKey());
+        assertSame("Attributes", attributes, context.getAttributes());
+    }
+
+    /**
+     * Attributes are read on first use when not supplied.
+     */
+    @Test
+    public void testLazyAttributes() throws Exception {
+        FileContext context = new FileContext(file);
+
+        assertEquals("Size", 42L, context.size());
+        assertTrue("Regular file", context.isRegularFile());
+        assertFalse("Not a directory", context.isDirectory());
+        assertSame("Attributes cached", context.getAttributes(), context.getAttributes());
+    }
+
+    /**
+     * Links are resolved so size is that of the target, like File.length().
+     */
+    @Test
+    public void testSymbolicLinkResolved() throws Exception {
+        Path link = Files.createSymbolicLink(folder.getRoot().toPath().resolve("link"), file);
+        BasicFileAttributes linkAttributes = Files.readAttributes(link, BasicFileAttributes.class,
+                                                                  LinkOption.NOFOLLOW_LINKS);
+
+        FileContext context = new FileContext(link, linkAttributes);
+
+        assertTrue("Resolved to regular file", context.isRegularFile());
+        assertEquals("Size of target", 42L, context.size());
+    }
+
+    @Test
+    public void testBrokenSymbolicLink() throws Exception {
+        Path link = Files.createSymbolicLink(folder.getRoot().toPath().resolve("link"),
+                                             folder.getRoot().toPath().resolve("missing"));
+        BasicFileAttributes linkAttributes = Files.readAttributes(link, BasicFileAttributes.class,
+                                                                  LinkOption.NOFOLLOW_LINKS);
+
+        FileContext context = new FileContext(link, linkAttributes);
+
+        assertSame("Attributes of link", linkAttributes, context.getAttributes());
+    }
+
+    /**
+     * Contents stay open until the last user counted has released them.
+     */
+    @Test
+    public void testReleaseClosesAfterLastUser() throws Exception {
+        FileContext context = new FileContext(file);
+        FileContent content = mock(FileContent.class);
+        context.setContent(content);
+        context.retain(2);
+
+        context.release();
+        verify(content, never()).close();
+        assertSame("Still shared", content, context.getContent());
+
+        context.release();
+        verify(content).close();
+    }
+}
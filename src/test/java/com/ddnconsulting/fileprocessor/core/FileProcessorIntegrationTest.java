@@ -2,21 +2,47 @@ package com.ddnconsulting.fileprocessor.core;
 
 import static org.junit.Assert.*;
 
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import com.ddnconsulting.fileprocessor.Application;
+import com.ddnconsulting.fileprocessor.core.ArchiveDescent.ArchiveResults;
+import com.ddnconsulting.fileprocessor.distributed.DistributedScan;
+import com.ddnconsulting.fileprocessor.distributed.ScanNode;
 import com.ddnconsulting.fileprocessor.resultshandlers.CollectingResultsHandler;
 import com.ddnconsulting.fileprocessor.workers.DirectoryLister.DirectoryListResults;
 import com.ddnconsulting.fileprocessor.workers.DirectoryLister.FileType;
+import com.ddnconsulting.fileprocessor.workers.DuplicateFinder.DuplicateGroupResults;
+import com.ddnconsulting.fileprocessor.workers.DuplicateFinder.DuplicateSummaryResults;
 import com.ddnconsulting.fileprocessor.workers.FileSizeWorker.FileSizeResults;
 import com.ddnconsulting.fileprocessor.workers.FileWorker;
 import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.contrib.java.lang.system.ExpectedSystemExit;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -36,6 +62,9 @@ public class FileProcessorIntegrationTest implements ApplicationContextAware {
     @Rule
     public final ExpectedSystemExit exit = ExpectedSystemExit.none();
 
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
     @Autowired
     FileProcessor fileProcessor;
     private CollectingResultsHandler resultsHandler;
@@ -47,8 +76,8 @@ public class FileProcessorIntegrationTest implements ApplicationContextAware {
         resultsHandler = new CollectingResultsHandler();
         fileProcessor.setResultsHandler(resultsHandler);
 
-        // Manual registration of FileWorkers.
-        FileWorkerRegistry registry = applicationContext.getBean(FileWorkerRegistry.class);
+        // Manual registration of FileWorkers.  Fresh registry for each test since lookups freeze it.
+        FileWorkerRegistry registry = new FileWorkerRegistry();
         Map<String, FileWorker> workers = applicationContext.getBeansOfType(FileWorker.class);
         for (FileWorker fileWorker : workers.values()) {
             registry.registerWorker(fileWorker);
@@ -82,6 +111,203 @@ public class FileProcessorIntegrationTest implements ApplicationContextAware {
         assertEquals("Entry type", FileType.FILE, directoryListResults.getEntries().get(0).getType());
     }
 
+    /**
+     * Scans are measured, and the measurements are available over JMX.
+     */
+    @Test
+    public void testMetrics() throws Exception {
+        ScanMetrics metrics = applicationContext.getBean(ScanMetrics.class);
+        long filesBefore = metrics.getFilesVisited();
+
+        fileProcessor.processFiles("src/test/integration-test-data", Lists.newArrayList("dir", "sizeof"));
+
+        assertEquals("Directory and file visited", filesBefore + 2, metrics.getFilesVisited());
+        assertNotNull("Worker timed", metrics.getWorkerLatencies().get("FileSizeWorker"));
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Set<ObjectName> names = server.queryNames(new ObjectName("*:type=ScanMetrics,*"), null);
+        assertEquals("Exported", 1, names.size());
+        assertEquals("Read over JMX", metrics.getFilesVisited(),
+                     server.getAttribute(names.iterator().next(), "FilesVisited"));
+    }
+
+    /**
+     * Second incremental scan of unchanged files produces the same results, all reused from the index.
+     */
+    @Test
+    public void testIncrementalRun() throws Exception {
+        Path indexFile = folder.getRoot().toPath().resolve("test.index");
+        ScanOptions options = new ScanOptions();
+        options.setIncrementalIndex(indexFile);
+
+        ScanJob first = fileProcessor.processFiles("src/test/integration-test-data", Lists.newArrayList("dir", "sizeof"),
+                                                   options);
+        assertEquals("Tasks run first time (directory listed by the walk)", 1, first.getTasksDispatched());
+
+        resultsHandler.getResults().clear();
+        ScanJob second = fileProcessor.processFiles("src/test/integration-test-data",
+                                                    Lists.newArrayList("dir", "sizeof"), options);
+        assertEquals("Nothing run second time", 0, second.getTasksDispatched());
+
+        List<FileWorkerResults> results = resultsHandler.getResults();
+        assertEquals("Num results", 2, results.size());
+        FileSizeResults fileSizeResults = getResultsOfType(results, FileSizeResults.class);
+        assertEquals("Filename", "src/test/integration-test-data/somefile.txt", fileSizeResults.getFilename());
+        assertEquals("Size", 10, fileSizeResults.getSize());
+        DirectoryListResults directoryListResults = getResultsOfType(results, DirectoryListResults.class);
+        assertEquals("Entry name", "somefile.txt", directoryListResults.getEntries().get(0).getFilename());
+    }
+
+    /**
+     * Scans run at once by a processor kept warm share its lanes' threads, and both produce all their results.
+     */
+    @Test
+    public void testWarmConcurrentScans() throws Exception {
+        fileProcessor.keepWarm(2);
+        try {
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            List<Future<List<FileWorkerResults>>> scans = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                scans.add(executor.submit(new Callable<List<FileWorkerResults>>() {
+                    @Override
+                    public List<FileWorkerResults> call() throws Exception {
+                        CollectingResultsHandler handler = new CollectingResultsHandler();
+                        ScanOptions options = new ScanOptions();
+                        options.setResultsHandler(handler);
+                        fileProcessor.processFiles("src/test/integration-test-data",
+                                                   Lists.newArrayList("dir", "sizeof"), options);
+                        return handler.getResults();
+                    }
+                }));
+            }
+            for (Future<List<FileWorkerResults>> scan : scans) {
+                List<FileWorkerResults> results = scan.get(30, TimeUnit.SECONDS);
+                assertEquals("Num results", 2, results.size());
+                assertNotNull("Size", getResultsOfType(results, FileSizeResults.class));
+            }
+            executor.shutdown();
+        }
+        finally {
+            fileProcessor.shutdownWarm();
+        }
+    }
+
+    /**
+     * Resumed scan skips directories the checkpoint lists as done, and the checkpoint is deleted once the scan finishes.
+     */
+    @Test
+    public void testResume() throws Exception {
+        Path root = folder.newFolder("tree").toPath();
+        Files.createDirectories(root.resolve("done"));
+        Files.write(root.resolve("done/a.txt"), "a".getBytes());
+        Files.createDirectories(root.resolve("todo"));
+        Files.write(root.resolve("todo/b.txt"), "b".getBytes());
+        Path checkpoint = folder.getRoot().toPath().resolve("test.checkpoint");
+        Files.write(checkpoint, Lists.newArrayList("root\t" + root.toAbsolutePath(), "operations\tsizeof",
+                                                   "done\tdone", "pending\t", "pending\ttodo"),
+                    StandardCharsets.UTF_8);
+
+        ScanOptions options = new ScanOptions();
+        options.setCheckpoint(checkpoint);
+        options.setResume(true);
+        fileProcessor.processFiles(root.toString(), Lists.newArrayList("sizeof"), options);
+
+        Set<String> filenames = new HashSet<>();
+        for (FileWorkerResults results : resultsHandler.getResults()) {
+            filenames.add(((FileSizeResults) results).getFilename());
+        }
+        assertEquals("Only unfinished directory scanned", Collections.singleton(root.resolve("todo/b.txt").toString()),
+                     filenames);
+        assertFalse("Checkpoint deleted", Files.exists(checkpoint));
+    }
+
+    /**
+     * With --archives, entries of a jar are processed as well as the jar, with paths inside it.
+     */
+    @Test
+    public void testArchives() throws Exception {
+        Path root = folder.newFolder("archives").toPath();
+        Path jar = root.resolve("lib.jar");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(jar))) {
+            zip.putNextEntry(new ZipEntry("a/B.class"));
+            zip.write(new byte[100]);
+            zip.closeEntry();
+        }
+
+        ScanOptions options = new ScanOptions();
+        options.setArchives(true);
+        fileProcessor.processFiles(root.toString(), Lists.newArrayList("sizeof"), options);
+
+        Set<String> filenames = new HashSet<>();
+        for (FileWorkerResults results : resultsHandler.getResults()) {
+            if (results instanceof FileSizeResults) {
+                filenames.add(((FileSizeResults) results).getFilename());
+            }
+        }
+        assertEquals("Jar and its entry", Sets.newHashSet(jar.toString(), jar + "!/a/B.class"), filenames);
+        assertEquals("Archive descended", 1,
+                     getResultsOfType(resultsHandler.getResults(), ArchiveResults.class).getEntries());
+    }
+
+    /**
+     * Duplicates are reported once the scan is finished, as groups and a summary.
+     */
+    @Test
+    public void testDupes() throws Exception {
+        Path root = folder.newFolder("dupes").toPath();
+        Files.write(root.resolve("a.txt"), "same".getBytes(StandardCharsets.UTF_8));
+        Files.createDirectory(root.resolve("sub"));
+        Files.write(root.resolve("sub").resolve("b.txt"), "same".getBytes(StandardCharsets.UTF_8));
+        Files.write(root.resolve("c.txt"), "diff".getBytes(StandardCharsets.UTF_8));
+
+        fileProcessor.processFiles(root.toString(), Lists.newArrayList("dupes"));
+
+        List<FileWorkerResults> results = resultsHandler.getResults();
+        assertEquals("Group and summary only", 2, results.size());
+        assertEquals("Duplicates", Arrays.asList(root.resolve("a.txt").toString(),
+                                                 root.resolve("sub").resolve("b.txt").toString()),
+                     getResultsOfType(results, DuplicateGroupResults.class).getFiles());
+        assertEquals("Wasted", 4, getResultsOfType(results, DuplicateSummaryResults.class).getWastedBytes());
+    }
+
+    /**
+     * Scan handed out to a node in the same JVM (sharing the embedded broker) produces each result once.
+     */
+    @Test
+    public void testDistributedRun() throws Exception {
+        Path root = folder.getRoot().toPath();
+        Files.write(root.resolve("top.txt"), new byte[3]);
+        Files.createDirectory(root.resolve("sub"));
+        Files.write(root.resolve("sub").resolve("nested.txt"), new byte[5]);
+
+        ScanNode node = fileProcessor.createNode();
+        node.start();
+        try {
+            DistributedScan scan = fileProcessor.coordinate(root.toString(), Lists.newArrayList("dir", "sizeof"));
+            assertTrue("Complete", scan.isComplete());
+        }
+        finally {
+            node.close();
+        }
+
+        // Listings of the top directory and sub, and sizes of the two files
+        List<FileWorkerResults> results = resultsHandler.getResults();
+        assertEquals("Num results", 4, results.size());
+        Set<String> filenames = new HashSet<>();
+        for (FileWorkerResults result : results) {
+            if (result instanceof FileSizeResults) {
+                filenames.add(((FileSizeResults) result).getFilename());
+            }
+            else {
+                filenames.add(((DirectoryListResults) result).getFilename());
+            }
+        }
+        assertEquals("Each file and directory once",
+                     Sets.newHashSet(root.toString(), root.resolve("top.txt").toString(),
+                                     root.resolve("sub").toString(), root.resolve("sub/nested.txt").toString()),
+                     filenames);
+    }
+
     private <T> T getResultsOfType(List<FileWorkerResults> results, Class<T> clazz) {
         for (FileWorkerResults result : results) {
             if (result.getClass().isAssignableFrom(clazz)) {
@@ -3,10 +3,13 @@ package com.ddnconsulting.fileprocessor.core;
 import static org.junit.Assert.*;
 
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Set;
 
 import com.ddnconsulting.fileprocessor.workers.FileWorker;
 import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import com.ddnconsulting.fileprocessor.workers.WorkerMapping;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -80,6 +83,103 @@ public class FileWorkerRegistryTest {
         }
     }
 
+    /**
+     * Workers with a mapping are matched from it (wildcards included) without calling canHandle.
+     */
+    @Test
+    public void testGetWorkersMapped() throws Exception {
+        MappedImageWorker imageWorker = new MappedImageWorker();
+        MappedAnyFileWorker anyFileWorker = new MappedAnyFileWorker();
+        MappedMimeWorker mimeWorker = new MappedMimeWorker();
+        registry.registerWorker(imageWorker);
+        registry.registerWorker(anyFileWorker);
+        registry.registerWorker(mimeWorker);
+
+        Set<FileWorker> workers = registry.getWorkers("scan", "image/png");
+        assertEquals("Num workers matched", 3, workers.size());
+
+        workers = registry.getWorkers("scan", "text/plain");
+        assertEquals("Num workers matched", 2, workers.size());
+        assertFalse("Not image worker", workers.contains(imageWorker));
+
+        workers = registry.getWorkers("scan", FileClassifier.FILE_TYPE_DIRECTORY);
+        assertTrue("Directory excluded, and not a MIME type", workers.isEmpty());
+
+        workers = registry.getWorkers("scan", null);
+        assertEquals("Unknown type only matches *", 1, workers.size());
+        assertTrue("Found any-file worker", workers.contains(anyFileWorker));
+
+        workers = registry.getWorkers("SCAN", "IMAGE/GIF");
+        assertEquals("Case ignored", 3, workers.size());
+
+        assertTrue("Unknown operation", registry.getWorkers("list", "image/png").isEmpty());
+        assertSame("Same set for same lookup", registry.getWorkers("scan", "text/plain"),
+                   registry.getWorkers("scan", "text/plain"));
+    }
+
+    /**
+     * Workers of a kind are found by operation alone, from their mapping or by asking them.
+     */
+    @Test
+    public void testGetWorkersOfKind() throws Exception {
+        MappedImageWorker imageWorker = new MappedImageWorker();
+        ListAnyFileWorker listAnyFileWorker = new ListAnyFileWorker();
+        registry.registerWorker(imageWorker);
+        registry.registerWorker(listAnyFileWorker);
+        registry.registerWorker(new SizeXmlFileWorker());
+
+        assertEquals("Mapped", Collections.singletonList(imageWorker),
+                     registry.getWorkers(Arrays.asList("dir", "SCAN"), MappedImageWorker.class));
+        assertEquals("Asked", Collections.singletonList(listAnyFileWorker),
+                     registry.getWorkers(Arrays.asList("list"), FileWorker.class));
+        assertTrue("Other kind", registry.getWorkers(Arrays.asList("list"), MappedImageWorker.class).isEmpty());
+    }
+
+    // Handles scan/image/*
+    @WorkerMapping(operations = "scan", types = "image/*")
+    public static final class MappedImageWorker implements FileWorker {
+
+        @Override
+        public FileWorkerResults handle(Path filePath) {
+            return null;
+        }
+
+        @Override
+        public boolean canHandle(String operation, String type) {
+            throw new UnsupportedOperationException("Should be matched by mapping");
+        }
+    }
+
+    // Handles scan/anything but directories
+    @WorkerMapping(operations = "scan", excludeTypes = FileClassifier.FILE_TYPE_DIRECTORY)
+    public static final class MappedAnyFileWorker implements FileWorker {
+
+        @Override
+        public FileWorkerResults handle(Path filePath) {
+            return null;
+        }
+
+        @Override
+        public boolean canHandle(String operation, String type) {
+            throw new UnsupportedOperationException("Should be matched by mapping");
+        }
+    }
+
+    // Handles scan/*/*
+    @WorkerMapping(operations = "scan", types = "*/*")
+    public static final class MappedMimeWorker implements FileWorker {
+
+        @Override
+        public FileWorkerResults handle(Path filePath) {
+            return null;
+        }
+
+        @Override
+        public boolean canHandle(String operation, String type) {
+            throw new UnsupportedOperationException("Should be matched by mapping");
+        }
+    }
+
     // Handles list/xml
     public static final class ListXmlFileWorker implements FileWorker {
 
@@ -0,0 +1,154 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.ddnconsulting.fileprocessor.resultshandlers.CollectingResultsHandler;
+import com.ddnconsulting.fileprocessor.resultshandlers.WorkerAwareResultsHandler;
+import com.ddnconsulting.fileprocessor.workers.FileContextWorker;
+import com.ddnconsulting.fileprocessor.workers.FileWorker;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * JUnit test for FileWorkerRunner
+ */
+public class FileWorkerRunnerTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private CollectingResultsHandler resultsHandler;
+    private FileContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        resultsHandler = new CollectingResultsHandler();
+        Path file = folder.newFile().toPath();
+        Files.write(file, new byte[100]);
+        context = new FileContext(file);
+    }
+
+    /**
+     * All workers in a runner get the same open contents, which are closed once they have all finished.
+     */
+    @Test
+    public void testWorkersShareContent() throws Exception {
+        ContentWorker first = new ContentWorker();
+        ContentWorker second = new ContentWorker();
+
+        List<FileWorkerResults> results =
+                new FileWorkerRunner(Arrays.<FileWorker>asList(first, second), context, resultsHandler).call();
+
+        assertEquals("Num results", 2, results.size());
+        assertEquals("All results handled", results, resultsHandler.getResults());
+        assertNotNull("First worker saw content", first.content);
+        assertSame("Content shared", first.content, second.content);
+        assertNotSame("Content closed after last worker", first.content, context.getContent());
+        context.closeContent();
+    }
+
+    /**
+     * A worker that throws doesn't stop the others.
+     */
+    @Test
+    public void testFailingWorker() throws Exception {
+        ContentWorker after = new ContentWorker();
+        FileWorker failing = new ContentWorker() {
+            @Override
+            public FileWorkerResults handle(FileContext context) {
+                throw new IllegalStateException("doh!");
+            }
+        };
+
+        List<FileWorkerResults> results =
+                new FileWorkerRunner(Arrays.<FileWorker>asList(failing, after), context, resultsHandler).call();
+
+        assertEquals("Num results", 2, results.size());
+        assertFalse("Failure recorded", results.get(0).isSuccess());
+        assertTrue("Second worker ran", results.get(1).isSuccess());
+        assertEquals("Only real results handled", 1, resultsHandler.getResults().size());
+    }
+
+    /**
+     * Workers with nothing to report for the file return null, which isn't handled.
+     */
+    @Test
+    public void testNothingToReport() throws Exception {
+        ContentWorker silent = new ContentWorker() {
+            @Override
+            public FileWorkerResults handle(FileContext context) {
+                super.handle(context);
+                return null;
+            }
+        };
+        ContentWorker after = new ContentWorker();
+
+        List<FileWorkerResults> results =
+                new FileWorkerRunner(Arrays.<FileWorker>asList(silent, after), context, resultsHandler).call();
+
+        assertEquals("Only real results", 1, results.size());
+        assertEquals("Only real results handled", results, resultsHandler.getResults());
+        assertNotNull("Silent worker ran", silent.content);
+    }
+
+    /**
+     * Handlers that want to know which worker produced results are told.
+     */
+    @Test
+    public void testWorkerAwareHandler() throws Exception {
+        final List<FileWorker> producers = new ArrayList<>();
+        WorkerAwareResultsHandler workerAware = new WorkerAwareResultsHandler() {
+            @Override
+            public void handleResults(FileWorker worker, FileWorkerResults results) {
+                producers.add(worker);
+            }
+
+            @Override
+            public void handleResults(FileWorkerResults results) {
+                fail("Worker not passed");
+            }
+        };
+        ContentWorker worker = new ContentWorker();
+
+        new FileWorkerRunner(worker, context, workerAware).call();
+
+        assertEquals("Worker passed with results", Collections.<FileWorker>singletonList(worker), producers);
+    }
+
+    private static class ContentWorker implements FileContextWorker {
+        FileContent content;
+
+        @Override
+        public FileWorkerResults handle(FileContext context) {
+            try {
+                content = context.getContent();
+            }
+            catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            FileWorkerResults results = new FileWorkerResults();
+            results.setSuccess(true);
+            return results;
+        }
+
+        @Override
+        public FileWorkerResults handle(Path filePath) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean canHandle(String operation, String type) {
+            return true;
+        }
+    }
+}
@@ -1,32 +1,54 @@
 package com.ddnconsulting.fileprocessor.core;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collections;
-import java.util.concurrent.ExecutorService;
+import java.util.List;
 
+import com.ddnconsulting.fileprocessor.index.IncrementalIndex;
+import com.ddnconsulting.fileprocessor.index.IndexEntry;
 import com.ddnconsulting.fileprocessor.resultshandlers.CollectingResultsHandler;
+import com.ddnconsulting.fileprocessor.resultshandlers.ResultsHandler;
+import com.ddnconsulting.fileprocessor.workers.DirectoryEntriesWorker;
+import com.ddnconsulting.fileprocessor.workers.DirectoryEntriesWorker.Entries;
+import com.ddnconsulting.fileprocessor.workers.FileContextWorker;
 import com.ddnconsulting.fileprocessor.workers.FileWorker;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
 
 public class FileWorkerVisitorTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
     FileWorkerVisitor fileWorkerVisitor;
-    private ExecutorService executorService;
+    private ScanJob scanJob;
     private FileWorkerRegistry registry;
     private CollectingResultsHandler reportHandler;
     private FileClassifier fileClassifier;
 
     @Before
     public void setUp() {
-        executorService = mock(ExecutorService.class);
+        scanJob = mock(ScanJob.class);
         registry = mock(FileWorkerRegistry.class);
         reportHandler = new CollectingResultsHandler();
         fileClassifier = mock(FileClassifier.class);
-        fileWorkerVisitor = new FileWorkerVisitor(Lists.newArrayList("operation1", "operation2"), executorService, registry,
+        fileWorkerVisitor = new FileWorkerVisitor(Lists.newArrayList("operation1", "operation2"), scanJob, registry,
                                                   reportHandler, fileClassifier);
     }
 
@@ -38,7 +60,7 @@ public class FileWorkerVisitorTest {
         when(path.getFileName()).thenReturn(fileName);
         when(fileName.toString()).thenReturn("filename");
 
-        when(fileClassifier.getType(path)).thenReturn("text");
+        when(fileClassifier.getType(any(FileContext.class))).thenReturn("text");
 
         FileWorker worker1 = mock(FileWorker.class);
 
@@ -48,7 +70,261 @@ public class FileWorkerVisitorTest {
         fileWorkerVisitor.visitFile(path, null);
 
         // Verify called exactly one time (since there is no worker that supports operation2).
-        verify(executorService, times(1)).submit(any(FileWorkerRunner.class));
+        verify(scanJob, times(1)).submit(any(FileWorkerRunner.class));
+        verify(scanJob).fileDiscovered();
+
+    }
+
+    /**
+     * Once the job's deadline has passed, walk is terminated and nothing is dispatched.
+     */
+    @Test
+    public void testVisitFileAfterDeadline() throws Exception {
+        when(scanJob.checkDeadline()).thenReturn(true);
+
+        assertEquals("Walk terminated", FileVisitResult.TERMINATE, fileWorkerVisitor.visitFile(mock(Path.class), null));
+
+        verify(scanJob, never()).submit(any(FileWorkerRunner.class));
+        verifyZeroInteractions(fileClassifier, registry);
+    }
+
+    /**
+     * Workers for the same file (and executor lane) are dispatched together so they can share the file's contents.
+     */
+    @Test
+    public void testVisitFileGroupsWorkers() throws Exception {
+        Path path = mock(Path.class);
+        when(fileClassifier.getType(any(FileContext.class))).thenReturn("text");
+
+        FileWorker worker1 = mock(FileWorker.class);
+        FileWorker worker2 = mock(FileWorker.class);
+        when(registry.getWorkers("operation1", "text")).thenReturn(Sets.newHashSet(worker1));
+        when(registry.getWorkers("operation2", "text")).thenReturn(Sets.newHashSet(worker1, worker2));
+
+        fileWorkerVisitor.visitFile(path, null);
+
+        ArgumentCaptor<FileWorkerRunner> runner = ArgumentCaptor.forClass(FileWorkerRunner.class);
+        verify(scanJob, times(1)).submit(runner.capture());
+        assertEquals("Each worker once", 2, runner.getValue().getWorkers().size());
+        assertTrue("Has worker1", runner.getValue().getWorkers().contains(worker1));
+        assertTrue("Has worker2", runner.getValue().getWorkers().contains(worker2));
+    }
+
+    /**
+     * In an incremental scan, an unchanged file isn't classified again.  Workers with stored results aren't run;
+     * the others are.
+     */
+    @Test
+    public void testVisitUnchangedFile() throws Exception {
+        Path path = mock(Path.class);
+        IncrementalIndex index = mock(IncrementalIndex.class);
+        fileWorkerVisitor.setIncrementalIndex(index);
+        IndexEntry unchanged = new IndexEntry("/some/file", 1, 1, null, "text");
+        when(index.findUnchanged(any(FileContext.class))).thenReturn(unchanged);
+
+        FileWorker worker1 = mock(FileWorker.class);
+        FileWorker worker2 = mock(FileWorker.class);
+        when(registry.getWorkers("operation1", "text")).thenReturn(Sets.newHashSet(worker1));
+        when(registry.getWorkers("operation2", "text")).thenReturn(Sets.newHashSet(worker1, worker2));
+        FileWorkerResults stored = new FileWorkerResults();
+        when(index.reuseResults(same(unchanged), any(FileContext.class), same(worker1))).thenReturn(stored);
+
+        fileWorkerVisitor.visitFile(path, null);
+
+        verifyZeroInteractions(fileClassifier);
+        verify(index).recordFile(any(FileContext.class), same(unchanged));
+        verify(index, times(1)).reuseResults(same(unchanged), any(FileContext.class), same(worker1));
+        assertEquals("Stored results handled once", Collections.singletonList(stored), reportHandler.getResults());
+
+        ArgumentCaptor<FileWorkerRunner> runner = ArgumentCaptor.forClass(FileWorkerRunner.class);
+        verify(scanJob, times(1)).submit(runner.capture());
+        assertEquals("Only worker without stored results run", Collections.singletonList(worker2),
+                     runner.getValue().getWorkers());
+    }
+
+    /**
+     * Files no worker can handle are counted in the metrics, by type.
+     */
+    @Test
+    public void testUnhandledFileCounted() throws Exception {
+        ScanMetrics metrics = new ScanMetrics(fileClassifier);
+        fileWorkerVisitor.setMetrics(metrics);
+        Path path = mock(Path.class);
+        BasicFileAttributes attrs = mock(BasicFileAttributes.class);
+        when(attrs.isRegularFile()).thenReturn(true);
+        when(attrs.size()).thenReturn(42L);
+        when(fileClassifier.getType(any(FileContext.class))).thenReturn("text");
+        when(registry.getWorkers(anyString(), eq("text"))).thenReturn(Collections.<FileWorker>emptySet());
+
+        fileWorkerVisitor.visitFile(path, attrs);
+
+        assertEquals("Visited", 1, metrics.getFilesVisited());
+        assertEquals("Bytes", 42, metrics.getBytesVisited());
+        assertEquals("Classified", 1, metrics.getClassifications());
+        assertEquals("Unhandled", Collections.singletonMap("text", 1L), metrics.getUnhandledByType());
+        verify(scanJob, never()).submit(any(FileWorkerRunner.class));
+    }
+
+    /**
+     * Files visited without attributes (as when the walk couldn't read them) are counted without a size.
+     */
+    @Test
+    public void testVisitFileWithoutAttributesCounted() throws Exception {
+        ScanMetrics metrics = new ScanMetrics(fileClassifier);
+        fileWorkerVisitor.setMetrics(metrics);
+        when(fileClassifier.getType(any(FileContext.class))).thenReturn("text");
+        when(registry.getWorkers(anyString(), eq("text"))).thenReturn(Collections.<FileWorker>emptySet());
+
+        fileWorkerVisitor.visitFile(mock(Path.class), null);
+
+        assertEquals("Visited", 1, metrics.getFilesVisited());
+        assertEquals("Bytes", 0, metrics.getBytesVisited());
+    }
+
+    /**
+     * Archives get a task for the archive descent, in its own lane, as well as their workers' task.
+     */
+    @Test
+    public void testVisitArchive() throws Exception {
+        FileWorker worker1 = mock(FileWorker.class);
+        ArchiveDescent descent = mock(ArchiveDescent.class);
+        when(descent.isArchive("application/zip")).thenReturn(true);
+        fileWorkerVisitor.setArchiveDescent(descent);
+        when(fileClassifier.getType(any(FileContext.class))).thenReturn("application/zip");
+        when(registry.getWorkers("operation1", "application/zip")).thenReturn(Sets.newHashSet(worker1));
+        when(registry.getWorkers("operation2", "application/zip")).thenReturn(Collections.<FileWorker>emptySet());
+        when(scanJob.laneFor(worker1)).thenReturn("default");
+        when(scanJob.laneFor(descent)).thenReturn("archive");
+
+        fileWorkerVisitor.visitFile(mock(Path.class), null);
+
+        ArgumentCaptor<FileWorkerRunner> runners = ArgumentCaptor.forClass(FileWorkerRunner.class);
+        verify(scanJob, times(2)).submit(runners.capture());
+        assertEquals("Workers", Collections.singletonList(worker1), runners.getAllValues().get(0).getWorkers());
+        assertEquals("Descent", Collections.<FileWorker>singletonList(descent),
+                     runners.getAllValues().get(1).getWorkers());
+    }
+
+    /**
+     * Directory listers are fed entries by the walk instead of being submitted, and finish with the directory.  Entries
+     * that can't be read are listed, and still fail the walk as usual.
+     */
+    @Test
+    public void testListDirectoryFromWalk() throws Exception {
+        DirectoryEntriesWorker lister = mock(DirectoryEntriesWorker.class);
+        Entries entries = mock(Entries.class);
+        Path dir = mock(Path.class);
+        Path file = mock(Path.class);
+        Path unreadable = mock(Path.class);
+        when(file.getParent()).thenReturn(dir);
+        when(unreadable.getParent()).thenReturn(dir);
+        BasicFileAttributes dirAttrs = mock(BasicFileAttributes.class);
+        when(dirAttrs.isDirectory()).thenReturn(true);
+        BasicFileAttributes fileAttrs = mock(BasicFileAttributes.class);
+        when(fileClassifier.getType(any(FileContext.class))).thenReturn(FileClassifier.FILE_TYPE_DIRECTORY);
+        when(registry.getWorkers("operation1", FileClassifier.FILE_TYPE_DIRECTORY))
+                .thenReturn(Sets.<FileWorker>newHashSet(lister));
+        when(registry.getWorkers("operation2", FileClassifier.FILE_TYPE_DIRECTORY))
+                .thenReturn(Collections.<FileWorker>emptySet());
+        when(lister.startDirectory(eq(dir), any(ResultsHandler.class))).thenReturn(entries);
+
+        fileWorkerVisitor.preVisitDirectory(dir, dirAttrs);
+        fileWorkerVisitor.entryFound(file, fileAttrs);
+        IOException failure = new IOException("doh!");
+        try {
+            fileWorkerVisitor.visitFileFailed(unreadable, failure);
+            fail("Failure not passed on");
+        }
+        catch (IOException e) {
+            // expected
+        }
+        fileWorkerVisitor.postVisitDirectory(dir, null);
+
+        verify(scanJob, never()).submit(any(FileWorkerRunner.class));
+        verify(entries).entryFound(file, fileAttrs);
+        verify(entries).entryFailed(unreadable, failure);
+        verify(entries).finished(null);
+    }
+
+    /**
+     * Listings of directories the walk stopped in are finished with an error, once.
+     */
+    @Test
+    public void testWalkStoppedFinishesListings() throws Exception {
+        DirectoryEntriesWorker lister = mock(DirectoryEntriesWorker.class);
+        Entries entries = mock(Entries.class);
+        Path dir = mock(Path.class);
+        BasicFileAttributes dirAttrs = mock(BasicFileAttributes.class);
+        when(dirAttrs.isDirectory()).thenReturn(true);
+        when(fileClassifier.getType(any(FileContext.class))).thenReturn(FileClassifier.FILE_TYPE_DIRECTORY);
+        when(registry.getWorkers("operation1", FileClassifier.FILE_TYPE_DIRECTORY))
+                .thenReturn(Sets.<FileWorker>newHashSet(lister));
+        when(registry.getWorkers("operation2", FileClassifier.FILE_TYPE_DIRECTORY))
+                .thenReturn(Collections.<FileWorker>emptySet());
+        when(lister.startDirectory(eq(dir), any(ResultsHandler.class))).thenReturn(entries);
+
+        fileWorkerVisitor.preVisitDirectory(dir, dirAttrs);
+        fileWorkerVisitor.walkStopped();
+        fileWorkerVisitor.walkStopped();
+
+        verify(entries, times(1)).finished(any(IOException.class));
+        verify(entries, never()).finished(null);
+    }
+
+    /**
+     * Workers in different lanes share one open file: the first runner to finish doesn't close it under the other.
+     */
+    @Test
+    public void testLanesShareContent() throws Exception {
+        Path path = folder.newFile().toPath();
+        Files.write(path, new byte[100 * 1024]);
+        ContentWorker sizes = new ContentWorker();
+        ContentWorker hashes = new ContentWorker();
+        when(fileClassifier.getType(any(FileContext.class))).thenReturn("text");
+        when(registry.getWorkers("operation1", "text")).thenReturn(Sets.<FileWorker>newHashSet(sizes));
+        when(registry.getWorkers("operation2", "text")).thenReturn(Sets.<FileWorker>newHashSet(hashes));
+        when(scanJob.laneFor(sizes)).thenReturn("default");
+        when(scanJob.laneFor(hashes)).thenReturn("content");
+
+        fileWorkerVisitor.visitFile(path, Files.readAttributes(path, BasicFileAttributes.class));
+
+        ArgumentCaptor<FileWorkerRunner> runners = ArgumentCaptor.forClass(FileWorkerRunner.class);
+        verify(scanJob, times(2)).submit(runners.capture());
+        List<FileWorkerResults> first = runners.getAllValues().get(0).call();
+        List<FileWorkerResults> second = runners.getAllValues().get(1).call();
+        assertTrue("First lane succeeded", first.get(0).isSuccess());
+        assertTrue("Second lane succeeded", second.get(0).isSuccess());
+        assertSame("File opened once", sizes.content, hashes.content);
+    }
+
+    /**
+     * Reads the first byte of the file, remembering the contents it was given.
+     */
+    private static final class ContentWorker implements FileContextWorker {
+        private FileContent content;
+
+        @Override
+        public FileWorkerResults handle(FileContext context) {
+            FileWorkerResults results = new FileWorkerResults();
+            try {
+                content = context.getContent();
+                content.read(ByteBuffer.allocate(1), 0);
+                results.setSuccess(true);
+            }
+            catch (IOException e) {
+                results.setErrorMessage(e.toString());
+            }
+            return results;
+        }
+
+        @Override
+        public FileWorkerResults handle(Path filePath) {
+            throw new UnsupportedOperationException();
+        }
 
+        @Override
+        public boolean canHandle(String operation, String type) {
+            return true;
+        }
     }
-}
\ No newline at end of file
+}
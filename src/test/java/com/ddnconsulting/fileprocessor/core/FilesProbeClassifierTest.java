@@ -3,10 +3,12 @@ package com.ddnconsulting.fileprocessor.core;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import java.io.File;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -45,4 +47,18 @@ public class FilesProbeClassifierTest {
 
         assertNull("File type is null", classifier.getType(path));
     }
-}
\ No newline at end of file
+
+    /**
+     * Directory-ness comes from the context's attributes.  Path is never touched.
+     */
+    @Test
+    public void testGetTypeContextDirectory() throws Exception {
+        Path path = mock(Path.class);
+        BasicFileAttributes attributes = mock(BasicFileAttributes.class);
+        when(attributes.isDirectory()).thenReturn(true);
+
+        assertEquals("File type", FileClassifier.FILE_TYPE_DIRECTORY,
+                     classifier.getType(new FileContext(path, attributes)));
+        verifyZeroInteractions(path);
+    }
+}
@@ -0,0 +1,78 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * JUnit test for LatencyHistogram
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * Every duration falls in a bucket whose range holds it, and buckets follow on from each other.
+     */
+    @Test
+    public void testBuckets() throws Exception {
+        long[] durations = {0, 1, 7, 8, 9, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE};
+        for (long nanos : durations) {
+            int bucket = LatencyHistogram.bucketFor(nanos);
+            assertTrue(nanos + " no more than top of bucket", nanos <= LatencyHistogram.highestInBucket(bucket));
+            if (bucket > 0) {
+                assertTrue(nanos + " above bucket below", nanos > LatencyHistogram.highestInBucket(bucket - 1));
+            }
+        }
+        assertEquals("Top of 8th bucket above exact ones", 17, LatencyHistogram.highestInBucket(16));
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals("Empty", 0, histogram.getPercentileNanos(99));
+
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+
+        assertEquals("Count", 1000, histogram.getCount());
+        assertEquals("Max", TimeUnit.MICROSECONDS.toNanos(1000), histogram.getMaxNanos());
+        assertEquals("Mean", 500500, histogram.getMeanNanos());
+        assertWithin("Median", TimeUnit.MICROSECONDS.toNanos(500), histogram.getPercentileNanos(50));
+        assertWithin("p99", TimeUnit.MICROSECONDS.toNanos(990), histogram.getPercentileNanos(99));
+        assertEquals("p100 is max", histogram.getMaxNanos(), histogram.getPercentileNanos(100));
+    }
+
+    /**
+     * Nothing is lost recording from many threads at once.
+     */
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(i);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals("Count", 40000, histogram.getCount());
+        assertEquals("Total", 4L * 9999 * 10000 / 2, histogram.getTotalNanos());
+        assertEquals("Max", 9999, histogram.getMaxNanos());
+    }
+
+    private static void assertWithin(String message, long expected, long actual) {
+        assertTrue(message + ": expected about " + expected + " but was " + actual,
+                   actual >= expected && actual <= expected + expected / 8);
+    }
+}
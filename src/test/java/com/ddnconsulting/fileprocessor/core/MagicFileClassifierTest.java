@@ -0,0 +1,146 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * JUnit test for MagicFileClassifier
+ */
+public class MagicFileClassifierTest {
+    private static final byte[] PNG_HEADER = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n',
+                                              0, 0, 0, 0x0d, 'I', 'H', 'D', 'R'};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    MagicFileClassifier classifier;
+
+    @Before
+    public void setUp() throws Exception {
+        classifier = new MagicFileClassifier();
+    }
+
+    /**
+     * Type comes from contents, whatever the file is called.
+     */
+    @Test
+    public void testGetTypeByMagic() throws Exception {
+        Path file = folder.newFile("no-extension").toPath();
+        Files.write(file, PNG_HEADER);
+
+        assertEquals("File type", "image/png", classifier.getType(file));
+    }
+
+    /**
+     * Unambiguous extensions aren't read: a JAR is a JAR, even if it isn't really.
+     */
+    @Test
+    public void testGetTypeByExtension() throws Exception {
+        Path file = folder.newFile("library.jar").toPath();
+        Files.write(file, "not actually a jar".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("File type", "application/java-archive", classifier.getType(file));
+    }
+
+    /**
+     * Plain text has no magic, so type falls back to extension.
+     */
+    @Test
+    public void testGetTypeFallsBackToExtension() throws Exception {
+        Path file = folder.newFile("notes.txt").toPath();
+        Files.write(file, "some text".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("File type", "text/plain", classifier.getType(file));
+    }
+
+    @Test
+    public void testGetTypeUnknown() throws Exception {
+        Path file = folder.newFile("mystery").toPath();
+        Files.write(file, new byte[] {1, 2, 3});
+
+        assertNull("File type is null", classifier.getType(file));
+        assertNull("Empty file type is null", classifier.getType(folder.newFile("empty").toPath()));
+    }
+
+    /**
+     * Directory-ness comes from the context's attributes.  Path is never touched.
+     */
+    @Test
+    public void testGetTypeContextDirectory() throws Exception {
+        Path path = mock(Path.class);
+        BasicFileAttributes attributes = mock(BasicFileAttributes.class);
+        when(attributes.isDirectory()).thenReturn(true);
+
+        assertEquals("File type", FileClassifier.FILE_TYPE_DIRECTORY,
+                     classifier.getType(new FileContext(path, attributes)));
+        verifyZeroInteractions(path);
+    }
+
+    /**
+     * FIFOs and devices are special and are never opened.
+     */
+    @Test
+    public void testGetTypeContextSpecial() throws Exception {
+        Path path = mock(Path.class);
+        BasicFileAttributes attributes = mock(BasicFileAttributes.class);
+        when(attributes.isOther()).thenReturn(true);
+
+        assertEquals("File type", FileClassifier.FILE_TYPE_SPECIAL,
+                     classifier.getType(new FileContext(path, attributes)));
+        verifyZeroInteractions(path);
+    }
+
+    /**
+     * Small read size still works for files larger than the buffer, and threads don't see each other's headers.
+     */
+    @Test
+    public void testConcurrentUse() throws Exception {
+        classifier = new MagicFileClassifier(16, Collections.<String>emptyList());
+        final Path png = folder.newFile("image").toPath();
+        byte[] bigPng = new byte[1000];
+        System.arraycopy(PNG_HEADER, 0, bigPng, 0, PNG_HEADER.length);
+        Files.write(png, bigPng);
+        final Path xml = folder.newFile("document").toPath();
+        Files.write(xml, "<?xml version=\"1.0\"?><root/>".getBytes(StandardCharsets.UTF_8));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                final boolean even = i % 2 == 0;
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return even ? "image/png".equals(classifier.getType(png))
+                                    : "application/xml".equals(classifier.getType(xml));
+                    }
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertTrue("Correct type", future.get());
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+}
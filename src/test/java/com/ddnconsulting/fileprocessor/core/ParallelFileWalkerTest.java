@@ -0,0 +1,244 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * JUnit test for ParallelFileWalker
+ */
+public class ParallelFileWalkerTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path root;
+
+    /**
+     * Builds a tree 3 levels deep with 4 subdirectories and 5 files in each directory.
+     */
+    @Before
+    public void setUp() throws Exception {
+        root = folder.getRoot().toPath();
+        createTree(root, 3);
+    }
+
+    private void createTree(Path dir, int depth) throws IOException {
+        for (int i = 0; i < 5; i++) {
+            Files.write(dir.resolve("file" + i + ".txt"), new byte[i]);
+        }
+        if (depth > 0) {
+            for (int i = 0; i < 4; i++) {
+                Path subdir = Files.createDirectory(dir.resolve("dir" + i));
+                createTree(subdir, depth - 1);
+            }
+        }
+    }
+
+    /**
+     * Parallel walk must visit exactly what Files.walkFileTree visits.
+     */
+    @Test
+    public void testWalkMatchesWalkFileTree() throws Exception {
+        CollectingVisitor expected = new CollectingVisitor();
+        Files.walkFileTree(root, expected);
+
+        CollectingVisitor actual = new CollectingVisitor();
+        new ParallelFileWalker(4).walk(root, actual);
+
+        assertEquals("Files visited", expected.files, actual.files);
+        assertEquals("Directories visited", expected.directories, actual.directories);
+        assertEquals("Num files", 425, actual.files.size());
+        assertEquals("Num directories", 85, actual.directories.size());
+    }
+
+    /**
+     * postVisitDirectory must only be called once everything below the directory has been visited.
+     */
+    @Test
+    public void testPostVisitAfterDescendants() throws Exception {
+        final Set<Path> postVisited = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+        final Set<Path> visitedTooLate = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+
+        new ParallelFileWalker(4).walk(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (postVisited.contains(file.getParent())) {
+                    visitedTooLate.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                postVisited.add(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        assertTrue("Files visited after parent was post-visited: " + visitedTooLate, visitedTooLate.isEmpty());
+        assertEquals("Num directories post-visited", 85, postVisited.size());
+    }
+
+    @Test
+    public void testSkipSubtree() throws Exception {
+        final Path skipped = root.resolve("dir0");
+        CollectingVisitor visitor = new CollectingVisitor() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                super.preVisitDirectory(dir, attrs);
+                return dir.equals(skipped) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+        };
+        new ParallelFileWalker(2).walk(root, visitor);
+
+        assertTrue("Skipped directory is pre-visited", visitor.directories.contains(skipped));
+        for (Path file : visitor.files) {
+            assertFalse("Nothing under skipped directory: " + file, file.startsWith(skipped));
+        }
+        assertEquals("Num files", 425 - 105, visitor.files.size());
+    }
+
+    @Test
+    public void testTerminate() throws Exception {
+        CollectingVisitor visitor = new CollectingVisitor() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                super.visitFile(file, attrs);
+                return FileVisitResult.TERMINATE;
+            }
+        };
+        new ParallelFileWalker(1).walk(root, visitor);
+
+        assertEquals("Num files", 1, visitor.files.size());
+    }
+
+    @Test
+    public void testWalkSingleFile() throws Exception {
+        CollectingVisitor visitor = new CollectingVisitor();
+        Path file = root.resolve("file1.txt");
+        new ParallelFileWalker(2).walk(file, visitor);
+
+        assertEquals("Files visited", new HashSet<>(Collections.singleton(file)), visitor.files);
+        assertTrue("No directories visited", visitor.directories.isEmpty());
+    }
+
+    /**
+     * Like Files.walkFileTree, a directory that can't be opened is a failed file, not a pre-visited directory.
+     */
+    @Test
+    public void testUnopenableDirectory() throws Exception {
+        Path start = folder.newFolder("unopenable").toPath();
+        final Path one = Files.createDirectory(start.resolve("one"));
+        final Path two = Files.createDirectory(start.resolve("two"));
+        final Set<Path> failed = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+        final Set<Path> postVisited = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+
+        // One thread, so both subdirectories have been found before either is opened.  The first one visited
+        // deletes the other.
+        CollectingVisitor visitor = new CollectingVisitor() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                try {
+                    if (dir.equals(one)) {
+                        Files.deleteIfExists(two);
+                    }
+                    else if (dir.equals(two)) {
+                        Files.deleteIfExists(one);
+                    }
+                }
+                catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                return super.preVisitDirectory(dir, attrs);
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                failed.add(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                postVisited.add(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        };
+        new ParallelFileWalker(1).walk(start, visitor);
+
+        assertEquals("One failed", 1, failed.size());
+        Path gone = failed.iterator().next();
+        assertFalse("Not pre-visited", visitor.directories.contains(gone));
+        assertFalse("Not post-visited", postVisited.contains(gone));
+        assertEquals("Others post-visited", 2, postVisited.size());
+    }
+
+    /**
+     * The visitor's exception stops the walk: nothing is visited once walk() has thrown it.  It's thrown in the subtree
+     * joined first, while the rest of the tree is still to be walked.
+     */
+    @Test
+    public void testVisitorExceptionPropagates() throws Exception {
+        final AtomicInteger visits = new AtomicInteger();
+        final Path failing = root.resolve("dir3").resolve("dir3").resolve("file0.txt");
+        try {
+            new ParallelFileWalker(4).walk(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    visits.incrementAndGet();
+                    if (file.equals(failing)) {
+                        throw new IOException("doh!");
+                    }
+                    try {
+                        Thread.sleep(2);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            fail("Exception not passed on");
+        }
+        catch (IOException e) {
+            assertEquals("doh!", e.getMessage());
+        }
+        int visited = visits.get();
+        Thread.sleep(200);
+        assertEquals("Nothing visited after the walk threw", visited, visits.get());
+        assertTrue("Walk stopped early", visited < 425);
+    }
+
+    private static class CollectingVisitor extends SimpleFileVisitor<Path> {
+        final Set<Path> files = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+        final Set<Path> directories = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            files.add(file);
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+            directories.add(dir);
+            return FileVisitResult.CONTINUE;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * JUnit test for Quarantine
+ */
+public class QuarantineTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Paths are quarantined once they reach the threshold, counting timeouts from earlier scans.
+     */
+    @Test
+    public void testThresholdAcrossScans() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("quarantine");
+        Path slow = folder.newFile("slow").toPath();
+
+        Quarantine first = new Quarantine(file, 2);
+        first.timedOut(slow);
+        assertFalse("One timeout isn't enough", first.isQuarantined(slow));
+        first.save();
+
+        Quarantine second = new Quarantine(file, 2);
+        assertFalse("Still one", second.isQuarantined(slow));
+        second.timedOut(slow);
+        assertTrue("Quarantined on second timeout", second.isQuarantined(slow));
+        second.save();
+
+        Quarantine third = new Quarantine(file, 2);
+        assertTrue("Still quarantined", third.isQuarantined(slow.getParent().resolve("./slow")));
+        assertEquals("Listed", Collections.singleton(slow.toAbsolutePath().toString()), third.getQuarantined());
+    }
+
+    /**
+     * Nothing is written unless something timed out.
+     */
+    @Test
+    public void testNotSavedUnlessChanged() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("quarantine");
+        new Quarantine(file, 1).save();
+        assertFalse("No file", Files.exists(file));
+    }
+}
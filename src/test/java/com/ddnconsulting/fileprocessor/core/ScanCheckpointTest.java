@@ -0,0 +1,96 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import com.ddnconsulting.fileprocessor.resultshandlers.ResultsHandler;
+import com.ddnconsulting.fileprocessor.workers.FileWorker;
+import com.google.common.collect.Lists;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * JUnit test for ScanCheckpoint
+ */
+public class ScanCheckpointTest {
+    private static final List<String> OPERATIONS = Lists.newArrayList("dir", "sizeof");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A directory is done once it has been walked and its tasks have finished, and then replaces its subdirectories.
+     */
+    @Test
+    public void testDirectoryDoneWhenTasksFinish() throws Exception {
+        Path root = folder.newFolder("root").toPath();
+        Path sub = root.resolve("sub");
+        ScanCheckpoint checkpoint = new ScanCheckpoint(folder.getRoot().toPath().resolve("checkpoint"), root,
+                                                       OPERATIONS, false);
+
+        checkpoint.directoryStarted(root);
+        checkpoint.directoryStarted(sub);
+        FileWorkerRunner runner = runnerFor(sub.resolve("file"));
+        checkpoint.taskDispatched(runner);
+        checkpoint.directoryWalked(sub);
+        assertTrue("Task still running", checkpoint.getDone().isEmpty());
+
+        checkpoint.taskFinished(runner);
+        assertEquals("Sub done", Collections.singleton(sub), checkpoint.getDone());
+        assertEquals("Root pending", Collections.singleton(root), checkpoint.getPending());
+
+        checkpoint.directoryWalked(root);
+        assertEquals("Root replaces sub", Collections.singleton(root), checkpoint.getDone());
+        assertTrue("Nothing pending", checkpoint.getPending().isEmpty());
+    }
+
+    /**
+     * Resuming skips directories done in the checkpoint, but only for the same scan.  A rejected task leaves its
+     * directory unfinished.
+     */
+    @Test
+    public void testResume() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("checkpoint");
+        Path root = folder.newFolder("root").toPath();
+        Path done = root.resolve("done");
+        Path unfinished = root.resolve("unfinished");
+
+        ScanCheckpoint first = new ScanCheckpoint(file, root, OPERATIONS, false);
+        first.directoryStarted(root);
+        first.directoryStarted(done);
+        first.directoryWalked(done);
+        first.directoryStarted(unfinished);
+        FileWorkerRunner runner = runnerFor(unfinished.resolve("file"));
+        first.taskDispatched(runner);
+        first.taskRejected(runner);
+        first.directoryWalked(unfinished);
+        first.save();
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertTrue("Done listed", lines.contains("done\tdone"));
+        assertTrue("Pending listed", lines.contains("pending\tunfinished"));
+
+        ScanCheckpoint resumed = new ScanCheckpoint(file, root, OPERATIONS, true);
+        assertTrue("Done skipped", resumed.isDone(done));
+        assertFalse("Unfinished scanned again", resumed.isDone(unfinished));
+        assertFalse("Root scanned again", resumed.isDone(root));
+        resumed.directoryStarted(root);
+        resumed.directorySkipped(done);
+        resumed.directoryWalked(root);
+        assertEquals("Root done, covering what was skipped", Collections.singleton(root), resumed.getDone());
+
+        assertFalse("Other operations start over",
+                    new ScanCheckpoint(file, root, Lists.newArrayList("dir"), true).isDone(done));
+        assertFalse("Not resuming", new ScanCheckpoint(file, root, OPERATIONS, false).isDone(done));
+    }
+
+    private FileWorkerRunner runnerFor(Path path) {
+        return new FileWorkerRunner(mock(FileWorker.class), path, mock(ResultsHandler.class));
+    }
+}
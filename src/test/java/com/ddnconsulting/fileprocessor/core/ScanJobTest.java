@@ -0,0 +1,169 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.ddnconsulting.fileprocessor.resultshandlers.CollectingResultsHandler;
+import com.ddnconsulting.fileprocessor.workers.FileWorker;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.env.StandardEnvironment;
+
+/**
+ * JUnit test for ScanJob
+ */
+public class ScanJobTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private ExecutorLanes lanes;
+    private CollectingResultsHandler resultsHandler;
+    private Path path;
+
+    @Before
+    public void setUp() {
+        lanes = new ExecutorLanes(new StandardEnvironment(), 2, 100, 50);
+        resultsHandler = new CollectingResultsHandler();
+        path = Paths.get("some-file");
+    }
+
+    @After
+    public void tearDown() {
+        lanes.shutdownNow();
+    }
+
+    /**
+     * Job is not complete until the walk has finished, even if no tasks are outstanding.
+     */
+    @Test
+    public void testCompletesAfterWalkAndTasks() throws Exception {
+        ScanJob scanJob = new ScanJob(lanes);
+        FileWorker worker = mock(FileWorker.class);
+        FileWorkerResults success = new FileWorkerResults();
+        success.setSuccess(true);
+        when(worker.handle(path)).thenReturn(success);
+
+        scanJob.fileDiscovered();
+        scanJob.submit(new FileWorkerRunner(worker, path, resultsHandler)).get();
+
+        assertFalse("Not finished while walk is running", scanJob.awaitCompletion(50, TimeUnit.MILLISECONDS));
+
+        scanJob.walkCompleted();
+        assertTrue("Finished", scanJob.awaitCompletion());
+        assertEquals("Discovered", 1, scanJob.getFilesDiscovered());
+        assertEquals("Dispatched", 1, scanJob.getTasksDispatched());
+        assertEquals("Completed", 1, scanJob.getTasksCompleted());
+        assertEquals("Failed", 0, scanJob.getTasksFailed());
+        assertEquals("Outstanding", 0, scanJob.getTasksOutstanding());
+    }
+
+    /**
+     * Both exceptions and unsuccessful results count as failures.
+     */
+    @Test
+    public void testFailures() throws Exception {
+        ScanJob scanJob = new ScanJob(lanes);
+        FileWorker throwing = mock(FileWorker.class);
+        when(throwing.handle(path)).thenThrow(new RuntimeException("doh!"));
+        FileWorker unsuccessful = mock(FileWorker.class);
+        when(unsuccessful.handle(path)).thenReturn(new FileWorkerResults());
+
+        scanJob.submit(new FileWorkerRunner(throwing, path, resultsHandler));
+        scanJob.submit(new FileWorkerRunner(unsuccessful, path, resultsHandler));
+        scanJob.walkCompleted();
+
+        assertTrue("Finished", scanJob.awaitCompletion());
+        assertEquals("Completed", 2, scanJob.getTasksCompleted());
+        assertEquals("Failed", 2, scanJob.getTasksFailed());
+    }
+
+    /**
+     * Tasks still running at the deadline are cancelled and reported.
+     */
+    @Test
+    public void testDeadline() throws Exception {
+        final CountDownLatch never = new CountDownLatch(1);
+        ScanJob scanJob = new ScanJob(lanes, 100, TimeUnit.MILLISECONDS);
+        FileWorker stuck = new StuckWorker(never);
+
+        scanJob.submit(new FileWorkerRunner(stuck, path, resultsHandler));
+        scanJob.walkCompleted();
+
+        assertFalse("Did not finish", scanJob.awaitCompletion());
+        assertTrue("Cancelled", scanJob.isCancelled());
+        assertTrue("Deadline passed", scanJob.checkDeadline());
+
+        List<FileWorkerRunner> abandoned = scanJob.getAbandoned();
+        assertEquals("Num abandoned", 1, abandoned.size());
+        assertSame("Abandoned worker", stuck, abandoned.get(0).getWorker());
+        assertEquals("Abandoned path", path, abandoned.get(0).getContext().getPath());
+    }
+
+    /**
+     * A runner cancelled before it ran still releases its file, so contents opened by another lane's runner are
+     * closed.
+     */
+    @Test
+    public void testCancelledBeforeRunReleases() throws Exception {
+        CountDownLatch never = new CountDownLatch(1);
+        ScanJob scanJob = new ScanJob(lanes);
+        // Both of the lane's threads are kept busy, so the next runner waits in the queue
+        scanJob.submit(new FileWorkerRunner(new StuckWorker(never), path, resultsHandler));
+        scanJob.submit(new FileWorkerRunner(new StuckWorker(never), path, resultsHandler));
+
+        Path file = folder.newFile().toPath();
+        Files.write(file, new byte[1024]);
+        FileContext context = new FileContext(file);
+        context.retain(2);
+        FileContent content = context.getContent();
+        context.release();
+        scanJob.submit(new FileWorkerRunner(mock(FileWorker.class), context, resultsHandler));
+
+        scanJob.cancel();
+        assertNotSame("Contents closed", content, context.getContent());
+        context.closeContent();
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testSubmitAfterCancel() throws Exception {
+        ScanJob scanJob = new ScanJob(lanes);
+        scanJob.cancel();
+        scanJob.submit(new FileWorkerRunner(mock(FileWorker.class), path, resultsHandler));
+    }
+
+    private static final class StuckWorker implements FileWorker {
+        private final CountDownLatch latch;
+
+        StuckWorker(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public FileWorkerResults handle(Path filePath) {
+            try {
+                latch.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }
+
+        @Override
+        public boolean canHandle(String operation, String type) {
+            return true;
+        }
+    }
+}
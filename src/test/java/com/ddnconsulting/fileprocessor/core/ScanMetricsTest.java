@@ -0,0 +1,144 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.TimeUnit;
+
+import com.ddnconsulting.fileprocessor.resultshandlers.CollectingResultsHandler;
+import com.ddnconsulting.fileprocessor.workers.FileSizeWorker;
+import com.ddnconsulting.fileprocessor.workers.FileWorker;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.env.StandardEnvironment;
+
+/**
+ * JUnit test for ScanMetrics
+ */
+public class ScanMetricsTest {
+
+    private ScanMetrics metrics;
+
+    @Before
+    public void setUp() throws Exception {
+        metrics = new ScanMetrics(null);
+    }
+
+    @Test
+    public void testFilesAndUnhandled() throws Exception {
+        ScanMetrics.Scan scan = metrics.scanStarted(null, new CollectingResultsHandler());
+        long start = System.nanoTime();
+        metrics.fileVisited(100, start);
+        metrics.fileVisited(0, start);
+        metrics.fileUnhandled("text/plain");
+        metrics.fileUnhandled("text/plain");
+        metrics.fileUnhandled(null);
+        metrics.scanFinished(scan);
+
+        assertEquals("Files", 2, metrics.getFilesVisited());
+        assertEquals("Bytes", 100, metrics.getBytesVisited());
+        assertTrue("Rate", metrics.getFilesPerSecond() > 0);
+        assertEquals("Unhandled", 3, metrics.getUnhandledFiles());
+        assertEquals("By type", Long.valueOf(2), metrics.getUnhandledByType().get("text/plain"));
+        assertEquals("Unknown type", Long.valueOf(1), metrics.getUnhandledByType().get("unknown"));
+    }
+
+    /**
+     * Worker run times are kept by worker and by type.
+     */
+    @Test
+    public void testWorkerLatencies() throws Exception {
+        FileWorker worker = new FileSizeWorker();
+        long start = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(5);
+        metrics.workerRun(worker, "text/plain", start);
+        metrics.workerRun(worker, "application/zip", start);
+
+        assertEquals("By worker", 2, metrics.getWorkerLatency(FileSizeWorker.class).getCount());
+        assertEquals("By type", 1, metrics.getTypeLatency("text/plain").getCount());
+        assertTrue("Time recorded", metrics.getTypeLatency("text/plain").getMaxNanos() >=
+                                    TimeUnit.MILLISECONDS.toNanos(5));
+        assertTrue("Listed for JMX", metrics.getWorkerLatencies().get("FileSizeWorker").startsWith("n=2 "));
+        assertTrue("In summary", metrics.getSummary().contains("Worker FileSizeWorker: n=2"));
+    }
+
+    /**
+     * Types from the index and from extensions count as classifier hits.
+     */
+    @Test
+    public void testClassifierHits() throws Exception {
+        MagicFileClassifier classifier = new MagicFileClassifier();
+        metrics = new ScanMetrics(classifier);
+
+        metrics.typeFromIndex();
+        FileContext jar = mock(FileContext.class, RETURNS_DEEP_STUBS);
+        when(jar.getAttributes().isRegularFile()).thenReturn(true);
+        when(jar.getPath().getFileName().toString()).thenReturn("some.jar");
+        long start = System.nanoTime();
+        classifier.getType(jar);
+        metrics.fileClassified(start);
+        metrics.fileClassified(start);
+
+        assertEquals("Classified", 2, metrics.getClassifications());
+        assertEquals("Index and extension of 3", 200.0 / 3, metrics.getClassifierHitPercent(), 0.01);
+    }
+
+    /**
+     * A scan starting and finishing while another runs doesn't reset the rates: they cover both, from the first start.
+     */
+    @Test
+    public void testConcurrentScans() throws Exception {
+        long start = System.nanoTime();
+        ScanMetrics.Scan first = metrics.scanStarted(null, new CollectingResultsHandler());
+        for (int i = 0; i < 10; i++) {
+            metrics.fileVisited(100, start);
+        }
+        Thread.sleep(50);
+        ScanMetrics.Scan second = metrics.scanStarted(null, new CollectingResultsHandler());
+        metrics.fileVisited(100, start);
+        metrics.scanFinished(second);
+        Thread.sleep(50);
+
+        double rate = metrics.getFilesPerSecond();
+        double elapsedSeconds = (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+        assertTrue("Files of both scans: " + rate, rate >= 11 / elapsedSeconds);
+        assertTrue("Since the first started: " + rate, rate <= 11 / 0.1);
+
+        metrics.scanFinished(first);
+        assertTrue("Rate of the last scan", metrics.getBytesPerSecond() > 0);
+    }
+
+    /**
+     * Queue depth is read from the current scan's lanes.
+     */
+    @Test
+    public void testQueueDepth() throws Exception {
+        ExecutorLanes lanes = new ExecutorLanes(new StandardEnvironment(), 1, 10, 5);
+        try {
+            metrics.scanStarted(lanes, new CollectingResultsHandler());
+            final Object lock = new Object();
+            Runnable blocked = new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (lock) {
+                        // wait for test to let go
+                    }
+                }
+            };
+            FileWorker worker = new FileSizeWorker();
+            synchronized (lock) {
+                lanes.executorFor(worker).execute(blocked);
+                lanes.executorFor(worker).execute(blocked);
+                assertEquals("Queued and running", 2, metrics.getQueueDepth());
+                long deadline = System.currentTimeMillis() + 5000;
+                while (metrics.getActiveThreads() != 1 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                assertEquals("Running", 1, metrics.getActiveThreads());
+            }
+        }
+        finally {
+            lanes.shutdownNow();
+        }
+        assertEquals("No results queue", 0, metrics.getResultsQueueDepth());
+    }
+}
@@ -0,0 +1,175 @@
+package com.ddnconsulting.fileprocessor.core;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.ddnconsulting.fileprocessor.core.TaskWatchdog.TimedOutResults;
+import com.ddnconsulting.fileprocessor.resultshandlers.CollectingResultsHandler;
+import com.ddnconsulting.fileprocessor.workers.FileSizeWorker;
+import com.ddnconsulting.fileprocessor.workers.FileWorker;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.env.MockEnvironment;
+
+/**
+ * JUnit test for TaskWatchdog
+ */
+public class TaskWatchdogTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private MockEnvironment environment;
+    private ExecutorLanes lanes;
+    private ScanJob scanJob;
+    private TaskWatchdog watchdog;
+    private Quarantine quarantine;
+    private CollectingResultsHandler resultsHandler;
+    private Path path;
+
+    @Before
+    public void setUp() throws Exception {
+        environment = new MockEnvironment();
+        lanes = new ExecutorLanes(environment, 1, 100, 50);
+        scanJob = new ScanJob(lanes);
+        quarantine = new Quarantine(folder.getRoot().toPath().resolve("quarantine"), 1);
+        resultsHandler = new CollectingResultsHandler();
+        path = folder.newFile().toPath();
+    }
+
+    @After
+    public void tearDown() {
+        if (watchdog != null) {
+            watchdog.close();
+        }
+        lanes.shutdownNow();
+    }
+
+    /**
+     * A worker that stops when interrupted is reported as timed out and the runner goes on to the next worker.
+     */
+    @Test
+    public void testInterruptsOverdueWorker() throws Exception {
+        watchdog = new TaskWatchdog(environment, 100, scanJob, quarantine, 10);
+        scanJob.setWatchdog(watchdog);
+        FileWorker sizes = new FileSizeWorker();
+
+        Future<List<FileWorkerResults>> task = scanJob.submit(
+                new FileWorkerRunner(Arrays.asList(new SleepingWorker(), sizes), new FileContext(path),
+                                     resultsHandler));
+        List<FileWorkerResults> results = task.get(5, TimeUnit.SECONDS);
+
+        assertTrue("Timed out", results.get(0) instanceof TimedOutResults);
+        TimedOutResults timedOut = (TimedOutResults) results.get(0);
+        assertEquals("Worker", "SleepingWorker", timedOut.getWorker());
+        assertEquals("File", path.toString(), timedOut.getFilename());
+        assertFalse("Not abandoned", timedOut.isAbandoned());
+        assertTrue("Next worker ran", results.get(1).isSuccess());
+        assertEquals("Both handled", 2, resultsHandler.getResults().size());
+        assertEquals("Counted", 1, watchdog.getTimedOut());
+        assertTrue("Quarantined", quarantine.isQuarantined(path));
+    }
+
+    /**
+     * A worker that ignores interrupts is abandoned: the scan stops waiting for it and the lane gets another thread.
+     */
+    @Test
+    public void testAbandonsStuckWorker() throws Exception {
+        watchdog = new TaskWatchdog(environment, 50, scanJob, null, 10);
+        scanJob.setWatchdog(watchdog);
+        StuckWorker stuck = new StuckWorker();
+
+        try {
+            scanJob.submit(new FileWorkerRunner(stuck, path, resultsHandler));
+            scanJob.walkCompleted();
+
+            assertTrue("Scan finishes without the stuck task", scanJob.awaitCompletion(5, TimeUnit.SECONDS));
+            assertFalse("Not cancelled", scanJob.isCancelled());
+            assertEquals("Counted as failed", 1, scanJob.getTasksFailed());
+            assertEquals("Abandoned", 1, watchdog.getAbandoned());
+            assertEquals("Timed out results handled for it", 1, resultsHandler.getResults().size());
+            assertTrue("Abandoned results", ((TimedOutResults) resultsHandler.getResults().get(0)).isAbandoned());
+
+            FileWorkerResults more = scanJob.submit(new FileWorkerRunner(new FileSizeWorker(), new FileContext(path),
+                                                                         resultsHandler)).get(5, TimeUnit.SECONDS)
+                                            .get(0);
+            assertTrue("Lane still runs tasks", more.isSuccess());
+        }
+        finally {
+            stuck.release.countDown();
+        }
+        assertTrue("Stuck worker finished", stuck.finished.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertEquals("Nothing more handled once it returns", 2, resultsHandler.getResults().size());
+    }
+
+    /**
+     * Timeouts set for a worker class override the default.
+     */
+    @Test
+    public void testPerWorkerTimeout() throws Exception {
+        environment.setProperty("worker.FileSizeWorker.timeout.ms", "5000");
+        watchdog = new TaskWatchdog(environment, 100, scanJob, null, 1000);
+
+        assertEquals("Own timeout", TimeUnit.SECONDS.toNanos(5), watchdog.timeoutNanosFor(new FileSizeWorker()));
+        assertEquals("Default", TimeUnit.MILLISECONDS.toNanos(100), watchdog.timeoutNanosFor(new SleepingWorker()));
+    }
+
+
+    private static class SleepingWorker implements FileWorker {
+        @Override
+        public FileWorkerResults handle(Path filePath) {
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new FileWorkerResults();
+        }
+
+        @Override
+        public boolean canHandle(String operation, String type) {
+            return true;
+        }
+    }
+
+    /**
+     * Ignores interrupts until released.
+     */
+    private static class StuckWorker implements FileWorker {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        @Override
+        public FileWorkerResults handle(Path filePath) {
+            while (release.getCount() > 0) {
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    // Not stopping
+                }
+            }
+            finished.countDown();
+            FileWorkerResults results = new FileWorkerResults();
+            results.setSuccess(true);
+            return results;
+        }
+
+        @Override
+        public boolean canHandle(String operation, String type) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.ddnconsulting.fileprocessor.daemon;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TemporaryQueue;
+
+import com.ddnconsulting.fileprocessor.core.FileProcessor;
+import com.ddnconsulting.fileprocessor.core.ScanJob;
+import com.ddnconsulting.fileprocessor.core.ScanOptions;
+import com.ddnconsulting.fileprocessor.resultshandlers.ResultsCodec;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.jms.connection.CachingConnectionFactory;
+
+/**
+ * JUnit test for ScanDaemon, with an embedded broker and a mock FileProcessor.
+ */
+public class ScanDaemonTest {
+
+    private CachingConnectionFactory connectionFactory;
+    private ScanDaemon daemon;
+    private Connection connection;
+    private Session session;
+
+    @Before
+    public void setUp() throws Exception {
+        connectionFactory = new CachingConnectionFactory(
+                new ActiveMQConnectionFactory("vm://daemon?broker.persistent=false&broker.useJmx=false"));
+        connection = connectionFactory.createConnection();
+        connection.start();
+        session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (daemon != null) {
+            daemon.close();
+        }
+        connection.close();
+        connectionFactory.destroy();
+    }
+
+    /**
+     * Requests are run at the same time, and each gets a reply with the outcome of its scan.
+     */
+    @Test
+    public void testConcurrentScans() throws Exception {
+        final CountDownLatch bothRunning = new CountDownLatch(2);
+        FileProcessor fileProcessor = mock(FileProcessor.class);
+        when(fileProcessor.processFiles(anyString(), anyListOf(String.class), any(ScanOptions.class)))
+                .thenAnswer(new Answer<ScanJob>() {
+                    @Override
+                    public ScanJob answer(InvocationOnMock invocation) throws Throwable {
+                        bothRunning.countDown();
+                        if (!bothRunning.await(5, TimeUnit.SECONDS)) {
+                            throw new IOException("Scans not run at the same time");
+                        }
+                        ScanJob scanJob = mock(ScanJob.class);
+                        when(scanJob.getFilesDiscovered()).thenReturn(3L);
+                        return scanJob;
+                    }
+                });
+        daemon = start(fileProcessor);
+
+        TemporaryQueue replies = session.createTemporaryQueue();
+        send(new ScanRequest("/data/a", Arrays.asList("sizeof")), "a", replies);
+        send(new ScanRequest("/data/b", Arrays.asList("sizeof")), "b", replies);
+
+        MessageConsumer consumer = session.createConsumer(replies);
+        for (int i = 0; i < 2; i++) {
+            Message reply = consumer.receive(10000);
+            assertNotNull("Reply", reply);
+            assertTrue("Complete: " + reply, reply.getBooleanProperty(ScanDaemon.COMPLETE_PROPERTY));
+            assertEquals("Files", 3, reply.getLongProperty(ScanDaemon.FILES_PROPERTY));
+            assertTrue("Correlated", Arrays.asList("a", "b").contains(reply.getJMSCorrelationID()));
+        }
+        assertEquals("Finished", 2, daemon.getScansFinished());
+    }
+
+    /**
+     * A scan that fails is answered with the error.
+     */
+    @Test
+    public void testFailedScan() throws Exception {
+        FileProcessor fileProcessor = mock(FileProcessor.class);
+        when(fileProcessor.processFiles(anyString(), anyListOf(String.class), any(ScanOptions.class)))
+                .thenThrow(new IOException("No such directory"));
+        daemon = start(fileProcessor);
+
+        TemporaryQueue replies = session.createTemporaryQueue();
+        ScanRequest request = new ScanRequest("/missing", Arrays.asList("dir", "sizeof"));
+        request.setSubdirectories(false);
+        send(request, "missing", replies);
+
+        Message reply = session.createConsumer(replies).receive(10000);
+        assertNotNull("Reply", reply);
+        assertFalse("Not complete", reply.getBooleanProperty(ScanDaemon.COMPLETE_PROPERTY));
+        assertTrue("Error", reply.getStringProperty(ScanDaemon.ERROR_PROPERTY).contains("No such directory"));
+        assertEquals("Failed", 1, daemon.getScansFailed());
+    }
+
+    private ScanDaemon start(FileProcessor fileProcessor) {
+        ScanDaemon scanDaemon = new ScanDaemon(fileProcessor, connectionFactory, new ResultsCodec(), "test.scans", 2,
+                                               10);
+        scanDaemon.start();
+        return scanDaemon;
+    }
+
+    private void send(ScanRequest request, String correlationId, TemporaryQueue replyTo) throws Exception {
+        Message message = request.toMessage(session);
+        message.setJMSCorrelationID(correlationId);
+        message.setJMSReplyTo(replyTo);
+        MessageProducer producer = session.createProducer(session.createQueue("test.scans"));
+        producer.send(message);
+        producer.close();
+    }
+}
@@ -0,0 +1,86 @@
+package com.ddnconsulting.fileprocessor.distributed;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * JUnit test for DistributedScan
+ */
+public class DistributedScanTest {
+
+    private DistributedScan scan = new DistributedScan("scan", Arrays.asList(unit("0"), unit("1")));
+
+    /**
+     * A unit is finished once acknowledged and all its results are in, in either order.
+     */
+    @Test
+    public void testUnitFinished() throws Exception {
+        scan.acknowledged("0", "d0", 2, true, "node1");
+        assertEquals("Waiting for results", 0, scan.getUnitsFinished());
+        scan.resultsReceived("0", "d0", 2);
+        assertEquals("Acknowledged and results in", 1, scan.getUnitsFinished());
+
+        scan.resultsReceived("1", "d1", 3);
+        assertFalse("Not acknowledged", scan.isComplete());
+        assertEquals("Unfinished", "1", scan.getUnfinished().get(0).getUnitId());
+        scan.acknowledged("1", "d1", 3, true, "node2");
+
+        assertTrue("Complete", scan.awaitCompletion(1, TimeUnit.SECONDS));
+        assertEquals("Results", 5, scan.getResultsReceived());
+        assertEquals("Units by node", Integer.valueOf(1), scan.getUnitsByNode().get("node2"));
+    }
+
+    /**
+     * Acknowledgement of a redelivered unit is ignored.
+     */
+    @Test
+    public void testDuplicateAck() throws Exception {
+        scan.acknowledged("0", "d0", 0, true, "node1");
+        scan.acknowledged("0", "d0-again", 0, true, "node2");
+        assertEquals("Finished once", 1, scan.getUnitsFinished());
+        assertEquals("First node kept", Collections.singletonMap("node1", 1), scan.getUnitsByNode());
+    }
+
+    /**
+     * Results sent by a node that died don't count towards the unit when it is redelivered: only those of the delivery
+     * acknowledged do.
+     */
+    @Test
+    public void testRedeliveredUnitResults() throws Exception {
+        scan.resultsReceived("0", "dead", 2);
+        scan.acknowledged("0", "redelivered", 2, true, "node2");
+        assertEquals("Waiting for redelivery's results", 0, scan.getUnitsFinished());
+
+        scan.resultsReceived("0", "redelivered", 2);
+        assertEquals("Redelivery's results in", 1, scan.getUnitsFinished());
+        assertEquals("All results received", 4, scan.getResultsReceived());
+    }
+
+    /**
+     * A unit whose node's scan was cut off is finished, but the scan isn't complete.
+     */
+    @Test
+    public void testCutOff() throws Exception {
+        scan.acknowledged("0", "d0", 0, false, "node1");
+        scan.acknowledged("1", "d1", 0, true, "node2");
+
+        assertTrue("Finished", scan.awaitCompletion(1, TimeUnit.SECONDS));
+        assertFalse("Not complete", scan.isComplete());
+        assertEquals("Cut off", "0", scan.getCutOff().get(0).getUnitId());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        scan.acknowledged("0", "d0", 0, true, "node1");
+        assertFalse("Timed out", scan.awaitCompletion(50, TimeUnit.MILLISECONDS));
+    }
+
+    private static WorkUnit unit(String id) {
+        return new WorkUnit("scan", id, "dir" + id, Arrays.asList("sizeof"), true);
+    }
+}
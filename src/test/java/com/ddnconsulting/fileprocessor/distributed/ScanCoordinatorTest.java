@@ -0,0 +1,214 @@
+package com.ddnconsulting.fileprocessor.distributed;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.ddnconsulting.fileprocessor.core.FileProcessor;
+import com.ddnconsulting.fileprocessor.core.ScanJob;
+import com.ddnconsulting.fileprocessor.core.ScanOptions;
+import com.ddnconsulting.fileprocessor.resultshandlers.CollectingResultsHandler;
+import com.ddnconsulting.fileprocessor.resultshandlers.ResultsCodec;
+import com.ddnconsulting.fileprocessor.workers.FileSizeWorker.FileSizeResults;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.RedeliveryPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.jms.connection.CachingConnectionFactory;
+import org.springframework.jms.core.JmsTemplate;
+
+/**
+ * JUnit test for ScanCoordinator and ScanNode, with two nodes sharing an embedded broker.  Nodes' FileProcessors are
+ * mocked to send one result per work unit, named after the unit's directory.
+ */
+public class ScanCoordinatorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CachingConnectionFactory connectionFactory;
+    private ResultsCodec codec = new ResultsCodec();
+    private ScanCoordinator coordinator;
+    private ScanNode node1;
+    private ScanNode node2;
+    private Path root;
+
+    @Before
+    public void setUp() throws Exception {
+        ActiveMQConnectionFactory activeMQConnectionFactory =
+                new ActiveMQConnectionFactory("vm://distributed?broker.persistent=false&broker.useJmx=false");
+        RedeliveryPolicy redeliveryPolicy = new RedeliveryPolicy();
+        redeliveryPolicy.setInitialRedeliveryDelay(10);
+        redeliveryPolicy.setRedeliveryDelay(10);
+        activeMQConnectionFactory.setRedeliveryPolicy(redeliveryPolicy);
+        connectionFactory = new CachingConnectionFactory(activeMQConnectionFactory);
+        coordinator = new ScanCoordinator(connectionFactory, codec, "test.work", "test.results", "test.acks");
+
+        root = folder.getRoot().toPath();
+        Files.createDirectory(root.resolve("a"));
+        Files.createDirectory(root.resolve("b"));
+        Files.createDirectory(root.resolve("c"));
+        Files.write(root.resolve("file.txt"), new byte[1]);
+    }
+
+    @After
+    public void tearDown() {
+        if (node1 != null) {
+            node1.close();
+        }
+        if (node2 != null) {
+            node2.close();
+        }
+        connectionFactory.destroy();
+    }
+
+    @Test
+    public void testSplit() throws Exception {
+        List<WorkUnit> units = coordinator.split("scan", root.toString(), Arrays.asList("sizeof"));
+
+        assertEquals("Top directory plus one per subdirectory", 4, units.size());
+        assertEquals("Top directory", root.toString(), units.get(0).getDirectory());
+        assertFalse("Top directory not walked below", units.get(0).isSubdirectories());
+        for (WorkUnit unit : units.subList(1, units.size())) {
+            assertTrue("Subdirectory walked below", unit.isSubdirectories());
+        }
+    }
+
+    /**
+     * Every unit is processed by one of the nodes and all results get back to the coordinator.
+     */
+    @Test
+    public void testCoordinate() throws Exception {
+        node1 = startNode("node1", processor(null));
+        node2 = startNode("node2", processor(null));
+        CollectingResultsHandler resultsHandler = new CollectingResultsHandler();
+
+        DistributedScan scan = coordinator.coordinate(root.toString(), Arrays.asList("sizeof"), resultsHandler, 10,
+                                                      TimeUnit.SECONDS);
+
+        assertTrue("Complete: " + scan, scan.isComplete());
+        assertEquals("Units", 4, scan.getUnitsFinished());
+        assertEquals("Units processed by nodes", 4, node1.getUnitsProcessed() + node2.getUnitsProcessed());
+        assertEquals("Results", 4, directories(resultsHandler.getResults()).size());
+        assertTrue("Subdirectory", directories(resultsHandler.getResults()).contains(root.resolve("b").toString()));
+    }
+
+    /**
+     * A unit whose scan fails is rolled back and delivered again.
+     */
+    @Test
+    public void testRedelivery() throws Exception {
+        node1 = startNode("node1", processor(root.resolve("b").toString()));
+        CollectingResultsHandler resultsHandler = new CollectingResultsHandler();
+
+        DistributedScan scan = coordinator.coordinate(root.toString(), Arrays.asList("sizeof"), resultsHandler, 10,
+                                                      TimeUnit.SECONDS);
+
+        assertTrue("Complete: " + scan, scan.isComplete());
+        assertEquals("All directories", 4, directories(resultsHandler.getResults()).size());
+    }
+
+    /**
+     * Units whose scans the nodes had to cut off are finished, but make the scan incomplete.
+     */
+    @Test
+    public void testCutOff() throws Exception {
+        node1 = startNode("node1", processor(null, true));
+        CollectingResultsHandler resultsHandler = new CollectingResultsHandler();
+
+        DistributedScan scan = coordinator.coordinate(root.toString(), Arrays.asList("sizeof"), resultsHandler, 10,
+                                                      TimeUnit.SECONDS);
+
+        assertTrue("Finished: " + scan, scan.isFinished());
+        assertFalse("Incomplete", scan.isComplete());
+        assertEquals("Cut off", 4, scan.getCutOff().size());
+    }
+
+    /**
+     * Units of a scan that times out are not left on the work queue for nodes started later.
+     */
+    @Test
+    public void testTimeoutWithdrawsUnits() throws Exception {
+        CollectingResultsHandler resultsHandler = new CollectingResultsHandler();
+
+        DistributedScan scan = coordinator.coordinate(root.toString(), Arrays.asList("sizeof"), resultsHandler, 200,
+                                                      TimeUnit.MILLISECONDS);
+
+        assertFalse("Not finished: " + scan, scan.isFinished());
+        JmsTemplate jmsTemplate = new JmsTemplate(connectionFactory);
+        jmsTemplate.setReceiveTimeout(500);
+        assertNull("No units left", jmsTemplate.receive("test.work"));
+
+        FileProcessor fileProcessor = processor(null);
+        node1 = startNode("node1", fileProcessor);
+        Thread.sleep(500);
+        assertEquals("Nothing scanned", 0, node1.getUnitsProcessed());
+        verify(fileProcessor, never()).processFiles(anyString(), anyListOf(String.class), any(ScanOptions.class));
+    }
+
+    private ScanNode startNode(String name, FileProcessor fileProcessor) {
+        ScanNode node = new ScanNode(fileProcessor, connectionFactory, codec, "test.work", "test.results",
+                                     "test.acks", 10);
+        node.setName(name);
+        node.start();
+        return node;
+    }
+
+    /**
+     * Mock FileProcessor sending one result for the directory it is given.  Fails the first time it is given
+     * failOnce.
+     */
+    private static FileProcessor processor(String failOnce) throws Exception {
+        return processor(failOnce, false);
+    }
+
+    /**
+     * Mock FileProcessor as above, whose scans are all cut off if cutOff.
+     */
+    private static FileProcessor processor(final String failOnce, final boolean cutOff) throws Exception {
+        final AtomicBoolean failed = new AtomicBoolean();
+        FileProcessor fileProcessor = mock(FileProcessor.class);
+        when(fileProcessor.processFiles(anyString(), anyListOf(String.class), any(ScanOptions.class)))
+                .thenAnswer(new Answer<ScanJob>() {
+                    @Override
+                    public ScanJob answer(InvocationOnMock invocation) throws Throwable {
+                        String directory = (String) invocation.getArguments()[0];
+                        if (directory.equals(failOnce) && failed.compareAndSet(false, true)) {
+                            throw new IOException("Node lost the mount");
+                        }
+                        FileSizeResults results = new FileSizeResults();
+                        results.setSuccess(true);
+                        results.setFilename(directory);
+                        ((ScanOptions) invocation.getArguments()[2]).getResultsHandler().handleResults(results);
+                        ScanJob scanJob = mock(ScanJob.class);
+                        when(scanJob.isCancelled()).thenReturn(cutOff);
+                        return scanJob;
+                    }
+                });
+        return fileProcessor;
+    }
+
+    private static Set<String> directories(List<FileWorkerResults> results) {
+        Set<String> directories = new HashSet<>();
+        for (FileWorkerResults result : results) {
+            directories.add(((FileSizeResults) result).getFilename());
+        }
+        return directories;
+    }
+}
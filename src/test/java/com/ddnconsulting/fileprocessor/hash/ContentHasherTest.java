@@ -0,0 +1,100 @@
+package com.ddnconsulting.fileprocessor.hash;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.ddnconsulting.fileprocessor.core.FileContent;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * JUnit test for ContentHasher
+ */
+public class ContentHasherTest {
+    private static final int MB = 1024 * 1024;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private ContentHasher hasher;
+
+    @After
+    public void tearDown() {
+        if (hasher != null) {
+            hasher.close();
+        }
+    }
+
+    /**
+     * Files up to the threshold get plain hashes, whether small (read into memory) or mapped.
+     */
+    @Test
+    public void testHash() throws Exception {
+        hasher = new ContentHasher(10 * MB, MB, 2);
+        for (int size : new int[] {0, 100, 3 * MB + 5}) {
+            byte[] bytes = bytes(size);
+            Hashes hashes = hash(bytes);
+
+            assertArrayEquals("SHA-256 of " + size, MessageDigest.getInstance("SHA-256").digest(bytes),
+                              hashes.getSha256());
+            assertEquals("xxHash64 of " + size, XxHash64.hash(ByteBuffer.wrap(bytes)), hashes.getXxHash64());
+            assertEquals("Not a tree", 0, hashes.getChunkSize());
+        }
+        assertEquals("Hex", "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+                     hash(new byte[0]).getSha256Hex());
+        assertEquals("Hex", "ef46db3751d8e999", hash(new byte[0]).getXxHash64Hex());
+    }
+
+    /**
+     * Files bigger than the threshold are hashed in ranges, and the ranges' hashes hashed.
+     */
+    @Test
+    public void testTreeHash() throws Exception {
+        hasher = new ContentHasher(2 * MB, MB, 3);
+        byte[] bytes = bytes(3 * MB + 100);
+
+        Hashes hashes = hash(bytes);
+
+        MessageDigest root = MessageDigest.getInstance("SHA-256");
+        ByteBuffer leaves = ByteBuffer.allocate(4 * 8).order(ByteOrder.LITTLE_ENDIAN);
+        for (int start = 0; start < bytes.length; start += MB) {
+            byte[] range = Arrays.copyOfRange(bytes, start, Math.min(bytes.length, start + MB));
+            root.update(MessageDigest.getInstance("SHA-256").digest(range));
+            leaves.putLong(XxHash64.hash(ByteBuffer.wrap(range)));
+        }
+        leaves.flip();
+        assertEquals("Chunk size", MB, hashes.getChunkSize());
+        assertArrayEquals("SHA-256 of SHA-256s", root.digest(), hashes.getSha256());
+        assertEquals("xxHash64 of xxHash64s", XxHash64.hash(leaves), hashes.getXxHash64());
+        assertEquals("Same again", hashes, hash(bytes));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testChunkTooSmall() {
+        new ContentHasher(MB, 1024, 1);
+    }
+
+    private Hashes hash(byte[] bytes) throws Exception {
+        Path file = folder.newFile().toPath();
+        Files.write(file, bytes);
+        try (FileContent content = FileContent.open(file)) {
+            return hasher.hash(content);
+        }
+    }
+
+    private static byte[] bytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,62 @@
+package com.ddnconsulting.fileprocessor.hash;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+/**
+ * JUnit test for XxHash64.  Expected values are from the reference implementation (xxhsum).
+ */
+public class XxHash64Test {
+
+    @Test
+    public void testKnownValues() {
+        assertEquals("Empty", 0xEF46DB3751D8E999L, hash(""));
+        assertEquals("Shorter than a stripe", 0x44BC2CF5AD770999L, hash("abc"));
+        assertEquals("Longer than a stripe", 0xFBCEA83C8A378BF1L, hash("Nobody inspects the spammish repetition"));
+    }
+
+    /**
+     * Hashing in pieces, split anywhere, gives the same value as hashing all at once.
+     */
+    @Test
+    public void testStreaming() {
+        byte[] bytes = new byte[1000];
+        new Random(42).nextBytes(bytes);
+        long expected = XxHash64.hash(ByteBuffer.wrap(bytes));
+
+        XxHash64 hash = new XxHash64();
+        for (int split : new int[] {0, 1, 7, 31, 32, 33, 100, 999, 1000}) {
+            hash.reset();
+            hash.update(bytes, 0, split);
+            hash.update(ByteBuffer.wrap(bytes, split, bytes.length - split));
+            assertEquals("Split at " + split, expected, hash.getValue());
+        }
+
+        hash.reset();
+        for (byte b : bytes) {
+            hash.update(new byte[] {b}, 0, 1);
+        }
+        assertEquals("A byte at a time", expected, hash.getValue());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+        assertEquals("Direct buffer", expected, XxHash64.hash(direct));
+    }
+
+    @Test
+    public void testSeed() {
+        XxHash64 seeded = new XxHash64(1);
+        seeded.update(new byte[0], 0, 0);
+        assertNotEquals("Seed changes hash", XxHash64.hash(ByteBuffer.allocate(0)), seeded.getValue());
+    }
+
+    private static long hash(String text) {
+        return XxHash64.hash(ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)));
+    }
+}
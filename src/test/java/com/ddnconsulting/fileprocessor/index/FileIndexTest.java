@@ -0,0 +1,149 @@
+package com.ddnconsulting.fileprocessor.index;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * JUnit test for FileIndex and FileIndexWriter
+ */
+public class FileIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Entries written in any order are read back sorted by path, with all their fields.
+     */
+    @Test
+    public void testWriteAndRead() throws Exception {
+        IndexEntry b = new IndexEntry("/data/b.txt", 10, 1000L, "(dev=1,ino=2)", "text/plain");
+        b.putResults("com.example.Worker", "{\"size\":10}".getBytes(StandardCharsets.UTF_8));
+        IndexEntry a = new IndexEntry("/data/a.txt", 20, 2000L, null, null);
+        Path file = folder.getRoot().toPath().resolve("test.index");
+
+        new FileIndexWriter().write(file, Arrays.asList(b, a));
+
+        try (FileIndex index = FileIndex.open(file)) {
+            assertEquals("Size", 2, index.size());
+            assertEquals("Sorted", "/data/a.txt", index.get(0).getPath());
+            assertEquals("Sorted", "/data/b.txt", index.get(1).getPath());
+
+            IndexEntry read = index.get("/data/b.txt");
+            assertEquals("Size", 10, read.getSize());
+            assertEquals("Last modified", 1000L, read.getLastModified());
+            assertEquals("File key", "(dev=1,ino=2)", read.getFileKey());
+            assertEquals("Type", "text/plain", read.getType());
+            assertEquals("Results", "{\"size\":10}",
+                         new String(read.getResults("com.example.Worker"), StandardCharsets.UTF_8));
+
+            IndexEntry nulls = index.get("/data/a.txt");
+            assertNull("No file key", nulls.getFileKey());
+            assertNull("No type", nulls.getType());
+            assertTrue("No results", nulls.getAllResults().isEmpty());
+
+            assertNull("Not in index", index.get("/data/c.txt"));
+            assertNull("Not in index", index.get("/data"));
+        }
+    }
+
+    /**
+     * With segments much smaller than the file, records are padded so none crosses a segment and all can still be
+     * found.
+     */
+    @Test
+    public void testManySegments() throws Exception {
+        List<IndexEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            IndexEntry entry = new IndexEntry("/data/file-" + i, i, i * 1000L, null, "text/plain");
+            entry.putResults("worker", new byte[i % 50]);
+            entries.add(entry);
+        }
+        Path file = folder.getRoot().toPath().resolve("segmented.index");
+
+        new FileIndexWriter(256).write(file, entries);
+
+        assertTrue("Several segments", Files.size(file) > 10 * 256);
+        try (FileIndex index = FileIndex.open(file)) {
+            assertEquals("Size", 500, index.size());
+            for (int i = 0; i < 500; i++) {
+                IndexEntry entry = index.get("/data/file-" + i);
+                assertNotNull("Found " + i, entry);
+                assertEquals("Size", i, entry.getSize());
+                assertEquals("Results", i % 50, entry.getResults("worker").length);
+            }
+        }
+    }
+
+    /**
+     * Paths are ordered by their UTF-8 bytes, so lookups of non-ASCII paths work.
+     */
+    @Test
+    public void testNonAsciiPaths() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("utf8.index");
+        new FileIndexWriter().write(file, Arrays.asList(new IndexEntry("/data/été", 1, 1, null, null),
+                                                        new IndexEntry("/data/zebra", 2, 2, null, null),
+                                                        new IndexEntry("/data/中文", 3, 3, null, null)));
+
+        try (FileIndex index = FileIndex.open(file)) {
+            assertEquals("Found", 1, index.get("/data/été").getSize());
+            assertEquals("Found", 2, index.get("/data/zebra").getSize());
+            assertEquals("Found", 3, index.get("/data/中文").getSize());
+        }
+    }
+
+    @Test
+    public void testEmptyIndex() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("empty.index");
+        new FileIndexWriter().write(file, new ArrayList<IndexEntry>());
+
+        try (FileIndex index = FileIndex.open(file)) {
+            assertEquals("Size", 0, index.size());
+            assertNull("Nothing found", index.get("/data/a.txt"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotAnIndex() throws Exception {
+        Path file = folder.newFile("not.index").toPath();
+        Files.write(file, "this is not an index file, just some text".getBytes(StandardCharsets.UTF_8));
+
+        FileIndex.open(file);
+    }
+
+    /**
+     * Entries written one at a time must come in path order.
+     */
+    @Test
+    public void testOutputOutOfOrder() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("streamed.index");
+        try (FileIndexWriter.Output output = new FileIndexWriter().open(file)) {
+            output.add(new IndexEntry("/data/b.txt", 1, 1, null, null));
+            try {
+                output.add(new IndexEntry("/data/a.txt", 1, 1, null, null));
+                fail("Out of order entry accepted");
+            }
+            catch (IOException e) {
+                // expected
+            }
+            output.add(new IndexEntry("/data/c.txt", 1, 1, null, null));
+            output.finish();
+        }
+
+        assertFalse("Offsets removed", Files.exists(file.resolveSibling("streamed.index.offsets")));
+        try (FileIndex index = FileIndex.open(file)) {
+            assertEquals("Size", 2, index.size());
+            assertEquals("Position", 1, index.indexOf("/data/c.txt"));
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.ddnconsulting.fileprocessor.index;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ddnconsulting.fileprocessor.core.FileContext;
+import com.ddnconsulting.fileprocessor.resultshandlers.ResultsCodec;
+import com.ddnconsulting.fileprocessor.workers.FileSizeWorker;
+import com.ddnconsulting.fileprocessor.workers.FileSizeWorker.FileSizeResults;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * JUnit test for IncrementalIndex
+ */
+public class IncrementalIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ResultsCodec codec;
+    private Path indexFile;
+    private Path file;
+    private FileSizeWorker worker;
+
+    @Before
+    public void setUp() throws Exception {
+        codec = new ResultsCodec();
+        indexFile = folder.getRoot().toPath().resolve("scan.index");
+        file = folder.newFile("data.txt").toPath();
+        Files.write(file, "some data".getBytes(StandardCharsets.UTF_8));
+        worker = new FileSizeWorker();
+    }
+
+    /**
+     * First scan has nothing to reuse.  Second scan finds the file unchanged and gets the stored results back.
+     */
+    @Test
+    public void testUnchangedFileReusesResults() throws Exception {
+        scan();
+
+        IncrementalIndex index = new IncrementalIndex(indexFile, codec);
+        FileContext context = new FileContext(file);
+        IndexEntry unchanged = index.findUnchanged(context);
+        assertNotNull("Unchanged", unchanged);
+        assertEquals("Type stored", "text/plain", unchanged.getType());
+
+        context.setType(unchanged.getType());
+        index.recordFile(context, unchanged);
+        FileWorkerResults results = index.reuseResults(unchanged, context, worker);
+        assertTrue("Results type", results instanceof FileSizeResults);
+        assertEquals("Size", 9, ((FileSizeResults) results).getSize());
+        assertEquals("Reused", 1, index.getReusedResults());
+
+        // Reused results are carried forward into the next index
+        index.save();
+        try (FileIndex saved = FileIndex.open(indexFile)) {
+            assertNotNull("Results kept", saved.get(file.toAbsolutePath().toString())
+                    .getResults(FileSizeWorker.class.getName()));
+        }
+    }
+
+    @Test
+    public void testModifiedFileIsNotReused() throws Exception {
+        scan();
+        Files.write(file, "some more data".getBytes(StandardCharsets.UTF_8));
+
+        IncrementalIndex index = new IncrementalIndex(indexFile, codec);
+        assertNull("Changed", index.findUnchanged(new FileContext(file)));
+        index.close();
+    }
+
+    @Test
+    public void testTouchedFileIsNotReused() throws Exception {
+        scan();
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() - 60000));
+
+        IncrementalIndex index = new IncrementalIndex(indexFile, codec);
+        assertNull("Changed", index.findUnchanged(new FileContext(file)));
+        index.close();
+    }
+
+    /**
+     * Failed results aren't stored, so the worker runs again next time.
+     */
+    @Test
+    public void testFailedResultsNotStored() throws Exception {
+        IncrementalIndex index = new IncrementalIndex(indexFile, codec);
+        FileContext context = new FileContext(file);
+        index.recordFile(context, null);
+        FileWorkerResults failed = new FileWorkerResults();
+        failed.setSuccess(false);
+        index.resultsProduced(context, worker, failed);
+        index.save();
+
+        index = new IncrementalIndex(indexFile, codec);
+        IndexEntry unchanged = index.findUnchanged(context);
+        assertNotNull("File unchanged", unchanged);
+        assertNull("No results to reuse", index.reuseResults(unchanged, context, worker));
+        index.close();
+    }
+
+    /**
+     * With a buffer too small for the scan's changes they are spilled to runs, and merged with the previous index on
+     * saving: unchanged files keep their stored results, changed and new files get their new ones, and files that have
+     * gone are dropped.
+     */
+    @Test
+    public void testSpilledChangesMerged() throws Exception {
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            Path data = folder.newFile("file" + i).toPath();
+            Files.write(data, new byte[i]);
+            files.add(data);
+        }
+        IncrementalIndex index = new IncrementalIndex(indexFile, codec, 512);
+        for (Path data : files) {
+            record(index, data, null);
+        }
+        assertTrue("Spilled", Files.exists(indexFile.resolveSibling("scan.index.run0")));
+        index.save();
+        assertFalse("Runs deleted", Files.exists(indexFile.resolveSibling("scan.index.run0")));
+
+        // Odd files changed, file0 gone, and a new one
+        for (int i = 1; i < 30; i += 2) {
+            Files.write(files.get(i), new byte[i + 100]);
+        }
+        Files.delete(files.get(0));
+        Path added = folder.newFile("added").toPath();
+        Files.write(added, new byte[7]);
+
+        index = new IncrementalIndex(indexFile, codec, 512);
+        int unchanged = 0;
+        for (Path data : files.subList(1, 30)) {
+            IndexEntry entry = index.findUnchanged(new FileContext(data));
+            if (entry != null) {
+                unchanged++;
+            }
+            record(index, data, entry);
+        }
+        record(index, added, null);
+        index.save();
+        assertEquals("Unchanged", 14, unchanged);
+
+        try (FileIndex saved = FileIndex.open(indexFile)) {
+            assertEquals("Files", 30, saved.size());
+            assertNull("Gone", saved.get(files.get(0).toAbsolutePath().toString()));
+            for (int i = 1; i < 30; i++) {
+                assertEquals("Size stored for " + i, i % 2 == 0 ? i : i + 100, storedSize(saved, files.get(i)));
+            }
+            assertEquals("New file", 7, storedSize(saved, added));
+        }
+    }
+
+    @Test
+    public void testUnreadableIndexIgnored() throws Exception {
+        Files.write(indexFile, "garbage".getBytes(StandardCharsets.UTF_8));
+
+        IncrementalIndex index = new IncrementalIndex(indexFile, codec);
+        assertNull("Nothing to reuse", index.findUnchanged(new FileContext(file)));
+        index.close();
+    }
+
+    /**
+     * Records the file, and runs the worker on it unless its results are reused.
+     */
+    private void record(IncrementalIndex index, Path data, IndexEntry unchanged) throws Exception {
+        FileContext context = new FileContext(data);
+        context.setType("application/octet-stream");
+        index.recordFile(context, unchanged);
+        if (unchanged == null || index.reuseResults(unchanged, context, worker) == null) {
+            index.resultsProduced(context, worker, worker.handle(context));
+        }
+    }
+
+    private long storedSize(FileIndex saved, Path data) throws Exception {
+        byte[] stored = saved.get(data.toAbsolutePath().toString()).getResults(FileSizeWorker.class.getName());
+        return ((FileSizeResults) codec.decode(stored)).getSize();
+    }
+
+    /**
+     * Runs a scan of the one file, storing the worker's results.
+     */
+    private void scan() throws Exception {
+        IncrementalIndex index = new IncrementalIndex(indexFile, codec);
+        FileContext context = new FileContext(file);
+        assertNull("Nothing to reuse", index.findUnchanged(context));
+        context.setType("text/plain");
+        index.recordFile(context, null);
+        index.resultsProduced(context, worker, worker.handle(context));
+        index.save();
+        assertEquals("Recorded", 1, index.getRecordedFiles());
+    }
+}
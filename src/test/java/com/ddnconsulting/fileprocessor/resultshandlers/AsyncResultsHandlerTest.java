@@ -0,0 +1,299 @@
+package com.ddnconsulting.fileprocessor.resultshandlers;
+
+import static com.ddnconsulting.fileprocessor.resultshandlers.CollectingResultsHandler.results;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.ddnconsulting.fileprocessor.workers.FileSizeWorker.FileSizeResults;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * JUnit test for AsyncResultsHandler
+ */
+public class AsyncResultsHandlerTest {
+
+    private AsyncResultsHandler handler;
+
+    @After
+    public void tearDown() throws Exception {
+        if (handler != null) {
+            handler.close();
+        }
+    }
+
+    /**
+     * Batch-aware handlers get batches, on the consumer thread, and flush waits for them.
+     */
+    @Test
+    public void testBatches() throws Exception {
+        RecordingBatchHandler delegate = new RecordingBatchHandler();
+        handler = new AsyncResultsHandler(delegate, 1024, 10, OverflowPolicy.BLOCK);
+
+        for (int i = 0; i < 100; i++) {
+            handler.handleResults(results(i));
+        }
+        handler.flush();
+
+        assertEquals("All results handled", 100, delegate.results.size());
+        assertEquals("In order", "file42", ((FileSizeResults) delegate.results.get(42)).getFilename());
+        for (int size : delegate.batchSizes) {
+            assertTrue("Batch no bigger than batch size: " + size, size <= 10);
+        }
+        assertNotSame("Handled on consumer thread", Thread.currentThread(), delegate.thread);
+    }
+
+    /**
+     * Plain handlers get results one at a time.
+     */
+    @Test
+    public void testPlainDelegate() throws Exception {
+        CollectingResultsHandler delegate = new CollectingResultsHandler();
+        handler = new AsyncResultsHandler(delegate, 16, 4, OverflowPolicy.BLOCK);
+
+        for (int i = 0; i < 50; i++) {
+            handler.handleResults(results(i));
+        }
+        handler.flush();
+
+        assertEquals("All results handled, even with a small buffer", 50, delegate.getResults().size());
+    }
+
+    /**
+     * With the consumer held up and the buffer full, DROP throws results away.
+     */
+    @Test
+    public void testDrop() throws Exception {
+        BlockingHandler delegate = new BlockingHandler();
+        handler = new AsyncResultsHandler(delegate, 4, 1, OverflowPolicy.DROP);
+
+        handler.handleResults(results(0));
+        assertTrue("Consumer busy", delegate.started.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i < 10; i++) {
+            handler.handleResults(results(i));
+        }
+
+        assertEquals("Dropped beyond capacity", 5, handler.getDropped());
+        delegate.release.countDown();
+        handler.flush();
+        assertEquals("Rest handled", 5, delegate.results.size());
+    }
+
+    /**
+     * With the consumer held up and the buffer full, SPILL writes results to disk and they are handled later.
+     */
+    @Test
+    public void testSpill() throws Exception {
+        BlockingHandler delegate = new BlockingHandler();
+        handler = new AsyncResultsHandler(delegate, 4, 2, OverflowPolicy.SPILL, new ResultsCodec());
+
+        handler.handleResults(results(0));
+        assertTrue("Consumer busy", delegate.started.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i < 20; i++) {
+            handler.handleResults(results(i));
+        }
+
+        assertEquals("Nothing dropped", 0, handler.getDropped());
+        assertEquals("Spilled beyond capacity", 15, handler.getSpilled());
+        delegate.release.countDown();
+        handler.flush();
+
+        assertEquals("All handled", 20, delegate.results.size());
+        List<String> names = new ArrayList<>();
+        for (FileWorkerResults results : delegate.results) {
+            names.add(((FileSizeResults) results).getFilename());
+        }
+        Collections.sort(names);
+        assertEquals("Spilled results read back", "file9", names.get(names.size() - 1));
+    }
+
+    /**
+     * Spilled results that can't be read back are counted as dropped, and flush doesn't wait for them.
+     */
+    @Test(timeout = 10000)
+    public void testSpillUnreadable() throws Exception {
+        BlockingHandler delegate = new BlockingHandler();
+        handler = new AsyncResultsHandler(delegate, 4, 2, OverflowPolicy.SPILL, new ResultsCodec() {
+            @Override
+            public FileWorkerResults decode(byte[] bytes) throws IOException {
+                throw new IOException("Corrupt spill file");
+            }
+        });
+
+        handler.handleResults(results(0));
+        assertTrue("Consumer busy", delegate.started.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i < 10; i++) {
+            handler.handleResults(results(i));
+        }
+        delegate.release.countDown();
+        handler.flush();
+
+        assertEquals("Buffered results handled", 5, delegate.results.size());
+        assertEquals("Spilled results lost", 5, handler.getDropped());
+    }
+
+    /**
+     * Results offered by many producers while the handler is closed are all delivered, one way or the other.
+     */
+    @Test
+    public void testCloseWhileOffering() throws Exception {
+        RecordingBatchHandler delegate = new RecordingBatchHandler();
+        handler = new AsyncResultsHandler(delegate, 1024, 16, OverflowPolicy.BLOCK);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < 4; p++) {
+            Thread producer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 10000; i++) {
+                        handler.handleResults(results(i));
+                    }
+                }
+            });
+            producer.start();
+            producers.add(producer);
+        }
+
+        start.countDown();
+        handler.close();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        assertEquals("Nothing stranded", 40000, delegate.results.size());
+    }
+
+    /**
+     * With BLOCK, a producer waits for room instead of losing results.
+     */
+    @Test
+    public void testBlock() throws Exception {
+        final BlockingHandler delegate = new BlockingHandler();
+        handler = new AsyncResultsHandler(delegate, 2, 1, OverflowPolicy.BLOCK);
+
+        handler.handleResults(results(0));
+        assertTrue("Consumer busy", delegate.started.await(5, TimeUnit.SECONDS));
+        handler.handleResults(results(1));
+        handler.handleResults(results(2));
+
+        final CountDownLatch offered = new CountDownLatch(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                handler.handleResults(results(3));
+                offered.countDown();
+            }
+        });
+        producer.start();
+
+        assertFalse("Producer waits while buffer full", offered.await(200, TimeUnit.MILLISECONDS));
+        delegate.release.countDown();
+        assertTrue("Producer continues once there is room", offered.await(5, TimeUnit.SECONDS));
+        handler.flush();
+
+        assertEquals("All handled", 4, delegate.results.size());
+        assertEquals("Nothing dropped", 0, handler.getDropped());
+    }
+
+    /**
+     * The end of a scan is passed on once everything queued before it has been handled.
+     */
+    @Test
+    public void testScanCompleted() throws Exception {
+        final RecordingBatchHandler delegate = new RecordingBatchHandler();
+        final List<Integer> handledAtEnd = new ArrayList<>();
+        ScanAwareResultsHandler scanAware = new ScanAwareResultsHandler() {
+            @Override
+            public void scanStarted(Path root) {
+            }
+
+            @Override
+            public void scanCompleted(Path root) {
+                handledAtEnd.add(delegate.results.size());
+            }
+
+            @Override
+            public void handleResults(FileWorkerResults results) {
+                delegate.handleResults(results);
+            }
+        };
+        handler = new AsyncResultsHandler(scanAware, 16, 4, OverflowPolicy.BLOCK);
+        handler.scanStarted(Paths.get("/scan"));
+        for (int i = 0; i < 10; i++) {
+            handler.handleResults(results(i));
+        }
+        handler.scanCompleted(Paths.get("/scan"));
+
+        assertEquals("Told once everything was handled", Collections.singletonList(10), handledAtEnd);
+    }
+
+    /**
+     * After close, results go straight to the delegate.
+     */
+    @Test
+    public void testClose() throws Exception {
+        CollectingResultsHandler delegate = new CollectingResultsHandler();
+        handler = new AsyncResultsHandler(delegate, 16, 4, OverflowPolicy.BLOCK);
+        handler.handleResults(results(0));
+        handler.close();
+
+        assertEquals("Queued results handled on close", 1, delegate.getResults().size());
+        handler.handleResults(results(1));
+        assertEquals("Handled directly after close", 2, delegate.getResults().size());
+    }
+
+
+    private static class RecordingBatchHandler implements BatchResultsHandler {
+        final List<FileWorkerResults> results = Collections.synchronizedList(new ArrayList<FileWorkerResults>());
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+        volatile Thread thread;
+
+        @Override
+        public void handleBatch(List<FileWorkerResults> batch) {
+            thread = Thread.currentThread();
+            batchSizes.add(batch.size());
+            results.addAll(batch);
+        }
+
+        @Override
+        public void handleResults(FileWorkerResults results) {
+            handleBatch(Collections.singletonList(results));
+        }
+    }
+
+    /**
+     * Holds up the consumer thread on the first result until released.
+     */
+    private static class BlockingHandler implements ResultsHandler {
+        final List<FileWorkerResults> results = Collections.synchronizedList(new ArrayList<FileWorkerResults>());
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void handleResults(FileWorkerResults results) {
+            started.countDown();
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.results.add(results);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.ddnconsulting.fileprocessor.resultshandlers;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.ddnconsulting.fileprocessor.workers.FileSizeWorker.FileSizeResults;
 import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
 
 /**
@@ -24,4 +25,15 @@ public class CollectingResultsHandler implements ResultsHandler {
     public List<FileWorkerResults> getResults() {
         return allResults;
     }
+
+    /**
+     * Successful results for a file named after i, with size i, to hand to handlers under test.
+     */
+    public static FileSizeResults results(int i) {
+        FileSizeResults results = new FileSizeResults();
+        results.setSuccess(true);
+        results.setFilename("file" + i);
+        results.setSize(i);
+        return results;
+    }
 }
@@ -0,0 +1,169 @@
+package com.ddnconsulting.fileprocessor.resultshandlers;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.ddnconsulting.fileprocessor.resultshandlers.DirectorySizeRollupHandler.DirectorySize;
+import com.ddnconsulting.fileprocessor.resultshandlers.DirectorySizeRollupHandler.DirectorySizeResults;
+import com.ddnconsulting.fileprocessor.workers.DirectoryLister.DirectoryListResults;
+import com.ddnconsulting.fileprocessor.workers.FileSizeWorker.FileSizeResults;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import org.junit.Test;
+
+/**
+ * JUnit test for DirectorySizeRollupHandler
+ */
+public class DirectorySizeRollupHandlerTest {
+
+    private static final Path SCAN = Paths.get("/scan");
+
+    private CollectingResultsHandler delegate = new CollectingResultsHandler();
+
+    /**
+     * Sizes are added up the tree, reported from the top directory holding everything, and file results aren't
+     * passed on.
+     */
+    @Test
+    public void testRollup() throws Exception {
+        DirectorySizeRollupHandler handler = new DirectorySizeRollupHandler(delegate, 5, 10, false);
+        handler.scanStarted(SCAN);
+        handler.handleResults(size("/scan/top.txt", 1));
+        handler.handleBatch(Arrays.<FileWorkerResults>asList(size("/scan/a/one", 10), size("/scan/a/b/two", 100),
+                                                             size("/scan/c/three", 1000), new DirectoryListResults()));
+        assertEquals("Only other results passed on", 1, delegate.getResults().size());
+
+        handler.scanCompleted(SCAN);
+
+        DirectorySizeResults report = (DirectorySizeResults) delegate.getResults().get(1);
+        List<DirectorySize> directories = report.getDirectories();
+        assertEquals("Directories", Arrays.asList("/scan", "/scan/c", "/scan/a", "/scan/a/b"), paths(directories));
+        assertEquals("Total", 1111, directories.get(0).getBytes());
+        assertEquals("Files", 4, directories.get(0).getFiles());
+        assertEquals("Subdirectory includes its subdirectories", 110, directories.get(2).getBytes());
+        assertEquals("Depth", 2, directories.get(3).getDepth());
+        assertTrue("du format", report.toDuString().contains("1.1K  /scan (4 files)"));
+    }
+
+    /**
+     * Depth limit and top-N largest subdirectories.
+     */
+    @Test
+    public void testLimits() throws Exception {
+        DirectorySizeRollupHandler handler = new DirectorySizeRollupHandler(delegate, 1, 2, true);
+        handler.scanStarted(SCAN);
+        for (int i = 1; i <= 5; i++) {
+            handler.handleResults(size("/scan/d" + i + "/deeper/file", i));
+        }
+        assertEquals("File results passed on", 5, delegate.getResults().size());
+
+        handler.scanCompleted(SCAN);
+
+        List<DirectorySize> directories = ((DirectorySizeResults) delegate.getResults().get(5)).getDirectories();
+        assertEquals("Two largest, no deeper", Arrays.asList("/scan", "/scan/d5", "/scan/d4"), paths(directories));
+        assertEquals("Others counted", 3, directories.get(0).getOtherDirectories());
+    }
+
+    /**
+     * Flushes while the scan runs (checkpoints) don't report.  The end of the scan reports once, with everything.
+     */
+    @Test
+    public void testReportOncePerScan() throws Exception {
+        DirectorySizeRollupHandler handler = new DirectorySizeRollupHandler(delegate, 3, 10, false);
+        handler.scanStarted(SCAN);
+        handler.handleResults(size("/scan/file", 5));
+        handler.flush();
+        assertTrue("No report on flush", delegate.getResults().isEmpty());
+        handler.handleResults(size("/scan/other", 5));
+        handler.scanCompleted(SCAN);
+        handler.scanCompleted(SCAN);
+
+        assertEquals("One report", 1, delegate.getResults().size());
+        assertEquals("Everything in it", 10,
+                     ((DirectorySizeResults) delegate.getResults().get(0)).getDirectories().get(0).getBytes());
+    }
+
+    /**
+     * Scans running at the same time are each reported on their own, with only their directories.
+     */
+    @Test
+    public void testOverlappingScans() throws Exception {
+        DirectorySizeRollupHandler handler = new DirectorySizeRollupHandler(delegate, 3, 10, false);
+        handler.scanStarted(Paths.get("/one"));
+        handler.scanStarted(Paths.get("/two"));
+        handler.handleResults(size("/one/a/file", 1));
+        handler.handleResults(size("/two/b/file", 10));
+        handler.handleResults(size("/one/c/file", 100));
+
+        handler.scanCompleted(Paths.get("/one"));
+        assertEquals("First scan's directories", Arrays.asList("/one", "/one/c", "/one/a"),
+                     paths(((DirectorySizeResults) delegate.getResults().get(0)).getDirectories()));
+
+        handler.handleResults(size("/two/d/file", 1000));
+        handler.scanCompleted(Paths.get("/two"));
+        List<DirectorySize> second = ((DirectorySizeResults) delegate.getResults().get(1)).getDirectories();
+        assertEquals("Second scan's directories", Arrays.asList("/two", "/two/d", "/two/b"), paths(second));
+        assertEquals("Second scan's total", 1010, second.get(0).getBytes());
+    }
+
+    /**
+     * Files under no scan are reported on close.
+     */
+    @Test
+    public void testUnscannedReportedOnClose() throws Exception {
+        DirectorySizeRollupHandler handler = new DirectorySizeRollupHandler(delegate, 3, 10, false);
+        handler.handleResults(size("/scan/file", 5));
+        handler.scanCompleted(SCAN);
+        assertTrue("Not a scan's file", delegate.getResults().isEmpty());
+
+        handler.close();
+        assertEquals("Reported on close", 1, delegate.getResults().size());
+    }
+
+    @Test
+    public void testConcurrentAdds() throws Exception {
+        final DirectorySizeRollupHandler handler = new DirectorySizeRollupHandler(delegate, 3, 10, false);
+        handler.scanStarted(SCAN);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        handler.handleResults(size("/scan/d" + (i % 7) + "/s" + (i % 3) + "/file" + i, 2));
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        handler.scanCompleted(SCAN);
+
+        DirectorySize top = ((DirectorySizeResults) delegate.getResults().get(0)).getDirectories().get(0);
+        assertEquals("Files", 40000, top.getFiles());
+        assertEquals("Bytes", 80000, top.getBytes());
+    }
+
+    private static List<String> paths(List<DirectorySize> directories) {
+        List<String> paths = new ArrayList<>();
+        for (DirectorySize directory : directories) {
+            paths.add(directory.getPath());
+        }
+        return paths;
+    }
+
+    private static FileSizeResults size(String filename, long size) {
+        FileSizeResults results = new FileSizeResults();
+        results.setSuccess(true);
+        results.setFilename(filename);
+        results.setSize(size);
+        return results;
+    }
+}
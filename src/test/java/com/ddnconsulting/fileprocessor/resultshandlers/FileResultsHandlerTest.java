@@ -0,0 +1,100 @@
+package com.ddnconsulting.fileprocessor.resultshandlers;
+
+import static com.ddnconsulting.fileprocessor.resultshandlers.CollectingResultsHandler.results;
+import static org.junit.Assert.*;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import com.ddnconsulting.fileprocessor.resultshandlers.FileResultsHandler.Format;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * JUnit test for FileResultsHandler
+ */
+public class FileResultsHandlerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testNdjson() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        FileResultsHandler handler = new FileResultsHandler(directory, "results", Format.NDJSON, 0, false);
+        handler.handleResults(results(0));
+        handler.handleBatch(Arrays.<FileWorkerResults>asList(results(1), results(2)));
+        handler.close();
+
+        assertEquals("One file", Arrays.asList(directory.resolve("results-00001.ndjson")), handler.getFiles());
+        List<String> lines = Files.readAllLines(handler.getFiles().get(0), StandardCharsets.UTF_8);
+        assertEquals("One line per record", 3, lines.size());
+        JsonNode record = new ObjectMapper().readTree(lines.get(2));
+        assertEquals("Filename", "file2", record.get("filename").asText());
+        assertEquals("Size", 2, record.get("size").asInt());
+        assertEquals("Records written", 3, handler.getRecordsWritten());
+    }
+
+    @Test
+    public void testSmile() throws Exception {
+        FileResultsHandler handler = new FileResultsHandler(folder.getRoot().toPath(), "results", Format.SMILE, 0,
+                                                            false);
+        for (int i = 0; i < 10; i++) {
+            handler.handleResults(results(i));
+        }
+        handler.close();
+
+        List<JsonNode> records = read(new ObjectMapper(new SmileFactory()), handler.getFiles().get(0), false);
+        assertEquals("All records", 10, records.size());
+        assertEquals("Filename", "file7", records.get(7).get("filename").asText());
+    }
+
+    /**
+     * Files are rotated by size, compressed, and files already there are not overwritten.
+     */
+    @Test
+    public void testRotationAndGzip() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        Files.write(directory.resolve("results-00001.ndjson.gz"), new byte[0]);
+
+        FileResultsHandler handler = new FileResultsHandler(directory, "results", Format.NDJSON, 1024, true);
+        for (int i = 0; i < 2000; i++) {
+            handler.handleResults(results(i));
+        }
+        handler.close();
+
+        List<Path> files = handler.getFiles();
+        assertTrue("Rotated: " + files, files.size() > 1);
+        assertEquals("Existing file skipped", directory.resolve("results-00002.ndjson.gz"), files.get(0));
+        List<JsonNode> records = new ArrayList<>();
+        for (Path file : files) {
+            records.addAll(read(new ObjectMapper(), file, true));
+        }
+        assertEquals("All records across files", 2000, records.size());
+        assertEquals("Order kept", "file1999", records.get(1999).get("filename").asText());
+    }
+
+    private static List<JsonNode> read(ObjectMapper objectMapper, Path file, boolean gzip) throws Exception {
+        List<JsonNode> records = new ArrayList<>();
+        try (InputStream in = gzip ? new GZIPInputStream(Files.newInputStream(file)) : Files.newInputStream(file)) {
+            MappingIterator<JsonNode> iterator = objectMapper.readValues(objectMapper.getFactory().createParser(in),
+                                                                        JsonNode.class);
+            while (iterator.hasNext()) {
+                records.add(iterator.next());
+            }
+        }
+        return records;
+    }
+}
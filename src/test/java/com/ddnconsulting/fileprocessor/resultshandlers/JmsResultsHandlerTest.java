@@ -0,0 +1,197 @@
+package com.ddnconsulting.fileprocessor.resultshandlers;
+
+import static com.ddnconsulting.fileprocessor.resultshandlers.CollectingResultsHandler.results;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.BytesMessage;
+
+import com.ddnconsulting.fileprocessor.workers.FileSizeWorker.FileSizeResults;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.Broker;
+import org.apache.activemq.broker.BrokerFilter;
+import org.apache.activemq.broker.BrokerPlugin;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.ProducerBrokerExchange;
+import org.apache.activemq.command.Message;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jms.connection.CachingConnectionFactory;
+import org.springframework.jms.core.JmsTemplate;
+
+/**
+ * JUnit test for JmsResultsHandler, against an embedded broker.
+ */
+public class JmsResultsHandlerTest {
+    private static final String QUEUE = "test.results";
+
+    private CachingConnectionFactory connectionFactory;
+    private JmsTemplate receiver;
+    private ResultsCodec codec = new ResultsCodec();
+
+    @Before
+    public void setUp() {
+        ActiveMQConnectionFactory activeMQConnectionFactory =
+                new ActiveMQConnectionFactory("vm://jmsresults?broker.persistent=false&broker.useJmx=false");
+        activeMQConnectionFactory.setUseAsyncSend(true);
+        // Small window, so sends have to wait for the broker
+        activeMQConnectionFactory.setProducerWindowSize(4096);
+        connectionFactory = new CachingConnectionFactory(activeMQConnectionFactory);
+        receiver = new JmsTemplate(connectionFactory);
+        receiver.setReceiveTimeout(5000);
+    }
+
+    @After
+    public void tearDown() {
+        connectionFactory.destroy();
+    }
+
+    /**
+     * Results are sent many to a message, and flush sends a partial batch.
+     */
+    @Test
+    public void testBatches() throws Exception {
+        JmsResultsHandler handler = new JmsResultsHandler(connectionFactory, QUEUE, codec, 100);
+        List<FileWorkerResults> batch = new ArrayList<>();
+        for (int i = 0; i < 1050; i++) {
+            batch.add(results(i));
+        }
+        handler.handleBatch(batch);
+        assertEquals("Full batches sent", 10, handler.getMessagesSent());
+        handler.flush();
+        assertEquals("Partial batch sent on flush", 11, handler.getMessagesSent());
+        assertEquals("Results sent", 1050, handler.getResultsSent());
+
+        List<FileWorkerResults> received = new ArrayList<>();
+        for (int i = 0; i < 11; i++) {
+            BytesMessage message = (BytesMessage) receiver.receive(QUEUE);
+            assertNotNull("Message " + i, message);
+            List<FileWorkerResults> results = JmsResultsHandler.readResults(message, codec);
+            assertEquals("Count property", results.size(), message.getIntProperty(JmsResultsHandler.COUNT_PROPERTY));
+            received.addAll(results);
+        }
+        assertEquals("All results received", 1050, received.size());
+        FileSizeResults last = (FileSizeResults) received.get(1049);
+        assertEquals("Type and contents kept", "file1049", last.getFilename());
+        assertEquals("Size", 1049, last.getSize());
+    }
+
+    /**
+     * A broker that can't keep up holds sends back, and behind an AsyncResultsHandler that blocks, that backs up to
+     * the workers handing results over instead of piling up results in memory.  Once the broker catches up, everything
+     * gets through.
+     */
+    @Test
+    public void testSlowBrokerBackPressure() throws Exception {
+        final CountDownLatch brokerStalled = new CountDownLatch(1);
+        BrokerService broker = new BrokerService();
+        broker.setBrokerName("slowbroker");
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.setPlugins(new BrokerPlugin[] {new BrokerPlugin() {
+            @Override
+            public Broker installPlugin(Broker next) {
+                return new BrokerFilter(next) {
+                    @Override
+                    public void send(ProducerBrokerExchange exchange, Message message) throws Exception {
+                        brokerStalled.await();
+                        super.send(exchange, message);
+                    }
+                };
+            }
+        }});
+        broker.start();
+        ActiveMQConnectionFactory activeMQConnectionFactory =
+                new ActiveMQConnectionFactory("vm://slowbroker?create=false");
+        activeMQConnectionFactory.setUseAsyncSend(true);
+        activeMQConnectionFactory.setProducerWindowSize(4096);
+        CachingConnectionFactory slowFactory = new CachingConnectionFactory(activeMQConnectionFactory);
+        try {
+            final int total = 5000;
+            AsyncResultsHandler handler = new AsyncResultsHandler(new JmsResultsHandler(slowFactory, QUEUE, codec, 10),
+                                                                  64, 10, OverflowPolicy.BLOCK);
+            Worker worker = new Worker(handler, total);
+            worker.start();
+
+            // Wait for the worker to stall
+            int last = -1;
+            long deadline = System.currentTimeMillis() + 10000;
+            while (worker.handedOver.get() != last && System.currentTimeMillis() < deadline) {
+                last = worker.handedOver.get();
+                Thread.sleep(200);
+            }
+            assertTrue("Worker blocked", worker.isAlive());
+            assertTrue("Worker held back: " + last, last < total);
+            assertEquals("Buffer full", 64, handler.getQueueDepth());
+
+            brokerStalled.countDown();
+            worker.join(10000);
+            assertFalse("Worker finished", worker.isAlive());
+            handler.close();
+            assertTrue("Worker was blocked", handler.getBlockedMillis() > 0);
+
+            JmsTemplate slowReceiver = new JmsTemplate(slowFactory);
+            slowReceiver.setReceiveTimeout(5000);
+            int received = 0;
+            while (received < total) {
+                BytesMessage message = (BytesMessage) slowReceiver.receive(QUEUE);
+                assertNotNull("Message after " + received, message);
+                received += JmsResultsHandler.readResults(message, codec).size();
+            }
+            assertEquals("All results received", total, received);
+        }
+        finally {
+            brokerStalled.countDown();
+            slowFactory.destroy();
+            broker.stop();
+        }
+    }
+
+    /**
+     * A batch that can't be sent is counted and doesn't stop later ones.
+     */
+    @Test
+    public void testSendFailure() throws Exception {
+        CachingConnectionFactory noBroker = new CachingConnectionFactory(
+                new ActiveMQConnectionFactory("vm://nobroker?create=false"));
+        try {
+            JmsResultsHandler handler = new JmsResultsHandler(noBroker, QUEUE, codec, 1);
+            handler.handleResults(results(0));
+            handler.handleResults(results(1));
+            assertEquals("Failed batches", 2, handler.getFailedBatches());
+            assertEquals("Nothing sent", 0, handler.getMessagesSent());
+        }
+        finally {
+            noBroker.destroy();
+        }
+    }
+
+
+    /**
+     * Hands results over to a handler, counting them.
+     */
+    private static class Worker extends Thread {
+        final AtomicInteger handedOver = new AtomicInteger();
+        private final ResultsHandler handler;
+        private final int count;
+
+        Worker(ResultsHandler handler, int count) {
+            this.handler = handler;
+            this.count = count;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < count; i++) {
+                handler.handleResults(results(i));
+                handedOver.incrementAndGet();
+            }
+        }
+    }
+}
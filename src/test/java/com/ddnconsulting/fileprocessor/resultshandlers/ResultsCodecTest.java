@@ -0,0 +1,71 @@
+package com.ddnconsulting.fileprocessor.resultshandlers;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.ddnconsulting.fileprocessor.workers.DirectoryLister.DirectoryEntry;
+import com.ddnconsulting.fileprocessor.workers.DirectoryLister.DirectoryListResults;
+import com.ddnconsulting.fileprocessor.workers.DirectoryLister.FileType;
+import com.ddnconsulting.fileprocessor.workers.FileSizeWorker.FileSizeResults;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import org.junit.Test;
+
+/**
+ * JUnit test for ResultsCodec
+ */
+public class ResultsCodecTest {
+
+    private ResultsCodec codec = new ResultsCodec();
+
+    /**
+     * Results come back as the class they were written as.
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        FileSizeResults results = new FileSizeResults();
+        results.setSuccess(true);
+        results.setFilename("some/file");
+        results.setSize(42);
+
+        FileWorkerResults decoded = codec.decode(codec.encode(results));
+
+        assertTrue("Type kept", decoded instanceof FileSizeResults);
+        assertTrue("Success", decoded.isSuccess());
+        assertEquals("Filename", "some/file", ((FileSizeResults) decoded).getFilename());
+        assertEquals("Size", 42, ((FileSizeResults) decoded).getSize());
+    }
+
+    @Test
+    public void testNestedObjects() throws Exception {
+        DirectoryEntry entry = new DirectoryEntry();
+        entry.setFilename("child");
+        entry.setType(FileType.DIRECTORY);
+        DirectoryListResults results = new DirectoryListResults();
+        results.setFilename("parent");
+        results.setEntries(Collections.singletonList(entry));
+
+        DirectoryListResults decoded = (DirectoryListResults) codec.decode(codec.encode(results));
+
+        assertEquals("Entries", 1, decoded.getEntries().size());
+        assertEquals("Entry name", "child", decoded.getEntries().get(0).getFilename());
+        assertEquals("Entry type", FileType.DIRECTORY, decoded.getEntries().get(0).getType());
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        FileSizeResults size = new FileSizeResults();
+        size.setFilename("file");
+        DirectoryListResults directory = new DirectoryListResults();
+        directory.setFilename("dir");
+
+        List<FileWorkerResults> decoded = codec.decodeBatch(
+                codec.encodeBatch(Arrays.<FileWorkerResults>asList(size, directory)));
+
+        assertEquals("Batch size", 2, decoded.size());
+        assertTrue("First type kept", decoded.get(0) instanceof FileSizeResults);
+        assertTrue("Second type kept", decoded.get(1) instanceof DirectoryListResults);
+    }
+}
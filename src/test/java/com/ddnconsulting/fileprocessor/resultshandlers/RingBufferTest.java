@@ -0,0 +1,92 @@
+package com.ddnconsulting.fileprocessor.resultshandlers;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * JUnit test for RingBuffer
+ */
+public class RingBufferTest {
+
+    @Test
+    public void testCapacityRoundedUp() {
+        assertEquals("Capacity", 8, new RingBuffer<String>(5).capacity());
+        assertEquals("Capacity", 8, new RingBuffer<String>(8).capacity());
+    }
+
+    @Test
+    public void testOfferUntilFull() {
+        RingBuffer<Integer> ring = new RingBuffer<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue("Room for " + i, ring.offer(i));
+        }
+        assertFalse("Full", ring.offer(4));
+        assertEquals("Size", 4, ring.size());
+
+        assertEquals("Oldest first", Integer.valueOf(0), ring.poll());
+        assertTrue("Room again", ring.offer(4));
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals("Drained up to max", 3, ring.drainTo(drained, 3));
+        assertEquals("In order", Arrays.asList(1, 2, 3), drained);
+        assertEquals("Last", Integer.valueOf(4), ring.poll());
+        assertNull("Empty", ring.poll());
+        assertTrue("Empty", ring.isEmpty());
+    }
+
+    /**
+     * Every element offered by several producers is taken exactly once.
+     */
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final RingBuffer<Integer> ring = new RingBuffer<>(64);
+        final int producers = 4;
+        final int perProducer = 10000;
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final int base = p * perProducer;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perProducer; i++) {
+                        while (!ring.offer(base + i)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        Set<Integer> seen = new HashSet<>();
+        List<Integer> batch = new ArrayList<>();
+        while (seen.size() < producers * perProducer) {
+            batch.clear();
+            ring.drainTo(batch, 16);
+            for (Integer element : batch) {
+                assertTrue("Taken once: " + element, seen.add(element));
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue("Nothing left", ring.isEmpty());
+    }
+}
@@ -0,0 +1,114 @@
+package com.ddnconsulting.fileprocessor.resultshandlers;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.ddnconsulting.fileprocessor.workers.FileSizeWorker;
+import com.ddnconsulting.fileprocessor.workers.FileSizeWorker.FileSizeResults;
+import com.ddnconsulting.fileprocessor.workers.FileWorkerResults;
+import com.ddnconsulting.fileprocessor.workers.JarFileContentsLister;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * JUnit test for RoutingResultsHandler
+ */
+public class RoutingResultsHandlerTest {
+
+    private CollectingResultsHandler defaultHandler;
+    private RoutingResultsHandler router;
+
+    @Before
+    public void setUp() throws Exception {
+        defaultHandler = new CollectingResultsHandler();
+        router = new RoutingResultsHandler(defaultHandler);
+    }
+
+    /**
+     * Results are routed by their type, with or without the worker, and unmatched results go to the default.
+     */
+    @Test
+    public void testRouteByResultsType() throws Exception {
+        CollectingResultsHandler sizes = new CollectingResultsHandler();
+        router.addRoute("FileSizeResults", sizes);
+
+        router.handleResults(new FileSizeResults());
+        router.handleResults(new FileSizeWorker(), new FileSizeResults());
+        router.handleResults(new FileWorkerResults());
+
+        assertEquals("Size results routed", 2, sizes.getResults().size());
+        assertEquals("Others to default", 1, defaultHandler.getResults().size());
+    }
+
+    /**
+     * Results are routed by the worker that produced them, and to every matching route, once each.
+     */
+    @Test
+    public void testRouteByWorker() throws Exception {
+        CollectingResultsHandler jars = new CollectingResultsHandler();
+        CollectingResultsHandler all = new CollectingResultsHandler();
+        router.addRoute("JarFileContentsLister", jars);
+        router.addRoute("JarFileContentsLister", all);
+        router.addRoute("FileSizeResults", all);
+        router.addRoute("FileSizeWorker", all);
+
+        router.handleResults(new JarFileContentsLister(), new FileWorkerResults());
+        router.handleResults(new FileSizeWorker(), new FileSizeResults());
+        router.handleResults(new FileWorkerResults());
+
+        assertEquals("Jar results routed", 1, jars.getResults().size());
+        assertEquals("Both routed to shared handler, size results once", 2, all.getResults().size());
+        assertEquals("Results with no worker to default", 1, defaultHandler.getResults().size());
+        assertEquals("Handlers", 3, router.getHandlers().size());
+    }
+
+    /**
+     * Routes can't be changed once routing has started.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testAddRouteAfterStart() throws Exception {
+        router.handleResults(new FileWorkerResults());
+        router.addRoute("FileSizeResults", new CollectingResultsHandler());
+    }
+
+    /**
+     * A slow route behind its own queue doesn't hold up another route.
+     */
+    @Test
+    public void testSlowRouteIsolated() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        ResultsHandler slow = new ResultsHandler() {
+            @Override
+            public void handleResults(FileWorkerResults results) {
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        CollectingResultsHandler fast = new CollectingResultsHandler();
+        AsyncResultsHandler slowRoute = new AsyncResultsHandler(slow, 4, 1, OverflowPolicy.DROP);
+        AsyncResultsHandler fastRoute = new AsyncResultsHandler(fast, 1024, 16, OverflowPolicy.BLOCK);
+        router.addRoute("JarFileContentsLister", slowRoute);
+        router.addRoute("FileSizeWorker", fastRoute);
+
+        try {
+            for (int i = 0; i < 100; i++) {
+                router.handleResults(new JarFileContentsLister(), new FileWorkerResults());
+                router.handleResults(new FileSizeWorker(), new FileSizeResults());
+            }
+            fastRoute.flush();
+            assertEquals("Fast route kept up", 100, fast.getResults().size());
+            assertTrue("Slow route backed up", slowRoute.getDropped() > 0);
+        }
+        finally {
+            release.countDown();
+            router.close();
+        }
+        assertEquals("Default unused", 0, defaultHandler.getResults().size());
+    }
+}
@@ -1,28 +1,152 @@
 package com.ddnconsulting.fileprocessor.workers;
 
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.ddnconsulting.fileprocessor.core.FileClassifier;
+import com.ddnconsulting.fileprocessor.resultshandlers.CollectingResultsHandler;
+import com.ddnconsulting.fileprocessor.workers.DirectoryEntriesWorker.Entries;
+import com.ddnconsulting.fileprocessor.workers.DirectoryLister.DirectoryEntry;
+import com.ddnconsulting.fileprocessor.workers.DirectoryLister.DirectoryListResults;
+import com.ddnconsulting.fileprocessor.workers.DirectoryLister.FileType;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 
 /**
- * TODO: If this was really production code and not a pre-interview coding assignment, I would implement this.
- * See FileSizeWorkerTest for example of how FileWorkers can be tested using mocks.
+ * JUnit test for DirectoryLister
  */
 public class DirectoryListerTest {
 
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private DirectoryLister lister;
+
     @Before
     public void setUp() throws Exception {
-
+        lister = new DirectoryLister();
     }
 
+    /**
+     * Outside a walk, the directory is listed in one go.
+     */
     @Test
     public void testHandle() throws Exception {
+        Path root = folder.getRoot().toPath();
+        Files.createFile(root.resolve("file.txt"));
+        Files.createDirectory(root.resolve("sub"));
+
+        DirectoryListResults results = (DirectoryListResults) lister.handle(root);
 
+        assertTrue("Success", results.isSuccess());
+        assertEquals("Filename", root.toString(), results.getFilename());
+        assertTrue("Only chunk", results.isLastChunk());
+        List<String> entries = new ArrayList<>();
+        for (DirectoryEntry entry : results.getEntries()) {
+            entries.add(entry.getFilename() + ":" + entry.getType());
+        }
+        Collections.sort(entries);
+        assertEquals("Entries", "[file.txt:FILE, sub:DIRECTORY]", entries.toString());
     }
 
+    /**
+     * A symbolic link to a directory is a DIRECTORY, whether the lister reads the directory or the walk feeds it.
+     */
     @Test
-    public void testCanHandle() throws Exception {
+    public void testSymbolicLinkToDirectory() throws Exception {
+        Path root = folder.getRoot().toPath();
+        Path target = folder.newFolder("target").toPath();
+        Path link = Files.createSymbolicLink(root.resolve("link"), target);
 
+        DirectoryListResults handled = (DirectoryListResults) lister.handle(root);
+        List<String> entries = new ArrayList<>();
+        for (DirectoryEntry entry : handled.getEntries()) {
+            entries.add(entry.getFilename() + ":" + entry.getType());
+        }
+        Collections.sort(entries);
+        assertEquals("Listed by handle", "[link:DIRECTORY, target:DIRECTORY]", entries.toString());
+
+        CollectingResultsHandler handler = new CollectingResultsHandler();
+        Entries listing = lister.startDirectory(root, handler);
+        listing.entryFound(link, Files.readAttributes(link, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+        listing.finished(null);
+        DirectoryListResults walked = (DirectoryListResults) handler.getResults().get(0);
+        assertEquals("Listed from walk", FileType.DIRECTORY, walked.getEntries().get(0).getType());
+    }
+
+    @Test
+    public void testHandleMissing() throws Exception {
+        DirectoryListResults results = (DirectoryListResults) lister.handle(folder.getRoot().toPath().resolve("gone"));
+
+        assertFalse("Failure", results.isSuccess());
+        assertEquals("Error", "could not read contents", results.getErrorMessage());
     }
 
-}
\ No newline at end of file
+    /**
+     * Fed by the walk, entries are reported a chunk at a time, typed from the walk's attributes.
+     */
+    @Test
+    public void testListingChunks() throws Exception {
+        lister.setChunkSize(2);
+        CollectingResultsHandler handler = new CollectingResultsHandler();
+        Path dir = folder.getRoot().toPath();
+        BasicFileAttributes file = mock(BasicFileAttributes.class);
+        BasicFileAttributes directory = mock(BasicFileAttributes.class);
+        when(directory.isDirectory()).thenReturn(true);
+
+        Entries entries = lister.startDirectory(dir, handler);
+        entries.entryFound(dir.resolve("a"), file);
+        entries.entryFound(dir.resolve("b"), directory);
+        assertEquals("First chunk reported when full", 1, handler.getResults().size());
+        entries.entryFailed(dir.resolve("c"), new AccessDeniedException("c"));
+        entries.finished(null);
+
+        List<FileWorkerResults> results = handler.getResults();
+        assertEquals("Two chunks", 2, results.size());
+        DirectoryListResults first = (DirectoryListResults) results.get(0);
+        DirectoryListResults last = (DirectoryListResults) results.get(1);
+        assertEquals("First chunk", 0, first.getChunk());
+        assertFalse("Not last", first.isLastChunk());
+        assertEquals("Directory type from walk", FileType.DIRECTORY, first.getEntries().get(1).getType());
+        assertEquals("Second chunk", 1, last.getChunk());
+        assertTrue("Last", last.isLastChunk());
+        assertTrue("Success", last.isSuccess());
+        assertEquals("Unreadable entry", FileType.PERMISSION_DENIED, last.getEntries().get(0).getType());
+        verify(file, never()).size();
+    }
+
+    /**
+     * A directory the walk couldn't read says so in its last chunk.
+     */
+    @Test
+    public void testListingFailed() throws Exception {
+        CollectingResultsHandler handler = new CollectingResultsHandler();
+
+        lister.startDirectory(folder.getRoot().toPath(), handler).finished(new IOException("doh!"));
+
+        DirectoryListResults results = (DirectoryListResults) handler.getResults().get(0);
+        assertFalse("Failure", results.isSuccess());
+        assertEquals("Error", "could not read contents", results.getErrorMessage());
+        assertTrue("No entries", results.getEntries().isEmpty());
+    }
+
+    @Test
+    public void testCanHandle() throws Exception {
+        assertTrue("Can handle dir/directory", lister.canHandle("dir", FileClassifier.FILE_TYPE_DIRECTORY));
+        assertFalse("Can not handle dir/text", lister.canHandle("dir", "text/plain"));
+        assertFalse("Can not handle sizeof/directory", lister.canHandle("sizeof", FileClassifier.FILE_TYPE_DIRECTORY));
+    }
+}
@@ -0,0 +1,193 @@
+package com.ddnconsulting.fileprocessor.workers;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import com.ddnconsulting.fileprocessor.core.FileClassifier;
+import com.ddnconsulting.fileprocessor.core.FileContext;
+import com.ddnconsulting.fileprocessor.core.ScanJob;
+import com.ddnconsulting.fileprocessor.hash.ContentHasher;
+import com.ddnconsulting.fileprocessor.workers.DuplicateFinder.DuplicateGroupResults;
+import com.ddnconsulting.fileprocessor.workers.DuplicateFinder.DuplicateSummaryResults;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * JUnit test for DuplicateFinder
+ */
+public class DuplicateFinderTest {
+    private static final int SIZE = 10 * 1024;
+    private static final int PARTIAL = 4096;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private ContentHasher hasher;
+    private DuplicateFinder finder;
+    private ScanJob scan;
+
+    @Before
+    public void setUp() {
+        hasher = new ContentHasher(1024 * 1024 * 1024, 1024 * 1024, 1);
+        finder = new DuplicateFinder(hasher, PARTIAL, 1);
+        scan = mock(ScanJob.class);
+    }
+
+    @After
+    public void tearDown() {
+        hasher.close();
+    }
+
+    @Test
+    public void testCanHandle() throws Exception {
+        assertTrue("Can handle dupes/text", finder.canHandle("dupes", "text/plain"));
+        assertFalse("Can not handle dupes/directory", finder.canHandle("dupes", FileClassifier.FILE_TYPE_DIRECTORY));
+        assertFalse("Can not handle dupes/special", finder.canHandle("dupes", FileClassifier.FILE_TYPE_SPECIAL));
+        assertFalse("Can not handle hash/text", finder.canHandle("hash", "text/plain"));
+    }
+
+    /**
+     * Only files the same size as another are read; only those whose ends match are read whole.
+     */
+    @Test
+    public void testFindDuplicates() throws Exception {
+        byte[] contents = bytes(SIZE, 1);
+        Path a = write("a", contents);
+        Path link = Files.createLink(folder.getRoot().toPath().resolve("link-to-a"), a);
+        Path b = write("b", contents);
+        byte[] middle = contents.clone();
+        middle[SIZE / 2]++;
+        Path c = write("c-same-ends", middle);
+        Path d = write("d-different-start", bytes(SIZE, 2));
+        Path e = write("e-unique-size", bytes(SIZE + 1, 1));
+        Path f = write("f-small", bytes(100, 3));
+        Path g = write("g-small", bytes(100, 3));
+        Path empty = write("empty", new byte[0]);
+
+        finder.scanStarted(scan);
+        for (Path path : Arrays.asList(a, link, b, c, d, e, f, g, empty)) {
+            assertNull("Nothing reported per file", handle(scan, path));
+        }
+        List<FileWorkerResults> results = finder.scanCompleted(scan);
+
+        assertEquals("Two groups and summary", 3, results.size());
+        DuplicateGroupResults group = (DuplicateGroupResults) results.get(0);
+        assertEquals("Biggest waste first", Arrays.asList(a.toString(), b.toString()), group.getFiles());
+        assertEquals("Size", SIZE, group.getSize());
+        assertEquals("Wasted", SIZE, group.getWastedBytes());
+        assertEquals("Small files", Arrays.asList(f.toString(), g.toString()),
+                     ((DuplicateGroupResults) results.get(1)).getFiles());
+
+        DuplicateSummaryResults summary = (DuplicateSummaryResults) results.get(2);
+        assertEquals("Files, not hard link or empty file", 7, summary.getFiles());
+        assertEquals("Hard links", 1, summary.getHardLinks());
+        assertEquals("Same size as another", 6, summary.getSizeCollisions());
+        assertEquals("Ends hashed", 4, summary.getPartialHashed());
+        assertEquals("Hashed whole: a, b, c and small files", 5, summary.getFullHashed());
+        assertEquals("Bytes read", 4 * 2 * PARTIAL + 3 * SIZE + 2 * 100, summary.getBytesRead());
+        assertEquals("Groups", 2, summary.getGroups());
+        assertEquals("Duplicates", 2, summary.getDuplicates());
+        assertEquals("Wasted", SIZE + 100, summary.getWastedBytes());
+    }
+
+    /**
+     * The first file of a size is only read when a second turns up.  If it has gone by then, it is left out.
+     */
+    @Test
+    public void testUnreadable() throws Exception {
+        byte[] contents = bytes(SIZE, 1);
+        Path a = write("a", contents);
+        Path b = write("b", contents);
+
+        finder.scanStarted(scan);
+        handle(scan, a);
+        Files.delete(a);
+        handle(scan, b);
+        List<FileWorkerResults> results = finder.scanCompleted(scan);
+
+        DuplicateSummaryResults summary = (DuplicateSummaryResults) results.get(0);
+        assertEquals("No groups", 1, results.size());
+        assertEquals("Unreadable", 1, summary.getUnreadable());
+    }
+
+    /**
+     * Scans running at the same time each report only their own duplicates, whichever finishes first.
+     */
+    @Test
+    public void testOverlappingScans() throws Exception {
+        byte[] contents = bytes(SIZE, 1);
+        Path a = write("a", contents);
+        Path b = write("b", contents);
+        Path c = write("c", contents);
+        Path d = write("d", bytes(SIZE, 2));
+        Path e = write("e", bytes(SIZE, 2));
+        ScanJob other = mock(ScanJob.class);
+
+        finder.scanStarted(scan);
+        finder.scanStarted(other);
+        handle(scan, a);
+        handle(other, d);
+        handle(scan, b);
+        handle(other, e);
+        handle(other, c);
+
+        List<FileWorkerResults> first = finder.scanCompleted(scan);
+        assertEquals("Group and summary", 2, first.size());
+        assertEquals("Own files only", Arrays.asList(a.toString(), b.toString()),
+                     ((DuplicateGroupResults) first.get(0)).getFiles());
+        assertEquals("Own count", 2, ((DuplicateSummaryResults) first.get(1)).getFiles());
+
+        List<FileWorkerResults> second = finder.scanCompleted(other);
+        assertEquals("Group and summary", 2, second.size());
+        assertEquals("Own files only", Arrays.asList(d.toString(), e.toString()),
+                     ((DuplicateGroupResults) second.get(0)).getFiles());
+        assertEquals("Own count", 3, ((DuplicateSummaryResults) second.get(1)).getFiles());
+
+        handle(scan, c);
+        assertEquals("Files after the scan finished are ignored", 0,
+                     ((DuplicateSummaryResults) finder.scanCompleted(scan).get(0)).getFiles());
+    }
+
+    /**
+     * Files handed over outside a scan are indexed together.
+     */
+    @Test
+    public void testNoScan() throws Exception {
+        byte[] contents = bytes(SIZE, 1);
+        finder.handle(write("a", contents));
+        finder.handle(write("b", contents));
+
+        assertEquals("Group and summary", 2, finder.scanCompleted(null).size());
+    }
+
+    private FileWorkerResults handle(ScanJob scanJob, Path path) throws Exception {
+        FileContext context = new FileContext(path);
+        context.setScanJob(scanJob);
+        try {
+            return finder.handle(context);
+        }
+        finally {
+            context.closeContent();
+        }
+    }
+
+    private Path write(String name, byte[] contents) throws Exception {
+        return Files.write(folder.getRoot().toPath().resolve(name), contents);
+    }
+
+    private static byte[] bytes(int size, int seed) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (i * 31 + seed);
+        }
+        return bytes;
+    }
+}
@@ -4,9 +4,12 @@ import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 
 import com.ddnconsulting.fileprocessor.core.FileClassifier;
+import com.ddnconsulting.fileprocessor.core.FileContext;
 import com.ddnconsulting.fileprocessor.workers.FileSizeWorker.FileSizeResults;
 import org.junit.Before;
 import org.junit.Test;
@@ -72,4 +75,41 @@ public class FileSizeWorkerTest {
         assertEquals("Error message", "Could not get size of file", results.getErrorMessage());
     }
 
-}
\ No newline at end of file
+    /**
+     * Size comes from the attributes in the context.  File system is not touched.
+     */
+    @Test
+    public void testHandleContext() throws Exception {
+        Path path = mock(Path.class);
+        BasicFileAttributes attributes = mock(BasicFileAttributes.class);
+
+        when(path.toString()).thenReturn("file-path");
+        when(attributes.size()).thenReturn(123L);
+
+        FileSizeResults results = (FileSizeResults) worker.handle(new FileContext(path, attributes));
+
+        assertEquals("Success", true, results.isSuccess());
+        assertEquals("File name", "file-path", results.getFilename());
+        assertEquals("Size", 123L, results.getSize());
+        verify(path, never()).toFile();
+    }
+
+    /**
+     * Test exception handling when attributes have to be read and can't be.
+     */
+    @Test
+    public void testHandleContextError() throws Exception {
+        FileContext context = mock(FileContext.class);
+        Path path = mock(Path.class);
+
+        when(context.getPath()).thenReturn(path);
+        when(path.toString()).thenReturn("file-path");
+        when(context.size()).thenThrow(new IOException("doh!"));
+
+        FileSizeResults results = (FileSizeResults) worker.handle(context);
+
+        assertEquals("Success", false, results.isSuccess());
+        assertEquals("File name", "file-path", results.getFilename());
+        assertEquals("Error message", "Could not get size of file", results.getErrorMessage());
+    }
+}
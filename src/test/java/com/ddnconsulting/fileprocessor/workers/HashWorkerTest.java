@@ -0,0 +1,89 @@
+package com.ddnconsulting.fileprocessor.workers;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.ddnconsulting.fileprocessor.core.FileClassifier;
+import com.ddnconsulting.fileprocessor.core.FileContext;
+import com.ddnconsulting.fileprocessor.hash.ContentHasher;
+import com.ddnconsulting.fileprocessor.workers.HashWorker.HashResults;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * JUnit test for HashWorker
+ */
+public class HashWorkerTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private ContentHasher hasher;
+    private HashWorker worker;
+
+    @Before
+    public void setUp() {
+        hasher = new ContentHasher(1024 * 1024 * 1024, 1024 * 1024, 1);
+        worker = new HashWorker(hasher);
+    }
+
+    @After
+    public void tearDown() {
+        hasher.close();
+    }
+
+    /**
+     * Test the canHandle method.  Works for any file type except directories and special files.  Only works for "hash"
+     * operation.
+     */
+    @Test
+    public void testCanHandle() throws Exception {
+        assertTrue("Can handle hash/text", worker.canHandle("hash", "text/plain"));
+        assertFalse("Can not handle hash/directory", worker.canHandle("hash", FileClassifier.FILE_TYPE_DIRECTORY));
+        assertFalse("Can not handle hash/special", worker.canHandle("hash", FileClassifier.FILE_TYPE_SPECIAL));
+        assertFalse("Can not handle sizeof/text", worker.canHandle("sizeof", "text/plain"));
+    }
+
+    @Test
+    public void testHandle() throws Exception {
+        Path file = folder.newFile("abc.txt").toPath();
+        Files.write(file, "abc".getBytes(StandardCharsets.US_ASCII));
+
+        HashResults results = (HashResults) worker.handle(file);
+
+        assertTrue("Success", results.isSuccess());
+        assertEquals("File name", file.toString(), results.getFilename());
+        assertEquals("Size", 3, results.getSize());
+        assertEquals("SHA-256", "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+                     results.getSha256());
+        assertEquals("xxHash64", "44bc2cf5ad770999", results.getXxHash64());
+        assertEquals("Whole file", 0, results.getChunkSize());
+    }
+
+    /**
+     * Test exception handling.  Use mocks.
+     */
+    @Test
+    public void testHandleUnreadable() throws Exception {
+        FileContext context = mock(FileContext.class);
+        Path path = mock(Path.class);
+        when(path.toString()).thenReturn("file-path");
+        when(context.getPath()).thenReturn(path);
+        when(context.getContent()).thenThrow(new IOException("Permission denied"));
+
+        HashResults results = (HashResults) worker.handle(context);
+
+        assertFalse("Failure", results.isSuccess());
+        assertEquals("Error", "Could not hash file: Permission denied", results.getErrorMessage());
+        verify(context, never()).size();
+        assertNull("No hash", results.getSha256());
+    }
+}
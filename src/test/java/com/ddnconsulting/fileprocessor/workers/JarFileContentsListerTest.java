@@ -1,27 +1,82 @@
 package com.ddnconsulting.fileprocessor.workers;
 
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.ddnconsulting.fileprocessor.workers.JarFileContentsLister.JarContentsResults;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 
 /**
- * TODO: If this was really production code and not a pre-interview coding assignment, I would implement this.
- * See FileSizeWorkerTest for example of how FileWorkers can be tested using mocks.
+ * JUnit test for JarFileContentsLister
  */
 public class JarFileContentsListerTest {
 
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private JarFileContentsLister lister;
+    private byte[] jar;
+
     @Before
     public void setUp() throws Exception {
-
+        lister = new JarFileContentsLister();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            zip.write("Manifest-Version: 1.0\n".getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("com/Example.class"));
+            zip.write(new byte[100]);
+            zip.closeEntry();
+        }
+        jar = bytes.toByteArray();
     }
 
     @Test
     public void testHandle() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("test.jar");
+        Files.write(file, jar);
+        lister.setDetails(true);
+
+        JarContentsResults results = (JarContentsResults) lister.handle(file);
 
+        assertTrue("Success", results.isSuccess());
+        assertEquals("Files", Arrays.asList("META-INF/MANIFEST.MF", "com/Example.class"), results.getFiles());
+        assertFalse("From central directory", results.isStreamed());
+        assertEquals("Size", 100, results.getEntries().get(1).getSize());
+        assertEquals("Method", ZipEntry.DEFLATED, results.getEntries().get(1).getMethod());
     }
 
+    /**
+     * Archive with its central directory cut off is listed by streaming through the entries.
+     */
     @Test
-    public void testCanHandle() throws Exception {
+    public void testDamagedArchiveStreamed() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("damaged.jar");
+        Files.write(file, Arrays.copyOf(jar, jar.length - 30));
+
+        JarContentsResults results = (JarContentsResults) lister.handle(file);
+
+        assertEquals("Files", Arrays.asList("META-INF/MANIFEST.MF", "com/Example.class"), results.getFiles());
+        assertTrue("Streamed", results.isStreamed());
+        assertNull("No details unless asked for", results.getEntries());
+    }
 
+    @Test
+    public void testCanHandle() throws Exception {
+        assertTrue("JAR listing", lister.canHandle("dir", "application/java-archive"));
+        assertFalse("Other types", lister.canHandle("dir", "text/plain"));
+        assertFalse("Other operations", lister.canHandle("sizeof", "application/java-archive"));
     }
-}
\ No newline at end of file
+}